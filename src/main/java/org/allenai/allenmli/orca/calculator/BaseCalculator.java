@@ -16,6 +16,7 @@
 
 package org.allenai.allenmli.orca.calculator;
 
+import org.allenai.allenmli.orca.data.ColumnDescriptor;
 import org.allenai.allenmli.orca.data.DataStore;
 import org.allenai.allenmli.orca.helpers.ConfigurationFileLoadException;
 import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
@@ -24,18 +25,17 @@ import org.scijava.log.StderrLogService;
 
 import java.io.FileNotFoundException;
 import java.lang.invoke.MethodHandle;
-import java.lang.invoke.MethodHandles;
-import java.lang.invoke.MethodType;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 import static java.lang.Math.sqrt;
 
 public abstract class BaseCalculator {
   protected final DataStore dataStore;
-  public HashMap<String, MethodHandle> measurement_funcs;
+  /** The measurement functions, shared by all instances of the calculator class. */
+  public final Map<String, MethodHandle> measurement_funcs;
+  protected final FunctionRegistry functionRegistry;
   protected CalculatorConfig measurement_dependencies;
   protected HashMap<String, ArrayList<String>> possible_measurements;
   Logger logger;
@@ -54,53 +54,23 @@ public abstract class BaseCalculator {
 
   /**
    * @param ds the <code>DataStore</code> that the Calculator will operate on.
-   * @throws ConfigurationFileLoadException when the configuration file is not present.
+   * @throws ConfigurationFileLoadException when the configuration file is not present or refers
+   *     to functions that are unknown or called with the wrong number of parameters, or has
+   *     formulas that read or write columns that don't hold doubles.
    */
   public BaseCalculator(DataStore ds) throws ConfigurationFileLoadException {
     logger = new StderrLogService();
     dataStore = ds;
-    loadMethods();
+    functionRegistry = FunctionRegistry.forClass(getClass());
+    measurement_funcs = functionRegistry.asMap();
     loadConfiguration();
   }
 
-  /**
-   * Prepare the measurement functions for execution.
-   *
-   * <p>Identify all static methods in the invoking class and build a MethodHandle for later
-   * execution.
-   *
-   * <p>Process:
-   *
-   * <ol>
-   *   <li>Extract all public static methods.
-   *   <li>For each static method resolve the name, defining class, return type, and parameter
-   *       types. (The signature)
-   *   <li>Via <code>MethodHandles.Lookup</code> instance find a method matching the signature and
-   *       save it in a hashmap.
-   * </ol>
-   */
-  private void loadMethods() {
-    final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
-    measurement_funcs = new HashMap<>();
-    for (final Method method : getClass().getMethods()) {
-      if (Modifier.isStatic(method.getModifiers())) {
-        final MethodType methodType =
-            MethodType.methodType(method.getReturnType(), method.getParameterTypes());
-        try {
-          final MethodHandle mh =
-              lookup.findStatic(method.getDeclaringClass(), method.getName(), methodType);
-          measurement_funcs.put(method.getName(), mh);
-        } catch (final NoSuchMethodException | IllegalAccessException e) {
-          logger.error(e);
-        }
-      }
-    }
-  }
-
   /**
    * Build the lookup tables that make the measurement manager work.
    *
-   * <p>Responsible for triggering the load of the configuration.
+   * <p>Responsible for triggering the load of the configuration and verifying it against the
+   * available measurement functions.
    *
    * <p>The possible_measurements table is used to map a parameter back to the measurements that it
    * contributes to.
@@ -110,6 +80,8 @@ public abstract class BaseCalculator {
   private void loadConfiguration() throws ConfigurationFileLoadException {
     measurement_dependencies =
         new CalculatorConfig(ConfigurationLoader.getFullConfigPath(getConfigurationFile()));
+    functionRegistry.validate(
+        measurement_dependencies, getConfigurationFile(), this::isFloatColumn);
     possible_measurements = new HashMap<>();
     for (final CalculatorConfigItem item : measurement_dependencies.values()) {
       for (final Object raw_parameter : item.parameters) {
@@ -125,6 +97,12 @@ public abstract class BaseCalculator {
     }
   }
 
+  /** @return true if the column is declared in CSV-Columns.csv with units holding doubles. */
+  private boolean isFloatColumn(String column) {
+    final ColumnDescriptor descriptor = dataStore.descriptors.get(column);
+    return null != descriptor && Double.class == dataStore.UNIT_CLASSES.get(descriptor.units);
+  }
+
   /** @return The name of the configuration file required for this calculator. */
   protected abstract String getConfigurationFile();
 
@@ -228,9 +206,12 @@ public abstract class BaseCalculator {
       throw err;
     }
     final CalculatorConfigItem measurement_def = measurement_dependencies.get(measure);
+    if (null != measurement_def.formula) {
+      return measurement_def.formula.evaluate(gatherArguments(title, measurement_def));
+    }
     final String function = measurement_def.function;
 
-    if (!measurement_funcs.containsKey(function)) {
+    if (!functionRegistry.contains(function)) {
       final String message = "'" + function + "' is not a known function";
       final IllegalArgumentException err = new IllegalArgumentException(message);
       logger.error(err);
@@ -241,7 +222,7 @@ public abstract class BaseCalculator {
     final Object[] arguments = gatherArguments(title, measurement_def);
 
     // Execution
-    final MethodHandle mh = measurement_funcs.get(function);
+    final MethodHandle mh = functionRegistry.get(function);
     Object measurement_result = null;
     try {
       measurement_result = mh.invokeWithArguments(arguments);
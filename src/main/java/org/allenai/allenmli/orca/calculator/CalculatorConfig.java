@@ -55,11 +55,27 @@ public class CalculatorConfig extends HashMap<String, CalculatorConfigItem> {
   /**
    * Convert the JSON representation to a collection of <code>CalculatorConfigItem</code>s.
    *
+   * <p>Items with a <code>formula</code> entry are parsed and compiled here instead of naming a
+   * function and its parameters.
+   *
    * @param loaded_items the loaded configuration in hash of hashs form.
+   * @throws ConfigurationFileLoadException if a formula can't be parsed.
    */
-  private void process_configuration(Object[] loaded_items) {
+  private void process_configuration(Object[] loaded_items)
+      throws ConfigurationFileLoadException {
     for (final Object raw_item : loaded_items) {
       final JsonObject<String, Object> json_item = (JsonObject<String, Object>) raw_item;
+      if (json_item.containsKey("formula")) {
+        final String target = (String) json_item.get("target");
+        try {
+          final Formula formula = Formula.parse((String) json_item.get("formula"));
+          put(target, new CalculatorConfigItem(target, formula));
+        } catch (final IllegalArgumentException e) {
+          throw new ConfigurationFileLoadException(
+              String.format("'%s' has an invalid formula: %s", target, e.getMessage()), e);
+        }
+        continue;
+      }
       final int nParameters = ((Object[]) json_item.get("parameters")).length;
       final Object[] parameters = new Object[nParameters];
       for (int i = 0; i < nParameters; i++) {
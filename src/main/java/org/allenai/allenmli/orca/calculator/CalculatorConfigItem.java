@@ -20,11 +20,28 @@ public class CalculatorConfigItem {
   public String target;
   public Object[] parameters;
   public String function;
+  /** The compiled formula for items defined by one, null otherwise. */
+  public final Formula formula;
 
   public CalculatorConfigItem(String target, Object[] parameters, String function) {
     this.target = target;
     this.parameters = parameters;
     this.function = function;
+    this.formula = null;
+  }
+
+  /**
+   * Create an item whose measurement is computed by a formula. The formula's variables become the
+   * item's parameters.
+   *
+   * @param target the measurement name.
+   * @param formula the compiled formula.
+   */
+  public CalculatorConfigItem(String target, Formula formula) {
+    this.target = target;
+    this.parameters = formula.variables();
+    this.function = Formula.FUNCTION_NAME;
+    this.formula = formula;
   }
 
   /**
@@ -59,6 +76,10 @@ public class CalculatorConfigItem {
       parameterString.append(parameter.toString());
     }
     parameterString.append("]");
+    if (null != formula) {
+      return String.format(
+          "{target: %s, parameters: %s, formula: %s}", target, parameterString.toString(), formula);
+    }
     return String.format(
         "{target: %s, parameters: %s, function: %s}", target, parameterString.toString(), function);
   }
@@ -0,0 +1,29 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.NumericColumn;
+
+/** A measurement function evaluated over whole columns rather than a single row. */
+@FunctionalInterface
+public interface ColumnFunction {
+  /**
+   * @param arguments one column per parameter of the measurement, all the same size.
+   * @return the measured column.
+   */
+  NumericColumn apply(NumericColumn... arguments);
+}
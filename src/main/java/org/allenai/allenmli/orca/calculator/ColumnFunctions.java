@@ -0,0 +1,125 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.NumericColumn;
+
+/**
+ * Column-wise counterparts of the measurement functions in <code>BaseCalculator</code>.
+ *
+ * <p>Each function produces exactly the values the per-row function of the same name would produce
+ * for every row, with a row missing from the result whenever any of its inputs is missing. The
+ * loops work on primitive arrays only and combine masks with non short-circuit operators so the JIT
+ * can unroll and vectorize them.
+ */
+public final class ColumnFunctions {
+  private ColumnFunctions() {}
+
+  /**
+   * Column-wise {@link BaseCalculator#length(Number, Number, Number, Number)}.
+   *
+   * @param x_start the x coordinates for the start of the lines
+   * @param y_start the y coordinates for the start of the lines
+   * @param x_end the x coordinates for the end of the lines
+   * @param y_end the y coordinates for the end of the lines
+   * @return the Euclidean distances.
+   */
+  public static NumericColumn length(
+      NumericColumn x_start, NumericColumn y_start, NumericColumn x_end, NumericColumn y_end) {
+    final int n = x_start.size();
+    final double[] xs = x_start.values;
+    final double[] ys = y_start.values;
+    final double[] xe = x_end.values;
+    final double[] ye = y_end.values;
+    final double[] result = new double[n];
+    for (int i = 0; i < n; i++) {
+      final double delta_x = xs[i] - xe[i];
+      final double delta_y = ys[i] - ye[i];
+      result[i] = Math.sqrt(delta_x * delta_x + delta_y * delta_y);
+    }
+    return new NumericColumn(
+        result, and(x_start.present, y_start.present, x_end.present, y_end.present));
+  }
+
+  /**
+   * Column-wise {@link BaseCalculator#copy(Object)}. Columns are immutable so the source is
+   * returned as is.
+   *
+   * @param source the source column
+   * @return source.
+   */
+  public static NumericColumn copy(NumericColumn source) {
+    return source;
+  }
+
+  /**
+   * Column-wise {@link BaseCalculator#ratio(Double, Double)}.
+   *
+   * @param antecedent the numerators
+   * @param consequent the denominators
+   * @return the ratios.
+   */
+  public static NumericColumn ratio(NumericColumn antecedent, NumericColumn consequent) {
+    final int n = antecedent.size();
+    final double[] a = antecedent.values;
+    final double[] c = consequent.values;
+    final double[] result = new double[n];
+    for (int i = 0; i < n; i++) {
+      result[i] = a[i] / c[i];
+    }
+    return new NumericColumn(result, and(antecedent.present, consequent.present));
+  }
+
+  /**
+   * Column-wise {@link BaseCalculator#parametric_point(Double, Double, Double)}.
+   *
+   * @param start the starting values
+   * @param end the ending values
+   * @param distance the interpolation distances
+   * @return the interpolated values.
+   */
+  public static NumericColumn parametric_point(
+      NumericColumn start, NumericColumn end, NumericColumn distance) {
+    final int n = start.size();
+    final double[] s = start.values;
+    final double[] e = end.values;
+    final double[] d = distance.values;
+    final double[] result = new double[n];
+    for (int i = 0; i < n; i++) {
+      result[i] = s[i] + (e[i] - s[i]) * d[i];
+    }
+    return new NumericColumn(result, and(start.present, end.present, distance.present));
+  }
+
+  /**
+   * Combine presence masks.
+   *
+   * @param masks masks of equal length.
+   * @return a mask that is true where all of the masks are true.
+   */
+  static boolean[] and(boolean[]... masks) {
+    final int n = masks[0].length;
+    final boolean[] result = masks[0].clone();
+    for (int m = 1; m < masks.length; m++) {
+      final boolean[] mask = masks[m];
+      for (int i = 0; i < n; i++) {
+        result[i] &= mask[i];
+      }
+    }
+    return result;
+  }
+}
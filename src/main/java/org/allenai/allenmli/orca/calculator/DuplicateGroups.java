@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Groups frames whose perceptual hashes are within a distance of each other.
+ *
+ * <p>The hashes are held in a BK-tree so each frame only compares itself with the few frames that
+ * can be in reach, instead of with every other frame. Frames are taken in order of preference and
+ * each frame not grouped yet keeps the frames within reach of it that aren't grouped either, so a
+ * duplicate is always within the distance of the frame kept in its place. A chain of frames that
+ * each differ a little from the next isn't merged into one group.
+ */
+public final class DuplicateGroups {
+  /** Default number of differing bits for frames to count as duplicates. */
+  public static final int DEFAULT_DISTANCE = 8;
+
+  private DuplicateGroups() {}
+
+  /** BK-tree node, holding every frame with one hash. */
+  private static final class Node {
+    final long hash;
+    final ArrayList<String> frames = new ArrayList<>();
+    /** Children keyed by their distance from this node. */
+    final Node[] children = new Node[Long.SIZE + 1];
+
+    Node(long hash) {
+      this.hash = hash;
+    }
+  }
+
+  private static Node insert(Node root, long hash, String frame) {
+    if (null == root) {
+      root = new Node(hash);
+      root.frames.add(frame);
+      return root;
+    }
+    Node node = root;
+    while (true) {
+      final int d = PerceptualHash.distance(node.hash, hash);
+      if (0 == d) {
+        node.frames.add(frame);
+        return root;
+      }
+      if (null == node.children[d]) {
+        node.children[d] = new Node(hash);
+        node.children[d].frames.add(frame);
+        return root;
+      }
+      node = node.children[d];
+    }
+  }
+
+  private static void query(Node node, long hash, int max_distance, Consumer<Node> found) {
+    final ArrayList<Node> pending = new ArrayList<>();
+    pending.add(node);
+    while (!pending.isEmpty()) {
+      final Node next = pending.remove(pending.size() - 1);
+      final int d = PerceptualHash.distance(next.hash, hash);
+      if (d <= max_distance) {
+        found.accept(next);
+      }
+      final int low = Math.max(1, d - max_distance);
+      final int high = Math.min(Long.SIZE, d + max_distance);
+      for (int i = low; i <= high; i++) {
+        if (null != next.children[i]) {
+          pending.add(next.children[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Group near-duplicate frames and pick the frame to keep from each group.
+   *
+   * @param hashes perceptual hashes keyed by frame.
+   * @param max_distance the most bits two frames may differ by to be duplicates.
+   * @param preference orders the frames, preferred frames are kept in place of their duplicates.
+   * @return the frame kept in place of each duplicate, keyed by duplicate. Kept frames and frames
+   *     without a duplicate are absent.
+   */
+  public static Map<String, String> group(
+      Map<String, Long> hashes, int max_distance, Comparator<String> preference) {
+    Node root = null;
+    for (final Map.Entry<String, Long> entry : hashes.entrySet()) {
+      root = insert(root, entry.getValue(), entry.getKey());
+    }
+    final HashMap<String, String> kept = new HashMap<>();
+    if (null == root) {
+      return kept;
+    }
+    final ArrayList<String> frames = new ArrayList<>(hashes.keySet());
+    frames.sort(preference.thenComparing(Comparator.naturalOrder()));
+    final HashSet<String> grouped = new HashSet<>();
+    for (final String leader : frames) {
+      if (!grouped.add(leader)) {
+        continue;
+      }
+      query(
+          root,
+          hashes.get(leader),
+          max_distance,
+          node -> {
+            for (final String other : node.frames) {
+              if (grouped.add(other)) {
+                kept.put(other, leader);
+              }
+            }
+          });
+    }
+    return kept;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.Point;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Moves a point to the strongest edge nearby, used to refine landmarks placed by hand.
+ *
+ * <p>Edge strength is the Sobel gradient magnitude. It is computed a tile at a time, when a tile
+ * is first searched, and the most recently used tiles are kept so that repeated snapping around
+ * the same part of a frame doesn't revisit its pixels. Instances are not thread safe.
+ */
+public final class EdgeSnapper {
+  /** Width and height of a tile in pixels. */
+  static final int TILE = 64;
+  /** Number of tiles kept, enough to cover a 512 pixel square. */
+  private static final int CACHED_TILES = 64;
+
+  private final WidthExtractor.Image image;
+  private final int width;
+  private final int height;
+  private final LinkedHashMap<Long, float[]> tiles =
+      new LinkedHashMap<Long, float[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+          return size() > CACHED_TILES;
+        }
+      };
+
+  /**
+   * @param image the pixels of the frame.
+   * @param width the width of the frame.
+   * @param height the height of the frame.
+   */
+  public EdgeSnapper(WidthExtractor.Image image, int width, int height) {
+    this.image = image;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * @param x the column, within the frame.
+   * @param y the row, within the frame.
+   * @return the gradient magnitude at the pixel.
+   */
+  double magnitude(int x, int y) {
+    final int tx = x / TILE;
+    final int ty = y / TILE;
+    final float[] tile = tiles.computeIfAbsent(((long) ty << 32) | tx, k -> tile(tx, ty));
+    return tile[(y - ty * TILE) * TILE + x - tx * TILE];
+  }
+
+  private float[] tile(int tx, int ty) {
+    final float[] tile = new float[TILE * TILE];
+    final int x0 = tx * TILE;
+    final int y0 = ty * TILE;
+    final int x1 = Math.min(width, x0 + TILE);
+    final int y1 = Math.min(height, y0 + TILE);
+    // Pixels of the tile plus a one pixel border, clamped to the frame.
+    final int span = x1 - x0 + 2;
+    final double[] pixels = new double[span * (y1 - y0 + 2)];
+    for (int y = y0 - 1; y <= y1; y++) {
+      final int row = Math.min(height - 1, Math.max(0, y));
+      for (int x = x0 - 1; x <= x1; x++) {
+        final int column = Math.min(width - 1, Math.max(0, x));
+        pixels[(y - y0 + 1) * span + x - x0 + 1] = image.value(column, row);
+      }
+    }
+    for (int y = 1; y < y1 - y0 + 1; y++) {
+      for (int x = 1; x < span - 1; x++) {
+        final int i = y * span + x;
+        final double gx =
+            pixels[i - span + 1] + 2 * pixels[i + 1] + pixels[i + span + 1]
+                - pixels[i - span - 1] - 2 * pixels[i - 1] - pixels[i + span - 1];
+        final double gy =
+            pixels[i + span - 1] + 2 * pixels[i + span] + pixels[i + span + 1]
+                - pixels[i - span - 1] - 2 * pixels[i - span] - pixels[i - span + 1];
+        tile[(y - 1) * TILE + x - 1] = (float) Math.sqrt(gx * gx + gy * gy);
+      }
+    }
+    return tile;
+  }
+
+  /**
+   * Find the strongest edge within a radius of a point.
+   *
+   * <p>Ties go to the pixel nearest the point. The location is refined to a fraction of a pixel by
+   * fitting a parabola through the gradient magnitude in each direction.
+   *
+   * @param x the x coordinate of the point.
+   * @param y the y coordinate of the point.
+   * @param radius the search radius in pixels.
+   * @return the location of the edge, the point itself if it is outside the frame or there is no
+   *     edge within the radius.
+   */
+  public Point snap(double x, double y, int radius) {
+    final int cx = (int) Math.round(x);
+    final int cy = (int) Math.round(y);
+    if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+      return new Point(x, y);
+    }
+    double best = 0;
+    int best_distance = Integer.MAX_VALUE;
+    int bx = cx;
+    int by = cy;
+    for (int py = Math.max(0, cy - radius); py <= Math.min(height - 1, cy + radius); py++) {
+      for (int px = Math.max(0, cx - radius); px <= Math.min(width - 1, cx + radius); px++) {
+        final int distance = (px - cx) * (px - cx) + (py - cy) * (py - cy);
+        if (distance > radius * radius) {
+          continue;
+        }
+        final double m = magnitude(px, py);
+        if (m > best || (m == best && m > 0 && distance < best_distance)) {
+          best = m;
+          best_distance = distance;
+          bx = px;
+          by = py;
+        }
+      }
+    }
+    if (0 == best) {
+      return new Point(x, y);
+    }
+    final double dx =
+        bx > 0 && bx < width - 1 ? peak(magnitude(bx - 1, by), best, magnitude(bx + 1, by)) : 0;
+    final double dy =
+        by > 0 && by < height - 1 ? peak(magnitude(bx, by - 1), best, magnitude(bx, by + 1)) : 0;
+    return new Point(bx + dx, by + dy);
+  }
+
+  /** @return the offset of the vertex of the parabola through three samples, at most 0.5. */
+  private static double peak(double a, double b, double c) {
+    final double curvature = a - 2 * b + c;
+    return curvature < 0 ? Math.max(-0.5, Math.min(0.5, 0.5 * (a - c) / curvature)) : 0;
+  }
+}
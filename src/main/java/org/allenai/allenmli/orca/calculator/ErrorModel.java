@@ -0,0 +1,128 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.regex.Pattern;
+
+/**
+ * The measurement error of the columns matching a name pattern.
+ *
+ * <p>The pattern is a column name where <code>*</code> matches any run of characters, so <code>
+ * *_x</code> covers the x coordinate of every point.
+ */
+public final class ErrorModel {
+  /** The shape of the error distribution. */
+  public enum Kind {
+    /** Gaussian error, <code>value</code> is the standard deviation. */
+    NORMAL,
+    /** Gaussian error, <code>value</code> is the standard deviation as a fraction of the value. */
+    RELATIVE,
+    /** Uniform error, <code>value</code> is the half width. */
+    UNIFORM
+  }
+
+  /** The column name pattern. */
+  public final String column;
+
+  public final Kind kind;
+  public final double value;
+
+  private final Pattern pattern;
+
+  /**
+   * @param column the column name pattern.
+   * @param kind the shape of the error distribution.
+   * @param value the size of the error, see {@link Kind}.
+   * @throws IllegalArgumentException if <code>value</code> is negative.
+   */
+  public ErrorModel(String column, Kind kind, double value) {
+    if (!(value >= 0)) {
+      throw new IllegalArgumentException(
+          String.format("'%s' has an error of %s, expected a non-negative value", column, value));
+    }
+    this.column = column;
+    this.kind = kind;
+    this.value = value;
+    final String[] parts = column.split("\\*", -1);
+    final StringBuilder regex = new StringBuilder(Pattern.quote(parts[0]));
+    for (int i = 1; i < parts.length; i++) {
+      regex.append(".*").append(Pattern.quote(parts[i]));
+    }
+    pattern = Pattern.compile(regex.toString());
+  }
+
+  /**
+   * @param name the model name used in the configuration file.
+   * @return the matching kind.
+   * @throws IllegalArgumentException if there is no such kind.
+   */
+  public static Kind kindOf(String name) {
+    return Kind.valueOf(name.toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * @param name a column name.
+   * @return true if the model applies to the column.
+   */
+  public boolean matches(String name) {
+    return pattern.matcher(name).matches();
+  }
+
+  /**
+   * Fill a range with independently perturbed copies of a value.
+   *
+   * <p>Gaussian errors are drawn in pairs with the polar method, which <code>SplittableRandom
+   * </code> lacks.
+   *
+   * @param measured the measured value.
+   * @param into receives the perturbed values.
+   * @param from the first index to fill.
+   * @param to one past the last index to fill.
+   * @param random the random number source.
+   */
+  public void perturb(double measured, double[] into, int from, int to, SplittableRandom random) {
+    if (Kind.UNIFORM == kind) {
+      for (int i = from; i < to; i++) {
+        into[i] = measured + value * (2.0 * random.nextDouble() - 1.0);
+      }
+      return;
+    }
+    final double deviation = Kind.RELATIVE == kind ? Math.abs(measured) * value : value;
+    for (int i = from; i < to; i += 2) {
+      double u;
+      double v;
+      double s;
+      do {
+        u = 2.0 * random.nextDouble() - 1.0;
+        v = 2.0 * random.nextDouble() - 1.0;
+        s = u * u + v * v;
+      } while (s >= 1.0 || 0.0 == s);
+      final double scale = deviation * Math.sqrt(-2.0 * Math.log(s) / s);
+      into[i] = measured + u * scale;
+      if (i + 1 < to) {
+        into[i + 1] = measured + v * scale;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s %s", column, kind.toString().toLowerCase(Locale.ROOT), value);
+  }
+}
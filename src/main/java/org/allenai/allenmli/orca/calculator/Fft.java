@@ -0,0 +1,121 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+/**
+ * In-place radix-2 fast Fourier transform of complex data held as separate real and imaginary
+ * arrays.
+ *
+ * <p>The twiddle factors and bit reversal table are computed once for a given size, so an instance
+ * can be shared by threads transforming different arrays.
+ */
+final class Fft {
+  private final int n;
+  private final double[] cos;
+  private final double[] sin;
+  private final int[] reversed;
+
+  /** @param n the number of points, a power of two. */
+  Fft(int n) {
+    if (n < 2 || 0 != (n & (n - 1))) {
+      throw new IllegalArgumentException(String.format("%d is not a power of two", n));
+    }
+    this.n = n;
+    cos = new double[n / 2];
+    sin = new double[n / 2];
+    for (int k = 0; k < n / 2; k++) {
+      cos[k] = Math.cos(2 * Math.PI * k / n);
+      sin[k] = Math.sin(2 * Math.PI * k / n);
+    }
+    reversed = new int[n];
+    final int bits = Integer.numberOfTrailingZeros(n);
+    for (int i = 0; i < n; i++) {
+      reversed[i] = Integer.reverse(i) >>> (32 - bits);
+    }
+  }
+
+  /** @return the number of points. */
+  int size() {
+    return n;
+  }
+
+  /**
+   * Transform <code>n</code> points spaced <code>stride</code> apart.
+   *
+   * @param re the real parts.
+   * @param im the imaginary parts.
+   * @param offset the index of the first point.
+   * @param stride the distance between points.
+   * @param inverse true for the inverse transform, which is scaled by <code>1 / n</code>.
+   */
+  void transform(double[] re, double[] im, int offset, int stride, boolean inverse) {
+    for (int i = 0; i < n; i++) {
+      final int j = reversed[i];
+      if (i < j) {
+        final int a = offset + i * stride;
+        final int b = offset + j * stride;
+        final double r = re[a];
+        re[a] = re[b];
+        re[b] = r;
+        final double m = im[a];
+        im[a] = im[b];
+        im[b] = m;
+      }
+    }
+    final double sign = inverse ? 1 : -1;
+    for (int size = 2; size <= n; size *= 2) {
+      final int half = size / 2;
+      final int step = n / size;
+      for (int start = 0; start < n; start += size) {
+        for (int k = 0; k < half; k++) {
+          final double wr = cos[k * step];
+          final double wi = sign * sin[k * step];
+          final int a = offset + (start + k) * stride;
+          final int b = a + half * stride;
+          final double tr = wr * re[b] - wi * im[b];
+          final double ti = wr * im[b] + wi * re[b];
+          re[b] = re[a] - tr;
+          im[b] = im[a] - ti;
+          re[a] += tr;
+          im[a] += ti;
+        }
+      }
+    }
+    if (inverse) {
+      for (int i = 0; i < n; i++) {
+        re[offset + i * stride] /= n;
+        im[offset + i * stride] /= n;
+      }
+    }
+  }
+
+  /**
+   * Transform an <code>n</code> by <code>n</code> array stored by row.
+   *
+   * @param re the real parts.
+   * @param im the imaginary parts.
+   * @param inverse true for the inverse transform.
+   */
+  void transform2d(double[] re, double[] im, boolean inverse) {
+    for (int row = 0; row < n; row++) {
+      transform(re, im, row * n, 1, inverse);
+    }
+    for (int column = 0; column < n; column++) {
+      transform(re, im, column, n, inverse);
+    }
+  }
+}
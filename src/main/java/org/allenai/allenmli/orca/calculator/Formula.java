@@ -0,0 +1,712 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.NumericColumn;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * An arithmetic expression over column names, used for measurements defined with a
+ * <code>formula</code> instead of a <code>function</code>.
+ *
+ * <p>Formulas support <code>+ - * / ^</code>, unary minus, parentheses, numeric literals and the
+ * functions <code>sqrt, abs, exp, log, min, max, pow</code>. Column names that are not plain
+ * identifiers, e.g. <code>[REF BOTTOM]</code> or <code>[100%]</code>, are written in brackets.
+ *
+ * <p><code>trapezoid(h, y0, ..., yn)</code> and <code>simpson(h, y0, ..., yn)</code> integrate
+ * samples taken at a spacing of <code>h</code> with the trapezoid rule and Simpson's rule;
+ * Simpson's rule needs an odd number of samples.
+ *
+ * <p>A formula is parsed once and compiled twice: into a MethodHandle tree over primitive doubles
+ * for per-row measurement, and into a tree of array loops for column-wise evaluation. Like the
+ * built-in functions, the result is missing when any referenced column is missing.
+ */
+public final class Formula {
+  /** The function name recorded on configuration items defined by a formula. */
+  public static final String FUNCTION_NAME = "formula";
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+  private static final MethodType UNARY = MethodType.methodType(double.class, double.class);
+  private static final MethodType BINARY =
+      MethodType.methodType(double.class, double.class, double.class);
+  private static final MethodType ROW = MethodType.methodType(double.class, double[].class);
+  private static final String TRAPEZOID = "trapezoid";
+  private static final String SIMPSON = "simpson";
+
+  private final String source;
+  private final String[] variables;
+  private final Node root;
+  private final MethodHandle row_evaluator;
+
+  private Formula(String source, String[] variables, Node root) {
+    this.source = source;
+    this.variables = variables;
+    this.root = root;
+    this.row_evaluator = root.compile();
+  }
+
+  /**
+   * Parse and compile a formula.
+   *
+   * @param source the formula text.
+   * @return the compiled formula.
+   * @throws IllegalArgumentException if the formula can't be parsed.
+   */
+  public static Formula parse(String source) {
+    final Parser parser = new Parser(source);
+    final Node root = parser.parse();
+    return new Formula(source, parser.variables.keySet().toArray(new String[0]), root);
+  }
+
+  /** @return the formula text. */
+  public String getSource() {
+    return source;
+  }
+
+  /** @return the columns referenced by the formula, in order of first appearance. */
+  public String[] variables() {
+    return variables.clone();
+  }
+
+  /**
+   * Evaluate the formula for one row.
+   *
+   * @param arguments one value per variable.
+   * @return the result, null if any argument is not a number.
+   */
+  public Double evaluate(Object... arguments) {
+    final double[] values = new double[variables.length];
+    for (int i = 0; i < values.length; i++) {
+      if (!(arguments[i] instanceof Number)) {
+        return null;
+      }
+      values[i] = ((Number) arguments[i]).doubleValue();
+    }
+    return evaluate(values);
+  }
+
+  /**
+   * Evaluate the formula for one row.
+   *
+   * @param arguments one value per variable.
+   * @return the result.
+   */
+  public double evaluate(double[] arguments) {
+    try {
+      return (double) row_evaluator.invokeExact(arguments);
+    } catch (final RuntimeException | Error e) {
+      throw e;
+    } catch (final Throwable throwable) {
+      throw new IllegalStateException(throwable);
+    }
+  }
+
+  /**
+   * Evaluate the formula over whole columns.
+   *
+   * @param arguments one column per variable.
+   * @return the result column.
+   */
+  public NumericColumn evaluateColumns(NumericColumn... arguments) {
+    final int n = arguments.length > 0 ? arguments[0].size() : 0;
+    final double[][] columns = new double[arguments.length][];
+    final boolean[][] masks = new boolean[arguments.length][];
+    for (int i = 0; i < arguments.length; i++) {
+      columns[i] = arguments[i].values;
+      masks[i] = arguments[i].present;
+    }
+    final boolean[] present = 0 == masks.length ? constantMask(n) : ColumnFunctions.and(masks);
+    return new NumericColumn(root.evaluate(columns, n), present);
+  }
+
+  private static boolean[] constantMask(int n) {
+    final boolean[] mask = new boolean[n];
+    Arrays.fill(mask, true);
+    return mask;
+  }
+
+  @Override
+  public String toString() {
+    return source;
+  }
+
+  private static MethodHandle find(Class<?> owner, String name, MethodType type) {
+    try {
+      return LOOKUP.findStatic(owner, name, type);
+    } catch (final NoSuchMethodException | IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static double add(double a, double b) {
+    return a + b;
+  }
+
+  static double subtract(double a, double b) {
+    return a - b;
+  }
+
+  static double multiply(double a, double b) {
+    return a * b;
+  }
+
+  static double divide(double a, double b) {
+    return a / b;
+  }
+
+  static double negate(double a) {
+    return -a;
+  }
+
+  /** A node of the parsed expression. */
+  private interface Node {
+    /** @return a handle of type <code>(double[])double</code> evaluating the node for one row. */
+    MethodHandle compile();
+
+    /**
+     * @param columns the variable columns.
+     * @param n the number of rows.
+     * @return the node's value for every row. Must not be modified by the caller.
+     */
+    double[] evaluate(double[][] columns, int n);
+  }
+
+  private static final class Constant implements Node {
+    final double value;
+
+    Constant(double value) {
+      this.value = value;
+    }
+
+    @Override
+    public MethodHandle compile() {
+      return MethodHandles.dropArguments(
+          MethodHandles.constant(double.class, value), 0, double[].class);
+    }
+
+    @Override
+    public double[] evaluate(double[][] columns, int n) {
+      final double[] result = new double[n];
+      Arrays.fill(result, value);
+      return result;
+    }
+  }
+
+  private static final class Variable implements Node {
+    final int index;
+
+    Variable(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public MethodHandle compile() {
+      return MethodHandles.insertArguments(
+          MethodHandles.arrayElementGetter(double[].class), 1, index);
+    }
+
+    @Override
+    public double[] evaluate(double[][] columns, int n) {
+      return columns[index];
+    }
+  }
+
+  /** The operators and functions, each with a row handle and a column loop. */
+  private enum Operator {
+    ADD("+", 2) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        final double[] b = in[1];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = a[i] + b[i];
+        }
+      }
+    },
+    SUBTRACT("-", 2) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        final double[] b = in[1];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = a[i] - b[i];
+        }
+      }
+    },
+    MULTIPLY("*", 2) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        final double[] b = in[1];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = a[i] * b[i];
+        }
+      }
+    },
+    DIVIDE("/", 2) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        final double[] b = in[1];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = a[i] / b[i];
+        }
+      }
+    },
+    NEGATE("negate", 1) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = -a[i];
+        }
+      }
+    },
+    SQRT("sqrt", 1) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = Math.sqrt(a[i]);
+        }
+      }
+    },
+    ABS("abs", 1) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = Math.abs(a[i]);
+        }
+      }
+    },
+    EXP("exp", 1) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = Math.exp(a[i]);
+        }
+      }
+    },
+    LOG("log", 1) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = Math.log(a[i]);
+        }
+      }
+    },
+    MIN("min", 2) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        final double[] b = in[1];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = Math.min(a[i], b[i]);
+        }
+      }
+    },
+    MAX("max", 2) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        final double[] b = in[1];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = Math.max(a[i], b[i]);
+        }
+      }
+    },
+    POW("pow", 2) {
+      @Override
+      void apply(double[][] in, double[] out) {
+        final double[] a = in[0];
+        final double[] b = in[1];
+        for (int i = 0; i < out.length; i++) {
+          out[i] = Math.pow(a[i], b[i]);
+        }
+      }
+    };
+
+    final String symbol;
+    final int arity;
+    final MethodHandle handle;
+
+    Operator(String symbol, int arity) {
+      this.symbol = symbol;
+      this.arity = arity;
+      final MethodType type = 1 == arity ? UNARY : BINARY;
+      switch (symbol) {
+        case "+":
+          handle = find(Formula.class, "add", type);
+          break;
+        case "-":
+          handle = find(Formula.class, "subtract", type);
+          break;
+        case "*":
+          handle = find(Formula.class, "multiply", type);
+          break;
+        case "/":
+          handle = find(Formula.class, "divide", type);
+          break;
+        case "negate":
+          handle = find(Formula.class, "negate", type);
+          break;
+        default:
+          handle = find(Math.class, symbol, type);
+      }
+    }
+
+    /**
+     * Apply the operator element-wise.
+     *
+     * @param in one array per operand.
+     * @param out receives the results.
+     */
+    abstract void apply(double[][] in, double[] out);
+
+    static Operator function(String name) {
+      for (final Operator operator : values()) {
+        if (NEGATE != operator
+            && operator.symbol.equals(name)
+            && Character.isLetter(name.charAt(0))) {
+          return operator;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final class Apply implements Node {
+    final Operator operator;
+    final Node[] operands;
+
+    Apply(Operator operator, Node... operands) {
+      this.operator = operator;
+      this.operands = operands;
+    }
+
+    @Override
+    public MethodHandle compile() {
+      final MethodHandle[] filters = new MethodHandle[operands.length];
+      for (int i = 0; i < operands.length; i++) {
+        filters[i] = operands[i].compile();
+      }
+      // (double[], ..., double[])double, then collapse to a single shared double[] argument.
+      final MethodHandle spread = MethodHandles.filterArguments(operator.handle, 0, filters);
+      return MethodHandles.permuteArguments(spread, ROW, new int[operands.length]);
+    }
+
+    @Override
+    public double[] evaluate(double[][] columns, int n) {
+      final double[][] in = new double[operands.length][];
+      for (int i = 0; i < operands.length; i++) {
+        in[i] = operands[i].evaluate(columns, n);
+      }
+      final double[] out = new double[n];
+      operator.apply(in, out);
+      return out;
+    }
+
+    /** @return a constant node when every operand is constant, this node otherwise. */
+    Node fold() {
+      final double[][] in = new double[operands.length][];
+      for (int i = 0; i < operands.length; i++) {
+        if (!(operands[i] instanceof Constant)) {
+          return this;
+        }
+        in[i] = new double[] {((Constant) operands[i]).value};
+      }
+      final double[] out = new double[1];
+      operator.apply(in, out);
+      return new Constant(out[0]);
+    }
+  }
+
+  /**
+   * A weighted sum of any number of operands, used for the integration rules.
+   *
+   * <p>Rows are evaluated by the equivalent tree of binary operations, columns in a single pass.
+   */
+  private static final class WeightedSum implements Node {
+    final double[] weights;
+    final Node[] operands;
+
+    WeightedSum(double[] weights, Node[] operands) {
+      this.weights = weights;
+      this.operands = operands;
+    }
+
+    @Override
+    public MethodHandle compile() {
+      Node sum = null;
+      for (int i = 0; i < operands.length; i++) {
+        final Node term = new Apply(Operator.MULTIPLY, new Constant(weights[i]), operands[i]);
+        sum = null == sum ? term : new Apply(Operator.ADD, sum, term);
+      }
+      return sum.compile();
+    }
+
+    @Override
+    public double[] evaluate(double[][] columns, int n) {
+      final double[] out = new double[n];
+      for (int i = 0; i < operands.length; i++) {
+        final double[] operand = operands[i].evaluate(columns, n);
+        final double weight = weights[i];
+        for (int row = 0; row < n; row++) {
+          out[row] += weight * operand[row];
+        }
+      }
+      return out;
+    }
+  }
+
+  /** Recursive descent parser producing the expression tree. */
+  private static final class Parser {
+    final String text;
+    final LinkedHashMap<String, Integer> variables = new LinkedHashMap<>();
+    int position = 0;
+
+    Parser(String text) {
+      this.text = text;
+    }
+
+    Node parse() {
+      final Node node = expression();
+      skipWhitespace();
+      if (position < text.length()) {
+        throw error("Unexpected '" + text.charAt(position) + "'");
+      }
+      return node;
+    }
+
+    // expression := term (('+' | '-') term)*
+    private Node expression() {
+      Node node = term();
+      while (true) {
+        if (accept('+')) {
+          node = apply(Operator.ADD, node, term());
+        } else if (accept('-')) {
+          node = apply(Operator.SUBTRACT, node, term());
+        } else {
+          return node;
+        }
+      }
+    }
+
+    // term := unary (('*' | '/') unary)*
+    private Node term() {
+      Node node = unary();
+      while (true) {
+        if (accept('*')) {
+          node = apply(Operator.MULTIPLY, node, unary());
+        } else if (accept('/')) {
+          node = apply(Operator.DIVIDE, node, unary());
+        } else {
+          return node;
+        }
+      }
+    }
+
+    // unary := '-' unary | power
+    private Node unary() {
+      if (accept('-')) {
+        return apply(Operator.NEGATE, unary());
+      }
+      return power();
+    }
+
+    // power := primary ('^' unary)?
+    private Node power() {
+      final Node base = primary();
+      if (accept('^')) {
+        return apply(Operator.POW, base, unary());
+      }
+      return base;
+    }
+
+    // primary := number | '(' expression ')' | '[' name ']' | name | name '(' arguments ')'
+    private Node primary() {
+      skipWhitespace();
+      if (position >= text.length()) {
+        throw error("Unexpected end of formula");
+      }
+      final char c = text.charAt(position);
+      if (accept('(')) {
+        final Node node = expression();
+        expect(')');
+        return node;
+      }
+      if (accept('[')) {
+        final int end = text.indexOf(']', position);
+        if (end < 0) {
+          throw error("Unclosed '['");
+        }
+        final String name = text.substring(position, end).trim();
+        position = end + 1;
+        if (name.isEmpty()) {
+          throw error("Empty column name");
+        }
+        return variable(name);
+      }
+      if (Character.isDigit(c) || '.' == c) {
+        return number();
+      }
+      if (Character.isLetter(c) || '_' == c) {
+        final int start = position;
+        while (Character.isLetterOrDigit(peek()) || '_' == peek()) {
+          position++;
+        }
+        final String name = text.substring(start, position);
+        if (accept('(')) {
+          return call(name, start);
+        }
+        return variable(name);
+      }
+      throw error("Unexpected '" + c + "'");
+    }
+
+    private Node call(String name, int start) {
+      final Operator operator = Operator.function(name);
+      if (null == operator && !TRAPEZOID.equals(name) && !SIMPSON.equals(name)) {
+        position = start;
+        throw error("Unknown function '" + name + "'");
+      }
+      final ArrayList<Node> arguments = new ArrayList<>();
+      if (!accept(')')) {
+        do {
+          arguments.add(expression());
+        } while (accept(','));
+        expect(')');
+      }
+      if (null == operator) {
+        return integrate(name, start, arguments);
+      }
+      if (arguments.size() != operator.arity) {
+        position = start;
+        throw error(
+            String.format(
+                "'%s' expects %d arguments but got %d", name, operator.arity, arguments.size()));
+      }
+      return apply(operator, arguments.toArray(new Node[0]));
+    }
+
+    /**
+     * Expand an integration rule into the spacing times a weighted sum of the samples.
+     *
+     * @param name the rule.
+     * @param start the position of the call, for error reporting.
+     * @param arguments the spacing followed by the samples.
+     * @return the expression.
+     */
+    private Node integrate(String name, int start, ArrayList<Node> arguments) {
+      final int samples = arguments.size() - 1;
+      final boolean simpson = SIMPSON.equals(name);
+      if (samples < (simpson ? 3 : 2) || (simpson && 0 == samples % 2)) {
+        position = start;
+        throw error(
+            String.format(
+                "'%s' expects the spacing and %s samples but got %d",
+                name, simpson ? "an odd number of at least 3" : "at least 2", samples));
+      }
+      final double[] weights = new double[samples];
+      for (int i = 0; i < samples; i++) {
+        if (simpson) {
+          weights[i] = (0 == i || samples - 1 == i ? 1.0 : 0 == i % 2 ? 2.0 : 4.0) / 3.0;
+        } else {
+          weights[i] = 0 == i || samples - 1 == i ? 0.5 : 1.0;
+        }
+      }
+      final Node sum =
+          new WeightedSum(weights, arguments.subList(1, arguments.size()).toArray(new Node[0]));
+      return apply(Operator.MULTIPLY, arguments.get(0), sum);
+    }
+
+    private Node number() {
+      final int start = position;
+      while (Character.isDigit(peek()) || '.' == peek()) {
+        position++;
+      }
+      if ('e' == peek() || 'E' == peek()) {
+        position++;
+        if ('+' == peek() || '-' == peek()) {
+          position++;
+        }
+        while (Character.isDigit(peek())) {
+          position++;
+        }
+      }
+      try {
+        return new Constant(Double.parseDouble(text.substring(start, position)));
+      } catch (final NumberFormatException e) {
+        position = start;
+        throw error("Malformed number");
+      }
+    }
+
+    private Node variable(String name) {
+      final Integer index = variables.get(name);
+      if (null != index) {
+        return new Variable(index);
+      }
+      variables.put(name, variables.size());
+      return new Variable(variables.size() - 1);
+    }
+
+    private static Node apply(Operator operator, Node... operands) {
+      return new Apply(operator, operands).fold();
+    }
+
+    private boolean accept(char expected) {
+      skipWhitespace();
+      if (position < text.length() && text.charAt(position) == expected) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char expected) {
+      if (!accept(expected)) {
+        throw error("Expected '" + expected + "'");
+      }
+    }
+
+    /** @return the current character, or 0 at the end of the text. */
+    private char peek() {
+      return position < text.length() ? text.charAt(position) : 0;
+    }
+
+    private void skipWhitespace() {
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(
+          String.format("%s at position %d in '%s'", message, position, text));
+    }
+  }
+}
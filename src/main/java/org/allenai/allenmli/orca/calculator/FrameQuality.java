@@ -0,0 +1,173 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import java.util.Arrays;
+
+/**
+ * Scores how suitable a frame is for measurement, so the most promising frames can be measured
+ * first.
+ *
+ * <p>The frame is processed in square tiles. For each tile the mean intensity, the number of
+ * clipped pixels, and the variance of the Laplacian are accumulated. From these:
+ *
+ * <ul>
+ *   <li><b>subject</b> — tiles whose mean stands out from the typical tile are taken to show the
+ *       animal. The score is the share of those tiles that don't touch the edge of the frame, so
+ *       an animal cut off by the edge scores low and an empty frame scores 0.
+ *   <li><b>sharpness</b> — the variance of the Laplacian over the subject tiles, or the whole
+ *       frame when there are none, mapped onto 0 to 100.
+ *   <li><b>exposure</b> — penalizes clipped pixels and frames that are very dark or very bright.
+ * </ul>
+ *
+ * <p>The overall quality is the product of the three. All scores are percentages.
+ */
+public final class FrameQuality {
+  /** Column holding the overall quality. */
+  public static final String QUALITY_COLUMN = "FRAME_QUALITY";
+  public static final String SHARPNESS_COLUMN = "SHARPNESS";
+  public static final String EXPOSURE_COLUMN = "EXPOSURE";
+  public static final String SUBJECT_COLUMN = "SUBJECT_IN_FRAME";
+
+  /** Width and height of a tile in pixels. */
+  static final int TILE = 128;
+  /** Laplacian variance of an 8 bit frame that scores 50% sharpness. */
+  private static final double SHARPNESS_SCALE = 100;
+  /** Pixels within this fraction of black or white are clipped. */
+  private static final double CLIPPED = 0.01;
+  /** Share of clipped pixels at which the exposure score reaches 0. */
+  private static final double MAX_CLIPPED = 0.2;
+  /** Mean brightness, as a fraction of white, below or above which exposure is penalized. */
+  private static final double DARK = 0.1;
+  /** Robust standard deviations a tile mean must differ by to show the subject. */
+  private static final double SUBJECT_THRESHOLD = 4;
+  /** Smallest contrast with the background, as a fraction of white, that counts as the subject. */
+  private static final double MIN_CONTRAST = 0.03;
+
+  public final double quality;
+  public final double sharpness;
+  public final double exposure;
+  public final double subject;
+
+  private FrameQuality(double sharpness, double exposure, double subject) {
+    this.sharpness = sharpness;
+    this.exposure = exposure;
+    this.subject = subject;
+    quality = sharpness * exposure * subject / 10000;
+  }
+
+  /**
+   * Score a frame.
+   *
+   * @param image the pixels of the frame.
+   * @param width the width of the frame.
+   * @param height the height of the frame.
+   * @param white the intensity of a fully exposed pixel, 255 for 8 bit and RGB frames.
+   * @return the scores.
+   */
+  public static FrameQuality score(
+      WidthExtractor.Image image, int width, int height, double white) {
+    final int columns = (width + TILE - 1) / TILE;
+    final int rows = (height + TILE - 1) / TILE;
+    final int tiles = columns * rows;
+    final double[] means = new double[tiles];
+    final double[] laplacian_sums = new double[tiles];
+    final double[] laplacian_squares = new double[tiles];
+    final long[] laplacian_counts = new long[tiles];
+    long clipped = 0;
+    double total = 0;
+    for (int t = 0; t < tiles; t++) {
+      final int x0 = (t % columns) * TILE;
+      final int y0 = (t / columns) * TILE;
+      final int x1 = Math.min(width, x0 + TILE);
+      final int y1 = Math.min(height, y0 + TILE);
+      double sum = 0;
+      for (int y = y0; y < y1; y++) {
+        for (int x = x0; x < x1; x++) {
+          final double value = image.value(x, y);
+          sum += value;
+          if (value <= CLIPPED * white || value >= (1 - CLIPPED) * white) {
+            clipped++;
+          }
+          if (x > 0 && y > 0 && x < width - 1 && y < height - 1) {
+            final double l =
+                4 * value
+                    - image.value(x - 1, y)
+                    - image.value(x + 1, y)
+                    - image.value(x, y - 1)
+                    - image.value(x, y + 1);
+            laplacian_sums[t] += l;
+            laplacian_squares[t] += l * l;
+            laplacian_counts[t]++;
+          }
+        }
+      }
+      total += sum;
+      means[t] = sum / ((x1 - x0) * (y1 - y0));
+    }
+
+    // Tiles showing the subject stand out from the median tile.
+    final double[] sorted = means.clone();
+    Arrays.sort(sorted);
+    final double median = sorted[tiles / 2];
+    final double[] deviations = new double[tiles];
+    for (int t = 0; t < tiles; t++) {
+      deviations[t] = Math.abs(means[t] - median);
+    }
+    Arrays.sort(deviations);
+    final double spread =
+        Math.max(MIN_CONTRAST * white / SUBJECT_THRESHOLD, 1.4826 * deviations[tiles / 2]);
+    int subject_tiles = 0;
+    int interior_tiles = 0;
+    double sum = 0;
+    double squares = 0;
+    long count = 0;
+    for (int t = 0; t < tiles; t++) {
+      if (Math.abs(means[t] - median) > SUBJECT_THRESHOLD * spread) {
+        subject_tiles++;
+        final int column = t % columns;
+        final int row = t / columns;
+        if (column > 0 && row > 0 && column < columns - 1 && row < rows - 1) {
+          interior_tiles++;
+        }
+        sum += laplacian_sums[t];
+        squares += laplacian_squares[t];
+        count += laplacian_counts[t];
+      }
+    }
+    if (0 == count) {
+      for (int t = 0; t < tiles; t++) {
+        sum += laplacian_sums[t];
+        squares += laplacian_squares[t];
+        count += laplacian_counts[t];
+      }
+    }
+
+    final double variance =
+        0 == count ? 0 : Math.max(0, squares / count - (sum / count) * (sum / count));
+    final double scale = SHARPNESS_SCALE * (white / 255) * (white / 255);
+    final double sharpness = 100 * variance / (variance + scale);
+
+    final double mean = total / ((double) width * height) / white;
+    final double brightness = Math.min(1, Math.min(mean, 1 - mean) / DARK);
+    final double clipping = Math.max(0, 1 - clipped / (MAX_CLIPPED * width * height));
+    final double exposure = 100 * Math.max(0, brightness) * clipping;
+
+    final double subject = 0 == subject_tiles ? 0 : 100.0 * interior_tiles / subject_tiles;
+    return new FrameQuality(sharpness, exposure, subject);
+  }
+}
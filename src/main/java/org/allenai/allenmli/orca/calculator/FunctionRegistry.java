@@ -0,0 +1,229 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.NumericColumn;
+import org.allenai.allenmli.orca.helpers.ConfigurationFileLoadException;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Immutable table of the measurement functions available to a calculator class.
+ *
+ * <p>The table is built once per calculator class and shared by all of its instances. Functions
+ * with a counterpart in {@link ColumnFunctions} can also be evaluated over whole columns.
+ */
+public final class FunctionRegistry {
+  private static final ClassValue<FunctionRegistry> REGISTRIES =
+      new ClassValue<FunctionRegistry>() {
+        @Override
+        protected FunctionRegistry computeValue(Class<?> type) {
+          return new FunctionRegistry(type);
+        }
+      };
+
+  /** Measurement functions keyed by name. */
+  private final Map<String, MethodHandle> functions;
+  /** Column-wise variants of <code>functions</code> keyed by name. */
+  private final Map<String, ColumnFunction> column_functions;
+
+  /**
+   * Identify all public static methods available to <code>type</code> and build a MethodHandle
+   * for each.
+   *
+   * <p>Only methods declared by <code>BaseCalculator</code> or one of its subclasses are
+   * registered.
+   *
+   * @param type the calculator class.
+   */
+  private FunctionRegistry(Class<?> type) {
+    final Logger logger = new StderrLogService();
+    final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+    final HashMap<String, MethodHandle> found = new HashMap<>();
+    for (final Method method : type.getMethods()) {
+      if (!Modifier.isStatic(method.getModifiers())
+          || !BaseCalculator.class.isAssignableFrom(method.getDeclaringClass())) {
+        continue;
+      }
+      final MethodType methodType =
+          MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+      try {
+        found.put(
+            method.getName(),
+            lookup.findStatic(method.getDeclaringClass(), method.getName(), methodType));
+      } catch (final NoSuchMethodException | IllegalAccessException e) {
+        logger.error(e);
+      }
+    }
+    functions = Collections.unmodifiableMap(found);
+
+    final HashMap<String, ColumnFunction> found_columns = new HashMap<>();
+    for (final Method method : ColumnFunctions.class.getMethods()) {
+      if (!Modifier.isStatic(method.getModifiers())
+          || method.getDeclaringClass() != ColumnFunctions.class
+          || !functions.containsKey(method.getName())) {
+        continue;
+      }
+      try {
+        final MethodHandle spread =
+            lookup
+                .unreflect(method)
+                .asSpreader(NumericColumn[].class, method.getParameterCount())
+                .asType(MethodType.methodType(NumericColumn.class, NumericColumn[].class));
+        found_columns.put(method.getName(), arguments -> invokeColumnFunction(spread, arguments));
+      } catch (final IllegalAccessException e) {
+        logger.error(e);
+      }
+    }
+    column_functions = Collections.unmodifiableMap(found_columns);
+  }
+
+  private static NumericColumn invokeColumnFunction(
+      MethodHandle spread, NumericColumn[] arguments) {
+    try {
+      return (NumericColumn) spread.invokeExact(arguments);
+    } catch (final RuntimeException | Error e) {
+      throw e;
+    } catch (final Throwable throwable) {
+      throw new IllegalStateException(throwable);
+    }
+  }
+
+  /**
+   * Get the shared registry for a calculator class.
+   *
+   * @param type the calculator class.
+   * @return the registry for <code>type</code>.
+   */
+  public static FunctionRegistry forClass(Class<? extends BaseCalculator> type) {
+    return REGISTRIES.get(type);
+  }
+
+  /**
+   * Check for a function.
+   *
+   * @param name the function name.
+   * @return true if there is a function called <code>name</code>.
+   */
+  public boolean contains(String name) {
+    return functions.containsKey(name);
+  }
+
+  /**
+   * Get a function.
+   *
+   * @param name the function name.
+   * @return the MethodHandle for <code>name</code>, null if not present.
+   */
+  public MethodHandle get(String name) {
+    return functions.get(name);
+  }
+
+  /**
+   * Get the column-wise variant of a function.
+   *
+   * @param name the function name.
+   * @return the column function for <code>name</code>, null if there isn't one.
+   */
+  public ColumnFunction getColumnFunction(String name) {
+    return column_functions.get(name);
+  }
+
+  /** @return an unmodifiable view of the functions keyed by name. */
+  public Map<String, MethodHandle> asMap() {
+    return functions;
+  }
+
+  /**
+   * Verify that every item in a calculator configuration refers to a known function, supplies the
+   * number of parameters the function expects, and that literal parameters are of the expected
+   * type. Formulas have been parsed already, so only the columns they read and write are checked.
+   *
+   * @param config the configuration being checked.
+   * @param config_name the name of the configuration, used for error reporting.
+   * @param float_column tests whether a column holds doubles, as formulas read and write.
+   * @throws ConfigurationFileLoadException describing every problem found.
+   */
+  public void validate(
+      CalculatorConfig config, String config_name, Predicate<String> float_column)
+      throws ConfigurationFileLoadException {
+    final ArrayList<String> problems = new ArrayList<>();
+    for (final CalculatorConfigItem item : config.values()) {
+      if (null != item.formula) {
+        if (!float_column.test(item.target)) {
+          problems.add(
+              String.format("'%s' is set by a formula but is not a float column", item.target));
+        }
+        for (final String variable : item.formula.variables()) {
+          if (!float_column.test(variable)) {
+            problems.add(
+                String.format(
+                    "'%s' uses '%s' which is not a float column", item.target, variable));
+          }
+        }
+        continue;
+      }
+      final MethodHandle mh = functions.get(item.function);
+      if (null == mh) {
+        problems.add(
+            String.format("'%s' uses unknown function '%s'", item.target, item.function));
+        continue;
+      }
+      final MethodType type = mh.type();
+      if (type.parameterCount() != item.parameters.length) {
+        problems.add(
+            String.format(
+                "'%s' passes %d parameters to '%s' which expects %d",
+                item.target, item.parameters.length, item.function, type.parameterCount()));
+        continue;
+      }
+      for (int i = 0; i < item.parameters.length; i++) {
+        final Object literal = item.parameters[i];
+        if (literal instanceof String && !((String) literal).contains("\"")) {
+          continue; // Column reference, resolved when measured.
+        }
+        final Class<?> expected = type.wrap().parameterType(i);
+        if (null != literal && !expected.isInstance(literal)) {
+          problems.add(
+              String.format(
+                  "'%s' parameter %d of '%s' is a %s literal, expected %s",
+                  item.target,
+                  i,
+                  item.function,
+                  literal.getClass().getSimpleName(),
+                  expected.getSimpleName()));
+        }
+      }
+    }
+    if (!problems.isEmpty()) {
+      Collections.sort(problems);
+      throw new ConfigurationFileLoadException(
+          String.format("%s is invalid: %s", config_name, String.join("; ", problems)));
+    }
+  }
+}
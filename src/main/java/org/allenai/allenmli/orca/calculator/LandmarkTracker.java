@@ -0,0 +1,303 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.Point;
+
+/**
+ * Finds a landmark from one frame in another frame of the same pass by template matching.
+ *
+ * <p>A square patch around the landmark in the source frame is compared against every position
+ * of a larger search window in the target frame, centered on the same location or, along a
+ * {@link Track}, on the location found in the previous frame. The comparison
+ * is the normalized cross-correlation, so changes in brightness and contrast between frames don't
+ * matter. The correlation is computed for all positions at once with FFTs, and the local
+ * statistics of the window come from summed area tables. A template can be matched against any
+ * number of frames, concurrently.
+ */
+public final class LandmarkTracker {
+  /** Default half-width of the template in pixels. */
+  public static final int DEFAULT_TEMPLATE_RADIUS = 16;
+  /** Default size of the search window in pixels, a power of two. */
+  public static final int DEFAULT_WINDOW = 128;
+  /** Default lowest correlation accepted as a match. */
+  public static final double DEFAULT_MIN_SCORE = 0.6;
+
+  private final int radius;
+  private final int side;
+  private final double min_score;
+  private final Fft fft;
+
+  /** A patch cut from the source frame, ready to be matched. */
+  public final class Template {
+    final Point landmark;
+    /** Conjugate of the transform of the zero mean patch, padded to the window size. */
+    final double[] re;
+    final double[] im;
+    /** Square root of the sum of squares of the zero mean patch. */
+    final double norm;
+
+    private Template(Point landmark, double[] re, double[] im, double norm) {
+      this.landmark = landmark;
+      this.re = re;
+      this.im = im;
+      this.norm = norm;
+    }
+  }
+
+  /** The location of a landmark in a target frame. */
+  public static final class Match {
+    public final Point location;
+    /** The normalized cross-correlation at the location, at most 1. */
+    public final double score;
+
+    Match(Point location, double score) {
+      this.location = location;
+      this.score = score;
+    }
+  }
+
+  /** Construct a tracker with the default template, window and score. */
+  public LandmarkTracker() {
+    this(DEFAULT_TEMPLATE_RADIUS, DEFAULT_WINDOW, DEFAULT_MIN_SCORE);
+  }
+
+  /**
+   * @param radius the half-width of the template in pixels.
+   * @param window the size of the search window, a power of two larger than the template.
+   * @param min_score the lowest correlation accepted as a match.
+   */
+  public LandmarkTracker(int radius, int window, double min_score) {
+    if (2 * radius + 1 >= window) {
+      throw new IllegalArgumentException(
+          String.format(
+              "A %d pixel window can't hold a %d pixel template", window, 2 * radius + 1));
+    }
+    this.radius = radius;
+    this.side = 2 * radius + 1;
+    this.min_score = min_score;
+    fft = new Fft(window);
+  }
+
+  /** @return the furthest a landmark can move between frames and still be found, in pixels. */
+  public int reach() {
+    return fft.size() / 2 - radius - 1;
+  }
+
+  /**
+   * Cut the template for a landmark.
+   *
+   * @param image the pixels of the source frame.
+   * @param width the width of the source frame.
+   * @param height the height of the source frame.
+   * @param landmark the location of the landmark.
+   * @return the template, null if it doesn't fit in the frame or has no texture to match.
+   */
+  public Template template(WidthExtractor.Image image, int width, int height, Point landmark) {
+    final int cx = (int) Math.round(landmark.x);
+    final int cy = (int) Math.round(landmark.y);
+    if (cx - radius < 0 || cy - radius < 0 || cx + radius >= width || cy + radius >= height) {
+      return null;
+    }
+    final int n = fft.size();
+    final double[] re = new double[n * n];
+    final double[] im = new double[n * n];
+    double sum = 0;
+    for (int y = 0; y < side; y++) {
+      for (int x = 0; x < side; x++) {
+        re[y * n + x] = image.value(cx - radius + x, cy - radius + y);
+        sum += re[y * n + x];
+      }
+    }
+    final double mean = sum / (side * side);
+    double squares = 0;
+    for (int y = 0; y < side; y++) {
+      for (int x = 0; x < side; x++) {
+        re[y * n + x] -= mean;
+        squares += re[y * n + x] * re[y * n + x];
+      }
+    }
+    if (squares < 1e-9 * side * side) {
+      return null;
+    }
+    fft.transform2d(re, im, false);
+    for (int i = 0; i < im.length; i++) {
+      im[i] = -im[i];
+    }
+    return new Template(landmark, re, im, Math.sqrt(squares));
+  }
+
+  /**
+   * Find a template in a target frame, searching around the location of the landmark in the
+   * source frame.
+   *
+   * @param template the template.
+   * @param image the pixels of the target frame; pixels beyond its edges repeat the edge.
+   * @param width the width of the target frame.
+   * @param height the height of the target frame.
+   * @return the best match, null if it scores below the minimum.
+   */
+  public Match match(Template template, WidthExtractor.Image image, int width, int height) {
+    return match(template, template.landmark, image, width, height);
+  }
+
+  /**
+   * Find a template in a target frame.
+   *
+   * @param template the template.
+   * @param center the center of the search window.
+   * @param image the pixels of the target frame; pixels beyond its edges repeat the edge.
+   * @param width the width of the target frame.
+   * @param height the height of the target frame.
+   * @return the best match, null if it scores below the minimum.
+   */
+  public Match match(
+      Template template, Point center, WidthExtractor.Image image, int width, int height) {
+    final int n = fft.size();
+    final int cx = (int) Math.round(template.landmark.x);
+    final int cy = (int) Math.round(template.landmark.y);
+    final int left = (int) Math.round(center.x) - n / 2;
+    final int top = (int) Math.round(center.y) - n / 2;
+
+    // The window, and summed area tables of it and its squares.
+    final double[] re = new double[n * n];
+    final double[] im = new double[n * n];
+    final double[] sums = new double[(n + 1) * (n + 1)];
+    final double[] squares = new double[(n + 1) * (n + 1)];
+    for (int y = 0; y < n; y++) {
+      final int row = Math.min(height - 1, Math.max(0, top + y));
+      double run = 0;
+      double run_squares = 0;
+      for (int x = 0; x < n; x++) {
+        final double value = image.value(Math.min(width - 1, Math.max(0, left + x)), row);
+        re[y * n + x] = value;
+        run += value;
+        run_squares += value * value;
+        sums[(y + 1) * (n + 1) + x + 1] = sums[y * (n + 1) + x + 1] + run;
+        squares[(y + 1) * (n + 1) + x + 1] = squares[y * (n + 1) + x + 1] + run_squares;
+      }
+    }
+
+    fft.transform2d(re, im, false);
+    for (int i = 0; i < re.length; i++) {
+      final double r = re[i] * template.re[i] - im[i] * template.im[i];
+      im[i] = re[i] * template.im[i] + im[i] * template.re[i];
+      re[i] = r;
+    }
+    fft.transform2d(re, im, true);
+
+    // re now holds the correlation of the zero mean template with the window at each offset.
+    final int positions = n - side + 1;
+    final double[] scores = new double[positions * positions];
+    final double count = side * side;
+    int best = -1;
+    for (int v = 0; v < positions; v++) {
+      for (int u = 0; u < positions; u++) {
+        final double sum = box(sums, n + 1, u, v);
+        final double variance = box(squares, n + 1, u, v) - sum * sum / count;
+        final double score =
+            variance > 1e-9 * count ? re[v * n + u] / (template.norm * Math.sqrt(variance)) : 0;
+        scores[v * positions + u] = score;
+        if (-1 == best || score > scores[best]) {
+          best = v * positions + u;
+        }
+      }
+    }
+    if (scores[best] < min_score) {
+      return null;
+    }
+    final int u = best % positions;
+    final int v = best / positions;
+    double du = 0;
+    double dv = 0;
+    if (u > 0 && v > 0 && u < positions - 1 && v < positions - 1) {
+      // Fit a quadratic surface through the 3x3 neighbourhood of the peak. The cross term matters
+      // for textures running diagonally, which give peaks that are tilted.
+      final double b = (scores[best + 1] - scores[best - 1]) / 2;
+      final double c = (scores[best + positions] - scores[best - positions]) / 2;
+      final double d = (scores[best + 1] - 2 * scores[best] + scores[best - 1]) / 2;
+      final double e =
+          (scores[best + positions] - 2 * scores[best] + scores[best - positions]) / 2;
+      final double f =
+          (scores[best + positions + 1]
+                  - scores[best + positions - 1]
+                  - scores[best - positions + 1]
+                  + scores[best - positions - 1])
+              / 4;
+      final double det = 4 * d * e - f * f;
+      if (d < 0 && det > 0) {
+        du = Math.max(-0.5, Math.min(0.5, (f * c - 2 * e * b) / det));
+        dv = Math.max(-0.5, Math.min(0.5, (f * b - 2 * d * c) / det));
+      }
+    }
+    return new Match(
+        new Point(
+            left + u + du + radius + template.landmark.x - cx,
+            top + v + dv + radius + template.landmark.y - cy),
+        scores[best]);
+  }
+
+  /**
+   * Start following a template through consecutive frames of a pass.
+   *
+   * @param template the template.
+   * @return the track, searching the first frame around the landmark in the source frame.
+   */
+  public Track track(Template template) {
+    return new Track(template);
+  }
+
+  /**
+   * Follows a template through consecutive frames. Each frame is searched around the location
+   * found in the last frame where the landmark was found, so the landmark can drift much further
+   * than {@link #reach()} over a pass as long as it moves less than that between frames. The
+   * template itself is always the one cut from the source frame, so matching errors don't add up.
+   */
+  public final class Track {
+    private final Template template;
+    private Point last;
+
+    private Track(Template template) {
+      this.template = template;
+      last = template.landmark;
+    }
+
+    /**
+     * Find the landmark in the next frame.
+     *
+     * @param image the pixels of the frame.
+     * @param width the width of the frame.
+     * @param height the height of the frame.
+     * @return the best match, null if it scores below the minimum.
+     */
+    public Match next(WidthExtractor.Image image, int width, int height) {
+      final Match match = match(template, last, image, width, height);
+      if (null != match) {
+        last = match.location;
+      }
+      return match;
+    }
+  }
+
+  /** @return the sum of the template sized box at (u, v) from a summed area table. */
+  private double box(double[] table, int stride, int u, int v) {
+    return table[(v + side) * stride + u + side]
+        - table[v * stride + u + side]
+        - table[(v + side) * stride + u]
+        + table[v * stride + u];
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.NumericColumn;
+import org.allenai.allenmli.orca.helpers.ConfigurationFile;
+import org.allenai.allenmli.orca.helpers.ConfigurationFileLoadException;
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Brown–Conrady lens distortion correction of image coordinates, keyed by camera make and model.
+ *
+ * <p>The calibrations are loaded from <code>LensConf.json</code>. Coordinates of rows whose camera
+ * has no calibration are left as they are, so an empty table turns the correction off.
+ */
+public final class LensCorrection {
+  /** The column holding the camera make. */
+  public static final String MAKE_COLUMN = "CameraMake";
+  /** The column holding the camera model. */
+  public static final String MODEL_COLUMN = "CameraModel";
+
+  static final String LENGTH_FUNCTION = "length";
+  private static final int ITERATIONS = 20;
+  private static final double TOLERANCE = 1e-12;
+
+  private final Map<String, Calibration> calibrations;
+
+  /** @param calibrations the calibrations, keyed by {@link #key(Object, Object)}. */
+  public LensCorrection(Map<String, Calibration> calibrations) {
+    this.calibrations = Collections.unmodifiableMap(new HashMap<>(calibrations));
+  }
+
+  /**
+   * Load the calibration table.
+   *
+   * @return the correction.
+   * @throws ConfigurationFileLoadException if the file can't be read or has invalid values.
+   */
+  public static LensCorrection load() throws ConfigurationFileLoadException {
+    final String filename = ConfigurationFile.LENS_CONFIG.getFilename();
+    final HashMap<String, Calibration> calibrations = new HashMap<>();
+    try {
+      for (final Object raw_item : (Object[]) ConfigurationLoader.getJsonFile(filename)) {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> item = (Map<String, Object>) raw_item;
+        final Calibration calibration =
+            new Calibration(
+                number(item, "fx", null),
+                number(item, "fy", null),
+                number(item, "cx", null),
+                number(item, "cy", null),
+                number(item, "k1", 0.0),
+                number(item, "k2", 0.0),
+                number(item, "k3", 0.0),
+                number(item, "p1", 0.0),
+                number(item, "p2", 0.0));
+        calibrations.put(key(item.get("make"), item.get("model")), calibration);
+      }
+    } catch (final ClassCastException | NullPointerException | IllegalArgumentException e) {
+      throw new ConfigurationFileLoadException(
+          String.format("%s is invalid: %s", filename, e.getMessage()));
+    }
+    return new LensCorrection(calibrations);
+  }
+
+  private static double number(Map<String, Object> item, String field, Double missing) {
+    final Object value = item.getOrDefault(field, missing);
+    if (null == value) {
+      throw new IllegalArgumentException(String.format("missing required field \"%s\"", field));
+    }
+    return ((Number) value).doubleValue();
+  }
+
+  /**
+   * @param make the camera make.
+   * @param model the camera model.
+   * @return the key of the camera in the calibration table.
+   */
+  static String key(Object make, Object model) {
+    return String.format(
+        "%s/%s",
+        null == make ? "" : make.toString().trim(), null == model ? "" : model.toString().trim());
+  }
+
+  /** @return true if there are no calibrations, so nothing is corrected. */
+  public boolean isEmpty() {
+    return calibrations.isEmpty();
+  }
+
+  /**
+   * @param make the camera make.
+   * @param model the camera model.
+   * @return the calibration of the camera, null if there isn't one.
+   */
+  public Calibration get(Object make, Object model) {
+    return calibrations.get(key(make, model));
+  }
+
+  /**
+   * Look up the calibration of every row.
+   *
+   * @param ds the data store.
+   * @return the calibration of each row, null for rows without one; null if the data store has no
+   *     camera columns or there are no calibrations.
+   */
+  public Calibration[] cameras(DataStore ds) {
+    if (isEmpty()
+        || !ds.descriptors.containsKey(MAKE_COLUMN)
+        || !ds.descriptors.containsKey(MODEL_COLUMN)) {
+      return null;
+    }
+    final int nRows = ds.getRowCount();
+    final Calibration[] cameras = new Calibration[nRows];
+    final int make = ds.descriptors.get(MAKE_COLUMN).index;
+    final int model = ds.descriptors.get(MODEL_COLUMN).index;
+    for (int row = 0; row < nRows; row++) {
+      cameras[row] = get(ds.getValueAt(row, make), ds.getValueAt(row, model));
+    }
+    return cameras;
+  }
+
+  /**
+   * Correct the endpoints read by a length step.
+   *
+   * @param step a step, only <code>length</code> steps are corrected.
+   * @param columns supplies the measured columns.
+   * @param cameras the calibration of each element of the columns, null for no correction.
+   * @return supplies the corrected endpoint columns and passes other columns through.
+   */
+  public static Function<String, NumericColumn> correctEndpoints(
+      MeasurementPlan.Step step, Function<String, NumericColumn> columns, Calibration[] cameras) {
+    final List<String> inputs = step.inputs();
+    if (null == cameras || !LENGTH_FUNCTION.equals(step.function) || 4 != inputs.size()) {
+      return columns;
+    }
+    final HashMap<String, NumericColumn> corrected = new HashMap<>();
+    for (int end = 0; end < 4; end += 2) {
+      final NumericColumn x = columns.apply(inputs.get(end));
+      final NumericColumn y = columns.apply(inputs.get(end + 1));
+      final double[] x_values = x.values.clone();
+      final double[] y_values = y.values.clone();
+      undistort(x_values, y_values, cameras);
+      corrected.put(inputs.get(end), new NumericColumn(x_values, x.present));
+      corrected.put(inputs.get(end + 1), new NumericColumn(y_values, y.present));
+    }
+    return name -> corrected.containsKey(name) ? corrected.get(name) : columns.apply(name);
+  }
+
+  /**
+   * Correct coordinates in place.
+   *
+   * @param x the x coordinates in pixels.
+   * @param y the y coordinates in pixels.
+   * @param cameras the calibration of each coordinate, null to leave it as it is.
+   */
+  public static void undistort(double[] x, double[] y, Calibration[] cameras) {
+    for (int i = 0; i < x.length; i++) {
+      final Calibration camera = cameras[i];
+      if (null != camera) {
+        camera.undistort(x, y, i);
+      }
+    }
+  }
+
+  /**
+   * The intrinsics and distortion coefficients of a camera, as produced by the usual calibration
+   * tools, in pixels of the full resolution image.
+   */
+  public static final class Calibration {
+    public final double fx;
+    public final double fy;
+    public final double cx;
+    public final double cy;
+    public final double k1;
+    public final double k2;
+    public final double k3;
+    public final double p1;
+    public final double p2;
+
+    /**
+     * @param fx the focal length in pixels along x.
+     * @param fy the focal length in pixels along y.
+     * @param cx the x coordinate of the principal point.
+     * @param cy the y coordinate of the principal point.
+     * @param k1 the second order radial coefficient.
+     * @param k2 the fourth order radial coefficient.
+     * @param k3 the sixth order radial coefficient.
+     * @param p1 the first tangential coefficient.
+     * @param p2 the second tangential coefficient.
+     * @throws IllegalArgumentException if a focal length isn't positive.
+     */
+    public Calibration(
+        double fx,
+        double fy,
+        double cx,
+        double cy,
+        double k1,
+        double k2,
+        double k3,
+        double p1,
+        double p2) {
+      if (!(fx > 0 && fy > 0)) {
+        throw new IllegalArgumentException(
+            String.format("focal lengths must be positive, got %s, %s", fx, fy));
+      }
+      this.fx = fx;
+      this.fy = fy;
+      this.cx = cx;
+      this.cy = cy;
+      this.k1 = k1;
+      this.k2 = k2;
+      this.k3 = k3;
+      this.p1 = p1;
+      this.p2 = p2;
+    }
+
+    /**
+     * Map an undistorted point to where the lens images it.
+     *
+     * @param x the x coordinates, updated in place.
+     * @param y the y coordinates, updated in place.
+     * @param i the index of the point.
+     */
+    void distort(double[] x, double[] y, int i) {
+      final double u = (x[i] - cx) / fx;
+      final double v = (y[i] - cy) / fy;
+      final double r2 = u * u + v * v;
+      final double radial = 1 + r2 * (k1 + r2 * (k2 + r2 * k3));
+      x[i] = (u * radial + 2 * p1 * u * v + p2 * (r2 + 2 * u * u)) * fx + cx;
+      y[i] = (v * radial + p1 * (r2 + 2 * v * v) + 2 * p2 * u * v) * fy + cy;
+    }
+
+    /**
+     * Map an imaged point back to where an ideal pinhole camera would have imaged it, inverting
+     * the distortion by fixed point iteration.
+     *
+     * @param x the x coordinates, updated in place.
+     * @param y the y coordinates, updated in place.
+     * @param i the index of the point.
+     */
+    public void undistort(double[] x, double[] y, int i) {
+      final double u_distorted = (x[i] - cx) / fx;
+      final double v_distorted = (y[i] - cy) / fy;
+      double u = u_distorted;
+      double v = v_distorted;
+      for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+        final double r2 = u * u + v * v;
+        final double radial = 1 + r2 * (k1 + r2 * (k2 + r2 * k3));
+        final double u_next = (u_distorted - 2 * p1 * u * v - p2 * (r2 + 2 * u * u)) / radial;
+        final double v_next = (v_distorted - p1 * (r2 + 2 * v * v) - 2 * p2 * u * v) / radial;
+        final boolean converged =
+            Math.abs(u_next - u) < TOLERANCE && Math.abs(v_next - v) < TOLERANCE;
+        u = u_next;
+        v = v_next;
+        if (converged) {
+          break;
+        }
+      }
+      x[i] = u * fx + cx;
+      y[i] = v * fy + cy;
+    }
+  }
+}
@@ -18,23 +18,35 @@ package org.allenai.allenmli.orca.calculator;
 
 import org.allenai.allenmli.orca.data.ColumnDescriptor;
 import org.allenai.allenmli.orca.data.DataStore;
-import org.allenai.allenmli.orca.data.Point;
+import org.allenai.allenmli.orca.data.NumericColumn;
 import org.allenai.allenmli.orca.helpers.ConfigurationFile;
 import org.allenai.allenmli.orca.helpers.ConfigurationFileLoadException;
 
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Function;
 
 /** Calculator targeted at updating the derived measurements in the <code>DataStore</code> */
 public class MeasurementManager extends BaseCalculator implements TableModelListener {
+  private final MeasurementPlan plan;
+  private final LensCorrection lens;
+  /** Set while a bulk recompute is writing to the data store, suppressing per-cell updates. */
+  private boolean bulk_update = false;
+
   /**
    * @param ds the <code>DataStore</code> that the Calculator will operate on.
-   * @throws ConfigurationFileLoadException when the configuration file is not present.
+   * @throws ConfigurationFileLoadException when the configuration or lens calibration file is not
+   *     present.
    */
   public MeasurementManager(DataStore ds) throws ConfigurationFileLoadException {
     super(ds);
+    plan = MeasurementPlan.compile(measurement_dependencies, functionRegistry, ds);
+    lens = LensCorrection.load();
     ds.addTableModelListener(this);
   }
 
@@ -47,59 +59,202 @@ public class MeasurementManager extends BaseCalculator implements TableModelList
   /**
    * Respond to changes to the data_store.
    *
-   * <p>This only updates the column and row(s) if a single column has been updated. If more than
-   * one column has been updated, this is indicative of a file load and consequently we don't need
-   * ot do any updates.
+   * <p>This only updates the column and row(s) if a single column has been updated. An update of
+   * every column is indicative of a file load and every measurement derived from the endpoint
+   * columns is recomputed column-wise. A change of camera does the same, since it may change the
+   * lens correction. Inserted rows, such as imported images, are measured row by row from the
+   * values they hold and leave the sheet dirty.
    *
    * @param event received when something has changed in the table.
    */
   @Override
   public void tableChanged(TableModelEvent event) {
+    if (bulk_update) {
+      return;
+    }
     final int column = event.getColumn();
     if (TableModelEvent.ALL_COLUMNS != column) {
       final String column_name = dataStore.getColumnName(column);
-      if (!"Filename".equals(column_name)) {
+      if (!lens.isEmpty()
+          && (LensCorrection.MAKE_COLUMN.equals(column_name)
+              || LensCorrection.MODEL_COLUMN.equals(column_name))) {
+        recomputeAll();
+      } else if (!"Filename".equals(column_name)) {
         for (int row = event.getFirstRow(); row <= event.getLastRow(); row++) {
           final String row_name = dataStore.getRowName(row);
           update(row_name, column_name);
         }
       }
-    } else if (event.getFirstRow() != event.getLastRow()){
-      // scan through all endpointColumns are endpoints and update their associated calculations.
-      final ArrayList<String> endpointColumns = new ArrayList<>();
-      final ArrayList<String> lengthColumns = new ArrayList<>();
-      for (final ColumnDescriptor descriptor : dataStore.descriptors.values()) {
-        if (descriptor.name.endsWith("_x")
-            || descriptor.name.endsWith("_x_start")
-            || descriptor.name.endsWith("_y")
-            || descriptor.name.endsWith("_y_start")) {
-          endpointColumns.add(descriptor.name);
-        }
-        if (descriptor.measurement_type.equals("length")) {
-          lengthColumns.add(descriptor.name);
+    } else if (TableModelEvent.INSERT == event.getType()) {
+      for (int row = event.getFirstRow(); row <= event.getLastRow(); row++) {
+        final String row_name = dataStore.getRowName(row);
+        for (final String column_name : dataStore.descriptors.keySet()) {
+          if (!"Filename".equals(column_name)
+              && null != dataStore.get_value(row_name, column_name)) {
+            update(row_name, column_name);
+          }
         }
       }
-      final int nRows = dataStore.getRowCount();
-      for (int i = 0; i < nRows; i++) {
-        final String rowName = dataStore.getRowName(i);
-        for (final String columnName : endpointColumns) {
-          update(rowName, columnName);
+    } else if (TableModelEvent.UPDATE == event.getType()
+        && event.getFirstRow() != event.getLastRow()) {
+      recomputeAll();
+      dataStore.setDirty(false);
+    }
+  }
+
+  /** Recompute every measurement derived from the endpoint columns, column-wise. */
+  public void recomputeAll() {
+    // scan through all endpointColumns are endpoints and update their associated calculations.
+    final ArrayList<String> endpointColumns = new ArrayList<>();
+    for (final ColumnDescriptor descriptor : dataStore.descriptors.values()) {
+      if (descriptor.name.endsWith("_x")
+          || descriptor.name.endsWith("_x_start")
+          || descriptor.name.endsWith("_y")
+          || descriptor.name.endsWith("_y_start")) {
+        endpointColumns.add(descriptor.name);
+      }
+    }
+    bulk_update = true;
+    try {
+      final LensCorrection.Calibration[] cameras = lens.cameras(dataStore);
+      recompute(plan.downstream(endpointColumns), null, cameras);
+      for (final MeasurementPlan.Step step : plan.endpointLengths()) {
+        final boolean[] measured = recompute(Collections.singletonList(step), null, cameras);
+        recompute(plan.downstream(Collections.singletonList(step.target)), measured, cameras);
+      }
+    } finally {
+      bulk_update = false;
+    }
+  }
+
+  /** @return the compiled measurement plan. */
+  public MeasurementPlan getPlan() {
+    return plan;
+  }
+
+  /** @return the lens correction applied to the endpoints of lengths. */
+  public LensCorrection getLensCorrection() {
+    return lens;
+  }
+
+  /**
+   * Measure a length column of a row from its stored endpoints, as a reload of the sheet would,
+   * so that lengths saved interactively match the ones recomputed later.
+   *
+   * @param title the image.
+   * @param column the length column.
+   * @return the length between the endpoints, corrected for lens distortion when the camera of the
+   *     row is calibrated; null if the endpoints are incomplete or the column isn't a length.
+   */
+  public Double endpointLength(String title, String column) {
+    for (final MeasurementPlan.Step step : plan.endpointLengths()) {
+      if (!step.target.equals(column)) {
+        continue;
+      }
+      final HashMap<String, NumericColumn> columns = new HashMap<>();
+      for (final String input : step.inputs()) {
+        final NumericColumn value = new NumericColumn(1);
+        final Object stored = dataStore.get_value(title, input);
+        value.set(0, stored instanceof Number ? (Number) stored : null);
+        columns.put(input, value);
+      }
+      final LensCorrection.Calibration camera =
+          lens.get(
+              dataStore.get_value(title, LensCorrection.MAKE_COLUMN),
+              dataStore.get_value(title, LensCorrection.MODEL_COLUMN));
+      final LensCorrection.Calibration[] cameras =
+          null == camera ? null : new LensCorrection.Calibration[] {camera};
+      return step.evaluate(LensCorrection.correctEndpoints(step, columns::get, cameras), 1).get(0);
+    }
+    return null;
+  }
+
+  /**
+   * Perform a measurement, correcting the endpoints of lengths for lens distortion when the camera
+   * of the row is calibrated.
+   *
+   * @param measure the name of the measurement.
+   * @param title the image to measure.
+   * @return the measurement. May be null if all parameters are not present.
+   */
+  @Override
+  public Object do_measurement(String measure, String title) {
+    final CalculatorConfigItem item = measurement_dependencies.get(measure);
+    if (lens.isEmpty()
+        || null == item
+        || null != item.formula
+        || !LensCorrection.LENGTH_FUNCTION.equals(item.function)
+        || 4 != item.parameters.length) {
+      return super.do_measurement(measure, title);
+    }
+    final LensCorrection.Calibration camera =
+        lens.get(
+            dataStore.get_value(title, LensCorrection.MAKE_COLUMN),
+            dataStore.get_value(title, LensCorrection.MODEL_COLUMN));
+    if (null == camera) {
+      return super.do_measurement(measure, title);
+    }
+    final double[] x = new double[2];
+    final double[] y = new double[2];
+    for (int i = 0; i < 4; i++) {
+      final Object value = retrieve_scalar_argument(title, item.parameters[i]);
+      if (!(value instanceof Number)) {
+        return null;
+      }
+      (0 == i % 2 ? x : y)[i / 2] = ((Number) value).doubleValue();
+    }
+    camera.undistort(x, y, 0);
+    camera.undistort(x, y, 1);
+    return length(x[0], y[0], x[1], y[1]);
+  }
+
+  /**
+   * Recompute measurements.
+   *
+   * <p>Vectorized steps are evaluated once per column, the others fall back to measuring row by
+   * row.
+   *
+   * @param steps the steps to run, in dependency order.
+   * @param rows the rows to update, null for every row.
+   * @param cameras the lens calibration of each row, null to skip the correction.
+   * @return the rows where the last step produced a value.
+   */
+  private boolean[] recompute(
+      List<MeasurementPlan.Step> steps, boolean[] rows, LensCorrection.Calibration[] cameras) {
+    final int nRows = dataStore.getRowCount();
+    final HashMap<String, NumericColumn> columns = new HashMap<>();
+    final Function<String, NumericColumn> lookup =
+        name -> columns.computeIfAbsent(name, dataStore::get_numeric_column);
+    boolean[] measured = new boolean[nRows];
+    for (final MeasurementPlan.Step step : steps) {
+      if (step.isVectorized()) {
+        final NumericColumn result =
+            step.evaluate(LensCorrection.correctEndpoints(step, lookup, cameras), nRows);
+        measured = result.present;
+        NumericColumn stored = result;
+        if (step.keep_existing) {
+          stored = stored.orElse(lookup.apply(step.target));
+        }
+        if (null != rows) {
+          stored = lookup.apply(step.target).where(rows, stored);
         }
-        for (final String columnName : lengthColumns) {
-          final Point[] endpoints = dataStore.getEndpoints(rowName, columnName);
-          if (null != endpoints) {
-            final Double measuredLength =
-                length(
-                    endpoints[0].x, endpoints[0].y, endpoints[1].x, endpoints[1].y);
-            if (null != measuredLength) {
-              dataStore.insert_value(rowName, columnName, measuredLength);
-            }
+        columns.put(step.target, stored);
+        dataStore.set_numeric_column(step.target, stored);
+      } else {
+        columns.remove(step.target);
+        measured = new boolean[nRows];
+        for (int row = 0; row < nRows; row++) {
+          if (null != rows && !rows[row]) {
+            continue;
           }
+          final String row_name = dataStore.getRowName(row);
+          final Object measurement_result = do_measurement(step.target, row_name);
+          measured[row] = null != measurement_result;
+          dataStore.insert_value(row_name, step.target, measurement_result);
         }
       }
-
-      dataStore.setDirty(false);
     }
+    return measured;
   }
 
   /**
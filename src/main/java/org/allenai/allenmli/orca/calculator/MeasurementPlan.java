@@ -0,0 +1,277 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.ColumnDescriptor;
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.NumericColumn;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * The measurements of a calculator configuration in dependency order, ready to be evaluated over
+ * whole columns.
+ *
+ * <p>A plan is compiled once from the configuration and the column definitions and is immutable
+ * afterwards, so it can be shared between threads. Steps whose function has a column-wise variant
+ * and whose inputs and target are floating point columns are evaluated with {@link
+ * ColumnFunctions} or their compiled {@link Formula}; the remaining steps have to be measured row by
+ * row.
+ */
+public final class MeasurementPlan {
+  private static final String LENGTH_FUNCTION = "length";
+  private static final String[] ENDPOINT_COLUMNS = {
+    "%s_x_start", "%s_y_start", "%s_x_end", "%s_y_end"
+  };
+
+  private final List<Step> steps;
+  private final List<Step> endpoint_lengths;
+  /** Maps a column to the targets of the steps that read it. */
+  private final Map<String, List<String>> consumers;
+
+  private MeasurementPlan(
+      List<Step> steps, List<Step> endpoint_lengths, Map<String, List<String>> consumers) {
+    this.steps = Collections.unmodifiableList(steps);
+    this.endpoint_lengths = Collections.unmodifiableList(endpoint_lengths);
+    this.consumers = consumers;
+  }
+
+  /**
+   * Compile a plan.
+   *
+   * @param config the calculator configuration.
+   * @param registry the functions available to the calculator.
+   * @param ds the data store, used to find the type of each column.
+   * @return the plan.
+   */
+  public static MeasurementPlan compile(
+      CalculatorConfig config, FunctionRegistry registry, DataStore ds) {
+    // Sorted so that the order of independent steps doesn't depend on hashing.
+    final TreeMap<String, CalculatorConfigItem> items = new TreeMap<>(config);
+    final HashMap<String, List<String>> consumers = new HashMap<>();
+    final HashMap<String, Integer> pending = new HashMap<>();
+    for (final CalculatorConfigItem item : items.values()) {
+      int inputs = 0;
+      for (final Object parameter : item.parameters) {
+        if (isColumn(parameter)) {
+          consumers.computeIfAbsent((String) parameter, k -> new ArrayList<>()).add(item.target);
+          if (items.containsKey(parameter)) {
+            inputs++;
+          }
+        }
+      }
+      pending.put(item.target, inputs);
+    }
+
+    // Kahn's algorithm.
+    final ArrayList<Step> ordered = new ArrayList<>();
+    final LinkedList<String> ready = new LinkedList<>();
+    for (final String target : items.keySet()) {
+      if (0 == pending.get(target)) {
+        ready.add(target);
+      }
+    }
+    while (!ready.isEmpty()) {
+      final String target = ready.removeFirst();
+      ordered.add(new Step(items.get(target), registry, ds, false));
+      for (final String consumer : consumers.getOrDefault(target, Collections.emptyList())) {
+        if (0 == pending.merge(consumer, -1, Integer::sum)) {
+          ready.add(consumer);
+        }
+      }
+    }
+    if (ordered.size() < items.size()) {
+      final Logger logger = new StderrLogService();
+      for (final CalculatorConfigItem item : items.values()) {
+        if (0 < pending.get(item.target)) {
+          logger.error(String.format("'%s' is part of a dependency cycle", item.target));
+          ordered.add(new Step(item, registry, ds, false));
+        }
+      }
+    }
+
+    // Lengths with stored endpoints are kept in step with those endpoints.
+    final ArrayList<Step> endpoint_lengths = new ArrayList<>();
+    if (null != registry.getColumnFunction(LENGTH_FUNCTION)) {
+      for (final ColumnDescriptor descriptor : new TreeMap<>(ds.descriptors).values()) {
+        if (!"length".equals(descriptor.measurement_type)) {
+          continue;
+        }
+        final Object[] parameters = new Object[ENDPOINT_COLUMNS.length];
+        for (int i = 0; i < ENDPOINT_COLUMNS.length; i++) {
+          parameters[i] = String.format(ENDPOINT_COLUMNS[i], descriptor.name);
+        }
+        final Step step =
+            new Step(
+                new CalculatorConfigItem(descriptor.name, parameters, LENGTH_FUNCTION),
+                registry,
+                ds,
+                true);
+        if (step.isVectorized()) {
+          endpoint_lengths.add(step);
+        }
+      }
+    }
+    return new MeasurementPlan(ordered, endpoint_lengths, consumers);
+  }
+
+  /**
+   * @param parameter a configuration parameter.
+   * @return true if the parameter refers to a column rather than being a literal.
+   */
+  static boolean isColumn(Object parameter) {
+    return parameter instanceof String && !((String) parameter).contains("\"");
+  }
+
+  /** @return every step in dependency order. */
+  public List<Step> steps() {
+    return steps;
+  }
+
+  /**
+   * Steps that recompute each length column from its stored endpoints, keeping the existing value
+   * where the endpoints are incomplete.
+   *
+   * @return the steps, in column name order.
+   */
+  public List<Step> endpointLengths() {
+    return endpoint_lengths;
+  }
+
+  /**
+   * Find the steps affected by a change to some columns.
+   *
+   * @param columns the changed columns.
+   * @return the steps that depend, directly or indirectly, on <code>columns</code> in dependency
+   *     order.
+   */
+  public List<Step> downstream(Collection<String> columns) {
+    final HashSet<String> affected = new HashSet<>();
+    final LinkedList<String> queue = new LinkedList<>(columns);
+    while (!queue.isEmpty()) {
+      final String column = queue.removeFirst();
+      for (final String target : consumers.getOrDefault(column, Collections.emptyList())) {
+        if (affected.add(target)) {
+          queue.add(target);
+        }
+      }
+    }
+    final ArrayList<Step> result = new ArrayList<>();
+    for (final Step step : steps) {
+      if (affected.contains(step.target)) {
+        result.add(step);
+      }
+    }
+    return result;
+  }
+
+  /** A single measurement in a plan. */
+  public static final class Step {
+    public final String target;
+    public final String function;
+    /** When true, rows the measurement can't compute should keep their current value. */
+    public final boolean keep_existing;
+
+    private final Object[] parameters;
+    private final ColumnFunction column_function;
+
+    private Step(
+        CalculatorConfigItem item, FunctionRegistry registry, DataStore ds, boolean keep_existing) {
+      target = item.target;
+      function = item.function;
+      parameters = item.parameters.clone();
+      this.keep_existing = keep_existing;
+      final ColumnFunction candidate =
+          null != item.formula
+              ? item.formula::evaluateColumns
+              : registry.getColumnFunction(function);
+      column_function =
+          null != candidate && isFloatColumn(ds, target) && hasNumericInputs(ds) ? candidate : null;
+    }
+
+    private boolean hasNumericInputs(DataStore ds) {
+      for (final Object parameter : parameters) {
+        if (isColumn(parameter)) {
+          if (!isFloatColumn(ds, (String) parameter)) {
+            return false;
+          }
+        } else if (!(parameter instanceof Number)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean isFloatColumn(DataStore ds, String column) {
+      final ColumnDescriptor descriptor = ds.descriptors.get(column);
+      return null != descriptor && Double.class == ds.UNIT_CLASSES.get(descriptor.units);
+    }
+
+    /** @return the columns the step reads, in parameter order. */
+    public List<String> inputs() {
+      final ArrayList<String> inputs = new ArrayList<>();
+      for (final Object parameter : parameters) {
+        if (isColumn(parameter)) {
+          inputs.add((String) parameter);
+        }
+      }
+      return inputs;
+    }
+
+    /** @return true if the step can be evaluated column-wise. */
+    public boolean isVectorized() {
+      return null != column_function;
+    }
+
+    /**
+     * Evaluate the step over whole columns.
+     *
+     * <p><code>keep_existing</code> is left to the caller, the result is missing wherever the
+     * measurement can't be computed.
+     *
+     * @param columns supplies the current contents of a column by name.
+     * @param nRows the number of rows, used to expand literal parameters.
+     * @return the measured column.
+     * @throws IllegalStateException if the step isn't vectorized.
+     */
+    public NumericColumn evaluate(Function<String, NumericColumn> columns, int nRows) {
+      if (!isVectorized()) {
+        throw new IllegalStateException(String.format("'%s' can't be evaluated by column", target));
+      }
+      final NumericColumn[] arguments = new NumericColumn[parameters.length];
+      for (int i = 0; i < parameters.length; i++) {
+        final Object parameter = parameters[i];
+        arguments[i] =
+            parameter instanceof Number
+                ? NumericColumn.constant(nRows, ((Number) parameter).doubleValue())
+                : columns.apply((String) parameter);
+      }
+      return column_function.apply(arguments);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import java.util.Arrays;
+
+/**
+ * 64 bit perceptual hash of a frame, used to find near-duplicate frames such as those of a burst.
+ *
+ * <p>The frame is shrunk to {@value #SIZE} by {@value #SIZE} cells by averaging, transformed with
+ * a DCT, and each of the 8 by 8 lowest frequencies sets a bit when it is above the median of the
+ * AC terms. Frames that look alike differ in few bits, whatever their size and overall brightness.
+ */
+public final class PerceptualHash {
+  /** Width and height of the shrunk frame. */
+  static final int SIZE = 32;
+  /** Width and height of the block of frequencies kept. */
+  private static final int KEPT = 8;
+  /** Most samples averaged along each axis of a cell, bounding the cost for large frames. */
+  private static final int SAMPLES = 8;
+  /** DCT-II basis, <code>COSINES[k][n] = cos(pi (2n + 1) k / 2N)</code>. */
+  private static final double[][] COSINES = new double[KEPT][SIZE];
+
+  static {
+    for (int k = 0; k < KEPT; k++) {
+      for (int n = 0; n < SIZE; n++) {
+        COSINES[k][n] = Math.cos(Math.PI * (2 * n + 1) * k / (2.0 * SIZE));
+      }
+    }
+  }
+
+  private PerceptualHash() {}
+
+  /**
+   * Hash a frame.
+   *
+   * @param image the pixels of the frame.
+   * @param width the width of the frame.
+   * @param height the height of the frame.
+   * @return the hash.
+   */
+  public static long hash(WidthExtractor.Image image, int width, int height) {
+    final double[][] cells = new double[SIZE][SIZE];
+    for (int cy = 0; cy < SIZE; cy++) {
+      final int y0 = cy * height / SIZE;
+      final int y1 = Math.max(y0 + 1, (cy + 1) * height / SIZE);
+      final int ystep = Math.max(1, (y1 - y0) / SAMPLES);
+      for (int cx = 0; cx < SIZE; cx++) {
+        final int x0 = cx * width / SIZE;
+        final int x1 = Math.max(x0 + 1, (cx + 1) * width / SIZE);
+        final int xstep = Math.max(1, (x1 - x0) / SAMPLES);
+        double sum = 0;
+        int n = 0;
+        for (int y = y0; y < y1 && y < height; y += ystep) {
+          for (int x = x0; x < x1 && x < width; x += xstep) {
+            sum += image.value(x, y);
+            n++;
+          }
+        }
+        cells[cy][cx] = 0 == n ? 0 : sum / n;
+      }
+    }
+
+    // Separable DCT, keeping only the low frequencies.
+    final double[][] rows = new double[SIZE][KEPT];
+    for (int y = 0; y < SIZE; y++) {
+      for (int u = 0; u < KEPT; u++) {
+        double sum = 0;
+        for (int x = 0; x < SIZE; x++) {
+          sum += cells[y][x] * COSINES[u][x];
+        }
+        rows[y][u] = sum;
+      }
+    }
+    final double[] coefficients = new double[KEPT * KEPT];
+    for (int v = 0; v < KEPT; v++) {
+      for (int u = 0; u < KEPT; u++) {
+        double sum = 0;
+        for (int y = 0; y < SIZE; y++) {
+          sum += rows[y][u] * COSINES[v][y];
+        }
+        coefficients[v * KEPT + u] = sum;
+      }
+    }
+
+    final double[] ac = Arrays.copyOfRange(coefficients, 1, coefficients.length);
+    Arrays.sort(ac);
+    final double median = ac[ac.length / 2];
+    long hash = 0;
+    for (int i = 0; i < coefficients.length; i++) {
+      if (coefficients[i] > median) {
+        hash |= 1L << i;
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * @param a a hash.
+   * @param b another hash.
+   * @return the number of bits that differ.
+   */
+  public static int distance(long a, long b) {
+    return Long.bitCount(a ^ b);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.helpers.ConfigurationFile;
+import org.allenai.allenmli.orca.helpers.ConfigurationFileLoadException;
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The settings of the confidence interval estimate, loaded from <code>UncertaintyConf.json</code>.
+ */
+public final class UncertaintyConfig {
+  /** The number of times each row is resampled. */
+  public final int samples;
+  /** The confidence level of the intervals. */
+  public final double confidence;
+  /** The seed of the random number generator. */
+  public final long seed;
+
+  private final List<ErrorModel> errors;
+
+  /**
+   * @param samples the number of times each row is resampled, at least 2.
+   * @param confidence the confidence level, strictly between 0 and 1.
+   * @param seed the seed of the random number generator.
+   * @param errors the error models, the first one matching a column applies to it.
+   * @throws IllegalArgumentException if <code>samples</code> or <code>confidence</code> is out of
+   *     range.
+   */
+  public UncertaintyConfig(int samples, double confidence, long seed, List<ErrorModel> errors) {
+    if (samples < 2) {
+      throw new IllegalArgumentException(String.format("Need at least 2 samples, got %d", samples));
+    }
+    if (!(confidence > 0 && confidence < 1)) {
+      throw new IllegalArgumentException(
+          String.format("The confidence level must be between 0 and 1, got %s", confidence));
+    }
+    this.samples = samples;
+    this.confidence = confidence;
+    this.seed = seed;
+    this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+  }
+
+  /**
+   * Load the configuration file.
+   *
+   * @return the configuration.
+   * @throws ConfigurationFileLoadException if the file can't be read or has invalid values.
+   */
+  public static UncertaintyConfig load() throws ConfigurationFileLoadException {
+    final String filename = ConfigurationFile.UNCERTAINTY_CONFIG.getFilename();
+    final Map<String, Object> config = ConfigurationLoader.getJsonFileAsMap(filename);
+    try {
+      final ArrayList<ErrorModel> errors = new ArrayList<>();
+      for (final Object raw_item : (Object[]) config.getOrDefault("errors", new Object[0])) {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> item = (Map<String, Object>) raw_item;
+        errors.add(
+            new ErrorModel(
+                (String) item.get("column"),
+                ErrorModel.kindOf((String) item.get("model")),
+                ((Number) item.get("value")).doubleValue()));
+      }
+      return new UncertaintyConfig(
+          ((Number) config.getOrDefault("samples", 1000L)).intValue(),
+          ((Number) config.getOrDefault("confidence", 0.95)).doubleValue(),
+          ((Number) config.getOrDefault("seed", 1L)).longValue(),
+          errors);
+    } catch (final ClassCastException | NullPointerException | IllegalArgumentException e) {
+      throw new ConfigurationFileLoadException(
+          String.format("%s is invalid: %s", filename, e.getMessage()));
+    }
+  }
+
+  /** @return an unmodifiable view of the error models. */
+  public List<ErrorModel> errors() {
+    return errors;
+  }
+
+  /**
+   * @param column a column name.
+   * @return the first error model matching the column, null if the column is exact.
+   */
+  public ErrorModel modelFor(String column) {
+    for (final ErrorModel error : errors) {
+      if (error.matches(column)) {
+        return error;
+      }
+    }
+    return null;
+  }
+}
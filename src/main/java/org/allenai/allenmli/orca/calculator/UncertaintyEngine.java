@@ -0,0 +1,481 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.ColumnDescriptor;
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.NumericColumn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Monte Carlo estimate of the confidence intervals of the derived measurements.
+ *
+ * <p>Every row is resampled by perturbing the input columns with their {@link ErrorModel} and
+ * re-evaluating the measurement plan, and the intervals are read off the sorted samples. Only the
+ * vectorized steps are resampled; the others keep their measured value in every sample.
+ *
+ * <p>The rows are split into blocks that are evaluated in parallel on the common fork-join pool.
+ * Each block draws from its own <code>SplittableRandom</code>, split from the seed in block order,
+ * so the result depends only on the configuration and the data, not on the scheduling. Within a
+ * block the samples are evaluated a chunk at a time as one long column, so the column functions
+ * run over thousands of values per call.
+ */
+public final class UncertaintyEngine {
+  /** The name of the column holding the lower bound of a measurement. */
+  public static final String LOWER_COLUMN = "%s_ci_low";
+  /** The name of the column holding the upper bound of a measurement. */
+  public static final String UPPER_COLUMN = "%s_ci_high";
+
+  private static final int BLOCK_ROWS = 8;
+  private static final int SAMPLE_CHUNK = 1024;
+
+  private final UncertaintyConfig config;
+  private final List<MeasurementPlan.Step> steps = new ArrayList<>();
+  /** The measurements, in the order of <code>steps</code> without duplicates. */
+  private final List<String> targets;
+  /** The columns read by the steps without being computed by them, sorted. */
+  private final List<String> inputs;
+  /** The error model of each input, null for the inputs taken as exact. */
+  private final ErrorModel[] models;
+  /** The lens calibration of each row, null when lengths aren't corrected. */
+  private final LensCorrection.Calibration[] cameras;
+
+  private final AtomicBoolean cancelled = new AtomicBoolean();
+
+  /**
+   * @param plan the compiled measurement plan.
+   * @param config the sampling settings and error models.
+   */
+  public UncertaintyEngine(MeasurementPlan plan, UncertaintyConfig config) {
+    this(plan, config, null);
+  }
+
+  /**
+   * @param plan the compiled measurement plan.
+   * @param config the sampling settings and error models.
+   * @param cameras the lens calibration of each row, see {@link LensCorrection#cameras(DataStore)};
+   *     null to leave lengths uncorrected.
+   */
+  public UncertaintyEngine(
+      MeasurementPlan plan, UncertaintyConfig config, LensCorrection.Calibration[] cameras) {
+    this.config = config;
+    this.cameras = cameras;
+    steps.addAll(plan.endpointLengths());
+    for (final MeasurementPlan.Step step : plan.steps()) {
+      if (step.isVectorized()) {
+        steps.add(step);
+      }
+    }
+    final HashSet<String> derived = new HashSet<>();
+    for (final MeasurementPlan.Step step : plan.steps()) {
+      derived.add(step.target);
+    }
+    final LinkedHashSet<String> computed = new LinkedHashSet<>();
+    final TreeSet<String> read = new TreeSet<>();
+    for (final MeasurementPlan.Step step : steps) {
+      for (final String input : step.inputs()) {
+        if (!computed.contains(input)) {
+          read.add(input);
+        }
+      }
+      if (step.keep_existing) {
+        read.add(step.target);
+      }
+      computed.add(step.target);
+    }
+    targets = Collections.unmodifiableList(new ArrayList<>(computed));
+    inputs = Collections.unmodifiableList(new ArrayList<>(read));
+    models = new ErrorModel[inputs.size()];
+    for (int i = 0; i < models.length; i++) {
+      // Derived columns that aren't resampled keep their measured value.
+      models[i] = derived.contains(inputs.get(i)) ? null : config.modelFor(inputs.get(i));
+    }
+  }
+
+  /** @return the measurements the engine estimates intervals for. */
+  public List<String> targets() {
+    return targets;
+  }
+
+  /** @return the columns that have to be supplied to {@link #run(Map, int, DoubleConsumer)}. */
+  public List<String> inputs() {
+    return inputs;
+  }
+
+  /**
+   * Copy the input columns out of a data store, so the estimate can run off the event dispatch
+   * thread.
+   *
+   * @param ds the data store.
+   * @return the input columns keyed by name.
+   */
+  public Map<String, NumericColumn> snapshot(DataStore ds) {
+    final HashMap<String, NumericColumn> columns = new HashMap<>();
+    for (final String input : inputs) {
+      columns.put(input, ds.get_numeric_column(input));
+    }
+    return columns;
+  }
+
+  /** Stop a running estimate, which then throws a <code>CancellationException</code>. */
+  public void cancel() {
+    cancelled.set(true);
+  }
+
+  /**
+   * Estimate the confidence intervals.
+   *
+   * @param columns the input columns, see {@link #snapshot(DataStore)}.
+   * @param nRows the number of rows.
+   * @param progress receives the completed fraction, from the worker threads; may be null.
+   * @return the intervals of every measurement.
+   * @throws CancellationException if {@link #cancel()} was called.
+   */
+  public Result run(Map<String, NumericColumn> columns, int nRows, DoubleConsumer progress)
+      throws CancellationException {
+    cancelled.set(false);
+    final NumericColumn[] base = new NumericColumn[inputs.size()];
+    for (int i = 0; i < base.length; i++) {
+      base[i] = columns.get(inputs.get(i));
+      if (null == base[i] || base[i].size() != nRows) {
+        throw new IllegalArgumentException(
+            String.format("Missing or short input column '%s'", inputs.get(i)));
+      }
+    }
+    if (null != cameras && cameras.length != nRows) {
+      throw new IllegalArgumentException(
+          String.format("Got %d camera calibrations for %d rows", cameras.length, nRows));
+    }
+    final Result result = new Result(targets, nRows);
+    final int nBlocks = (nRows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+    final SplittableRandom root = new SplittableRandom(config.seed);
+    final SplittableRandom[] random = new SplittableRandom[nBlocks];
+    for (int block = 0; block < nBlocks; block++) {
+      random[block] = root.split();
+    }
+    final AtomicInteger completed = new AtomicInteger();
+    ForkJoinPool.commonPool()
+        .invoke(
+            new BlockTask(
+                0,
+                nBlocks,
+                block -> {
+                  if (cancelled.get()) {
+                    throw new CancellationException();
+                  }
+                  final int first = block * BLOCK_ROWS;
+                  sample(base, first, Math.min(nRows, first + BLOCK_ROWS), random[block], result);
+                  if (null != progress) {
+                    progress.accept(completed.incrementAndGet() / (double) nBlocks);
+                  }
+                }));
+    return result;
+  }
+
+  /**
+   * Resample a block of rows and record their intervals.
+   *
+   * @param base the input columns.
+   * @param first the first row of the block.
+   * @param last one past the last row of the block.
+   * @param random the random number source of the block.
+   * @param result receives the intervals.
+   */
+  private void sample(
+      NumericColumn[] base, int first, int last, SplittableRandom random, Result result) {
+    final int rows = last - first;
+    final int nSamples = config.samples;
+    final float[][][] samples = new float[targets.size()][rows][nSamples];
+    final HashMap<String, NumericColumn> columns = new HashMap<>();
+    LensCorrection.Calibration[] chunkCameras = null;
+    for (int start = 0; start < nSamples; start += SAMPLE_CHUNK) {
+      final int chunk = Math.min(SAMPLE_CHUNK, nSamples - start);
+      final int n = rows * chunk;
+      columns.clear();
+      if (null != cameras && (null == chunkCameras || chunkCameras.length != n)) {
+        chunkCameras = new LensCorrection.Calibration[n];
+        for (int row = 0; row < rows; row++) {
+          Arrays.fill(chunkCameras, row * chunk, (row + 1) * chunk, cameras[first + row]);
+        }
+      }
+      for (int i = 0; i < base.length; i++) {
+        final double[] values = new double[n];
+        final boolean[] present = new boolean[n];
+        final ErrorModel model = models[i];
+        for (int row = 0; row < rows; row++) {
+          final boolean measured = base[i].present[first + row];
+          final double value = base[i].values[first + row];
+          final int from = row * chunk;
+          final int to = from + chunk;
+          Arrays.fill(present, from, to, measured);
+          if (measured && null != model) {
+            model.perturb(value, values, from, to, random);
+          } else {
+            Arrays.fill(values, from, to, value);
+          }
+        }
+        columns.put(inputs.get(i), new NumericColumn(values, present));
+      }
+      for (final MeasurementPlan.Step step : steps) {
+        NumericColumn measured =
+            step.evaluate(LensCorrection.correctEndpoints(step, columns::get, chunkCameras), n);
+        if (step.keep_existing) {
+          measured = measured.orElse(columns.get(step.target));
+        }
+        columns.put(step.target, measured);
+      }
+      for (int t = 0; t < targets.size(); t++) {
+        final NumericColumn measured = columns.get(targets.get(t));
+        for (int row = 0; row < rows; row++) {
+          final float[] destination = samples[t][row];
+          for (int s = 0; s < chunk; s++) {
+            final int source = row * chunk + s;
+            destination[start + s] =
+                measured.present[source] ? (float) measured.values[source] : Float.NaN;
+          }
+        }
+      }
+    }
+    final double alpha = (1.0 - config.confidence) / 2.0;
+    for (int t = 0; t < targets.size(); t++) {
+      for (int row = 0; row < rows; row++) {
+        result.record(t, first + row, samples[t][row], alpha);
+      }
+    }
+  }
+
+  /** Splits a range of blocks in half until a single block is left. */
+  private static final class BlockTask extends RecursiveAction {
+    private final int first;
+    private final int last;
+    private final IntConsumer body;
+
+    BlockTask(int first, int last, IntConsumer body) {
+      this.first = first;
+      this.last = last;
+      this.body = body;
+    }
+
+    @Override
+    protected void compute() {
+      if (last - first <= 1) {
+        if (first < last) {
+          body.accept(first);
+        }
+        return;
+      }
+      final int middle = (first + last) >>> 1;
+      invokeAll(new BlockTask(first, middle, body), new BlockTask(middle, last, body));
+    }
+  }
+
+  /** The estimated intervals, one row per data store row. */
+  public static final class Result {
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final NumericColumn[] lower;
+    private final NumericColumn[] upper;
+    private final NumericColumn[] deviation;
+
+    private Result(List<String> targets, int nRows) {
+      lower = new NumericColumn[targets.size()];
+      upper = new NumericColumn[targets.size()];
+      deviation = new NumericColumn[targets.size()];
+      for (int t = 0; t < lower.length; t++) {
+        positions.put(targets.get(t), t);
+        lower[t] = new NumericColumn(nRows);
+        upper[t] = new NumericColumn(nRows);
+        deviation[t] = new NumericColumn(nRows);
+      }
+    }
+
+    /**
+     * Record the interval of one row, leaving it missing unless at least half of the samples
+     * could be measured.
+     *
+     * <p>Blocks cover disjoint rows, so concurrent calls never write the same element.
+     */
+    private void record(int target, int row, float[] samples, double alpha) {
+      // Move the unmeasured samples to the end.
+      int n = samples.length;
+      for (int i = n - 1; i >= 0; i--) {
+        if (Float.isNaN(samples[i])) {
+          samples[i] = samples[--n];
+          samples[n] = Float.NaN;
+        }
+      }
+      if (2 * n < samples.length) {
+        return;
+      }
+      double sum = 0;
+      for (int i = 0; i < n; i++) {
+        sum += samples[i];
+      }
+      final double mean = sum / n;
+      double squares = 0;
+      for (int i = 0; i < n; i++) {
+        squares += (samples[i] - mean) * (samples[i] - mean);
+      }
+      deviation[target].set(row, n > 1 ? Math.sqrt(squares / (n - 1)) : 0.0);
+      lower[target].set(row, quantile(samples, 0, n, alpha));
+      upper[target].set(row, quantile(samples, (int) (alpha * (n - 1)), n, 1.0 - alpha));
+    }
+
+    /**
+     * Interpolated quantile of the first <code>n</code> samples, found by selection rather than
+     * sorting.
+     *
+     * @param samples the samples, partially reordered by the call.
+     * @param from an index known to have no larger sample before it.
+     * @param n the number of samples.
+     * @param q the quantile.
+     * @return the quantile.
+     */
+    private static double quantile(float[] samples, int from, int n, double q) {
+      final double position = q * (n - 1);
+      final int below = (int) position;
+      select(samples, from, n, below);
+      float next = samples[below];
+      if (below + 1 < n) {
+        next = samples[below + 1];
+        for (int i = below + 2; i < n; i++) {
+          next = Math.min(next, samples[i]);
+        }
+      }
+      return samples[below] + (position - below) * (next - samples[below]);
+    }
+
+    /**
+     * Reorder a range so the element at <code>k</code> is the one that would be there if the
+     * range were sorted, with no larger element before it and no smaller one after it.
+     */
+    private static void select(float[] samples, int from, int to, int k) {
+      int left = from;
+      int right = to - 1;
+      while (left < right) {
+        final float pivot = samples[(left + right) >>> 1];
+        int i = left;
+        int j = right;
+        while (i <= j) {
+          while (samples[i] < pivot) {
+            i++;
+          }
+          while (samples[j] > pivot) {
+            j--;
+          }
+          if (i <= j) {
+            final float swap = samples[i];
+            samples[i++] = samples[j];
+            samples[j--] = swap;
+          }
+        }
+        if (k <= j) {
+          right = j;
+        } else if (k >= i) {
+          left = i;
+        } else {
+          return;
+        }
+      }
+    }
+
+    /** @return the measurements in the result. */
+    public List<String> targets() {
+      final ArrayList<String> targets = new ArrayList<>(positions.keySet());
+      Collections.sort(targets);
+      return targets;
+    }
+
+    /**
+     * @param target a measurement.
+     * @return the lower bound of the measurement in each row.
+     * @throws NoSuchElementException if the measurement wasn't estimated.
+     */
+    public NumericColumn lower(String target) {
+      return lower[position(target)];
+    }
+
+    /**
+     * @param target a measurement.
+     * @return the upper bound of the measurement in each row.
+     * @throws NoSuchElementException if the measurement wasn't estimated.
+     */
+    public NumericColumn upper(String target) {
+      return upper[position(target)];
+    }
+
+    /**
+     * @param target a measurement.
+     * @return the standard deviation of the samples of the measurement in each row.
+     * @throws NoSuchElementException if the measurement wasn't estimated.
+     */
+    public NumericColumn standard_deviation(String target) {
+      return deviation[position(target)];
+    }
+
+    private int position(String target) {
+      final Integer position = positions.get(target);
+      if (null == position) {
+        throw new NoSuchElementException(
+            String.format("%s has no confidence interval", target));
+      }
+      return position;
+    }
+
+    /**
+     * Write the bounds to the {@link #LOWER_COLUMN} and {@link #UPPER_COLUMN} columns of each
+     * measurement that has them.
+     *
+     * @param ds the data store the inputs were taken from, with the same rows.
+     * @return the columns written.
+     */
+    public List<String> store(DataStore ds) {
+      final ArrayList<String> stored = new ArrayList<>();
+      for (final String target : targets()) {
+        final String[] names = {
+          String.format(LOWER_COLUMN, target), String.format(UPPER_COLUMN, target)
+        };
+        final NumericColumn[] bounds = {lower(target), upper(target)};
+        for (int i = 0; i < names.length; i++) {
+          final ColumnDescriptor descriptor = ds.descriptors.get(names[i]);
+          if (null != descriptor && Double.class == ds.UNIT_CLASSES.get(descriptor.units)) {
+            ds.set_numeric_column(names[i], bounds[i]);
+            stored.add(names[i]);
+          }
+        }
+      }
+      return stored;
+    }
+  }
+}
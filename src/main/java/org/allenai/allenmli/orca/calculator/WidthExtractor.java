@@ -0,0 +1,253 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.Point;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Proposes width measurements by finding the body edges along the reference markers of a cue.
+ *
+ * <p>Each marker is a short segment perpendicular to the cue's axis. The image is sampled along
+ * the line through the marker, the samples are smoothed with a Gaussian and differentiated, and
+ * the strongest body to background edge on either side of the axis becomes an endpoint of the
+ * proposed width. Whether the body is brighter or darker than its surroundings is decided for each
+ * marker by comparing the middle of the profile with its ends. Markers are independent of each
+ * other and are processed in parallel.
+ */
+public final class WidthExtractor {
+  /** Source of pixel intensities, read concurrently from several threads. */
+  @FunctionalInterface
+  public interface Image {
+    /**
+     * @param x the column, within the image.
+     * @param y the row, within the image.
+     * @return the intensity of the pixel.
+     */
+    double value(int x, int y);
+  }
+
+  /** Key of the axis in the markers produced by <code>ReferenceCalculator</code>. */
+  static final String AXIS = "axis";
+  /** Default half-length of the search line as a fraction of the axis length. */
+  public static final double DEFAULT_SEARCH = 0.3;
+  /** Default standard deviation of the smoothing applied to each profile, in pixels. */
+  public static final double DEFAULT_SIGMA = 2.0;
+  /** Edges weaker than this fraction of the strongest gradient along the profile are ignored. */
+  private static final double MIN_EDGE = 0.25;
+
+  private final double search;
+  private final double[] kernel;
+
+  /** Construct an extractor with the default search length and smoothing. */
+  public WidthExtractor() {
+    this(DEFAULT_SEARCH, DEFAULT_SIGMA);
+  }
+
+  /**
+   * @param search the half-length of the search line as a fraction of the axis length.
+   * @param sigma the standard deviation of the smoothing in pixels, 0 for none.
+   */
+  public WidthExtractor(double search, double sigma) {
+    this.search = search;
+    final int radius = (int) Math.ceil(3 * sigma);
+    kernel = new double[2 * radius + 1];
+    double total = 0;
+    for (int i = -radius; i <= radius; i++) {
+      kernel[i + radius] = 0 == radius ? 1 : Math.exp(-0.5 * i * i / (sigma * sigma));
+      total += kernel[i + radius];
+    }
+    for (int i = 0; i < kernel.length; i++) {
+      kernel[i] /= total;
+    }
+  }
+
+  /**
+   * Propose a width for each marker of a cue.
+   *
+   * @param image the pixels of the frame.
+   * @param width the width of the frame.
+   * @param height the height of the frame.
+   * @param markers the markers, as returned by <code>ReferenceCalculator</code>.
+   * @param wanted selects the markers to measure by label.
+   * @return the proposed endpoints keyed by marker label, omitting markers where no edge was found
+   *     on one side or the other.
+   */
+  public HashMap<String, Point[]> extract(
+      Image image, int width, int height, Map<String, Point[]> markers, Predicate<String> wanted) {
+    final HashMap<String, Point[]> result = new HashMap<>();
+    final Point[] axis = markers.get(AXIS);
+    if (null == axis || 2 != axis.length) {
+      return result;
+    }
+    final double half = search * Math.hypot(axis[1].x - axis[0].x, axis[1].y - axis[0].y);
+    final ArrayList<String> labels = new ArrayList<>();
+    for (final Map.Entry<String, Point[]> entry : markers.entrySet()) {
+      if (!AXIS.equals(entry.getKey())
+          && 2 == entry.getValue().length
+          && wanted.test(entry.getKey())) {
+        labels.add(entry.getKey());
+      }
+    }
+    final Point[][] found = new Point[labels.size()][];
+    IntStream.range(0, labels.size())
+        .parallel()
+        .forEach(i -> found[i] = edges(image, width, height, markers.get(labels.get(i)), half));
+    for (int i = 0; i < found.length; i++) {
+      if (null != found[i]) {
+        result.put(labels.get(i), found[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the body edges along the line through a marker.
+   *
+   * @return the edge towards the first point of the marker followed by the edge towards the
+   *     second, null if either is missing.
+   */
+  private Point[] edges(Image image, int width, int height, Point[] marker, double half) {
+    final double cx = (marker[0].x + marker[1].x) / 2;
+    final double cy = (marker[0].y + marker[1].y) / 2;
+    final double length = Math.hypot(marker[1].x - marker[0].x, marker[1].y - marker[0].y);
+    if (0 == length || half < 2) {
+      return null;
+    }
+    final double ux = (marker[1].x - marker[0].x) / length;
+    final double uy = (marker[1].y - marker[0].y) / length;
+
+    // Sample one pixel apart, stopping at the edges of the frame.
+    final int reach = (int) Math.ceil(half);
+    final double[] samples = new double[2 * reach + 1];
+    final boolean[] inside = new boolean[samples.length];
+    for (int i = 0; i < samples.length; i++) {
+      final double x = cx + ux * (i - reach);
+      final double y = cy + uy * (i - reach);
+      inside[i] = x >= 0 && y >= 0 && x <= width - 1 && y <= height - 1;
+      if (inside[i]) {
+        samples[i] = interpolate(image, width, height, x, y);
+      }
+    }
+    int lo = reach;
+    while (lo > 0 && inside[lo - 1]) {
+      lo--;
+    }
+    int hi = reach;
+    while (hi < samples.length - 1 && inside[hi + 1]) {
+      hi++;
+    }
+    if (!inside[reach] || hi - lo < 4) {
+      return null;
+    }
+
+    final int n = hi - lo + 1;
+    final double[] smooth = new double[n];
+    final int radius = kernel.length / 2;
+    for (int i = 0; i < n; i++) {
+      double sum = 0;
+      for (int k = -radius; k <= radius; k++) {
+        sum += kernel[k + radius] * samples[lo + Math.min(n - 1, Math.max(0, i + k))];
+      }
+      smooth[i] = sum;
+    }
+    final double[] gradient = new double[n];
+    double strongest = 0;
+    for (int i = 1; i < n - 1; i++) {
+      gradient[i] = (smooth[i + 1] - smooth[i - 1]) / 2;
+      strongest = Math.max(strongest, Math.abs(gradient[i]));
+    }
+    if (0 == strongest) {
+      return null;
+    }
+
+    // The middle of the profile is assumed to lie on the body.
+    final int center = reach - lo;
+    final int core = Math.max(1, reach / 10);
+    final int tail = Math.max(1, n / 10);
+    final double inner = mean(smooth, center - core, center + core);
+    final double outer = (mean(smooth, 0, tail - 1) + mean(smooth, n - tail, n - 1)) / 2;
+    final double polarity = inner >= outer ? 1 : -1;
+
+    final double threshold = MIN_EDGE * strongest;
+    final double before = strongest(gradient, 1, center - 1, polarity, threshold);
+    final double after = strongest(gradient, center + 1, n - 2, -polarity, threshold);
+    if (Double.isNaN(before) || Double.isNaN(after)) {
+      return null;
+    }
+    final double t0 = before + lo - reach;
+    final double t1 = after + lo - reach;
+    return new Point[] {
+      new Point(cx + ux * t0, cy + uy * t0), new Point(cx + ux * t1, cy + uy * t1)
+    };
+  }
+
+  /** Sample the image with bilinear interpolation at a point within the frame. */
+  private static double interpolate(Image image, int width, int height, double x, double y) {
+    final int x0 = (int) x;
+    final int y0 = (int) y;
+    final int x1 = Math.min(x0 + 1, width - 1);
+    final int y1 = Math.min(y0 + 1, height - 1);
+    final double fx = x - x0;
+    final double fy = y - y0;
+    final double top = image.value(x0, y0) * (1 - fx) + image.value(x1, y0) * fx;
+    final double bottom = image.value(x0, y1) * (1 - fx) + image.value(x1, y1) * fx;
+    return top * (1 - fy) + bottom * fy;
+  }
+
+  private static double mean(double[] values, int from, int to) {
+    from = Math.max(0, from);
+    to = Math.min(values.length - 1, to);
+    double sum = 0;
+    for (int i = from; i <= to; i++) {
+      sum += values[i];
+    }
+    return sum / (to - from + 1);
+  }
+
+  /**
+   * Locate the strongest edge of one sign within a range of the gradient.
+   *
+   * @param sign 1 to look for rising edges, -1 for falling edges.
+   * @return the position of the edge to a fraction of a sample, NaN if no edge reaches
+   *     <code>threshold</code>.
+   */
+  private static double strongest(
+      double[] gradient, int from, int to, double sign, double threshold) {
+    int best = -1;
+    double best_score = threshold;
+    for (int i = from; i <= to; i++) {
+      if (sign * gradient[i] > best_score) {
+        best_score = sign * gradient[i];
+        best = i;
+      }
+    }
+    if (best < 0) {
+      return Double.NaN;
+    }
+    // Refine to a fraction of a sample by fitting a parabola through the peak.
+    final double a = sign * gradient[best - 1];
+    final double c = sign * gradient[best + 1];
+    final double curvature = a - 2 * best_score + c;
+    return curvature < 0 ? best + Math.max(-0.5, Math.min(0.5, 0.5 * (a - c) / curvature)) : best;
+  }
+}
@@ -0,0 +1,497 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.math.BigInteger;
+
+/**
+ * Converts the cells of the numeric and boolean columns of a sheet to and from their CSV text.
+ *
+ * <p>Cells are parsed straight from a range of characters, without trimming or copying them. A
+ * decimal number with at most 15 significant digits and a power of ten up to 22 is exactly one
+ * multiplication or division of two doubles that are themselves exact. Other numbers of up to 19
+ * digits, such as the 17 digits <code>Double.toString</code> writes for computed values, are
+ * converted with the Eisel-Lemire algorithm: the digits are multiplied by a 128 bit approximation
+ * of the power of ten, which decides the nearest double unless the product is too close to half
+ * way between two doubles. Only those rare cases and unusual text such as <code>NaN</code> go
+ * through <code>Double.parseDouble</code>.
+ *
+ * <p>Doubles are written in the style of <code>Double.toString</code>, into a buffer the caller
+ * reuses, with the fewest significant digits that read back as the same double and the closest
+ * such decimal when there are several; as that style always shows two digits, a closer two digit
+ * decimal is preferred to a one digit one. The digits come from Giulietti's Schubfach algorithm:
+ * the value and the ends of the interval of reals that round to it are scaled by a 126 bit
+ * approximation of a power of ten, chosen so that only the decimals next to the scaled value, or
+ * those with one digit fewer, can be the answer. This is exact over the whole range of doubles,
+ * unlike <code>Double.toString</code> before Java 19, which sometimes writes a digit too many.
+ */
+final class CellCodec {
+  /** Most significant digits of an exactly representable decimal mantissa, below 2^53. */
+  private static final int MAX_EXACT_DIGITS = 15;
+  /** Most significant digits that fit in an unsigned long. */
+  private static final int MAX_DIGITS = 19;
+  /** Powers of ten that are exact doubles. */
+  private static final double[] POW10 = new double[23];
+  /** Powers of ten with a 128 bit approximation, beyond which doubles are 0 or infinite. */
+  private static final int MIN_EXPONENT = -342;
+  private static final int MAX_EXPONENT = 308;
+  /** High and low halves of the normalized 128 bit approximations of the powers of ten. */
+  private static final long[] POW10_HI = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+  private static final long[] POW10_LO = new long[POW10_HI.length];
+  /** Powers of ten the shortest digits of a double are scaled by. */
+  private static final int K_MIN = -324;
+  private static final int K_MAX = 292;
+  /**
+   * For each k, <code>floor(10^-k / 2^r) + 1</code> with r such that it lies in [2^125, 2^126),
+   * split into its high and low 63 bits.
+   */
+  private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+  private static final long MASK_63 = Long.MAX_VALUE;
+  /** Bits of the significand of a double, including the implicit leading bit. */
+  private static final int P = 53;
+  /** Smallest binary exponent of the significand of a double. */
+  private static final int Q_MIN = -1074;
+  private static final long C_MIN = 1L << (P - 1);
+  /** Subnormal significands below this are scaled by ten to keep enough precision. */
+  private static final long C_TINY = 3;
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i - 1] * 10;
+    }
+    // The approximations of the Eisel-Lemire algorithm: 5^q truncated for q >= 0, and one more
+    // than the truncated reciprocal of 5^-q below, normalized so the top bit is set.
+    final BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    BigInteger power = BigInteger.ONE;
+    for (int q = 0; q <= -MIN_EXPONENT; q++) {
+      if (q <= MAX_EXPONENT) {
+        store(q, power.shiftLeft(Math.max(0, 128 - power.bitLength())), mask);
+      }
+      if (q > 0) {
+        final int z = power.bitLength();
+        final int b = q <= 27 ? z + 127 : 2 * z + 128;
+        store(-q, BigInteger.ONE.shiftLeft(b).divide(power).add(BigInteger.ONE), mask);
+      }
+      power = power.multiply(BigInteger.valueOf(5));
+    }
+    // The approximations of the Schubfach algorithm.
+    final BigInteger mask_63 = BigInteger.valueOf(MASK_63);
+    for (int k = K_MIN; k <= K_MAX; k++) {
+      final BigInteger ten = BigInteger.TEN.pow(Math.abs(k));
+      final BigInteger floor;
+      if (k <= 0) {
+        final int r = ten.bitLength() - 126;
+        floor = r >= 0 ? ten.shiftRight(r) : ten.shiftLeft(-r);
+      } else {
+        floor = BigInteger.ONE.shiftLeft(125 + ten.bitLength()).divide(ten);
+      }
+      final BigInteger g = floor.add(BigInteger.ONE);
+      G[2 * (k - K_MIN)] = g.shiftRight(63).longValue();
+      G[2 * (k - K_MIN) + 1] = g.and(mask_63).longValue();
+    }
+  }
+
+  private static void store(int exponent, BigInteger value, BigInteger mask) {
+    final BigInteger truncated = value.shiftRight(Math.max(0, value.bitLength() - 128));
+    POW10_HI[exponent - MIN_EXPONENT] = truncated.shiftRight(64).longValue();
+    POW10_LO[exponent - MIN_EXPONENT] = truncated.and(mask).longValue();
+  }
+
+  private CellCodec() {}
+
+  private static boolean space(char c) {
+    return c <= ' ';
+  }
+
+  /**
+   * @param text the text holding the cell.
+   * @param start the first character of the cell.
+   * @param end one past the last character of the cell.
+   * @return true if the cell is blank or <code>NA</code>, ignoring surrounding white space.
+   */
+  static boolean is_missing(CharSequence text, int start, int end) {
+    while (start < end && space(text.charAt(start))) {
+      start++;
+    }
+    while (end > start && space(text.charAt(end - 1))) {
+      end--;
+    }
+    return start == end
+        || (2 == end - start && 'N' == text.charAt(start) && 'A' == text.charAt(start + 1));
+  }
+
+  /**
+   * Parse a number, ignoring surrounding white space.
+   *
+   * @param text the text holding the cell.
+   * @param start the first character of the cell.
+   * @param end one past the last character of the cell.
+   * @return the double nearest to the number.
+   * @throws NumberFormatException if the cell isn't a number <code>Double.parseDouble</code>
+   *     accepts.
+   */
+  static double parse_double(CharSequence text, int start, int end) {
+    while (start < end && space(text.charAt(start))) {
+      start++;
+    }
+    while (end > start && space(text.charAt(end - 1))) {
+      end--;
+    }
+    int i = start;
+    boolean negative = false;
+    if (i < end && ('-' == text.charAt(i) || '+' == text.charAt(i))) {
+      negative = '-' == text.charAt(i);
+      i++;
+    }
+    long mantissa = 0; // Unsigned.
+    int digits = 0; // Significant digits in the mantissa.
+    int scale = 0; // Power of ten the mantissa is multiplied by.
+    boolean seen_digit = false;
+    boolean fraction = false;
+    for (; i < end; i++) {
+      final char c = text.charAt(i);
+      if ('0' <= c && c <= '9') {
+        seen_digit = true;
+        if (0 != mantissa || '0' != c) {
+          if (++digits > MAX_DIGITS) {
+            return Double.parseDouble(text.subSequence(start, end).toString());
+          }
+          mantissa = 10 * mantissa + (c - '0');
+        }
+        if (fraction) {
+          scale--;
+        }
+      } else if ('.' == c && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    if (i < end && seen_digit && ('e' == text.charAt(i) || 'E' == text.charAt(i))) {
+      i++;
+      boolean negative_exponent = false;
+      if (i < end && ('-' == text.charAt(i) || '+' == text.charAt(i))) {
+        negative_exponent = '-' == text.charAt(i);
+        i++;
+      }
+      int exponent = 0;
+      final int first = i;
+      for (; i < end && '0' <= text.charAt(i) && text.charAt(i) <= '9'; i++) {
+        exponent = Math.min(10000, 10 * exponent + (text.charAt(i) - '0'));
+      }
+      if (first == i) {
+        seen_digit = false; // No exponent digits, let the general path reject it.
+      }
+      scale += negative_exponent ? -exponent : exponent;
+    }
+    if (i != end || !seen_digit) {
+      return Double.parseDouble(text.subSequence(start, end).toString());
+    }
+    double value;
+    if (0 == mantissa) {
+      value = 0;
+    } else if (digits <= MAX_EXACT_DIGITS && scale >= -22 && scale <= 22) {
+      value = mantissa;
+      value = scale < 0 ? value / POW10[-scale] : value * POW10[scale];
+    } else if (scale >= MIN_EXPONENT && scale <= MAX_EXPONENT) {
+      value = eisel_lemire(mantissa, scale);
+      if (Double.isNaN(value)) {
+        return Double.parseDouble(text.subSequence(start, end).toString());
+      }
+    } else {
+      return Double.parseDouble(text.subSequence(start, end).toString());
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * @param mantissa the digits as an unsigned number, not 0.
+   * @param exponent the power of ten, from <code>MIN_EXPONENT</code> to <code>MAX_EXPONENT</code>.
+   * @return the positive double nearest to <code>mantissa * 10^exponent</code>, NaN if it can't be
+   *     decided from the 128 bit approximation or isn't a normal double.
+   */
+  private static double eisel_lemire(long mantissa, int exponent) {
+    final int index = exponent - MIN_EXPONENT;
+    final int leading = Long.numberOfLeadingZeros(mantissa);
+    final long normalized = mantissa << leading;
+    long binary_exponent = ((217706L * exponent) >> 16) + 64 + 1023 - leading;
+    long high = multiply_high(normalized, POW10_HI[index]);
+    long low = normalized * POW10_HI[index];
+    if (0x1FF == (high & 0x1FF) && Long.compareUnsigned(low + normalized, normalized) < 0) {
+      // The truncated product may be off in the bits that decide rounding, add the low half.
+      final long carry_high = multiply_high(normalized, POW10_LO[index]);
+      final long carry_low = normalized * POW10_LO[index];
+      long merged_high = high;
+      final long merged_low = low + carry_high;
+      if (Long.compareUnsigned(merged_low, low) < 0) {
+        merged_high++;
+      }
+      if (0x1FF == (merged_high & 0x1FF)
+          && -1 == merged_low
+          && Long.compareUnsigned(carry_low + normalized, normalized) < 0) {
+        return Double.NaN;
+      }
+      high = merged_high;
+      low = merged_low;
+    }
+    final long top = high >>> 63;
+    long bits = high >>> (top + 9);
+    binary_exponent -= 1 ^ top;
+    if (0 == low && 0 == (high & 0x1FF) && 1 == (bits & 3)) {
+      return Double.NaN; // Possibly exactly half way, rounding needs every digit.
+    }
+    bits += bits & 1;
+    bits >>>= 1;
+    if (0 != (bits >>> 53)) {
+      bits >>>= 1;
+      binary_exponent++;
+    }
+    if (Long.compareUnsigned(binary_exponent - 1, 0x7FF - 1) >= 0) {
+      return Double.NaN; // Subnormal or infinite.
+    }
+    return Double.longBitsToDouble(binary_exponent << 52 | bits & 0x000FFFFFFFFFFFFFL);
+  }
+
+  /** @return the high 64 bits of the unsigned 128 bit product. */
+  private static long multiply_high(long a, long b) {
+    final long a_low = a & 0xFFFFFFFFL;
+    final long a_high = a >>> 32;
+    final long b_low = b & 0xFFFFFFFFL;
+    final long b_high = b >>> 32;
+    final long low_low = a_low * b_low;
+    final long high_low = a_high * b_low;
+    final long cross = (low_low >>> 32) + (high_low & 0xFFFFFFFFL) + a_low * b_high;
+    return a_high * b_high + (high_low >>> 32) + (cross >>> 32);
+  }
+
+  /**
+   * Parse an integer, ignoring surrounding white space and dropping any fraction.
+   *
+   * @param text the text holding the cell.
+   * @param start the first character of the cell.
+   * @param end one past the last character of the cell.
+   * @return the integer.
+   * @throws NumberFormatException if the part before any '.' isn't an <code>int</code>.
+   */
+  static int parse_int(CharSequence text, int start, int end) {
+    while (start < end && space(text.charAt(start))) {
+      start++;
+    }
+    while (end > start && space(text.charAt(end - 1))) {
+      end--;
+    }
+    int stop = start;
+    while (stop < end && '.' != text.charAt(stop)) {
+      stop++;
+    }
+    int i = start;
+    final boolean negative = i < stop && '-' == text.charAt(i);
+    if (i < stop && ('-' == text.charAt(i) || '+' == text.charAt(i))) {
+      i++;
+    }
+    long value = 0;
+    final int first = i;
+    for (; i < stop && i - first < 11; i++) {
+      final char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      value = 10 * value + (c - '0');
+    }
+    value = negative ? -value : value;
+    if (i != stop || first == stop || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      return Integer.parseInt(text.subSequence(start, stop).toString());
+    }
+    return (int) value;
+  }
+
+  /**
+   * @param text the text holding the cell.
+   * @param start the first character of the cell.
+   * @param end one past the last character of the cell.
+   * @return true if the cell is <code>true</code>, ignoring surrounding white space.
+   */
+  static boolean parse_boolean(CharSequence text, int start, int end) {
+    while (start < end && space(text.charAt(start))) {
+      start++;
+    }
+    while (end > start && space(text.charAt(end - 1))) {
+      end--;
+    }
+    return 4 == end - start
+        && 't' == text.charAt(start)
+        && 'r' == text.charAt(start + 1)
+        && 'u' == text.charAt(start + 2)
+        && 'e' == text.charAt(start + 3);
+  }
+
+  /**
+   * Append the shortest decimal that reads back as a double. Values from 0.001 up to 10^7 are
+   * written in plain notation with at least one decimal, others in the scientific notation of
+   * <code>Double.toString</code>, e.g. <code>5.684341886080802E-14</code>.
+   *
+   * @param value the value.
+   * @param out the buffer the text is appended to.
+   */
+  static void format_double(double value, StringBuilder out) {
+    final long bits = Double.doubleToRawLongBits(value);
+    final long t = bits & (C_MIN - 1);
+    final int bq = (int) (bits >>> (P - 1)) & 0x7FF;
+    if (0x7FF == bq || (0 == bq && 0 == t)) {
+      out.append(value); // Zero, infinities and NaN.
+      return;
+    }
+    if (bits < 0) {
+      out.append('-');
+    }
+    if (0 == bq) {
+      // Subnormal.
+      if (t < C_TINY) {
+        shortest(Q_MIN, 10 * t, -1, out);
+      } else {
+        shortest(Q_MIN, t, 0, out);
+      }
+      return;
+    }
+    final int mq = -Q_MIN + 1 - bq;
+    final long c = C_MIN | t;
+    if (0 < mq && mq < P) {
+      final long f = c >> mq;
+      if (f << mq == c) {
+        write(f, 0, out); // An integer below 2^53, which is its own shortest form.
+        return;
+      }
+    }
+    shortest(-mq, c, 0, out);
+  }
+
+  /**
+   * @param value the value.
+   * @return the shortest decimal that reads back as <code>value</code>.
+   */
+  static String format_double(double value) {
+    final StringBuilder out = new StringBuilder(24);
+    format_double(value, out);
+    return out.toString();
+  }
+
+  /**
+   * Write the shortest decimal in the interval of reals that round to <code>c * 2^q</code>.
+   *
+   * @param q the binary exponent.
+   * @param c the significand.
+   * @param dk the power of ten <code>c</code> was scaled by.
+   * @param out the buffer the text is appended to.
+   */
+  private static void shortest(int q, long c, int dk, StringBuilder out) {
+    // The interval is open when c is odd, as ties round to even.
+    final int open = (int) c & 1;
+    final long cb = c << 2;
+    final long cbr = cb + 2;
+    final long cbl;
+    final int k;
+    if (c != C_MIN || q == Q_MIN) {
+      cbl = cb - 2;
+      k = (int) (q * 661_971_961_083L >> 41); // floor(q log10(2))
+    } else {
+      // The double below is closer at a power of two.
+      cbl = cb - 1;
+      k = (int) (q * 661_971_961_083L - 274_743_187_321L >> 41); // floor(log10(3/4 2^q))
+    }
+    final int h = q + (int) (-k * 913_124_641_741L >> 38) + 2; // floor(-k log2(10))
+    final long g1 = G[2 * (k - K_MIN)];
+    final long g0 = G[2 * (k - K_MIN) + 1];
+    final long vb = round_odd(g1, g0, cb << h);
+    final long vbl = round_odd(g1, g0, cbl << h);
+    final long vbr = round_odd(g1, g0, cbr << h);
+    final long s = vb >> 2;
+    if (s >= 100) {
+      // One digit fewer, if exactly one of the two candidates is inside.
+      final long sp10 = 10 * (s / 10);
+      final long tp10 = sp10 + 10;
+      final boolean upin = vbl + open <= sp10 << 2;
+      final boolean wpin = (tp10 << 2) + open <= vbr;
+      if (upin != wpin) {
+        write(upin ? sp10 : tp10, k, out);
+        return;
+      }
+    }
+    final long t = s + 1;
+    final boolean uin = vbl + open <= s << 2;
+    final boolean win = (t << 2) + open <= vbr;
+    if (uin != win) {
+      write(uin ? s : t, k + dk, out);
+      return;
+    }
+    // Both inside, the closer one, or the even one on a tie.
+    final long cmp = vb - (s + t << 1);
+    write(cmp < 0 || 0 == cmp && 0 == (s & 1) ? s : t, k + dk, out);
+  }
+
+  /** @return the product of g and cp over 2^127, rounded to odd, with g = g1 2^63 + g0. */
+  private static long round_odd(long g1, long g0, long cp) {
+    final long x1 = multiply_high(g0, cp);
+    final long y0 = g1 * cp;
+    final long y1 = multiply_high(g1, cp);
+    final long z = (y0 >>> 1) + x1;
+    final long vbp = y1 + (z >>> 63);
+    return vbp | (z & MASK_63) + MASK_63 >>> 63;
+  }
+
+  /** Write <code>f * 10^e</code>, f positive, in the notation of <code>Double.toString</code>. */
+  private static void write(long f, int e, StringBuilder out) {
+    while (0 == f % 10) {
+      f /= 10;
+      e++;
+    }
+    final char[] digits = new char[MAX_DIGITS];
+    int length = 0;
+    for (long rest = f; rest != 0; rest /= 10) {
+      digits[digits.length - ++length] = (char) ('0' + rest % 10);
+    }
+    final int first = digits.length - length;
+    // The power of ten of the leading digit.
+    final int exponent = e + length - 1;
+    if (exponent >= -3 && exponent < 7) {
+      if (exponent < 0) {
+        out.append("0.");
+        for (int i = -1; i > exponent; i--) {
+          out.append('0');
+        }
+        out.append(digits, first, length);
+      } else if (length <= exponent + 1) {
+        out.append(digits, first, length);
+        for (int i = length; i <= exponent; i++) {
+          out.append('0');
+        }
+        out.append(".0");
+      } else {
+        out.append(digits, first, exponent + 1).append('.');
+        out.append(digits, first + exponent + 1, length - exponent - 1);
+      }
+      return;
+    }
+    out.append(digits[first]).append('.');
+    if (1 == length) {
+      out.append('0');
+    } else {
+      out.append(digits, first + 1, length - 1);
+    }
+    out.append('E').append(exponent);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Secondary index grouping the rows of a <code>DataStore</code> by the value of a key column.
+ *
+ * <p>Rows are tracked by identity so the index survives rows being inserted or removed. Summaries
+ * are computed on demand for a single group and cached until a value in that group changes.
+ */
+public final class ColumnIndex {
+  /** The key column. */
+  public final String column;
+
+  private final Function<Object, Object> key_function;
+  private final HashMap<Object, Set<HashMap<String, Object>>> groups = new HashMap<>();
+  private final HashMap<Object, HashMap<String, ColumnSummary>> summaries = new HashMap<>();
+
+  /**
+   * @param column the key column.
+   * @param key_function maps a value of the key column to its group key, returning null for values
+   *     that don't belong to a group.
+   */
+  ColumnIndex(String column, Function<Object, Object> key_function) {
+    this.column = column;
+    this.key_function = key_function;
+  }
+
+  /**
+   * @param row the row.
+   * @return the group key of the row, null if it doesn't belong to a group.
+   */
+  Object key_of(HashMap<String, Object> row) {
+    final Object value = row.get(column);
+    return null == value ? null : key_function.apply(value);
+  }
+
+  /** Remove every row. */
+  void clear() {
+    groups.clear();
+    summaries.clear();
+  }
+
+  /** @param row a row that isn't in the index yet. */
+  void add(HashMap<String, Object> row) {
+    final Object key = key_of(row);
+    if (null != key) {
+      groups.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(row);
+      summaries.remove(key);
+    }
+  }
+
+  /** @param row a row that is being removed from the data store. */
+  void remove(HashMap<String, Object> row) {
+    remove(row, key_of(row));
+  }
+
+  private void remove(HashMap<String, Object> row, Object key) {
+    if (null == key) {
+      return;
+    }
+    final Set<HashMap<String, Object>> group = groups.get(key);
+    if (null != group) {
+      group.remove(row);
+      if (group.isEmpty()) {
+        groups.remove(key);
+      }
+    }
+    summaries.remove(key);
+  }
+
+  /**
+   * Record a change to a value of a row.
+   *
+   * @param row the row, already holding the new value.
+   * @param changed_column the column that changed.
+   * @param old_value the previous value.
+   */
+  void update(HashMap<String, Object> row, String changed_column, Object old_value) {
+    if (column.equals(changed_column)) {
+      remove(row, null == old_value ? null : key_function.apply(old_value));
+      add(row);
+      return;
+    }
+    final HashMap<String, ColumnSummary> group_summaries = summaries.get(key_of(row));
+    if (null != group_summaries) {
+      group_summaries.remove(changed_column);
+    }
+  }
+
+  /** @return an unmodifiable view of the group keys. */
+  public Set<Object> keys() {
+    return Collections.unmodifiableSet(groups.keySet());
+  }
+
+  /**
+   * @param key the group key.
+   * @return an unmodifiable view of the rows in the group, empty if there is no such group.
+   */
+  Collection<HashMap<String, Object>> rows(Object key) {
+    final Set<HashMap<String, Object>> group = groups.get(key);
+    return null == group ? Collections.emptySet() : Collections.unmodifiableSet(group);
+  }
+
+  /**
+   * Summarize a numeric column over one group.
+   *
+   * @param key the group key.
+   * @param value_column the column being summarized.
+   * @return the summary, with a count of 0 if there is no such group.
+   */
+  public ColumnSummary summarize(Object key, String value_column) {
+    if (!groups.containsKey(key)) {
+      return ColumnSummary.of(new double[0], 0);
+    }
+    final HashMap<String, ColumnSummary> group_summaries =
+        summaries.computeIfAbsent(key, k -> new HashMap<>());
+    ColumnSummary summary = group_summaries.get(value_column);
+    if (null == summary) {
+      final Collection<HashMap<String, Object>> group = rows(key);
+      final double[] values = new double[group.size()];
+      int n = 0;
+      for (final HashMap<String, Object> row : group) {
+        final Object value = row.get(value_column);
+        if (value instanceof Number) {
+          values[n++] = ((Number) value).doubleValue();
+        }
+      }
+      summary = ColumnSummary.of(values, n);
+      group_summaries.put(value_column, summary);
+    }
+    return summary;
+  }
+}
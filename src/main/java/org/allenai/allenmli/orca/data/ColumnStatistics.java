@@ -0,0 +1,281 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming statistics for the numeric columns of a <code>DataStore</code>, overall and per group.
+ *
+ * <p>Count, mean and variance follow every write. Quantiles come from a {@link QuantileSketch},
+ * which can't forget values, so a column's sketch is rebuilt the next time it is queried after one
+ * of its values was overwritten or removed. Outliers are values more than a given number of
+ * standard deviations from the mean of their column, or of their column within their group.
+ * Infinite and NaN values aren't counted.
+ */
+public final class ColumnStatistics {
+  /** Groups smaller than this aren't used to flag outliers. */
+  public static final int MIN_GROUP_SIZE = 3;
+
+  private final HashSet<String> columns;
+  private final String group_column;
+  private final List<HashMap<String, Object>> rows;
+  private final HashMap<String, RunningStatistics> moments = new HashMap<>();
+  private final HashMap<String, QuantileSketch> sketches = new HashMap<>();
+  private final HashSet<String> stale_sketches = new HashSet<>();
+  private final HashMap<Object, HashMap<String, RunningStatistics>> group_moments =
+      new HashMap<>();
+
+  /**
+   * @param columns the numeric columns to track.
+   * @param group_column the column grouping rows for the per group statistics.
+   * @param rows the live rows of the data store, read when a sketch is rebuilt.
+   */
+  ColumnStatistics(
+      Collection<String> columns, String group_column, List<HashMap<String, Object>> rows) {
+    this.columns = new HashSet<>(columns);
+    this.group_column = group_column;
+    this.rows = rows;
+    for (final String column : this.columns) {
+      moments.put(column, new RunningStatistics());
+      sketches.put(column, new QuantileSketch());
+    }
+  }
+
+  /** Recompute everything from the rows. */
+  void rebuild() {
+    moments.values().forEach(RunningStatistics::clear);
+    for (final String column : columns) {
+      sketches.put(column, new QuantileSketch());
+    }
+    stale_sketches.clear();
+    group_moments.clear();
+    for (final HashMap<String, Object> row : rows) {
+      add(row);
+    }
+  }
+
+  /** @param row a row that has just been added. */
+  void add(HashMap<String, Object> row) {
+    final Object key = row.get(group_column);
+    for (final Map.Entry<String, Object> entry : row.entrySet()) {
+      if (is_finite(entry.getValue()) && columns.contains(entry.getKey())) {
+        add(key, entry.getKey(), ((Number) entry.getValue()).doubleValue());
+      }
+    }
+  }
+
+  /** @param row a row that has just been removed. */
+  void remove(HashMap<String, Object> row) {
+    final Object key = row.get(group_column);
+    for (final Map.Entry<String, Object> entry : row.entrySet()) {
+      if (is_finite(entry.getValue()) && columns.contains(entry.getKey())) {
+        remove(key, entry.getKey(), ((Number) entry.getValue()).doubleValue());
+      }
+    }
+  }
+
+  /**
+   * Record a change to a value of a row.
+   *
+   * @param row the row, already holding the new value.
+   * @param column the column that changed.
+   * @param old_value the previous value.
+   */
+  void update(HashMap<String, Object> row, String column, Object old_value) {
+    if (group_column.equals(column)) {
+      // Move the row's values from its old group to its new one.
+      for (final Map.Entry<String, Object> entry : row.entrySet()) {
+        if (is_finite(entry.getValue()) && columns.contains(entry.getKey())) {
+          final double value = ((Number) entry.getValue()).doubleValue();
+          group_remove(old_value, entry.getKey(), value);
+          group_add(row.get(group_column), entry.getKey(), value);
+        }
+      }
+      return;
+    }
+    if (!columns.contains(column)) {
+      return;
+    }
+    final Object key = row.get(group_column);
+    if (is_finite(old_value)) {
+      remove(key, column, ((Number) old_value).doubleValue());
+    }
+    final Object value = row.get(column);
+    if (is_finite(value)) {
+      add(key, column, ((Number) value).doubleValue());
+    }
+  }
+
+  /**
+   * @param value a value of a row.
+   * @return true if the value is a finite number. Formulas can produce infinities and NaN, which
+   *     would otherwise spoil the moments of their column for good.
+   */
+  private static boolean is_finite(Object value) {
+    return value instanceof Number && Double.isFinite(((Number) value).doubleValue());
+  }
+
+  private void add(Object key, String column, double value) {
+    moments.get(column).add(value);
+    if (!stale_sketches.contains(column)) {
+      sketches.get(column).add(value);
+    }
+    group_add(key, column, value);
+  }
+
+  private void remove(Object key, String column, double value) {
+    moments.get(column).remove(value);
+    stale_sketches.add(column);
+    group_remove(key, column, value);
+  }
+
+  private void group_add(Object key, String column, double value) {
+    if (null != key) {
+      group_moments
+          .computeIfAbsent(key, k -> new HashMap<>())
+          .computeIfAbsent(column, c -> new RunningStatistics())
+          .add(value);
+    }
+  }
+
+  private void group_remove(Object key, String column, double value) {
+    final HashMap<String, RunningStatistics> group = group_moments.get(key);
+    if (null != group && group.containsKey(column)) {
+      group.get(column).remove(value);
+    }
+  }
+
+  /** @return the column grouping the per group statistics. */
+  public String group_column() {
+    return group_column;
+  }
+
+  /**
+   * @param column a numeric column.
+   * @return true if the column is tracked.
+   */
+  public boolean tracks(String column) {
+    return columns.contains(column);
+  }
+
+  /**
+   * @param column a tracked column.
+   * @return a copy of the count, mean and variance of the column, empty for untracked columns.
+   */
+  public RunningStatistics moments(String column) {
+    final RunningStatistics found = moments.get(column);
+    return null == found ? new RunningStatistics() : new RunningStatistics(found);
+  }
+
+  /**
+   * @param key a value of the group column.
+   * @param column a tracked column.
+   * @return a copy of the count, mean and variance of the column within the group.
+   */
+  public RunningStatistics group_moments(Object key, String column) {
+    final HashMap<String, RunningStatistics> group = group_moments.get(key);
+    final RunningStatistics found = null == group ? null : group.get(column);
+    return null == found ? new RunningStatistics() : new RunningStatistics(found);
+  }
+
+  private QuantileSketch sketch(String column) {
+    if (stale_sketches.remove(column)) {
+      final QuantileSketch sketch = new QuantileSketch();
+      for (final HashMap<String, Object> row : rows) {
+        final Object value = row.get(column);
+        if (is_finite(value)) {
+          sketch.add(((Number) value).doubleValue());
+        }
+      }
+      sketches.put(column, sketch);
+    }
+    return sketches.get(column);
+  }
+
+  /**
+   * Estimate a quantile of a column.
+   *
+   * @param column a tracked column.
+   * @param q the quantile, between 0 and 1.
+   * @return the estimate, NaN if the column has no values or isn't tracked.
+   */
+  public double quantile(String column, double q) {
+    return tracks(column) ? sketch(column).quantile(q) : Double.NaN;
+  }
+
+  /**
+   * @param column a tracked column.
+   * @return the smallest value in the column, NaN if there are none.
+   */
+  public double min(String column) {
+    return tracks(column) ? sketch(column).min() : Double.NaN;
+  }
+
+  /**
+   * @param column a tracked column.
+   * @return the largest value in the column, NaN if there are none.
+   */
+  public double max(String column) {
+    return tracks(column) ? sketch(column).max() : Double.NaN;
+  }
+
+  /**
+   * @param row a row.
+   * @param column a tracked column.
+   * @return the z-score of the row's value within the column, NaN if it can't be computed.
+   */
+  double z_score(HashMap<String, Object> row, String column) {
+    final Object value = row.get(column);
+    final RunningStatistics found = moments.get(column);
+    if (!(value instanceof Number) || null == found) {
+      return Double.NaN;
+    }
+    return found.z_score(((Number) value).doubleValue());
+  }
+
+  /**
+   * @param row a row.
+   * @param column a tracked column.
+   * @return the z-score of the row's value within its group, NaN if it can't be computed or the
+   *     group has fewer than <code>MIN_GROUP_SIZE</code> values.
+   */
+  double group_z_score(HashMap<String, Object> row, String column) {
+    final Object value = row.get(column);
+    final HashMap<String, RunningStatistics> group = group_moments.get(row.get(group_column));
+    final RunningStatistics found = null == group ? null : group.get(column);
+    if (!(value instanceof Number) || null == found || found.count() < MIN_GROUP_SIZE) {
+      return Double.NaN;
+    }
+    return found.z_score(((Number) value).doubleValue());
+  }
+
+  /**
+   * @param row a row.
+   * @param column a tracked column.
+   * @param threshold the z-score beyond which a value is an outlier.
+   * @return true if the value is an outlier within its column or within its group.
+   */
+  boolean is_outlier(HashMap<String, Object> row, String column, double threshold) {
+    return Math.abs(z_score(row, column)) > threshold
+        || Math.abs(group_z_score(row, column)) > threshold;
+  }
+}
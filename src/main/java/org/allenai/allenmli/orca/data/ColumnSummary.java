@@ -0,0 +1,61 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.util.Arrays;
+
+/** Summary statistics for the numeric values of one column within a group of rows. */
+public final class ColumnSummary {
+  /** The number of rows in the group with a value for the column. */
+  public final int count;
+  /** The mean of the values, null if there are none. */
+  public final Double mean;
+  /** The median of the values, null if there are none. */
+  public final Double median;
+
+  private ColumnSummary(int count, Double mean, Double median) {
+    this.count = count;
+    this.mean = mean;
+    this.median = median;
+  }
+
+  /**
+   * Summarize a set of values.
+   *
+   * @param values the values, which are sorted in place.
+   * @param n the number of entries of <code>values</code> in use.
+   * @return the summary.
+   */
+  static ColumnSummary of(double[] values, int n) {
+    if (0 == n) {
+      return new ColumnSummary(0, null, null);
+    }
+    Arrays.sort(values, 0, n);
+    double sum = 0.0;
+    for (int i = 0; i < n; i++) {
+      sum += values[i];
+    }
+    final double median =
+        1 == n % 2 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2.0;
+    return new ColumnSummary(n, sum / n, median);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("{count: %d, mean: %s, median: %s}", count, mean, median);
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a sheet as UTF-8 CSV, quoting only the fields that need it.
+ *
+ * <p>A field is quoted when it holds a comma, a quote or a line break, or starts or ends with white
+ * space the reader would otherwise drop; quotes inside it are doubled. Every other field, such as
+ * numbers and <code>NA</code>, is written as is, which is how the reader parses it too. Rows end
+ * with a line feed. Characters are gathered in a large buffer and encoded into another that is
+ * written to the file channel in few, large writes, which matters on network shares.
+ */
+final class CsvWriter implements Closeable {
+  /** Characters gathered before encoding. */
+  private static final int CHAR_BUFFER = 1 << 16;
+  /** Bytes gathered before writing to the file. */
+  private static final int BYTE_BUFFER = 1 << 18;
+
+  private final FileChannel channel;
+  private final CharsetEncoder encoder =
+      StandardCharsets.UTF_8
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final char[] chars = new char[CHAR_BUFFER];
+  private int length = 0;
+  private final ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUFFER);
+
+  /**
+   * @param file the file, replaced if it exists.
+   * @throws IOException if the file can't be opened.
+   */
+  CsvWriter(Path file) throws IOException {
+    channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /**
+   * @param fields the fields of the row, null fields are written empty.
+   * @throws IOException if the row can't be written.
+   */
+  void write_row(String[] fields) throws IOException {
+    for (int i = 0; i < fields.length; i++) {
+      if (0 != i) {
+        append(',');
+      }
+      write_field(fields[i]);
+    }
+    append('\n');
+  }
+
+  /**
+   * Write some of the fields of a row.
+   *
+   * @param fields every field of the row, null fields are written empty.
+   * @param columns the indices of the fields to write, in order.
+   * @throws IOException if the row can't be written.
+   */
+  void write_row(String[] fields, int[] columns) throws IOException {
+    for (int i = 0; i < columns.length; i++) {
+      if (0 != i) {
+        append(',');
+      }
+      write_field(fields[columns[i]]);
+    }
+    append('\n');
+  }
+
+  private void write_field(String field) throws IOException {
+    if (null == field || field.isEmpty()) {
+      return;
+    }
+    if (!needs_quotes(field)) {
+      append(field);
+      return;
+    }
+    append('"');
+    int from = 0;
+    for (int quote = field.indexOf('"'); -1 != quote; quote = field.indexOf('"', quote + 1)) {
+      append(field, from, quote + 1);
+      append('"');
+      from = quote + 1;
+    }
+    append(field, from, field.length());
+    append('"');
+  }
+
+  /**
+   * @param field a field, not empty.
+   * @return true if the field must be quoted to be read back unchanged.
+   */
+  static boolean needs_quotes(String field) {
+    if (field.charAt(0) <= ' ' || field.charAt(field.length() - 1) <= ' ') {
+      return true;
+    }
+    for (int i = 0; i < field.length(); i++) {
+      final char c = field.charAt(i);
+      if (',' == c || '"' == c || '\n' == c || '\r' == c) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void append(char c) throws IOException {
+    if (CHAR_BUFFER == length) {
+      encode(false);
+    }
+    chars[length++] = c;
+  }
+
+  private void append(String text) throws IOException {
+    append(text, 0, text.length());
+  }
+
+  private void append(String text, int from, int to) throws IOException {
+    while (from < to) {
+      if (CHAR_BUFFER == length) {
+        encode(false);
+      }
+      final int n = Math.min(to - from, CHAR_BUFFER - length);
+      text.getChars(from, from + n, chars, length);
+      length += n;
+      from += n;
+    }
+  }
+
+  /**
+   * Encode the gathered characters, keeping a high surrogate whose pair hasn't been appended yet.
+   */
+  private void encode(boolean end) throws IOException {
+    final CharBuffer in = CharBuffer.wrap(chars, 0, length);
+    while (true) {
+      final CoderResult result = encoder.encode(in, bytes, end);
+      if (result.isOverflow()) {
+        drain();
+      } else if (result.isUnderflow()) {
+        break;
+      } else {
+        result.throwException();
+      }
+    }
+    length = in.remaining();
+    System.arraycopy(chars, in.position(), chars, 0, length);
+  }
+
+  private void drain() throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    bytes.clear();
+  }
+
+  /**
+   * Write what is buffered and close the file.
+   *
+   * @throws IOException if the end of the file can't be written.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      encode(true);
+      while (encoder.flush(bytes).isOverflow()) {
+        drain();
+      }
+      drain();
+    } finally {
+      channel.close();
+    }
+  }
+}
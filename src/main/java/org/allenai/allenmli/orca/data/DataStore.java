@@ -16,7 +16,6 @@
 
 package org.allenai.allenmli.orca.data;
 
-import com.opencsv.CSVWriter;
 import org.allenai.allenmli.orca.helpers.CSVFileLoadException;
 import org.allenai.allenmli.orca.helpers.ConfigurationFile;
 import org.allenai.allenmli.orca.helpers.ConfigurationFileLoadException;
@@ -24,14 +23,22 @@ import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
 import org.allenai.allenmli.orca.helpers.DataFileLoadException;
 import org.allenai.allenmli.orca.helpers.Utilities;
 
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 
 import static java.util.Collections.addAll;
@@ -55,6 +62,17 @@ public final class DataStore extends AbstractTableModel {
    * to a list of lists.
    */
   private final ArrayList<HashMap<String, Object>> data = new ArrayList<>();
+  /**
+   * Saved representation of every column of the rows that haven't changed since they were last
+   * serialized, keyed by row identity. Rows missing from the cache are converted on the next save.
+   */
+  private final IdentityHashMap<HashMap<String, Object>, String[]> serialized_rows =
+      new IdentityHashMap<>();
+  /** Rows changed since the data was last loaded or saved. */
+  private final Set<HashMap<String, Object>> dirty_rows =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+  /** Reused by <code>savingMapper</code> to format numbers. */
+  private final StringBuilder format_buffer = new StringBuilder(32);
 
   /** Integer measurement units. */
   public HashSet<String> INTEGER_UNITS;
@@ -74,6 +92,18 @@ public final class DataStore extends AbstractTableModel {
   /** Measurement units that correspond to points */
   public HashSet<String> FETCHABLE_POINTS;
 
+  /** Columns with a secondary index. Timestamp columns are grouped by date. */
+  public HashSet<String> INDEXED_COLUMNS;
+
+  /** Text columns covered by the find-as-you-type search. */
+  public HashSet<String> SEARCH_COLUMNS;
+
+  /** Column grouping rows for the per group outlier statistics. */
+  public String OUTLIER_GROUP_COLUMN;
+
+  /** Numeric values more than this many standard deviations from the mean are outliers. */
+  public double OUTLIER_Z_SCORE;
+
   public HashMap<String, Class<?>> UNIT_CLASSES;
   public HashSet<String> BOOLEAN_UNITS;
 
@@ -85,6 +115,14 @@ public final class DataStore extends AbstractTableModel {
   private String[] columnMap = null;
   /** Track the dirty state of the data store. */
   private boolean dataDirty = false;
+  /** Secondary indexes keyed by column name. */
+  private final HashMap<String, ColumnIndex> indexes = new HashMap<>();
+  /** Review state of the measurements with a <code>_reviewed</code> column. */
+  private ReviewIndex review_index;
+  /** Streaming statistics of the numeric columns. */
+  private ColumnStatistics statistics;
+  /** Prefix and substring search over <code>SEARCH_COLUMNS</code>. */
+  private SearchIndex search_index;
 
   /**
    * Constructs an empty DataStore instance.
@@ -145,7 +183,14 @@ public final class DataStore extends AbstractTableModel {
 
     FLOAT_UNITS = new HashSet<>();
     addAll(
-        FLOAT_UNITS, "pixels", "meters", "millimeters", "unitless percentage", "fractional pixels");
+        FLOAT_UNITS,
+        "pixels",
+        "meters",
+        "millimeters",
+        "unitless percentage",
+        "fractional pixels",
+        "square pixels",
+        "cubic pixels");
 
     BOOLEAN_UNITS = new HashSet<>();
     addAll(BOOLEAN_UNITS, "boolean");
@@ -159,6 +204,15 @@ public final class DataStore extends AbstractTableModel {
     FETCHABLE_POINTS = new HashSet<>();
     addAll(FETCHABLE_POINTS, "point", "auto point");
 
+    INDEXED_COLUMNS = new HashSet<>();
+    addAll(INDEXED_COLUMNS, "WhaleID", "Position", "TimePhoto");
+
+    SEARCH_COLUMNS = new HashSet<>();
+    addAll(SEARCH_COLUMNS, "Filename", "WhaleID", "MEAS COMMENTS");
+
+    OUTLIER_GROUP_COLUMN = "WhaleID";
+    OUTLIER_Z_SCORE = 3.0;
+
     UNIT_CLASSES = new HashMap<>();
     INTEGER_UNITS.forEach(unit -> UNIT_CLASSES.put(unit, Integer.class));
     FLOAT_UNITS.forEach(unit -> UNIT_CLASSES.put(unit, Double.class));
@@ -177,6 +231,7 @@ public final class DataStore extends AbstractTableModel {
         ConfigurationLoader.get_csv_file(ConfigurationFile.CSV_COLUMNS_CONFIG.getFilename());
     columnMap = new String[column_config_file.size()];
     descriptors.clear();
+    serialized_rows.clear();
     for (int i = 0; i < column_config_file.size(); i++) {
       HashMap<String, String> row = column_config_file.get(i);
       final String column_name = row.get("column_name");
@@ -193,6 +248,42 @@ public final class DataStore extends AbstractTableModel {
               i));
       columnMap[i] = column_name;
     }
+    indexes.clear();
+    for (final String column : INDEXED_COLUMNS) {
+      if (descriptors.containsKey(column)) {
+        final boolean timestamp = "timestamp".equals(descriptors.get(column).units);
+        indexes.put(
+            column, new ColumnIndex(column, timestamp ? DataStore::date_key : value -> value));
+      }
+    }
+    review_index = new ReviewIndex(descriptors.keySet());
+    final ArrayList<String> numeric_columns = new ArrayList<>();
+    for (final ColumnDescriptor descriptor : descriptors.values()) {
+      final Class<?> type = UNIT_CLASSES.get(descriptor.units);
+      if (null != type && Number.class.isAssignableFrom(type)) {
+        numeric_columns.add(descriptor.name);
+      }
+    }
+    statistics = new ColumnStatistics(numeric_columns, OUTLIER_GROUP_COLUMN, data);
+    final ArrayList<String> search_columns = new ArrayList<>(SEARCH_COLUMNS);
+    search_columns.retainAll(descriptors.keySet());
+    Collections.sort(search_columns);
+    search_index = new SearchIndex(search_columns);
+  }
+
+  /**
+   * Group key for timestamp columns.
+   *
+   * @param value a timestamp such as <code>9/3/2018 21:40</code>.
+   * @return the date part of the timestamp, null if it is blank.
+   */
+  private static Object date_key(Object value) {
+    final String text = value.toString().trim();
+    if (text.isEmpty()) {
+      return null;
+    }
+    final int end = text.indexOf(' ');
+    return -1 == end ? text : text.substring(0, end);
   }
 
   /**
@@ -238,9 +329,7 @@ public final class DataStore extends AbstractTableModel {
    */
   @Override
   public Object getValueAt(int rowIndex, int columnIndex) {
-    final String filename = (String) data.get(rowIndex).get("Filename");
-    final String column_name = columnMap[columnIndex];
-    return get_value(filename, column_name);
+    return data.get(rowIndex).get(columnMap[columnIndex]);
   }
 
   /**
@@ -290,36 +379,34 @@ public final class DataStore extends AbstractTableModel {
    * Converts a <code>String</code> representation of a column into the correct type.
    *
    * @param column the column name
+   * @param type the class of the column's units, null if the units are unknown.
    * @param value the <code>String</code> representation
    * @return an instance of the value converted the correct type for column.
    * @throws Exception raised if value can't be converted.
    */
-  private Object loadingMapper(String column, String value) throws Exception {
+  private Object loadingMapper(String column, Class<?> type, String value) throws Exception {
     if (null == value) {
       return null;
     }
-    String val = value.trim();
-    if ("NA".equals(val) || "".equals(val)) {
+    final int end = value.length();
+    if (CellCodec.is_missing(value, 0, end)) {
       return null;
     }
-    String units = descriptors.get(column).units;
-    if (TEXT_UNITS.contains(units)) {
-      return val;
+    if (String.class == type) {
+      return value.trim();
     }
-    if (FLOAT_UNITS.contains(units)) {
-      return new Double(val);
+    if (Double.class == type) {
+      return CellCodec.parse_double(value, 0, end);
     }
-    if (INTEGER_UNITS.contains(units)) {
-      if (val.contains(".")) {
-        val = val.substring(0, val.indexOf('.'));
-      }
-      return new Integer(val);
+    if (Integer.class == type) {
+      return CellCodec.parse_int(value, 0, end);
     }
-    if (BOOLEAN_UNITS.contains(units)) {
-      return "true".equals(val);
+    if (Boolean.class == type) {
+      return CellCodec.parse_boolean(value, 0, end);
     }
 
-    throw new Exception(String.format("Unknown unit specification \"%s\"", units));
+    throw new Exception(
+        String.format("Unknown unit specification \"%s\"", descriptors.get(column).units));
   }
 
   /**
@@ -336,7 +423,10 @@ public final class DataStore extends AbstractTableModel {
       csvFile = null;
       dataDirty = false;
       data.clear();
+      serialized_rows.clear();
+      dirty_rows.clear();
       rebuildRowMap();
+      rebuild_indexes();
       return;
     }
 
@@ -350,16 +440,21 @@ public final class DataStore extends AbstractTableModel {
     csvFile = dataFile;
     dataDirty = false;
     data.clear();
+    serialized_rows.clear();
+    dirty_rows.clear();
 
-    Set<String> field_check = new HashSet<>();
-    addAll(field_check, columnMap);
+    // The class of each known column, looked up once rather than per cell.
+    final HashMap<String, Class<?>> types = new HashMap<>();
+    for (final String column : columnMap) {
+      types.put(column, UNIT_CLASSES.get(descriptors.get(column).units));
+    }
     for (final HashMap<String, String> record : records) {
       HashMap<String, Object> processed_row = new HashMap<>();
       for (String key : record.keySet()) {
-        if (field_check.contains(key)) {
+        if (types.containsKey(key)) {
           String val = record.get(key);
           try {
-            processed_row.put(key, loadingMapper(key, val));
+            processed_row.put(key, loadingMapper(key, types.get(key), val));
           } catch (Exception e) {
             e.printStackTrace();
           }
@@ -374,6 +469,7 @@ public final class DataStore extends AbstractTableModel {
       }
     }
     rebuildRowMap();
+    rebuild_indexes();
     fireTableDataChanged();
   }
 
@@ -497,6 +593,13 @@ public final class DataStore extends AbstractTableModel {
       record.put("Filename", image_filename);
       record.put(column, value);
       data.add(record);
+      dirty_rows.add(record);
+      for (final ColumnIndex index : indexes.values()) {
+        index.add(record);
+      }
+      review_index.add(record, data.size() - 1);
+      statistics.add(record);
+      search_index.add(record);
       rebuildRowMap();
       row = rowMap.get(image_filename);
       dataDirty = true;
@@ -505,7 +608,11 @@ public final class DataStore extends AbstractTableModel {
       fireTableCellUpdated(row, descriptors.get(column).index);
     } else { // Update existing record
       if (!data.get(row).containsKey(column) || !(data.get(row).get(column) == value)) {
-        data.get(row).put(column, value);
+        final Object old_value = data.get(row).put(column, value);
+        serialized_rows.remove(data.get(row));
+        dirty_rows.add(data.get(row));
+        update_indexes(data.get(row), column, old_value);
+        review_index.update(data.get(row), row, column);
         dataDirty = true;
         if ("Filename".equals(column)) {
           rebuildRowMap();
@@ -515,6 +622,396 @@ public final class DataStore extends AbstractTableModel {
     }
   }
 
+  /**
+   * Append new rows in one batch, updating the indexes once and firing a single insertion event,
+   * which is much faster than inserting the rows value by value.
+   *
+   * @param rows the rows, each keyed by column and holding its <code>Filename</code>. Rows whose
+   *     filename is already present, or repeats an earlier row of the batch, are skipped.
+   * @return the number of rows appended.
+   * @throws NoSuchElementException when a row has an illegal column or no filename.
+   * @throws ClassCastException when a value isn't of the type of its column.
+   */
+  public int append_rows(final Collection<? extends Map<String, Object>> rows)
+      throws NoSuchElementException, ClassCastException {
+    for (final Map<String, Object> row : rows) {
+      if (!(row.get("Filename") instanceof String)) {
+        throw new NoSuchElementException("Row without a filename");
+      }
+      for (final Map.Entry<String, Object> value : row.entrySet()) {
+        final ColumnDescriptor descriptor = descriptors.get(value.getKey());
+        if (null == descriptor) {
+          throw new NoSuchElementException(
+              String.format("%s is not a legal column name", value.getKey()));
+        }
+        final Class<?> expected = UNIT_CLASSES.get(descriptor.units);
+        if (null != value.getValue() && !expected.isInstance(value.getValue())) {
+          throw new ClassCastException(
+              String.format(
+                  "Got %s instead of %s",
+                  value.getValue().getClass().getName(), expected.getName()));
+        }
+      }
+    }
+    final int first = data.size();
+    final HashSet<String> added = new HashSet<>();
+    for (final Map<String, Object> row : rows) {
+      final String filename = (String) row.get("Filename");
+      if (rowMap.containsKey(filename) || !added.add(filename)) {
+        continue;
+      }
+      final HashMap<String, Object> record = new HashMap<>(row);
+      data.add(record);
+      dirty_rows.add(record);
+      for (final ColumnIndex index : indexes.values()) {
+        index.add(record);
+      }
+      review_index.add(record, data.size() - 1);
+      statistics.add(record);
+      search_index.add(record);
+    }
+    if (added.isEmpty()) {
+      return 0;
+    }
+    rebuildRowMap();
+    dataDirty = true;
+    fireTableRowsInserted(first, data.size() - 1);
+    return added.size();
+  }
+
+  /**
+   * Retrieve a whole column as primitives, for column-wise measurement.
+   *
+   * @param column the column of interest.
+   * @return the column, rows without a numeric value are marked missing.
+   * @throws NoSuchElementException when an illegal column is specified
+   */
+  public NumericColumn get_numeric_column(final String column) throws NoSuchElementException {
+    if (!descriptors.containsKey(column)) {
+      throw new NoSuchElementException(String.format("%s is not a legal column name", column));
+    }
+    final int nRows = data.size();
+    final NumericColumn result = new NumericColumn(nRows);
+    for (int row = 0; row < nRows; row++) {
+      final Object value = data.get(row).get(column);
+      if (value instanceof Number) {
+        result.set(row, (Number) value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Replace the contents of a floating point column.
+   *
+   * <p>A single event covering the changed rows is fired instead of one event per cell.
+   *
+   * @param column the column of interest.
+   * @param values the new values, one per row.
+   * @throws NoSuchElementException when an illegal column is specified
+   * @throws ClassCastException when the column doesn't hold floating point values.
+   */
+  public void set_numeric_column(final String column, final NumericColumn values)
+      throws NoSuchElementException, ClassCastException {
+    if (!descriptors.containsKey(column)) {
+      throw new NoSuchElementException(String.format("%s is not a legal column name", column));
+    }
+    final Class<?> expected = UNIT_CLASSES.get(descriptors.get(column).units);
+    if (Double.class != expected) {
+      throw new ClassCastException(
+          String.format("Got %s instead of %s", Double.class.getName(), expected.getName()));
+    }
+    final int nRows = data.size();
+    if (values.size() != nRows) {
+      throw new IllegalArgumentException(
+          String.format("Got %d values for %d rows", values.size(), nRows));
+    }
+    int first = -1;
+    int last = -1;
+    for (int row = 0; row < nRows; row++) {
+      final Double value = values.get(row);
+      final HashMap<String, Object> record = data.get(row);
+      if (!Objects.equals(record.get(column), value)) {
+        final Object old_value = record.put(column, value);
+        serialized_rows.remove(record);
+        dirty_rows.add(record);
+        update_indexes(record, column, old_value);
+        review_index.update(record, row, column);
+        if (-1 == first) {
+          first = row;
+        }
+        last = row;
+      }
+    }
+    if (-1 != first) {
+      dataDirty = true;
+      fireTableChanged(new TableModelEvent(this, first, last, descriptors.get(column).index));
+    }
+  }
+
+  /**
+   * Rank the rows by a column without comparing every pair of rows: the distinct values are
+   * sorted once, taken from the column's secondary index when it has one, and each row looks up
+   * the rank of its value.
+   *
+   * @param column the column of interest.
+   * @return the rank of each row's value, equal values share a rank and missing values are -1.
+   * @throws NoSuchElementException when an illegal column is specified
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public int[] rank_column(final String column) throws NoSuchElementException {
+    if (!descriptors.containsKey(column)) {
+      throw new NoSuchElementException(String.format("%s is not a legal column name", column));
+    }
+    final ColumnIndex index = indexes.get(column);
+    final Collection<Object> distinct;
+    if (null != index && !"timestamp".equals(descriptors.get(column).units)) {
+      distinct = index.keys();
+    } else {
+      distinct = new HashSet<>();
+      for (final HashMap<String, Object> record : data) {
+        final Object value = record.get(column);
+        if (null != value) {
+          distinct.add(value);
+        }
+      }
+    }
+    final Object[] sorted = distinct.toArray();
+    Arrays.sort(
+        sorted,
+        (a, b) ->
+            a instanceof Comparable && a.getClass() == b.getClass()
+                ? ((Comparable) a).compareTo(b)
+                : a.toString().compareTo(b.toString()));
+    final HashMap<Object, Integer> ranks = new HashMap<>();
+    for (int i = 0; i < sorted.length; i++) {
+      ranks.put(sorted[i], i);
+    }
+    final int[] result = new int[data.size()];
+    for (int row = 0; row < result.length; row++) {
+      final Object value = data.get(row).get(column);
+      result[row] = null == value ? -1 : ranks.getOrDefault(value, -1);
+    }
+    return result;
+  }
+
+  /** Rebuild every secondary index from scratch. */
+  private void rebuild_indexes() {
+    review_index.rebuild(data);
+    statistics.rebuild();
+    search_index.rebuild(data);
+    for (final ColumnIndex index : indexes.values()) {
+      index.clear();
+      for (final HashMap<String, Object> record : data) {
+        index.add(record);
+      }
+    }
+  }
+
+  /**
+   * Keep the secondary indexes in step with a changed value.
+   *
+   * @param record the row, already holding the new value.
+   * @param column the column that changed.
+   * @param old_value the previous value.
+   */
+  private void update_indexes(HashMap<String, Object> record, String column, Object old_value) {
+    for (final ColumnIndex index : indexes.values()) {
+      index.update(record, column, old_value);
+    }
+    statistics.update(record, column, old_value);
+    search_index.update(record, column);
+  }
+
+  /**
+   * Get the secondary index for a column.
+   *
+   * @param column an indexed column, see <code>INDEXED_COLUMNS</code>.
+   * @return the index.
+   * @throws NoSuchElementException if the column isn't indexed.
+   */
+  public ColumnIndex get_index(String column) throws NoSuchElementException {
+    final ColumnIndex index = indexes.get(column);
+    if (null == index) {
+      throw new NoSuchElementException(String.format("%s is not an indexed column", column));
+    }
+    return index;
+  }
+
+  /**
+   * List the rows of a group.
+   *
+   * @param index_column an indexed column.
+   * @param key the group key, e.g. a WhaleID.
+   * @return the image names of the rows in the group, in table order.
+   * @throws NoSuchElementException if the column isn't indexed.
+   */
+  public List<String> group_rows(String index_column, Object key) throws NoSuchElementException {
+    final ArrayList<String> result = new ArrayList<>();
+    for (final HashMap<String, Object> record : get_index(index_column).rows(key)) {
+      result.add((String) record.get("Filename"));
+    }
+    result.sort(Comparator.comparingInt(this::find_row));
+    return result;
+  }
+
+  /**
+   * Summarize a measurement over a group, e.g. the mean SNDF of one whale.
+   *
+   * @param index_column an indexed column.
+   * @param key the group key.
+   * @param column the measurement column.
+   * @return count, mean and median of the measurement over the group.
+   * @throws NoSuchElementException if the column isn't indexed.
+   */
+  public ColumnSummary summarize(String index_column, Object key, String column)
+      throws NoSuchElementException {
+    return get_index(index_column).summarize(key, column);
+  }
+
+  /**
+   * Find the best rows of a group that have a value for a measurement.
+   *
+   * @param index_column an indexed column.
+   * @param key the group key.
+   * @param column the measurement column, rows without a value are skipped.
+   * @param quality_column the column ranking the rows, higher is better and missing is worst.
+   * @param n the maximum number of rows to return.
+   * @return the image names of up to <code>n</code> rows, best first.
+   * @throws NoSuchElementException if the column isn't indexed.
+   */
+  public List<String> best_rows(
+      String index_column, Object key, String column, String quality_column, int n)
+      throws NoSuchElementException {
+    final ArrayList<HashMap<String, Object>> candidates = new ArrayList<>();
+    for (final HashMap<String, Object> record : get_index(index_column).rows(key)) {
+      if (null != record.get(column)) {
+        candidates.add(record);
+      }
+    }
+    candidates.sort(
+        Comparator.comparingDouble(
+                (HashMap<String, Object> record) -> {
+                  final Object quality = record.get(quality_column);
+                  return quality instanceof Number
+                      ? ((Number) quality).doubleValue()
+                      : Double.NEGATIVE_INFINITY;
+                })
+            .reversed()
+            .thenComparingInt(record -> find_row((String) record.get("Filename"))));
+    final ArrayList<String> result = new ArrayList<>();
+    for (int i = 0; i < Math.min(n, candidates.size()); i++) {
+      result.add((String) candidates.get(i).get("Filename"));
+    }
+    return result;
+  }
+
+  /** @return the review state of the measurements, for counts of unreviewed and missing values. */
+  public ReviewIndex get_review_index() {
+    return review_index;
+  }
+
+  /**
+   * Find the next image with an unreviewed measurement.
+   *
+   * @param image_filename the current image, null to start at the top of the table.
+   * @return the next image after <code>image_filename</code> with an unreviewed measurement,
+   *     wrapping around at the end of the table, or null if everything has been reviewed.
+   */
+  public String next_unreviewed(String image_filename) {
+    final int row = review_index.next_unreviewed(find_row(image_filename));
+    return -1 == row ? null : getRowName(row);
+  }
+
+  /**
+   * @param image_filename the image name to look for in the data store.
+   * @return the measurements of the image with a value that hasn't been accepted.
+   */
+  public List<String> unreviewed_measurements(String image_filename) {
+    final int row = find_row(image_filename);
+    if (-1 == row) {
+      return new ArrayList<>();
+    }
+    return review_index.measurements_with(data.get(row), ReviewIndex.Status.UNREVIEWED);
+  }
+
+  /**
+   * @param row the row index.
+   * @param status the review state of interest.
+   * @return the number of measurements of the row in <code>status</code>.
+   */
+  public int review_count(int row, ReviewIndex.Status status) {
+    return review_index.count_with(data.get(row), status);
+  }
+
+  /** @return the streaming statistics of the numeric columns. */
+  public ColumnStatistics get_statistics() {
+    return statistics;
+  }
+
+  /**
+   * @param image_filename the image name to look for in the data store.
+   * @param column a numeric column.
+   * @return how many standard deviations the value is from the column mean, NaN if it is missing.
+   */
+  public double z_score(String image_filename, String column) {
+    final int row = find_row(image_filename);
+    return -1 == row ? Double.NaN : statistics.z_score(data.get(row), column);
+  }
+
+  /**
+   * @param image_filename the image name to look for in the data store.
+   * @param column a numeric column.
+   * @return how many standard deviations the value is from the mean of the column over the rows
+   *     sharing its <code>OUTLIER_GROUP_COLUMN</code>, NaN if it is missing or the group is small.
+   */
+  public double group_z_score(String image_filename, String column) {
+    final int row = find_row(image_filename);
+    return -1 == row ? Double.NaN : statistics.group_z_score(data.get(row), column);
+  }
+
+  /**
+   * Check a value against <code>OUTLIER_Z_SCORE</code>, overall and within its group.
+   *
+   * @param image_filename the image name to look for in the data store.
+   * @param column a numeric column.
+   * @return true if the value is an outlier.
+   */
+  public boolean is_outlier(String image_filename, String column) {
+    return is_outlier(find_row(image_filename), findColumn(column));
+  }
+
+  /**
+   * Table coordinate version of {@link #is_outlier(String, String)}, for cell renderers.
+   *
+   * @param rowIndex the row of the cell.
+   * @param columnIndex the column of the cell.
+   * @return true if the cell holds an outlier.
+   */
+  public boolean is_outlier(int rowIndex, int columnIndex) {
+    if (rowIndex < 0 || rowIndex >= data.size() || columnIndex < 0
+        || columnIndex >= columnMap.length) {
+      return false;
+    }
+    return statistics.is_outlier(data.get(rowIndex), columnMap[columnIndex], OUTLIER_Z_SCORE);
+  }
+
+  /**
+   * Find-as-you-type search over <code>SEARCH_COLUMNS</code>, ignoring case.
+   *
+   * @param query the text to look for.
+   * @param limit the maximum number of results.
+   * @return the image names of the matching rows: those where a value starts with the query, in
+   *     order of that value, then those containing it elsewhere, in table order.
+   */
+  public List<String> search(String query, int limit) {
+    final ArrayList<String> result = new ArrayList<>();
+    for (final HashMap<String, Object> record : search_index.search(query, limit)) {
+      result.add((String) record.get("Filename"));
+    }
+    return result;
+  }
+
   /** Manages building mapping of filenames to row indices and vice-versa. */
   private void rebuildRowMap() {
     rowMap = new HashMap<>();
@@ -548,7 +1045,15 @@ public final class DataStore extends AbstractTableModel {
   public void remove_row(String image_filename) {
     final int row = find_row(image_filename);
     if (-1 != row) {
-      data.remove(row);
+      final HashMap<String, Object> removed = data.remove(row);
+      serialized_rows.remove(removed);
+      dirty_rows.remove(removed);
+      for (final ColumnIndex index : indexes.values()) {
+        index.remove(removed);
+      }
+      review_index.rebuild(data);
+      statistics.remove(removed);
+      search_index.remove(removed);
       rebuildRowMap();
       dataDirty = true;
       fireTableRowsDeleted(row, row);
@@ -701,52 +1206,67 @@ public final class DataStore extends AbstractTableModel {
    * @throws IOException when the data can't be saved to <code>dataFile</code>.
    */
   public void save_as_csv(File dataFile, boolean export) throws IOException {
-    ArrayList<String> headers = new ArrayList<>();
-    if (export) {
-      for (final String header : columnMap) {
-        if (descriptors.get(header).export) {
-          headers.add(header);
-        }
+    // Everything that depends only on the columns is worked out once, not per row.
+    ArrayList<Integer> header_indices = new ArrayList<>();
+    for (int i = 0; i < columnMap.length; i++) {
+      if (!export || descriptors.get(columnMap[i]).export) {
+        header_indices.add(i);
       }
-    } else {
-      addAll(headers, columnMap);
     }
-
-    FileWriter output = new FileWriter(dataFile);
-    CSVWriter csv_writer = new CSVWriter(output);
-
-    String[] output_headers = new String[headers.size()];
-    for (int i = 0; i < headers.size(); i++) {
-      output_headers[i] = headers.get(i);
+    final int[] columns = new int[header_indices.size()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = header_indices.get(i);
+    }
+    final String[] missing = new String[columnMap.length];
+    for (int i = 0; i < missing.length; i++) {
+      missing[i] = savingMapper(columnMap[i], null);
     }
-    csv_writer.writeNext(output_headers);
 
-    for (HashMap<String, Object> datum : data) {
-      csv_writer.writeNext(prepare_row(datum, headers));
+    try (final CsvWriter csv_writer = new CsvWriter(dataFile.toPath())) {
+      csv_writer.write_row(columnMap, columns);
+      for (HashMap<String, Object> datum : data) {
+        csv_writer.write_row(prepare_row(datum, missing), columns);
+      }
     }
-    csv_writer.flush();
-    csv_writer.close();
-    output.close();
 
     csvFile = dataFile;
     dataDirty = false;
+    dirty_rows.clear();
     fireTableDataChanged();
   }
 
   /**
    * Prepares a row for writing to a CSV file.
    *
+   * <p>Only rows that changed since they were last saved are converted, the rest come from the
+   * cache of serialized rows.
+   *
    * @param row the row from <code>data</code> being processed.
-   * @param exportColumns the columns being exported.
-   * @return an array of <code>String</code> containing the values being exported.
+   * @param missing the representation of a missing value of each column.
+   * @return the representation of every column of the row, in column order; not to be modified.
    */
-  private String[] prepare_row(HashMap<String, Object> row, ArrayList<String> exportColumns) {
-    String[] result = new String[exportColumns.size()];
-    for (int i = 0; i < result.length; i++) {
-      String column_name = exportColumns.get(i);
-      result[i] = savingMapper(column_name, row.get(column_name));
+  private String[] prepare_row(HashMap<String, Object> row, String[] missing) {
+    String[] serialized = serialized_rows.get(row);
+    if (null == serialized) {
+      serialized = new String[columnMap.length];
+      for (int i = 0; i < serialized.length; i++) {
+        final Object value = row.get(columnMap[i]);
+        serialized[i] = null == value ? missing[i] : savingMapper(columnMap[i], value);
+      }
+      serialized_rows.put(row, serialized);
     }
-    return result;
+    return serialized;
+  }
+
+  /**
+   * Check whether a row has changed since the data was last loaded or saved.
+   *
+   * @param image_filename the image name to look for in the data store.
+   * @return true if the row has unsaved changes, false if it is unchanged or not present.
+   */
+  public boolean row_dirty(String image_filename) {
+    final int row = find_row(image_filename);
+    return -1 != row && dirty_rows.contains(data.get(row));
   }
 
   /**
@@ -766,6 +1286,11 @@ public final class DataStore extends AbstractTableModel {
         return "NA";
       }
     }
+    if (value instanceof Double) {
+      format_buffer.setLength(0);
+      CellCodec.format_double((Double) value, format_buffer);
+      return format_buffer.toString();
+    }
     return value.toString();
   }
 
@@ -788,9 +1313,14 @@ public final class DataStore extends AbstractTableModel {
   /**
    * Allows for marking the dataStore as explicitly clean or dirty.
    *
+   * <p>Marking the dataStore clean also clears the per-row dirty flags.
+   *
    * @param dirty the new dirty state.
    */
   public void setDirty(final boolean dirty) {
     this.dataDirty = dirty;
+    if (!dirty) {
+      dirty_rows.clear();
+    }
   }
 }
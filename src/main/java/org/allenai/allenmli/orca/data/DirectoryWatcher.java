@@ -0,0 +1,267 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a directory tree for new JPEG images and reads their metadata as they arrive.
+ *
+ * <p>Images are often still being copied when they first appear, so an image is only read once
+ * there has been no event for it and its size hasn't changed for the settle time. The images that
+ * are ready together are read with {@link ImageIngest} and handed to the sink as one batch of rows,
+ * on the watcher's own thread. Directories created in the tree are watched too. A batch that
+ * fails is logged and dropped, and watching carries on.
+ */
+public final class DirectoryWatcher {
+  /** Default time an image must be left unchanged before it is read. */
+  public static final long DEFAULT_SETTLE_MS = 2000;
+  /** Longest wait for an event before pending images are checked again. */
+  private static final long POLL_MS = 250;
+
+  /** An image that hasn't settled yet. */
+  private static final class Pending {
+    long size;
+    long since;
+
+    Pending(long size, long since) {
+      this.size = size;
+      this.since = since;
+    }
+  }
+
+  private final Path root;
+  private final Collection<String> columns;
+  private final long settle_ms;
+  private final Consumer<List<HashMap<String, Object>>> sink;
+  private final Logger logger = new StderrLogService();
+  /** Images waiting to settle, only used by the watcher thread. */
+  private final HashMap<Path, Pending> pending = new HashMap<>();
+  private final HashMap<WatchKey, Path> directories = new HashMap<>();
+  private WatchService service;
+  private Thread thread;
+
+  /**
+   * @param root the directory tree to watch.
+   * @param columns the columns of the sheet, metadata for other columns is dropped.
+   * @param settle_ms how long an image must be left unchanged before it is read.
+   * @param sink receives the rows of the images that arrived, on the watcher thread.
+   */
+  public DirectoryWatcher(
+      Path root,
+      Collection<String> columns,
+      long settle_ms,
+      Consumer<List<HashMap<String, Object>>> sink) {
+    this.root = root;
+    this.columns = columns;
+    this.settle_ms = settle_ms;
+    this.sink = sink;
+  }
+
+  /** @return the directory tree being watched. */
+  public Path getRoot() {
+    return root;
+  }
+
+  /**
+   * Start watching. Images already in the tree are ignored.
+   *
+   * @throws IOException if the tree can't be watched.
+   */
+  public synchronized void start() throws IOException {
+    if (null != thread) {
+      return;
+    }
+    service = root.getFileSystem().newWatchService();
+    register_tree(root, false);
+    thread = new Thread(this::run, "AMPT directory watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Stop watching, waiting for a batch being read to be handed over. */
+  public synchronized void stop() {
+    if (null == thread) {
+      return;
+    }
+    try {
+      service.close();
+    } catch (final IOException e) {
+      logger.warn(e);
+    }
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  /** @return true while the tree is being watched. */
+  public synchronized boolean running() {
+    return null != thread;
+  }
+
+  /**
+   * Watch a directory and its subdirectories.
+   *
+   * @param directory the directory.
+   * @param include_images true to treat the images already in the tree as new.
+   */
+  private void register_tree(Path directory, boolean include_images) throws IOException {
+    final long now = System.currentTimeMillis();
+    Files.walkFileTree(
+        directory,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            directories.put(
+                dir.register(
+                    service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY),
+                dir);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (include_images && attrs.isRegularFile() && ImageIngest.is_image(file)) {
+              pending.put(file, new Pending(attrs.size(), now));
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          poll();
+        } catch (final ClosedWatchServiceException e) {
+          return; // Stopped.
+        } catch (final RuntimeException e) {
+          // The images of the failed batch are dropped rather than retried; keep watching.
+          logger.error(e);
+        }
+      }
+    } catch (final InterruptedException e) {
+      // Stopped.
+    }
+  }
+
+  /** Wait for events, then read the images that have settled and hand them to the sink. */
+  private void poll() throws InterruptedException {
+    final WatchKey key = service.poll(POLL_MS, TimeUnit.MILLISECONDS);
+    if (null != key) {
+      handle(key);
+    }
+    final List<Path> ready = settled();
+    if (!ready.isEmpty()) {
+      sink.accept(ImageIngest.read_rows(ready, columns, done -> {}));
+    }
+  }
+
+  private void handle(WatchKey key) {
+    final Path directory = directories.get(key);
+    final long now = System.currentTimeMillis();
+    for (final WatchEvent<?> event : key.pollEvents()) {
+      try {
+        if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+          // Events were lost, pick up whatever is in the tree.
+          register_tree(null == directory ? root : directory, true);
+          continue;
+        }
+        final Path path = directory.resolve((Path) event.context());
+        if (Files.isDirectory(path)) {
+          if (StandardWatchEventKinds.ENTRY_CREATE == event.kind()) {
+            register_tree(path, true);
+          }
+        } else if (ImageIngest.is_image(path)) {
+          final Pending image = pending.get(path);
+          final long size = Files.size(path);
+          if (null == image) {
+            pending.put(path, new Pending(size, now));
+          } else {
+            image.size = size;
+            image.since = now;
+          }
+        }
+      } catch (final NoSuchFileException e) {
+        // Gone again, e.g. a temporary file.
+      } catch (final IOException e) {
+        logger.warn(e);
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  /** @return the pending images that have settled, which are no longer pending. */
+  private List<Path> settled() {
+    final long now = System.currentTimeMillis();
+    final ArrayList<Path> ready = new ArrayList<>();
+    final Iterator<Map.Entry<Path, Pending>> entries = pending.entrySet().iterator();
+    while (entries.hasNext()) {
+      final Map.Entry<Path, Pending> entry = entries.next();
+      final Pending image = entry.getValue();
+      if (now - image.since < settle_ms) {
+        continue;
+      }
+      try {
+        final long size = Files.size(entry.getKey());
+        if (size == image.size && size > 0) {
+          ready.add(entry.getKey());
+          entries.remove();
+        } else {
+          image.size = size;
+          image.since = now;
+        }
+      } catch (final IOException e) {
+        entries.remove(); // Deleted or unreadable.
+      }
+    }
+    ready.sort(null);
+    return ready;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import org.allenai.allenmli.orca.helpers.ExifReader;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds sheet rows from the metadata of the JPEG files in a directory tree.
+ *
+ * <p>Only the headers of each file are read with {@link ExifReader}. Reading is bound by I/O
+ * latency rather than CPU, so the files are read in batches on a pool of more threads than there
+ * are cores. The rows can then be added with {@link DataStore#append_rows(Collection)}.
+ */
+public final class ImageIngest {
+  /** Most files read at once. */
+  private static final int MAX_THREADS = 8;
+  /** Files read by one task. */
+  private static final int BATCH = 256;
+
+  private ImageIngest() {}
+
+  /**
+   * @param file a file.
+   * @return true if the file is named as a JPEG image.
+   */
+  public static boolean is_image(Path file) {
+    final String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+    return name.endsWith(".jpg") || name.endsWith(".jpeg");
+  }
+
+  /**
+   * @param file an image.
+   * @return the <code>Filename</code> of the image: its bare name, which is also the title ImageJ
+   *     gives the image once it is open, so measurements find the row.
+   */
+  public static String row_name(Path file) {
+    return file.getFileName().toString();
+  }
+
+  /**
+   * Remove the images whose name is already taken. Images in different subdirectories can share a
+   * name, and only one row can have it.
+   *
+   * @param files the images, those with a taken name are removed.
+   * @param taken the names already taken, the names of the images kept are added.
+   * @return the images removed, in their original order.
+   */
+  public static List<Path> remove_collisions(List<Path> files, Set<String> taken) {
+    final ArrayList<Path> collisions = new ArrayList<>();
+    for (final Iterator<Path> file = files.iterator(); file.hasNext(); ) {
+      final Path image = file.next();
+      if (!taken.add(row_name(image))) {
+        collisions.add(image);
+        file.remove();
+      }
+    }
+    return collisions;
+  }
+
+  /**
+   * List the images in a directory tree.
+   *
+   * @param root the directory.
+   * @return the images, sorted by path.
+   * @throws IOException if the tree can't be walked.
+   */
+  public static List<Path> find_images(Path root) throws IOException {
+    try (final Stream<Path> files = Files.walk(root)) {
+      return files
+          .filter(file -> Files.isRegularFile(file) && is_image(file))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Read the rows of several images in parallel.
+   *
+   * @param files the images.
+   * @param columns the columns of the sheet, metadata for other columns is dropped.
+   * @param progress receives the number of images read so far, from any thread.
+   * @return one row per image in the order of <code>files</code>. Images whose headers can't be
+   *     read only have a <code>Filename</code>.
+   * @throws InterruptedException if interrupted while waiting for the reads.
+   */
+  public static List<HashMap<String, Object>> read_rows(
+      List<Path> files, Collection<String> columns, IntConsumer progress)
+      throws InterruptedException {
+    final Logger logger = new StderrLogService();
+    final AtomicInteger done = new AtomicInteger();
+    final ArrayList<Callable<List<HashMap<String, Object>>>> tasks = new ArrayList<>();
+    for (int start = 0; start < files.size(); start += BATCH) {
+      final List<Path> batch = files.subList(start, Math.min(files.size(), start + BATCH));
+      tasks.add(
+          () -> {
+            final ArrayList<HashMap<String, Object>> rows = new ArrayList<>();
+            for (final Path file : batch) {
+              final HashMap<String, Object> row = new HashMap<>();
+              try {
+                for (final Map.Entry<String, Object> value :
+                    ExifReader.read(file).entrySet()) {
+                  if (columns.contains(value.getKey())) {
+                    row.put(value.getKey(), value.getValue());
+                  }
+                }
+              } catch (final IOException | RuntimeException e) {
+                // A malformed file only loses its metadata, not the rest of the batch.
+                logger.warn(String.format("Couldn't read the metadata of %s: %s", file, e));
+              }
+              row.put("Filename", row_name(file));
+              rows.add(row);
+            }
+            progress.accept(done.addAndGet(batch.size()));
+            return rows;
+          });
+    }
+    final ArrayList<HashMap<String, Object>> rows = new ArrayList<>(files.size());
+    if (tasks.isEmpty()) {
+      return rows;
+    }
+    final ExecutorService pool =
+        Executors.newFixedThreadPool(Math.min(MAX_THREADS, tasks.size()));
+    try {
+      for (final Future<List<HashMap<String, Object>>> batch : pool.invokeAll(tasks)) {
+        rows.addAll(batch.get());
+      }
+    } catch (final ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    return rows;
+  }
+}
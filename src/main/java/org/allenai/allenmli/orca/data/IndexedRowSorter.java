@@ -0,0 +1,516 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sorts and filters the rows of a {@link SheetViewModel} using primitive indexes.
+ *
+ * <p>Each sort key is held as a <code>double</code> per row: the value itself for numeric columns
+ * and the rank of the value for other columns, see {@link DataStore#rank_column(String)}. Missing
+ * values sort last in either direction. Each filter keeps a bitset of the rows it accepts. When
+ * cells change only those cells are re-tested, and a single changed row is moved to its new place
+ * by binary search instead of sorting the whole table again.
+ */
+public final class IndexedRowSorter extends RowSorter<SheetViewModel> {
+  /** One filter clause: column, operator, value. */
+  private static final Pattern CLAUSE = Pattern.compile("^\\s*(.+?)\\s*(<=|>=|!=|=|<|>|~)(.*)$");
+
+  private final SheetViewModel model;
+  private final DataStore dataStore;
+  private List<SortKey> sort_keys = Collections.emptyList();
+  /** Key values for each sort key, indexed by model row. NaN marks a missing value. */
+  private double[][] keys = new double[0][];
+  /** Filters keyed by model column. */
+  private final HashMap<Integer, Predicate<Object>> filters = new HashMap<>();
+  /** Rows accepted by each filter, keyed by model column. */
+  private final HashMap<Integer, BitSet> accepted = new HashMap<>();
+  /** Rows accepted by every filter. */
+  private final BitSet visible = new BitSet();
+  /** Model rows in sorted order, including the filtered out rows. */
+  private int[] order = new int[0];
+  /** Position of each model row in <code>order</code>. */
+  private int[] position = new int[0];
+  private int[] view_to_model = new int[0];
+  private int[] model_to_view = new int[0];
+
+  /** @param model the model being sorted. */
+  public IndexedRowSorter(SheetViewModel model) {
+    this.model = model;
+    this.dataStore = model.getDataStore();
+    rebuild();
+  }
+
+  @Override
+  public SheetViewModel getModel() {
+    return model;
+  }
+
+  @Override
+  public void toggleSortOrder(int column) {
+    final ArrayList<SortKey> updated = new ArrayList<>(sort_keys);
+    SortOrder next = SortOrder.ASCENDING;
+    if (!updated.isEmpty() && updated.get(0).getColumn() == column) {
+      next =
+          SortOrder.ASCENDING == updated.get(0).getSortOrder()
+              ? SortOrder.DESCENDING
+              : SortOrder.UNSORTED;
+    }
+    updated.removeIf(key -> key.getColumn() == column);
+    if (SortOrder.UNSORTED != next) {
+      updated.add(0, new SortKey(column, next));
+    }
+    setSortKeys(updated);
+  }
+
+  @Override
+  public void setSortKeys(List<? extends SortKey> keys) {
+    final ArrayList<SortKey> updated = new ArrayList<>();
+    if (null != keys) {
+      for (final SortKey key : keys) {
+        if (SortOrder.UNSORTED != key.getSortOrder()) {
+          updated.add(key);
+        }
+      }
+    }
+    if (updated.equals(sort_keys)) {
+      return;
+    }
+    sort_keys = Collections.unmodifiableList(updated);
+    final int[] previous = view_to_model;
+    build_keys();
+    sort();
+    fireSortOrderChanged();
+    fireRowSorterChanged(previous);
+  }
+
+  @Override
+  public List<? extends SortKey> getSortKeys() {
+    return sort_keys;
+  }
+
+  /**
+   * Show only the rows for which the predicate accepts the value in a column, in addition to any
+   * filters on other columns.
+   *
+   * @param column the model column.
+   * @param predicate tests the cell value, which may be null; null removes the column's filter.
+   */
+  public void set_filter(int column, Predicate<Object> predicate) {
+    final int[] previous = view_to_model;
+    if (null == predicate) {
+      filters.remove(column);
+      accepted.remove(column);
+    } else {
+      filters.put(column, predicate);
+      accepted.put(column, test_rows(column, predicate));
+    }
+    apply_filters();
+    fireRowSorterChanged(previous);
+  }
+
+  /** Remove every filter. */
+  public void clear_filters() {
+    final int[] previous = view_to_model;
+    filters.clear();
+    accepted.clear();
+    apply_filters();
+    fireRowSorterChanged(previous);
+  }
+
+  /**
+   * Replace the filters from a text expression of clauses separated by <code>;</code>, each of
+   * the form <code>column op value</code>. The operators are <code>=</code> and <code>!=</code>,
+   * where an empty value means missing, <code>&lt; &lt;= &gt; &gt;=</code> for numbers and
+   * <code>~</code> for a case-insensitive substring. For example <code>WhaleID=J16; GIRTH=</code>
+   * shows the frames of J16 without a girth. A column can only have one clause.
+   *
+   * @param expression the filter expression, blank to remove every filter.
+   * @throws IllegalArgumentException if a clause can't be parsed or names an unknown column.
+   */
+  public void set_filters(String expression) throws IllegalArgumentException {
+    final HashMap<Integer, Predicate<Object>> parsed = new HashMap<>();
+    for (final String clause : expression.split(";")) {
+      if (clause.trim().isEmpty()) {
+        continue;
+      }
+      final Matcher matcher = CLAUSE.matcher(clause);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException(String.format("Can't parse filter '%s'", clause));
+      }
+      final int column = dataStore.findColumn(matcher.group(1));
+      if (-1 == column) {
+        throw new IllegalArgumentException(
+            String.format("%s is not a legal column name", matcher.group(1)));
+      }
+      parsed.put(column, predicate(matcher.group(2), matcher.group(3).trim()));
+    }
+    final int[] previous = view_to_model;
+    filters.clear();
+    accepted.clear();
+    for (final Integer column : parsed.keySet()) {
+      filters.put(column, parsed.get(column));
+      accepted.put(column, test_rows(column, parsed.get(column)));
+    }
+    apply_filters();
+    fireRowSorterChanged(previous);
+  }
+
+  private static Predicate<Object> predicate(String operator, String text) {
+    switch (operator) {
+      case "=":
+        return value -> matches(value, text);
+      case "!=":
+        return value -> !matches(value, text);
+      case "~":
+        final String needle = text.toLowerCase(Locale.ROOT);
+        return value ->
+            null != value && value.toString().toLowerCase(Locale.ROOT).contains(needle);
+      default:
+        final double bound;
+        try {
+          bound = Double.parseDouble(text);
+        } catch (final NumberFormatException e) {
+          throw new IllegalArgumentException(
+              String.format("'%s' needs a number, got '%s'", operator, text));
+        }
+        return value -> {
+          if (!(value instanceof Number)) {
+            return false;
+          }
+          final int sign = Double.compare(((Number) value).doubleValue(), bound);
+          switch (operator) {
+            case "<":
+              return sign < 0;
+            case "<=":
+              return sign <= 0;
+            case ">":
+              return sign > 0;
+            default:
+              return sign >= 0;
+          }
+        };
+    }
+  }
+
+  private static boolean matches(Object value, String text) {
+    if (text.isEmpty()) {
+      return null == value;
+    }
+    if (value instanceof Number) {
+      try {
+        return ((Number) value).doubleValue() == Double.parseDouble(text);
+      } catch (final NumberFormatException e) {
+        return false;
+      }
+    }
+    return null != value && value.toString().equalsIgnoreCase(text);
+  }
+
+  @Override
+  public int convertRowIndexToModel(int index) {
+    if (index < 0 || index >= view_to_model.length) {
+      throw new IndexOutOfBoundsException("Invalid index " + index);
+    }
+    return view_to_model[index];
+  }
+
+  @Override
+  public int convertRowIndexToView(int index) {
+    if (index < 0 || index >= model_to_view.length) {
+      throw new IndexOutOfBoundsException("Invalid index " + index);
+    }
+    return model_to_view[index];
+  }
+
+  @Override
+  public int getViewRowCount() {
+    return view_to_model.length;
+  }
+
+  @Override
+  public int getModelRowCount() {
+    return model.getRowCount();
+  }
+
+  @Override
+  public void modelStructureChanged() {
+    final int columns = model.getColumnCount();
+    final ArrayList<SortKey> kept = new ArrayList<>(sort_keys);
+    kept.removeIf(key -> key.getColumn() >= columns);
+    sort_keys = Collections.unmodifiableList(kept);
+    filters.keySet().removeIf(column -> column >= columns);
+    accepted.keySet().removeIf(column -> column >= columns);
+    allRowsChanged();
+  }
+
+  @Override
+  public void allRowsChanged() {
+    final int[] previous = view_to_model;
+    rebuild();
+    fireRowSorterChanged(previous);
+  }
+
+  @Override
+  public void rowsInserted(int firstRow, int endRow) {
+    allRowsChanged();
+  }
+
+  @Override
+  public void rowsDeleted(int firstRow, int endRow) {
+    allRowsChanged();
+  }
+
+  @Override
+  public void rowsUpdated(int firstRow, int endRow) {
+    for (int column = 0; column < model.getColumnCount(); column++) {
+      update(firstRow, endRow, column);
+    }
+  }
+
+  @Override
+  public void rowsUpdated(int firstRow, int endRow, int column) {
+    update(firstRow, endRow, column);
+  }
+
+  /** Recompute every key and filter and sort from scratch. */
+  private void rebuild() {
+    for (final Integer column : filters.keySet()) {
+      accepted.put(column, test_rows(column, filters.get(column)));
+    }
+    build_keys();
+    sort();
+  }
+
+  /**
+   * Bring the sort keys and filters up to date with changed cells of one column.
+   *
+   * @param firstRow the first changed row.
+   * @param endRow the last changed row.
+   * @param column the model column.
+   */
+  private void update(int firstRow, int endRow, int column) {
+    final boolean sort_column = sort_keys.stream().anyMatch(key -> key.getColumn() == column);
+    final Predicate<Object> filter = filters.get(column);
+    if (!sort_column && null == filter) {
+      return;
+    }
+    final int nRows = model.getRowCount();
+    if (order.length != nRows) {
+      allRowsChanged();
+      return;
+    }
+    final int last = Math.min(endRow, nRows - 1);
+    final int[] previous = view_to_model;
+    if (null != filter) {
+      final BitSet rows = accepted.get(column);
+      for (int row = firstRow; row <= last; row++) {
+        rows.set(row, filter.test(model.getValueAt(row, column)));
+      }
+    }
+    if (sort_column) {
+      for (int i = 0; i < sort_keys.size(); i++) {
+        if (sort_keys.get(i).getColumn() != column) {
+          continue;
+        }
+        if (is_numeric(column)) {
+          for (int row = firstRow; row <= last; row++) {
+            final Object value = model.getValueAt(row, column);
+            keys[i][row] = value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+          }
+        } else {
+          // Re-ranking keeps the relative order of the unchanged rows.
+          keys[i] = column_key(column);
+        }
+      }
+      if (firstRow == last) {
+        reposition(firstRow);
+      } else {
+        sort();
+      }
+    }
+    apply_filters();
+    if (!Arrays.equals(previous, view_to_model)) {
+      fireRowSorterChanged(previous);
+    }
+  }
+
+  private boolean is_numeric(int column) {
+    return Number.class.isAssignableFrom(model.getColumnClass(column));
+  }
+
+  private double[] column_key(int column) {
+    final int nRows = model.getRowCount();
+    final double[] key = new double[nRows];
+    if (is_numeric(column)) {
+      final NumericColumn values = dataStore.get_numeric_column(model.getColumnName(column));
+      for (int row = 0; row < nRows; row++) {
+        key[row] = values.present[row] ? values.values[row] : Double.NaN;
+      }
+    } else {
+      final int[] ranks = dataStore.rank_column(model.getColumnName(column));
+      for (int row = 0; row < nRows; row++) {
+        key[row] = -1 == ranks[row] ? Double.NaN : ranks[row];
+      }
+    }
+    return key;
+  }
+
+  private BitSet test_rows(int column, Predicate<Object> predicate) {
+    final BitSet rows = new BitSet();
+    for (int row = 0; row < model.getRowCount(); row++) {
+      if (predicate.test(model.getValueAt(row, column))) {
+        rows.set(row);
+      }
+    }
+    return rows;
+  }
+
+  private void build_keys() {
+    keys = new double[sort_keys.size()][];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = column_key(sort_keys.get(i).getColumn());
+    }
+  }
+
+  /**
+   * Compare two model rows by the sort keys, falling back to model order.
+   *
+   * @return negative, zero or positive as <code>a</code> sorts before, with or after <code>b</code>.
+   */
+  private int compare(int a, int b) {
+    for (int i = 0; i < keys.length; i++) {
+      final double x = keys[i][a];
+      final double y = keys[i][b];
+      final boolean x_missing = Double.isNaN(x);
+      final boolean y_missing = Double.isNaN(y);
+      if (x_missing || y_missing) {
+        if (x_missing != y_missing) {
+          return x_missing ? 1 : -1;
+        }
+        continue;
+      }
+      final int result = Double.compare(x, y);
+      if (0 != result) {
+        return SortOrder.DESCENDING == sort_keys.get(i).getSortOrder() ? -result : result;
+      }
+    }
+    return Integer.compare(a, b);
+  }
+
+  /** Sort every row and reapply the filters. */
+  private void sort() {
+    final int nRows = model.getRowCount();
+    order = new int[nRows];
+    for (int row = 0; row < nRows; row++) {
+      order[row] = row;
+    }
+    if (0 != keys.length) {
+      merge_sort(order, new int[nRows], 0, nRows);
+    }
+    position = new int[nRows];
+    for (int i = 0; i < nRows; i++) {
+      position[order[i]] = i;
+    }
+    apply_filters();
+  }
+
+  private void merge_sort(int[] rows, int[] scratch, int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+    final int middle = (from + to) >>> 1;
+    merge_sort(rows, scratch, from, middle);
+    merge_sort(rows, scratch, middle, to);
+    if (compare(rows[middle - 1], rows[middle]) <= 0) {
+      return;
+    }
+    System.arraycopy(rows, from, scratch, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < middle && compare(scratch[left], scratch[right]) <= 0)) {
+        rows[i] = scratch[left++];
+      } else {
+        rows[i] = scratch[right++];
+      }
+    }
+  }
+
+  /**
+   * Move a row whose keys changed to its sorted position.
+   *
+   * @param row the model row.
+   */
+  private void reposition(int row) {
+    final int from = position[row];
+    // Binary search the other rows for the first one that sorts after the changed row.
+    int low = 0;
+    int high = order.length - 1;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      final int other = order[middle < from ? middle : middle + 1];
+      if (compare(other, row) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    final int to = low;
+    if (to < from) {
+      System.arraycopy(order, to, order, to + 1, from - to);
+    } else if (to > from) {
+      System.arraycopy(order, from + 1, order, from, to - from);
+    }
+    order[to] = row;
+    for (int i = Math.min(from, to); i <= Math.max(from, to); i++) {
+      position[order[i]] = i;
+    }
+  }
+
+  /** Rebuild the view from the sorted order and the filters. */
+  private void apply_filters() {
+    final int nRows = order.length;
+    visible.clear();
+    visible.set(0, nRows);
+    for (final BitSet rows : accepted.values()) {
+      visible.and(rows);
+    }
+    view_to_model = new int[visible.cardinality()];
+    model_to_view = new int[nRows];
+    Arrays.fill(model_to_view, -1);
+    int view = 0;
+    for (final int row : order) {
+      if (visible.get(row)) {
+        model_to_view[row] = view;
+        view_to_model[view++] = row;
+      }
+    }
+  }
+}
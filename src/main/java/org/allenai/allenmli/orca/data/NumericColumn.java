@@ -0,0 +1,127 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.util.Arrays;
+
+/**
+ * A column of numeric values stored as primitives with a presence mask.
+ *
+ * <p>Row <code>i</code> holds <code>values[i]</code> when <code>present[i]</code> is true and is
+ * missing otherwise; the value stored for a missing row is unspecified. Columns handed out by the
+ * <code>DataStore</code> and produced by the column functions are treated as immutable once built.
+ */
+public final class NumericColumn {
+  public final double[] values;
+  public final boolean[] present;
+
+  /**
+   * Create a column where every row is missing.
+   *
+   * @param size the number of rows.
+   */
+  public NumericColumn(int size) {
+    this(new double[size], new boolean[size]);
+  }
+
+  /**
+   * Wrap existing arrays, which must be the same length.
+   *
+   * @param values the values.
+   * @param present the presence mask.
+   */
+  public NumericColumn(double[] values, boolean[] present) {
+    if (values.length != present.length) {
+      throw new IllegalArgumentException(
+          String.format("%d values but %d mask entries", values.length, present.length));
+    }
+    this.values = values;
+    this.present = present;
+  }
+
+  /**
+   * Build a column holding the same value in every row, used for literal parameters.
+   *
+   * @param size the number of rows.
+   * @param value the value for every row.
+   * @return the column.
+   */
+  public static NumericColumn constant(int size, double value) {
+    final double[] values = new double[size];
+    final boolean[] present = new boolean[size];
+    Arrays.fill(values, value);
+    Arrays.fill(present, true);
+    return new NumericColumn(values, present);
+  }
+
+  /** @return the number of rows. */
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * @param row the row index.
+   * @return the boxed value of the row, null if it is missing.
+   */
+  public Double get(int row) {
+    return present[row] ? values[row] : null;
+  }
+
+  /**
+   * @param row the row index.
+   * @param value the new value, null marks the row as missing.
+   */
+  public void set(int row, Number value) {
+    present[row] = null != value;
+    values[row] = null == value ? 0.0 : value.doubleValue();
+  }
+
+  /**
+   * Fill the rows missing from this column from another column.
+   *
+   * @param fallback the column supplying values for missing rows.
+   * @return a new column.
+   */
+  public NumericColumn orElse(NumericColumn fallback) {
+    final int n = size();
+    final double[] merged = new double[n];
+    final boolean[] mask = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      merged[i] = present[i] ? values[i] : fallback.values[i];
+      mask[i] = present[i] | fallback.present[i];
+    }
+    return new NumericColumn(merged, mask);
+  }
+
+  /**
+   * Take selected rows from another column.
+   *
+   * @param rows true for the rows to take from <code>replacement</code>.
+   * @param replacement the column supplying the selected rows.
+   * @return a new column.
+   */
+  public NumericColumn where(boolean[] rows, NumericColumn replacement) {
+    final int n = size();
+    final double[] merged = new double[n];
+    final boolean[] mask = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      merged[i] = rows[i] ? replacement.values[i] : values[i];
+      mask[i] = rows[i] ? replacement.present[i] : present[i];
+    }
+    return new NumericColumn(merged, mask);
+  }
+}
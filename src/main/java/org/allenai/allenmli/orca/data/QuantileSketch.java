@@ -0,0 +1,183 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.util.Arrays;
+
+/**
+ * Approximate quantiles of a stream of values in bounded memory.
+ *
+ * <p>A simplified merging t-digest: values are buffered and periodically merged into a sorted list
+ * of weighted centroids whose size is limited by the <code>compression</code>, with small
+ * centroids near the tails so extreme quantiles stay accurate. Minimum and maximum are exact.
+ */
+public final class QuantileSketch {
+  private final double compression;
+  private final double[] means;
+  private final double[] weights;
+  private int centroids = 0;
+  private final double[] buffer;
+  private int buffered = 0;
+  private long count = 0;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /** Create a sketch with a compression of 100, good to well under 1% at the median. */
+  public QuantileSketch() {
+    this(100);
+  }
+
+  /** @param compression the accuracy/size trade off, larger is more accurate. */
+  public QuantileSketch(double compression) {
+    this.compression = compression;
+    final int capacity = (int) Math.ceil(compression * 2) + 10;
+    means = new double[capacity];
+    weights = new double[capacity];
+    buffer = new double[capacity * 5];
+  }
+
+  /** @param value the value to add, infinite and NaN values are ignored. */
+  public void add(double value) {
+    if (!Double.isFinite(value)) {
+      return;
+    }
+    if (buffered == buffer.length) {
+      merge();
+    }
+    buffer[buffered++] = value;
+    count++;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /** @return the number of values added. */
+  public long count() {
+    return count;
+  }
+
+  /** @return the smallest value, NaN if empty. */
+  public double min() {
+    return 0 == count ? Double.NaN : min;
+  }
+
+  /** @return the largest value, NaN if empty. */
+  public double max() {
+    return 0 == count ? Double.NaN : max;
+  }
+
+  /**
+   * Estimate a quantile.
+   *
+   * @param q the quantile, between 0 and 1.
+   * @return the estimated value, NaN if empty.
+   */
+  public double quantile(double q) {
+    if (q < 0.0 || q > 1.0) {
+      throw new IllegalArgumentException("q must be between 0 and 1, got " + q);
+    }
+    merge();
+    if (0 == centroids) {
+      return Double.NaN;
+    }
+    if (1 == centroids) {
+      return means[0];
+    }
+    final double target = q * count;
+    // Each centroid's mass is centred on its mean; interpolate between neighbouring centres.
+    double cumulative = weights[0] / 2.0;
+    if (target <= cumulative) {
+      return interpolate(min, means[0], target / cumulative);
+    }
+    for (int i = 0; i < centroids - 1; i++) {
+      final double step = (weights[i] + weights[i + 1]) / 2.0;
+      if (target <= cumulative + step) {
+        return interpolate(means[i], means[i + 1], (target - cumulative) / step);
+      }
+      cumulative += step;
+    }
+    final double tail = weights[centroids - 1] / 2.0;
+    return interpolate(means[centroids - 1], max, Math.min(1.0, (target - cumulative) / tail));
+  }
+
+  private static double interpolate(double a, double b, double fraction) {
+    return a + (b - a) * fraction;
+  }
+
+  /** Merge the buffered values into the centroids. */
+  private void merge() {
+    if (0 == buffered) {
+      return;
+    }
+    final int n = centroids + buffered;
+    final double[] all_means = new double[n];
+    final double[] all_weights = new double[n];
+    System.arraycopy(means, 0, all_means, 0, centroids);
+    System.arraycopy(weights, 0, all_weights, 0, centroids);
+    for (int i = 0; i < buffered; i++) {
+      all_means[centroids + i] = buffer[i];
+      all_weights[centroids + i] = 1.0;
+    }
+    buffered = 0;
+    sort_by_mean(all_means, all_weights);
+
+    // Greedily combine neighbours while the combined centroid stays within the k1 size bound.
+    centroids = 0;
+    double so_far = 0.0;
+    double current_mean = all_means[0];
+    double current_weight = all_weights[0];
+    for (int i = 1; i < n; i++) {
+      final double proposed = current_weight + all_weights[i];
+      final double q0 = so_far / count;
+      final double q2 = (so_far + proposed) / count;
+      if (k(q2) - k(q0) <= 1.0) {
+        current_mean += (all_means[i] - current_mean) * all_weights[i] / proposed;
+        current_weight = proposed;
+      } else {
+        so_far += current_weight;
+        means[centroids] = current_mean;
+        weights[centroids] = current_weight;
+        centroids++;
+        current_mean = all_means[i];
+        current_weight = all_weights[i];
+      }
+    }
+    means[centroids] = current_mean;
+    weights[centroids] = current_weight;
+    centroids++;
+  }
+
+  /** The k1 scale function, which keeps centroids small near q = 0 and q = 1. */
+  private double k(double q) {
+    return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1.0, q) - 1);
+  }
+
+  private static void sort_by_mean(double[] values, double[] weights) {
+    final Integer[] order = new Integer[values.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+    final double[] sorted_values = new double[values.length];
+    final double[] sorted_weights = new double[values.length];
+    for (int i = 0; i < order.length; i++) {
+      sorted_values[i] = values[order[i]];
+      sorted_weights[i] = weights[order[i]];
+    }
+    System.arraycopy(sorted_values, 0, values, 0, values.length);
+    System.arraycopy(sorted_weights, 0, weights, 0, weights.length);
+  }
+}
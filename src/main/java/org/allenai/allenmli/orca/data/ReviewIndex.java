@@ -0,0 +1,270 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tracks the review state of every measurement that has a <code>_reviewed</code> column.
+ *
+ * <p>The state of each row is kept up to date as values change, so the number of unreviewed or
+ * missing measurements and the next row needing attention are available without scanning the
+ * table. Rows are located through bit sets indexed by row, which are rebuilt when rows are removed.
+ */
+public final class ReviewIndex {
+  private static final String REVIEWED_COLUMN = "%s_reviewed";
+
+  /** Review state of a single measurement. */
+  public enum Status {
+    /** There is no value for the measurement. */
+    MISSING,
+    /** The measurement has a value that hasn't been accepted. */
+    UNREVIEWED,
+    /** The measurement has been accepted. */
+    REVIEWED
+  }
+
+  private final String[] measurements;
+  /** Maps both a measurement and its review column to the measurement's ordinal. */
+  private final HashMap<String, Integer> ordinals = new HashMap<>();
+
+  private final IdentityHashMap<HashMap<String, Object>, Status[]> states =
+      new IdentityHashMap<>();
+  private final BitSet unreviewed_rows = new BitSet();
+  private final BitSet missing_rows = new BitSet();
+  private final int[] unreviewed_counts;
+  private final int[] missing_counts;
+  private int unreviewed_total = 0;
+  private int missing_total = 0;
+
+  /**
+   * @param columns every column of the data store; measurements are the columns with a matching
+   *     <code>_reviewed</code> column.
+   */
+  ReviewIndex(Set<String> columns) {
+    final TreeSet<String> found = new TreeSet<>();
+    for (final String column : columns) {
+      if (columns.contains(String.format(REVIEWED_COLUMN, column))) {
+        found.add(column);
+      }
+    }
+    measurements = found.toArray(new String[0]);
+    for (int i = 0; i < measurements.length; i++) {
+      ordinals.put(measurements[i], i);
+      ordinals.put(String.format(REVIEWED_COLUMN, measurements[i]), i);
+    }
+    unreviewed_counts = new int[measurements.length];
+    missing_counts = new int[measurements.length];
+  }
+
+  /**
+   * Rebuild the index from scratch.
+   *
+   * @param rows every row of the data store, in table order.
+   */
+  void rebuild(List<HashMap<String, Object>> rows) {
+    states.clear();
+    unreviewed_rows.clear();
+    missing_rows.clear();
+    Arrays.fill(unreviewed_counts, 0);
+    Arrays.fill(missing_counts, 0);
+    unreviewed_total = 0;
+    missing_total = 0;
+    for (int i = 0; i < rows.size(); i++) {
+      add(rows.get(i), i);
+    }
+  }
+
+  /**
+   * Add a new row.
+   *
+   * @param row the row.
+   * @param index the row's index in the table.
+   */
+  void add(HashMap<String, Object> row, int index) {
+    final Status[] state = new Status[measurements.length];
+    for (int m = 0; m < measurements.length; m++) {
+      state[m] = status_of(row, m);
+      count(m, state[m], 1);
+    }
+    states.put(row, state);
+    update_row_bits(state, index);
+  }
+
+  /**
+   * Record a change to a value.
+   *
+   * @param row the row, already holding the new value.
+   * @param index the row's index in the table.
+   * @param column the column that changed.
+   */
+  void update(HashMap<String, Object> row, int index, String column) {
+    final Integer m = ordinals.get(column);
+    final Status[] state = states.get(row);
+    if (null == m || null == state) {
+      return;
+    }
+    final Status status = status_of(row, m);
+    if (status != state[m]) {
+      count(m, state[m], -1);
+      count(m, status, 1);
+      state[m] = status;
+      update_row_bits(state, index);
+    }
+  }
+
+  private Status status_of(HashMap<String, Object> row, int m) {
+    if (null == row.get(measurements[m])) {
+      return Status.MISSING;
+    }
+    return Boolean.TRUE.equals(row.get(String.format(REVIEWED_COLUMN, measurements[m])))
+        ? Status.REVIEWED
+        : Status.UNREVIEWED;
+  }
+
+  private void count(int m, Status status, int delta) {
+    if (Status.UNREVIEWED == status) {
+      unreviewed_counts[m] += delta;
+      unreviewed_total += delta;
+    } else if (Status.MISSING == status) {
+      missing_counts[m] += delta;
+      missing_total += delta;
+    }
+  }
+
+  private void update_row_bits(Status[] state, int index) {
+    boolean unreviewed = false;
+    boolean missing = false;
+    for (final Status status : state) {
+      unreviewed |= Status.UNREVIEWED == status;
+      missing |= Status.MISSING == status;
+    }
+    unreviewed_rows.set(index, unreviewed);
+    missing_rows.set(index, missing);
+  }
+
+  /** @return the measurements being tracked, in name order. */
+  public String[] measurements() {
+    return measurements.clone();
+  }
+
+  /** @return the number of measurements with a value that hasn't been accepted. */
+  public int unreviewed_count() {
+    return unreviewed_total;
+  }
+
+  /** @return the number of measurements without a value. */
+  public int missing_count() {
+    return missing_total;
+  }
+
+  /**
+   * @param measurement a tracked measurement.
+   * @return the number of rows where the measurement has a value that hasn't been accepted, 0 if
+   *     the measurement isn't tracked.
+   */
+  public int unreviewed_count(String measurement) {
+    final Integer m = ordinals.get(measurement);
+    return null == m ? 0 : unreviewed_counts[m];
+  }
+
+  /**
+   * @param measurement a tracked measurement.
+   * @return the number of rows where the measurement has no value, 0 if the measurement isn't
+   *     tracked.
+   */
+  public int missing_count(String measurement) {
+    final Integer m = ordinals.get(measurement);
+    return null == m ? 0 : missing_counts[m];
+  }
+
+  /**
+   * Find the next row with an unreviewed measurement, wrapping around at the end of the table.
+   *
+   * @param after the index of the current row, -1 to start at the top.
+   * @return the row index, -1 if every measurement has been reviewed.
+   */
+  public int next_unreviewed(int after) {
+    return next(unreviewed_rows, after);
+  }
+
+  /**
+   * @param row the row index.
+   * @return true if the row has a measurement with a value that hasn't been accepted.
+   */
+  public boolean is_unreviewed(int row) {
+    return unreviewed_rows.get(row);
+  }
+
+  /**
+   * Find the next row with a missing measurement, wrapping around at the end of the table.
+   *
+   * @param after the index of the current row, -1 to start at the top.
+   * @return the row index, -1 if no measurement is missing.
+   */
+  public int next_missing(int after) {
+    return next(missing_rows, after);
+  }
+
+  private static int next(BitSet rows, int after) {
+    final int found = rows.nextSetBit(after + 1);
+    return -1 != found ? found : rows.nextSetBit(0);
+  }
+
+  /**
+   * @param row the row.
+   * @param status the status of interest.
+   * @return the measurements of the row in <code>status</code>.
+   */
+  List<String> measurements_with(HashMap<String, Object> row, Status status) {
+    final ArrayList<String> result = new ArrayList<>();
+    final Status[] state = states.get(row);
+    if (null != state) {
+      for (int m = 0; m < measurements.length; m++) {
+        if (status == state[m]) {
+          result.add(measurements[m]);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param row the row.
+   * @param status the status of interest.
+   * @return the number of measurements of the row in <code>status</code>.
+   */
+  int count_with(HashMap<String, Object> row, Status status) {
+    int count = 0;
+    final Status[] state = states.get(row);
+    if (null != state) {
+      for (final Status s : state) {
+        if (status == s) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+/**
+ * Count, mean and variance of a changing set of values, maintained with Welford's algorithm.
+ *
+ * <p>Values can be removed as well as added, so the statistics can follow edits to a column
+ * without revisiting the other values.
+ */
+public final class RunningStatistics {
+  private long count = 0;
+  private double mean = 0.0;
+  /** Sum of squared differences from the mean. */
+  private double m2 = 0.0;
+
+  /** Create empty statistics. */
+  public RunningStatistics() {}
+
+  /** @param other statistics to copy. */
+  public RunningStatistics(RunningStatistics other) {
+    count = other.count;
+    mean = other.mean;
+    m2 = other.m2;
+  }
+
+  /** @param value the value to add, infinite and NaN values are ignored. */
+  public void add(double value) {
+    if (!Double.isFinite(value)) {
+      return;
+    }
+    count++;
+    final double delta = value - mean;
+    mean += delta / count;
+    m2 += delta * (value - mean);
+  }
+
+  /** @param value a value previously added, infinite and NaN values are ignored. */
+  public void remove(double value) {
+    if (!Double.isFinite(value)) {
+      return;
+    }
+    if (count <= 1) {
+      clear();
+      return;
+    }
+    final double delta = value - mean;
+    mean -= delta / (count - 1);
+    m2 -= delta * (value - mean);
+    count--;
+    if (m2 < 0.0) { // Rounding can leave a tiny negative residue.
+      m2 = 0.0;
+    }
+  }
+
+  /** Remove every value. */
+  public void clear() {
+    count = 0;
+    mean = 0.0;
+    m2 = 0.0;
+  }
+
+  /** @return the number of values. */
+  public long count() {
+    return count;
+  }
+
+  /** @return the mean, NaN if there are no values. */
+  public double mean() {
+    return 0 == count ? Double.NaN : mean;
+  }
+
+  /** @return the sample variance, NaN if there are fewer than two values. */
+  public double variance() {
+    return count < 2 ? Double.NaN : m2 / (count - 1);
+  }
+
+  /** @return the sample standard deviation, NaN if there are fewer than two values. */
+  public double standard_deviation() {
+    return Math.sqrt(variance());
+  }
+
+  /**
+   * @param value a value.
+   * @return the number of standard deviations <code>value</code> is from the mean, NaN if the
+   *     spread is unknown or zero.
+   */
+  public double z_score(double value) {
+    final double sd = standard_deviation();
+    return sd > 0.0 ? (value - mean) / sd : Double.NaN;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "{count: %d, mean: %s, sd: %s}", count, mean(), standard_deviation());
+  }
+}
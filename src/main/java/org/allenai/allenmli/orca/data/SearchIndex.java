@@ -0,0 +1,251 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive prefix and substring search over a few text columns of a
+ * <code>DataStore</code>.
+ *
+ * <p>Each row gets a stable id. Prefix matches come from a sorted map of the indexed values. For
+ * substring matches every trigram of a value points at the ids containing it, and queries of three
+ * or more characters only verify the rows listed under their rarest trigram; shorter queries scan
+ * the rows. Both stop once enough matches are found. Posting lists are only appended to: a row
+ * whose text changed may stay listed under an old trigram, so candidates are always checked
+ * against the current text, and the lists are compacted once stale ids build up.
+ */
+public final class SearchIndex {
+  private final String[] columns;
+  /** Id of each indexed row. */
+  private final IdentityHashMap<HashMap<String, Object>, Integer> ids = new IdentityHashMap<>();
+  /** Row of each id, null once removed. */
+  private final ArrayList<HashMap<String, Object>> rows = new ArrayList<>();
+  /** Lower cased text of the indexed columns of each id. */
+  private final ArrayList<String[]> texts = new ArrayList<>();
+  /** Ids containing each trigram, in the order they were indexed. */
+  private final HashMap<Long, IdList> postings = new HashMap<>();
+  /** Ids holding each value, sorted by value for prefix lookups. */
+  private final TreeMap<String, ArrayList<Integer>> values = new TreeMap<>();
+  private int stale = 0;
+  private int postings_size = 0;
+
+  /** Growable list of ids. */
+  private static final class IdList {
+    int[] ids = new int[4];
+    int size = 0;
+
+    void add(int id) {
+      if (size > 0 && ids[size - 1] == id) {
+        return;
+      }
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++] = id;
+    }
+  }
+
+  /** @param columns the text columns to index. */
+  SearchIndex(Collection<String> columns) {
+    this.columns = columns.toArray(new String[0]);
+  }
+
+  /**
+   * Index every row from scratch, assigning ids in table order.
+   *
+   * @param data the rows of the data store.
+   */
+  void rebuild(List<HashMap<String, Object>> data) {
+    ids.clear();
+    rows.clear();
+    texts.clear();
+    postings.clear();
+    values.clear();
+    stale = 0;
+    postings_size = 0;
+    for (final HashMap<String, Object> row : data) {
+      add(row);
+    }
+  }
+
+  /** @param row a row that isn't in the index yet. */
+  void add(HashMap<String, Object> row) {
+    final int id = rows.size();
+    ids.put(row, id);
+    rows.add(row);
+    texts.add(new String[columns.length]);
+    for (int i = 0; i < columns.length; i++) {
+      index(id, i);
+    }
+  }
+
+  /** @param row a row that is being removed from the data store. */
+  void remove(HashMap<String, Object> row) {
+    final Integer id = ids.remove(row);
+    if (null != id) {
+      for (final String text : texts.get(id)) {
+        forget(id, text);
+      }
+      rows.set(id, null);
+      texts.set(id, null);
+      stale += columns.length;
+      compact_if_stale();
+    }
+  }
+
+  /**
+   * Record a change to a value of a row.
+   *
+   * @param row the row, already holding the new value.
+   * @param column the column that changed.
+   */
+  void update(HashMap<String, Object> row, String column) {
+    final Integer id = ids.get(row);
+    if (null == id) {
+      return;
+    }
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i].equals(column)) {
+        index(id, i);
+        stale++;
+        compact_if_stale();
+      }
+    }
+  }
+
+  private void index(int id, int column) {
+    final Object value = rows.get(id).get(columns[column]);
+    final String text = null == value ? "" : value.toString().toLowerCase(Locale.ROOT);
+    forget(id, texts.get(id)[column]);
+    texts.get(id)[column] = text;
+    if (!text.isEmpty()) {
+      values.computeIfAbsent(text, k -> new ArrayList<>(1)).add(id);
+    }
+    for (int i = 0; i + 3 <= text.length(); i++) {
+      final IdList list = postings.computeIfAbsent(trigram(text, i), k -> new IdList());
+      final int before = list.size;
+      list.add(id);
+      postings_size += list.size - before;
+    }
+  }
+
+  private void forget(int id, String text) {
+    final ArrayList<Integer> holders = null == text ? null : values.get(text);
+    if (null != holders) {
+      holders.remove(Integer.valueOf(id));
+      if (holders.isEmpty()) {
+        values.remove(text);
+      }
+    }
+  }
+
+  /** Rebuild once stale entries could make up most of the posting lists. */
+  private void compact_if_stale() {
+    if (stale > 1024 && stale > postings_size / 8) {
+      final ArrayList<HashMap<String, Object>> live = new ArrayList<>();
+      for (final HashMap<String, Object> row : rows) {
+        if (null != row) {
+          live.add(row);
+        }
+      }
+      rebuild(live);
+    }
+  }
+
+  private static long trigram(String text, int start) {
+    return ((long) text.charAt(start) << 32)
+        | ((long) text.charAt(start + 1) << 16)
+        | text.charAt(start + 2);
+  }
+
+  /**
+   * Find the rows containing some text in one of the indexed columns.
+   *
+   * @param query the text to look for, case is ignored.
+   * @param limit the maximum number of rows to return.
+   * @return the matching rows: those where a value starts with the query, in order of that value,
+   *     then those containing it elsewhere, in table order.
+   */
+  List<HashMap<String, Object>> search(String query, int limit) {
+    final String needle = query.toLowerCase(Locale.ROOT);
+    final ArrayList<HashMap<String, Object>> result = new ArrayList<>();
+    if (needle.isEmpty() || limit <= 0) {
+      return result;
+    }
+    final BitSet found = new BitSet(rows.size());
+    for (final ArrayList<Integer> holders :
+        values.subMap(needle, needle + Character.MAX_VALUE).values()) {
+      for (final int id : holders) {
+        if (result.size() == limit) {
+          return result;
+        }
+        if (!found.get(id)) {
+          found.set(id);
+          result.add(rows.get(id));
+        }
+      }
+    }
+    if (needle.length() < 3) {
+      for (int id = 0; id < rows.size() && result.size() < limit; id++) {
+        check(id, needle, found, result);
+      }
+      return result;
+    }
+    IdList rarest = null;
+    for (int i = 0; i + 3 <= needle.length(); i++) {
+      final IdList list = postings.get(trigram(needle, i));
+      if (null == list) {
+        return result;
+      }
+      if (null == rarest || list.size < rarest.size) {
+        rarest = list;
+      }
+    }
+    final ArrayList<HashMap<String, Object>> contained = new ArrayList<>();
+    for (int i = 0; i < rarest.size && result.size() + contained.size() < limit; i++) {
+      check(rarest.ids[i], needle, found, contained);
+    }
+    // Rows re-indexed after an edit are appended out of order.
+    contained.sort(Comparator.comparingInt(ids::get));
+    result.addAll(contained);
+    return result;
+  }
+
+  private void check(int id, String needle, BitSet found, List<HashMap<String, Object>> matches) {
+    final String[] row_texts = texts.get(id);
+    if (null == row_texts || found.get(id)) {
+      return;
+    }
+    for (final String text : row_texts) {
+      if (text.contains(needle)) {
+        found.set(id);
+        matches.add(rows.get(id));
+        return;
+      }
+    }
+  }
+}
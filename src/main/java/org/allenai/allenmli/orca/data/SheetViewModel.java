@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
+import java.text.NumberFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Table model for viewing the whole <code>DataStore</code>.
+ *
+ * <p>Values are read straight from the store by row and column index. Cell text is formatted once
+ * and cached for the rows around the visible part of the table; the cache is dropped as the
+ * viewport moves away and invalidated cell by cell as the store changes.
+ */
+public class SheetViewModel extends AbstractTableModel implements TableModelListener {
+  private final DataStore dataStore;
+  private final NumberFormat number_format = NumberFormat.getInstance();
+  /** Formatted cell text of the rows near the viewport, keyed by row index. */
+  private final HashMap<Integer, String[]> formatted = new HashMap<>();
+  /** Rows whose text is cached. */
+  private final HashSet<Integer> viewport = new HashSet<>();
+
+  /** @param dataStore the store being viewed. */
+  public SheetViewModel(DataStore dataStore) {
+    this.dataStore = dataStore;
+    this.dataStore.addTableModelListener(this);
+  }
+
+  /** @return the store being viewed. */
+  public DataStore getDataStore() {
+    return dataStore;
+  }
+
+  @Override
+  public int getRowCount() {
+    return dataStore.getRowCount();
+  }
+
+  @Override
+  public int getColumnCount() {
+    return dataStore.getColumnCount();
+  }
+
+  @Override
+  public String getColumnName(int column) {
+    return dataStore.getColumnName(column);
+  }
+
+  @Override
+  public Class<?> getColumnClass(int columnIndex) {
+    return dataStore.getColumnClass(columnIndex);
+  }
+
+  @Override
+  public boolean isCellEditable(int rowIndex, int columnIndex) {
+    return dataStore.isCellEditable(rowIndex, columnIndex);
+  }
+
+  @Override
+  public Object getValueAt(int rowIndex, int columnIndex) {
+    return dataStore.getValueAt(rowIndex, columnIndex);
+  }
+
+  @Override
+  public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+    dataStore.setValueAt(aValue, rowIndex, columnIndex);
+  }
+
+  /**
+   * Get the display text of a cell, cached if the row is in the viewport.
+   *
+   * @param rowIndex the row of the cell.
+   * @param columnIndex the column of the cell.
+   * @return the text, empty for missing values.
+   */
+  public String formatted(int rowIndex, int columnIndex) {
+    if (!viewport.contains(rowIndex)) {
+      return format(getValueAt(rowIndex, columnIndex));
+    }
+    final String[] row = formatted.computeIfAbsent(rowIndex, r -> new String[getColumnCount()]);
+    if (null == row[columnIndex]) {
+      row[columnIndex] = format(getValueAt(rowIndex, columnIndex));
+    }
+    return row[columnIndex];
+  }
+
+  private String format(Object value) {
+    if (null == value) {
+      return "";
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return number_format.format(value);
+    }
+    return value.toString();
+  }
+
+  /**
+   * Set the rows whose text is cached, dropping the text of every other row.
+   *
+   * @param rows the row indexes in and around the visible part of the table.
+   */
+  public void set_viewport(int[] rows) {
+    viewport.clear();
+    for (final int row : rows) {
+      viewport.add(row);
+    }
+    formatted.keySet().retainAll(viewport);
+  }
+
+  /**
+   * Pick rows spread evenly through the table, for estimating column widths.
+   *
+   * @param n the maximum number of rows.
+   * @return the row indexes, in order.
+   */
+  public int[] sample_rows(int n) {
+    final int nRows = getRowCount();
+    final int count = Math.min(n, nRows);
+    final int[] rows = new int[count];
+    for (int i = 0; i < count; i++) {
+      rows[i] = (int) ((long) i * nRows / count);
+    }
+    return rows;
+  }
+
+  /**
+   * Invalidate the cached text of the changed cells and pass the event on.
+   *
+   * @param e change event from the data store.
+   */
+  @Override
+  public void tableChanged(TableModelEvent e) {
+    if (TableModelEvent.UPDATE == e.getType()
+        && TableModelEvent.HEADER_ROW != e.getFirstRow()
+        && Integer.MAX_VALUE != e.getLastRow()) {
+      final Iterator<Map.Entry<Integer, String[]>> entries = formatted.entrySet().iterator();
+      while (entries.hasNext()) {
+        final Map.Entry<Integer, String[]> entry = entries.next();
+        if (entry.getKey() < e.getFirstRow() || entry.getKey() > e.getLastRow()) {
+          continue;
+        }
+        if (TableModelEvent.ALL_COLUMNS == e.getColumn()) {
+          entries.remove();
+        } else {
+          entry.getValue()[e.getColumn()] = null;
+        }
+      }
+    } else {
+      // Rows were added, removed or reloaded so the cached row indexes are stale.
+      formatted.clear();
+    }
+    fireTableChanged(
+        new TableModelEvent(this, e.getFirstRow(), e.getLastRow(), e.getColumn(), e.getType()));
+  }
+}
@@ -20,8 +20,10 @@ package org.allenai.allenmli.orca.helpers;
 public enum ConfigurationFile {
   CSV_COLUMNS_CONFIG("CSV-Columns.csv", 0),
   CUE_CONFIG("CueConfig.json", 1),
+  LENS_CONFIG("LensConf.json", 0),
   MEASUREMENT_CONFIG("MeasurementConf.json", 0),
-  REFERENCE_CONFIG("ReferenceConf.json", 0);
+  REFERENCE_CONFIG("ReferenceConf.json", 0),
+  UNCERTAINTY_CONFIG("UncertaintyConf.json", 0);
 
   /** The base name of the configuration file. */
   private final String filename;
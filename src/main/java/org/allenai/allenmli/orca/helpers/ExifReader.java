@@ -0,0 +1,440 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the metadata columns of a sheet from the EXIF and XMP headers of a JPEG file.
+ *
+ * <p>Only the segments before the image data are read, so a frame costs a few kilobytes of I/O
+ * and no decoding. The values are returned keyed by the default column names, typed as the
+ * <code>DataStore</code> expects them:
+ *
+ * <ul>
+ *   <li><code>TimePhoto</code> — the original capture time as <code>yyyy-MM-dd HH:mm:ss</code>.
+ *   <li><code>CameraMake</code>, <code>CameraModel</code> and <code>Comment</code> — text.
+ *   <li><code>FocalLength</code> — in meters, as in sheets prepared before AMPT read EXIF.
+ *   <li><code>Lat</code>, <code>Lon</code> — signed decimal degrees as text.
+ *   <li><code>Alt</code> — the altitude above the take off point recorded in the XMP header by
+ *       drones, or else the GPS altitude, in meters.
+ * </ul>
+ *
+ * <p>The preview most cameras embed in the EXIF header is available from {@link
+ * #thumbnail(Path)}.
+ */
+public final class ExifReader {
+  /** Size of the read buffer, enough for the headers of most frames. */
+  private static final int BUFFER = 64 * 1024;
+  private static final byte[] EXIF = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+  private static final byte[] XMP =
+      "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.ISO_8859_1);
+  /** Altitude above the take off point, as an attribute or an element of the XMP packet. */
+  private static final Pattern RELATIVE_ALTITUDE =
+      Pattern.compile(":RelativeAltitude(?:\\s*=\\s*\"|>)\\s*([+-]?[0-9]+(?:\\.[0-9]+)?)");
+
+  // TIFF tags.
+  private static final int IMAGE_DESCRIPTION = 0x010E;
+  private static final int MAKE = 0x010F;
+  private static final int MODEL = 0x0110;
+  private static final int DATE_TIME = 0x0132;
+  private static final int EXIF_IFD = 0x8769;
+  private static final int GPS_IFD = 0x8825;
+  private static final int JPEG_OFFSET = 0x0201;
+  private static final int JPEG_LENGTH = 0x0202;
+  private static final int DATE_TIME_ORIGINAL = 0x9003;
+  private static final int FOCAL_LENGTH = 0x920A;
+  private static final int USER_COMMENT = 0x9286;
+  private static final int GPS_LATITUDE_REF = 1;
+  private static final int GPS_LATITUDE = 2;
+  private static final int GPS_LONGITUDE_REF = 3;
+  private static final int GPS_LONGITUDE = 4;
+  private static final int GPS_ALTITUDE_REF = 5;
+  private static final int GPS_ALTITUDE = 6;
+  /** Bytes per value of each TIFF field type, 0 for unknown types. */
+  private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+  private ExifReader() {}
+
+  /**
+   * Read the metadata of a JPEG file.
+   *
+   * @param file the image file.
+   * @return the values found keyed by column, empty if the file has no EXIF or XMP header.
+   * @throws IOException if the file can't be read or isn't a JPEG file.
+   */
+  public static HashMap<String, Object> read(Path file) throws IOException {
+    try (final InputStream stream = Files.newInputStream(file)) {
+      return read(stream);
+    }
+  }
+
+  /**
+   * Read the metadata of a JPEG stream, stopping at the image data.
+   *
+   * @param stream the stream, positioned at the start of the JPEG.
+   * @return the values found keyed by column.
+   * @throws IOException if the stream can't be read or isn't a JPEG stream.
+   */
+  public static HashMap<String, Object> read(InputStream stream) throws IOException {
+    final HashMap<String, Object> values = new HashMap<>();
+    final Double[] relative_altitude = new Double[1];
+    scan(
+        stream,
+        segment -> {
+          if (startsWith(segment, EXIF)) {
+            readTiff(tiff(segment), values);
+          } else if (startsWith(segment, XMP)) {
+            final Matcher matcher =
+                RELATIVE_ALTITUDE.matcher(
+                    new String(
+                        segment, XMP.length, segment.length - XMP.length, StandardCharsets.UTF_8));
+            if (matcher.find()) {
+              relative_altitude[0] = Double.valueOf(matcher.group(1));
+            }
+          }
+        });
+    if (null != relative_altitude[0]) {
+      values.put("Alt", relative_altitude[0]);
+    }
+    return values;
+  }
+
+  /**
+   * Read the preview the camera embedded in the EXIF header of a JPEG file.
+   *
+   * @param file the image file.
+   * @return the preview as a JPEG stream, null if the file has none.
+   * @throws IOException if the file can't be read or isn't a JPEG file.
+   */
+  public static byte[] thumbnail(Path file) throws IOException {
+    try (final InputStream stream = Files.newInputStream(file)) {
+      return thumbnail(stream);
+    }
+  }
+
+  /**
+   * Read the preview embedded in the EXIF header of a JPEG stream, stopping at the image data.
+   *
+   * @param stream the stream, positioned at the start of the JPEG.
+   * @return the preview as a JPEG stream, null if the stream has none.
+   * @throws IOException if the stream can't be read or isn't a JPEG stream.
+   */
+  public static byte[] thumbnail(InputStream stream) throws IOException {
+    final byte[][] found = new byte[1][];
+    scan(
+        stream,
+        segment -> {
+          if (null == found[0] && startsWith(segment, EXIF)) {
+            found[0] = readThumbnail(tiff(segment));
+          }
+        });
+    return found[0];
+  }
+
+  /** Hands each APP1 segment of a JPEG header to a consumer. */
+  private static void scan(InputStream stream, Consumer<byte[]> app1) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(stream, BUFFER));
+    if (0xFFD8 != in.readUnsignedShort()) {
+      throw new IOException("Not a JPEG file");
+    }
+    try {
+      while (true) {
+        int marker = in.readUnsignedByte();
+        if (0xFF != marker) {
+          throw new IOException("Corrupt JPEG header");
+        }
+        while (0xFF == marker) {
+          marker = in.readUnsignedByte(); // Skip fill bytes.
+        }
+        if (0xDA == marker || 0xD9 == marker) {
+          break; // Start of scan or end of image, no more headers.
+        }
+        if (0x01 == marker || (0xD0 <= marker && marker <= 0xD7)) {
+          continue; // Markers without a segment.
+        }
+        final int length = in.readUnsignedShort() - 2;
+        if (length < 0) {
+          throw new IOException("Corrupt JPEG header");
+        }
+        if (0xE1 != marker) {
+          skip(in, length);
+          continue;
+        }
+        final byte[] segment = new byte[length];
+        in.readFully(segment);
+        app1.accept(segment);
+      }
+    } catch (final EOFException e) {
+      // Truncated file, keep what was read.
+    }
+  }
+
+  /** @return the TIFF structure of an EXIF segment. */
+  private static ByteBuffer tiff(byte[] segment) {
+    return ByteBuffer.wrap(segment, EXIF.length, segment.length - EXIF.length).slice();
+  }
+
+  private static void skip(DataInputStream in, int length) throws IOException {
+    int remaining = length;
+    while (remaining > 0) {
+      final int skipped = in.skipBytes(remaining);
+      if (0 == skipped) {
+        throw new EOFException();
+      }
+      remaining -= skipped;
+    }
+  }
+
+  private static boolean startsWith(byte[] segment, byte[] prefix) {
+    return segment.length >= prefix.length
+        && Arrays.equals(Arrays.copyOf(segment, prefix.length), prefix);
+  }
+
+  /** Read the tags of interest from a TIFF structure, ignoring anything malformed. */
+  private static void readTiff(ByteBuffer tiff, HashMap<String, Object> values) {
+    if (tiff.remaining() < 8) {
+      return;
+    }
+    tiff.order('M' == tiff.get(0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    final HashMap<Integer, Integer> ifd0 = readIfd(tiff, tiff.getInt(4));
+    final HashMap<Integer, Integer> exif = readIfd(tiff, pointer(tiff, ifd0.get(EXIF_IFD)));
+    final HashMap<Integer, Integer> gps = readIfd(tiff, pointer(tiff, ifd0.get(GPS_IFD)));
+
+    String time = ascii(tiff, exif.get(DATE_TIME_ORIGINAL));
+    if (null == time) {
+      time = ascii(tiff, ifd0.get(DATE_TIME));
+    }
+    if (null != time && time.matches("\\d{4}:\\d{2}:\\d{2} .*")) {
+      values.put("TimePhoto", time.substring(0, 10).replace(':', '-') + time.substring(10));
+    }
+    put(values, "CameraMake", ascii(tiff, ifd0.get(MAKE)));
+    put(values, "CameraModel", ascii(tiff, ifd0.get(MODEL)));
+    String comment = userComment(tiff, exif.get(USER_COMMENT));
+    if (null == comment) {
+      comment = ascii(tiff, ifd0.get(IMAGE_DESCRIPTION));
+    }
+    put(values, "Comment", comment);
+    final double[] focal = rationals(tiff, exif.get(FOCAL_LENGTH));
+    if (null != focal && focal.length > 0 && focal[0] > 0) {
+      values.put("FocalLength", focal[0] / 1000);
+    }
+
+    final Double latitude = degrees(tiff, gps.get(GPS_LATITUDE), gps.get(GPS_LATITUDE_REF), 'S');
+    final Double longitude =
+        degrees(tiff, gps.get(GPS_LONGITUDE), gps.get(GPS_LONGITUDE_REF), 'W');
+    if (null != latitude && null != longitude) {
+      values.put("Lat", String.format(Locale.ROOT, "%.7f", latitude));
+      values.put("Lon", String.format(Locale.ROOT, "%.7f", longitude));
+    }
+    final double[] altitude = rationals(tiff, gps.get(GPS_ALTITUDE));
+    if (null != altitude && altitude.length > 0) {
+      final Integer ref = gps.get(GPS_ALTITUDE_REF);
+      final boolean below = null != ref && 1 == tiff.get(ref + 8);
+      values.put("Alt", below ? -altitude[0] : altitude[0]);
+    }
+  }
+
+  /** @return the JPEG preview IFD1 points to, null if there is none or it is malformed. */
+  private static byte[] readThumbnail(ByteBuffer tiff) {
+    if (tiff.remaining() < 8) {
+      return null;
+    }
+    tiff.order('M' == tiff.get(0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    final int ifd0 = tiff.getInt(4);
+    if (ifd0 < 0 || ifd0 > tiff.limit() - 2) {
+      return null;
+    }
+    final int next = ifd0 + 2 + 12 * (tiff.getShort(ifd0) & 0xFFFF);
+    if (next > tiff.limit() - 4) {
+      return null;
+    }
+    // A next IFD offset of 0 ends the chain, so there is no IFD1.
+    final int ifd1_offset = tiff.getInt(next);
+    if (0 == ifd1_offset) {
+      return null;
+    }
+    final HashMap<Integer, Integer> ifd1 = readIfd(tiff, ifd1_offset);
+    final int offset = pointer(tiff, ifd1.get(JPEG_OFFSET));
+    final int length = pointer(tiff, ifd1.get(JPEG_LENGTH));
+    // Compared this way round so a corrupt length can't overflow.
+    if (offset <= 0 || length <= 0 || length > tiff.limit() - offset) {
+      return null;
+    }
+    final byte[] jpeg = new byte[length];
+    for (int i = 0; i < length; i++) {
+      jpeg[i] = tiff.get(offset + i);
+    }
+    return jpeg;
+  }
+
+  private static void put(HashMap<String, Object> values, String column, String text) {
+    if (null != text && !text.isEmpty()) {
+      values.put(column, text);
+    }
+  }
+
+  /** @return the offset a LONG pointer entry points to, -1 if there is no entry. */
+  private static int pointer(ByteBuffer tiff, Integer entry) {
+    return null == entry ? -1 : tiff.getInt(entry + 8);
+  }
+
+  /** @return the offsets of the entries of an IFD keyed by tag, empty if the IFD is malformed. */
+  private static HashMap<Integer, Integer> readIfd(ByteBuffer tiff, int offset) {
+    final HashMap<Integer, Integer> entries = new HashMap<>();
+    if (offset < 0 || offset > tiff.limit() - 2) {
+      return entries;
+    }
+    final int count = tiff.getShort(offset) & 0xFFFF;
+    for (int i = 0; i < count; i++) {
+      final int entry = offset + 2 + 12 * i;
+      if (entry > tiff.limit() - 12) {
+        break;
+      }
+      entries.put(tiff.getShort(entry) & 0xFFFF, entry);
+    }
+    return entries;
+  }
+
+  /** @return the offset of the value of an entry, -1 if it lies outside the structure. */
+  private static int valueOffset(ByteBuffer tiff, int entry, int size) {
+    final int offset = size <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+    return offset < 0 || size > tiff.limit() - offset ? -1 : offset;
+  }
+
+  private static int size(ByteBuffer tiff, int entry) {
+    final int type = tiff.getShort(entry + 2) & 0xFFFF;
+    final long count = tiff.getInt(entry + 4) & 0xFFFFFFFFL;
+    final long size = type < TYPE_SIZES.length ? TYPE_SIZES[type] * count : 0;
+    return size > tiff.limit() ? -1 : (int) size;
+  }
+
+  /** @return the bytes of the value of an entry, null if there is no usable entry. */
+  private static byte[] bytes(ByteBuffer tiff, Integer entry) {
+    if (null == entry) {
+      return null;
+    }
+    final int size = size(tiff, entry);
+    final int offset = size < 0 ? -1 : valueOffset(tiff, entry, size);
+    if (offset < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = tiff.get(offset + i);
+    }
+    return bytes;
+  }
+
+  /** @return the text up to the first NUL, trimmed. */
+  private static String text(byte[] bytes, int from, Charset charset) {
+    final String text = new String(bytes, from, bytes.length - from, charset);
+    final int end = text.indexOf('\0');
+    return (-1 == end ? text : text.substring(0, end)).trim();
+  }
+
+  /** @return the trimmed text of an ASCII entry, null if there is no usable entry. */
+  private static String ascii(ByteBuffer tiff, Integer entry) {
+    final byte[] bytes = bytes(tiff, entry);
+    return null == bytes ? null : text(bytes, 0, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @return the text of a user comment, which should start with an 8 byte character code, null if
+   *     there is no text or it is in an unsupported encoding.
+   */
+  private static String userComment(ByteBuffer tiff, Integer entry) {
+    final byte[] bytes = bytes(tiff, entry);
+    if (null == bytes) {
+      return null;
+    }
+    final String code =
+        new String(bytes, 0, Math.min(8, bytes.length), StandardCharsets.ISO_8859_1);
+    // A character code cut short leaves no text after it.
+    final boolean complete = bytes.length >= 8;
+    final String text;
+    if (code.startsWith("ASCII\0") || code.equals("\0\0\0\0\0\0\0\0")) {
+      if (!complete) {
+        return null;
+      }
+      text = text(bytes, 8, StandardCharsets.ISO_8859_1);
+    } else if (code.startsWith("UNICODE\0")) {
+      if (!complete) {
+        return null;
+      }
+      text =
+          text(
+              bytes,
+              8,
+              ByteOrder.BIG_ENDIAN == tiff.order()
+                  ? StandardCharsets.UTF_16BE
+                  : StandardCharsets.UTF_16LE);
+    } else if (code.startsWith("JIS\0")) {
+      return null;
+    } else {
+      // Written without a character code.
+      text = text(bytes, 0, StandardCharsets.ISO_8859_1);
+    }
+    return text.isEmpty() ? null : text;
+  }
+
+  /** @return the values of a RATIONAL entry, null if there is no usable entry. */
+  private static double[] rationals(ByteBuffer tiff, Integer entry) {
+    if (null == entry || 5 != (tiff.getShort(entry + 2) & 0xFFFF)) {
+      return null;
+    }
+    final int size = size(tiff, entry);
+    final int offset = size < 0 ? -1 : valueOffset(tiff, entry, size);
+    if (offset < 0) {
+      return null;
+    }
+    final double[] result = new double[size / 8];
+    for (int i = 0; i < result.length; i++) {
+      final long numerator = tiff.getInt(offset + 8 * i) & 0xFFFFFFFFL;
+      final long denominator = tiff.getInt(offset + 8 * i + 4) & 0xFFFFFFFFL;
+      result[i] = 0 == denominator ? 0 : (double) numerator / denominator;
+    }
+    return result;
+  }
+
+  /** @return signed decimal degrees from degrees, minutes and seconds, null if missing. */
+  private static Double degrees(ByteBuffer tiff, Integer entry, Integer ref, char negative) {
+    final double[] dms = rationals(tiff, entry);
+    if (null == dms || dms.length < 3) {
+      return null;
+    }
+    final double degrees = dms[0] + dms[1] / 60 + dms[2] / 3600;
+    final String hemisphere = ascii(tiff, ref);
+    return null != hemisphere && hemisphere.indexOf(negative) == 0 ? -degrees : degrees;
+  }
+}
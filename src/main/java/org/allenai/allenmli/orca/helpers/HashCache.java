@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.helpers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of a 64 bit hash per image file, so unchanged images aren't decoded again.
+ *
+ * <p>Entries are keyed by the absolute path of the file and are only returned while the file's
+ * modification time matches the one recorded with the hash. The cache is a text file with one
+ * <code>hash modified path</code> line per entry, rewritten as a whole by {@link #save()}. It may
+ * be read and updated from several threads.
+ */
+public final class HashCache {
+  private static final class Entry {
+    final long modified;
+    final long hash;
+
+    Entry(long modified, long hash) {
+      this.modified = modified;
+      this.hash = hash;
+    }
+  }
+
+  private final Path file;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile boolean dirty = false;
+
+  /**
+   * Load the cache, starting empty if the file doesn't exist or can't be read.
+   *
+   * @param file the cache file.
+   */
+  public HashCache(Path file) {
+    this.file = file;
+    try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while (null != (line = reader.readLine())) {
+        final String[] fields = line.split("\t", 3);
+        if (3 != fields.length) {
+          continue;
+        }
+        try {
+          entries.put(
+              fields[2],
+              new Entry(Long.parseLong(fields[1]), Long.parseUnsignedLong(fields[0], 16)));
+        } catch (final NumberFormatException e) {
+          // Skip the damaged entry, it is hashed again.
+        }
+      }
+    } catch (final NoSuchFileException e) {
+      // Nothing cached yet.
+    } catch (final IOException e) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * @param image the image file.
+   * @return the cached hash, null if there is none or the file changed since it was hashed.
+   */
+  public Long get(File image) {
+    final Entry entry = entries.get(image.getAbsolutePath());
+    return null != entry && entry.modified == image.lastModified() ? entry.hash : null;
+  }
+
+  /**
+   * @param image the image file.
+   * @param hash the hash of its current content.
+   */
+  public void put(File image, long hash) {
+    entries.put(image.getAbsolutePath(), new Entry(image.lastModified(), hash));
+    dirty = true;
+  }
+
+  /** @return the number of entries. */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Write the cache if it changed. The file is replaced in one step, so readers never see a
+   * partial cache.
+   *
+   * @throws IOException if the cache can't be written.
+   */
+  public void save() throws IOException {
+    if (!dirty) {
+      return;
+    }
+    final Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    final Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try (final BufferedWriter writer =
+        Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+      for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+        writer.write(
+            String.format(
+                "%016x\t%d\t%s%n",
+                entry.getValue().hash, entry.getValue().modified, entry.getKey()));
+      }
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    dirty = false;
+  }
+}
@@ -23,8 +23,10 @@ package org.allenai.allenmli.orca.helpers;
  */
 public enum JsonConfigurationFile {
   CUE_CONFIG(ConfigurationFile.CUE_CONFIG, "CueConfig.schema.json"),
+  LENS_CONFIG(ConfigurationFile.LENS_CONFIG, "LensConf.schema.json"),
   MEASUREMENT_CONFIG(ConfigurationFile.MEASUREMENT_CONFIG, "MeasurementConf.schema.json"),
-  REFERENCE_CONFIG(ConfigurationFile.REFERENCE_CONFIG, "ReferenceConf.schema.json");
+  REFERENCE_CONFIG(ConfigurationFile.REFERENCE_CONFIG, "ReferenceConf.schema.json"),
+  UNCERTAINTY_CONFIG(ConfigurationFile.UNCERTAINTY_CONFIG, "UncertaintyConf.schema.json");
 
   /** The base configuration file. */
   private final ConfigurationFile configFile;
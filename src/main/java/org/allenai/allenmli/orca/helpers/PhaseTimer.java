@@ -0,0 +1,71 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.helpers;
+
+import org.scijava.log.Logger;
+
+/**
+ * Simple wall clock tracer for multi-phase operations such as plugin startup.
+ *
+ * <p>Each call to {@link #mark(String)} logs the time spent since the previous mark at debug level.
+ * {@link #finish()} logs the total at info level. Run Fiji with <code>-Dscijava.log.level=debug
+ * </code> to see the individual phases.
+ */
+public final class PhaseTimer {
+  private final Logger logger;
+  private final String name;
+  private final long start;
+  private long last;
+
+  /**
+   * Starts a new trace.
+   *
+   * @param logger the logger the trace is written to.
+   * @param name the name of the operation being traced.
+   */
+  public PhaseTimer(Logger logger, String name) {
+    this.logger = logger;
+    this.name = name;
+    start = System.nanoTime();
+    last = start;
+  }
+
+  /**
+   * Record the end of a phase.
+   *
+   * @param phase the name of the phase that just completed.
+   * @return the duration of the phase in milliseconds.
+   */
+  public double mark(String phase) {
+    final long now = System.nanoTime();
+    final double elapsed = (now - last) / 1.0e6;
+    last = now;
+    logger.debug(String.format("%s: %s took %.1f ms", name, phase, elapsed));
+    return elapsed;
+  }
+
+  /**
+   * Record the end of the traced operation.
+   *
+   * @return the total duration in milliseconds.
+   */
+  public double finish() {
+    final double total = (System.nanoTime() - start) / 1.0e6;
+    logger.info(String.format("%s completed in %.1f ms", name, total));
+    return total;
+  }
+}
@@ -0,0 +1,402 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.helpers;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of a small JPEG thumbnail per image file, so a sheet's filmstrip is only built
+ * once.
+ *
+ * <p>Entries are keyed by the absolute path of the file and are only returned while the file's
+ * modification time matches the one recorded with the thumbnail. The thumbnails are appended to a
+ * single pack file, a few kilobytes each, rather than one file per frame. The pack is rewritten
+ * when it is opened if replaced entries make up most of it, and when it is opened or closed with
+ * more entries than the cache keeps, dropping those used least recently. The records are
+ * rewritten in the order they were last used, so that order carries over to the next session.
+ * Thumbnails may be read and added from several threads.
+ */
+public final class ThumbnailCache implements Closeable {
+  /** Longest side of a thumbnail, in pixels. */
+  public static final int SIZE = 128;
+  /** Entries kept by default, some tens of megabytes. */
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  private static final byte[] MAGIC = "AMPTTHM1".getBytes(StandardCharsets.ISO_8859_1);
+  /** Bytes of a record besides the path and the thumbnail: their lengths and the time. */
+  private static final int RECORD_OVERHEAD = 4 + 8 + 4;
+  /** Longest path or thumbnail accepted when reading the pack, to detect corruption. */
+  private static final int MAX_FIELD = 1 << 20;
+
+  private static final class Entry {
+    final long modified;
+    final long position;
+    final int length;
+    /** When the entry was last used, in {@link #clock} ticks. */
+    volatile long used;
+
+    Entry(long modified, long position, int length, long used) {
+      this.modified = modified;
+      this.position = position;
+      this.length = length;
+      this.used = used;
+    }
+  }
+
+  private final Path file;
+  private final int max_entries;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  /** Orders the uses of the entries. */
+  private final AtomicLong clock = new AtomicLong();
+  /** The pack file, null if it can't be opened, in which case nothing is cached. */
+  private FileChannel channel;
+  /** Where the next record is written. */
+  private long end;
+
+  /**
+   * Open the cache, keeping {@link #DEFAULT_MAX_ENTRIES}.
+   *
+   * @param file the pack file.
+   */
+  public ThumbnailCache(Path file) {
+    this(file, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Open the cache, starting empty if the file doesn't exist or can't be read.
+   *
+   * @param file the pack file.
+   * @param max_entries the number of entries kept from one session to the next.
+   */
+  public ThumbnailCache(Path file, int max_entries) {
+    this.file = file;
+    this.max_entries = max_entries;
+    try {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      open();
+      if (entries.size() > max_entries || (end > MAGIC.length && live() < end / 2)) {
+        compact();
+      }
+    } catch (final IOException e) {
+      entries.clear();
+      closeQuietly();
+    }
+  }
+
+  /** Open the pack and index its records, dropping a partly written last record. */
+  private void open() throws IOException {
+    channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    final byte[] magic = new byte[MAGIC.length];
+    if (channel.size() < MAGIC.length
+        || MAGIC.length != channel.read(ByteBuffer.wrap(magic), 0)
+        || !Arrays.equals(MAGIC, magic)) {
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap(MAGIC), 0);
+      end = MAGIC.length;
+      return;
+    }
+    final long size = channel.size();
+    final ByteBuffer lengths = ByteBuffer.allocate(4);
+    final ByteBuffer times = ByteBuffer.allocate(8);
+    long position = MAGIC.length;
+    while (position < size) {
+      final int path_length = readInt(lengths, position);
+      if (path_length <= 0 || path_length > MAX_FIELD || position + 4 + path_length > size) {
+        break;
+      }
+      final ByteBuffer path = ByteBuffer.allocate(path_length);
+      readFully(path, position + 4);
+      long field = position + 4 + path_length;
+      if (field + 12 > size) {
+        break;
+      }
+      times.clear();
+      readFully(times, field);
+      final int length = readInt(lengths, field + 8);
+      field += 12;
+      if (length <= 0 || length > MAX_FIELD || field + length > size) {
+        break;
+      }
+      entries.put(
+          new String(path.array(), StandardCharsets.UTF_8),
+          new Entry(times.getLong(0), field, length, clock.incrementAndGet()));
+      position = field + length;
+    }
+    end = position;
+    if (end < size) {
+      channel.truncate(end);
+    }
+  }
+
+  private int readInt(ByteBuffer buffer, long position) throws IOException {
+    buffer.clear();
+    readFully(buffer, position);
+    return buffer.getInt(0);
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    long at = position;
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, at);
+      if (read < 0) {
+        throw new IOException("Unexpected end of " + file);
+      }
+      at += read;
+    }
+  }
+
+  /** @return the bytes taken by the records of the current entries. */
+  private long live() {
+    long total = MAGIC.length;
+    for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+      total +=
+          RECORD_OVERHEAD
+              + entry.getKey().getBytes(StandardCharsets.UTF_8).length
+              + entry.getValue().length;
+    }
+    return total;
+  }
+
+  /** Rewrite the pack with the current entries used most recently, least recent first. */
+  private void compact() throws IOException {
+    final ArrayList<Map.Entry<String, Entry>> kept = new ArrayList<>(entries.entrySet());
+    kept.sort(Comparator.comparingLong(entry -> entry.getValue().used));
+    final Path parent = file.toAbsolutePath().getParent();
+    final Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try (final FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      out.write(ByteBuffer.wrap(MAGIC));
+      for (final Map.Entry<String, Entry> entry :
+          kept.subList(Math.max(0, kept.size() - max_entries), kept.size())) {
+        final ByteBuffer jpeg = ByteBuffer.allocate(entry.getValue().length);
+        readFully(jpeg, entry.getValue().position);
+        out.write(record(entry.getKey(), entry.getValue().modified, jpeg.array()));
+      }
+    }
+    channel.close();
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    entries.clear();
+    open();
+  }
+
+  private static ByteBuffer record(String path, long modified, byte[] jpeg) {
+    final byte[] key = path.getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + key.length + jpeg.length);
+    record.putInt(key.length).put(key).putLong(modified).putInt(jpeg.length).put(jpeg);
+    record.flip();
+    return record;
+  }
+
+  /**
+   * @param image the image file.
+   * @return the cached thumbnail, null if there is none or the file changed since it was made.
+   */
+  public BufferedImage get(File image) {
+    final Entry entry = entries.get(image.getAbsolutePath());
+    final FileChannel pack = channel;
+    if (null == entry || null == pack || entry.modified != image.lastModified()) {
+      return null;
+    }
+    entry.used = clock.incrementAndGet();
+    final ByteBuffer jpeg = ByteBuffer.allocate(entry.length);
+    try {
+      readFully(jpeg, entry.position);
+      return ImageIO.read(new ByteArrayInputStream(jpeg.array()));
+    } catch (final IOException e) {
+      return null; // Made again.
+    }
+  }
+
+  /**
+   * @param image the image file.
+   * @param thumbnail the thumbnail of its current content.
+   * @throws IOException if the thumbnail can't be written.
+   */
+  public void put(File image, BufferedImage thumbnail) throws IOException {
+    final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    if (!ImageIO.write(thumbnail, "jpg", jpeg)) {
+      throw new IOException("No JPEG writer");
+    }
+    final ByteBuffer record =
+        record(image.getAbsolutePath(), image.lastModified(), jpeg.toByteArray());
+    synchronized (this) {
+      if (null == channel) {
+        return;
+      }
+      final long position = end;
+      while (record.hasRemaining()) {
+        end += channel.write(record, end);
+      }
+      entries.put(
+          image.getAbsolutePath(),
+          new Entry(
+              image.lastModified(),
+              position + record.limit() - jpeg.size(),
+              jpeg.size(),
+              clock.incrementAndGet()));
+    }
+  }
+
+  /**
+   * Get the thumbnail of an image, making and caching it if needed.
+   *
+   * @param image the image file.
+   * @return the thumbnail, null if the image can't be read.
+   */
+  public BufferedImage load(File image) {
+    BufferedImage thumbnail = get(image);
+    if (null != thumbnail) {
+      return thumbnail;
+    }
+    try {
+      thumbnail = create(image);
+      if (null != thumbnail) {
+        put(image, thumbnail);
+      }
+    } catch (final IOException e) {
+      // Not cached, made again next time.
+    }
+    return thumbnail;
+  }
+
+  /** @return the number of entries. */
+  public int size() {
+    return entries.size();
+  }
+
+  /** Close the pack file, evicting the entries beyond the limit; nothing is cached afterwards. */
+  @Override
+  public synchronized void close() {
+    if (null != channel && entries.size() > max_entries) {
+      try {
+        compact();
+      } catch (final IOException e) {
+        // Evicted when next opened.
+      }
+    }
+    closeQuietly();
+  }
+
+  private void closeQuietly() {
+    if (null != channel) {
+      try {
+        channel.close();
+      } catch (final IOException e) {
+        // Nothing left to write.
+      }
+      channel = null;
+    }
+  }
+
+  /**
+   * Make the thumbnail of an image from the preview embedded in its EXIF header when there is one,
+   * else by decoding a subsample of the image.
+   *
+   * @param image the image file.
+   * @return the thumbnail, fitting in {@link #SIZE} pixels, null if the image can't be read.
+   * @throws IOException if the image can't be read.
+   */
+  public static BufferedImage create(File image) throws IOException {
+    BufferedImage decoded = null;
+    final String name = image.getName().toLowerCase(Locale.ROOT);
+    if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+      final byte[] preview = ExifReader.thumbnail(image.toPath());
+      if (null != preview) {
+        decoded = ImageIO.read(new ByteArrayInputStream(preview));
+      }
+    }
+    if (null == decoded) {
+      decoded = subsample(image);
+    }
+    if (null == decoded) {
+      final ImagePlus opened = IJ.openImage(image.getPath());
+      if (null == opened) {
+        return null;
+      }
+      decoded = opened.getBufferedImage();
+      opened.flush();
+    }
+    return fit(decoded);
+  }
+
+  /** @return the image decoded at about twice the thumbnail size, null if no reader fits. */
+  private static BufferedImage subsample(File image) throws IOException {
+    try (final ImageInputStream stream = ImageIO.createImageInputStream(image)) {
+      final Iterator<ImageReader> readers =
+          null == stream ? null : ImageIO.getImageReaders(stream);
+      if (null == readers || !readers.hasNext()) {
+        return null;
+      }
+      final ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream, true, true);
+        final int step =
+            Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / (2 * SIZE));
+        final ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /** @return the image scaled to fit in {@link #SIZE} pixels, without an alpha channel. */
+  static BufferedImage fit(BufferedImage image) {
+    final double scale =
+        Math.min(1.0, (double) SIZE / Math.max(image.getWidth(), image.getHeight()));
+    final int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+    final int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+    final BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = thumbnail.createGraphics();
+    graphics.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    graphics.drawImage(image, 0, 0, width, height, null);
+    graphics.dispose();
+    return thumbnail;
+  }
+}
@@ -0,0 +1,430 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.helpers;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Multi-resolution tiles of one frame, so any part of a very large frame can be drawn at any zoom
+ * from a few small images.
+ *
+ * <p>Level 0 holds the frame at full resolution and each level above halves both dimensions,
+ * up to the level that fits in a single tile. Tiles are {@value #TILE} pixels square, smaller at
+ * the right and bottom edges, and are stored as JPEG files in a directory per frame so a frame is
+ * only tiled once. Decoded tiles are held in memory in a least recently used cache of bounded
+ * size. The tiles may be read from any thread while the pyramid is being built.
+ */
+public final class TilePyramid {
+  /** Width and height of a tile in pixels. */
+  public static final int TILE = 256;
+  /** Default number of decoded tiles held in memory, about 48 MB. */
+  public static final int DEFAULT_MEMORY_TILES = 192;
+  /** Marks a directory holding every tile of the pyramid. */
+  private static final String COMPLETE = "complete";
+
+  /** Reads the frame being tiled. */
+  public interface Source {
+    /**
+     * @param region a region of the frame at full resolution.
+     * @return the pixels of the region, the size of the region.
+     */
+    BufferedImage read(Rectangle region);
+  }
+
+  /** Called when a tile has been built. */
+  public interface TileListener {
+    void tileBuilt(int level, int tx, int ty);
+  }
+
+  private final Path directory;
+  private final int width;
+  private final int height;
+  private final int levels;
+  private final LinkedHashMap<String, BufferedImage> memory;
+
+  /**
+   * @param directory the directory the tiles of this frame are stored in.
+   * @param width the width of the frame.
+   * @param height the height of the frame.
+   * @param memory_tiles the most decoded tiles held in memory.
+   */
+  public TilePyramid(Path directory, int width, int height, int memory_tiles) {
+    this.directory = directory;
+    this.width = width;
+    this.height = height;
+    int n = 1;
+    while (Math.max(width, height) > (TILE << (n - 1))) {
+      n++;
+    }
+    levels = n;
+    memory =
+        new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+            return size() > memory_tiles;
+          }
+        };
+  }
+
+  /**
+   * Identify a frame by its content, so a renamed or copied frame reuses its tiles and an edited
+   * frame doesn't.
+   *
+   * @param file the image file.
+   * @return the SHA-1 digest of the file in hexadecimal.
+   * @throws IOException if the file can't be read.
+   */
+  public static String key(Path file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    final byte[] buffer = new byte[1 << 16];
+    try (final InputStream in = Files.newInputStream(file)) {
+      int n;
+      while (-1 != (n = in.read(buffer))) {
+        digest.update(buffer, 0, n);
+      }
+    }
+    final StringBuilder hex = new StringBuilder();
+    for (final byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Delete the tiles of the frames used least recently, keeping the most recent.
+   *
+   * @param root the directory holding a directory per frame.
+   * @param keep the number of frames to keep.
+   * @throws IOException if the directories can't be listed or deleted.
+   */
+  public static void prune(Path root, int keep) throws IOException {
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+    final ArrayList<Path> frames = new ArrayList<>();
+    try (final DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+      for (final Path entry : entries) {
+        if (Files.isDirectory(entry)) {
+          frames.add(entry);
+        }
+      }
+    }
+    if (frames.size() <= keep) {
+      return;
+    }
+    final Map<Path, FileTime> used = new LinkedHashMap<>();
+    for (final Path frame : frames) {
+      used.put(frame, Files.getLastModifiedTime(frame));
+    }
+    frames.sort(Comparator.comparing(used::get));
+    for (final Path frame : frames.subList(0, frames.size() - keep)) {
+      try (final Stream<Path> files = Files.walk(frame)) {
+        for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  /** @return the number of levels. */
+  public int levels() {
+    return levels;
+  }
+
+  /**
+   * @param level the level.
+   * @return the width of the frame at the level.
+   */
+  public int width(int level) {
+    return (width + (1 << level) - 1) >> level;
+  }
+
+  /**
+   * @param level the level.
+   * @return the height of the frame at the level.
+   */
+  public int height(int level) {
+    return (height + (1 << level) - 1) >> level;
+  }
+
+  /**
+   * @param level the level.
+   * @return the number of tiles across the level.
+   */
+  public int tilesX(int level) {
+    return (width(level) + TILE - 1) / TILE;
+  }
+
+  /**
+   * @param level the level.
+   * @return the number of tiles down the level.
+   */
+  public int tilesY(int level) {
+    return (height(level) + TILE - 1) / TILE;
+  }
+
+  /** @return true if every tile has been stored. */
+  public boolean complete() {
+    return Files.exists(directory.resolve(COMPLETE));
+  }
+
+  private Path file(int level, int tx, int ty) {
+    return directory.resolve(String.format("%d_%d_%d.jpg", level, tx, ty));
+  }
+
+  /**
+   * Get a tile, from memory or from disk.
+   *
+   * @param level the level.
+   * @param tx the column of the tile.
+   * @param ty the row of the tile.
+   * @return the tile, null if it hasn't been built yet.
+   */
+  public BufferedImage tile(int level, int tx, int ty) {
+    final String name = level + "_" + tx + "_" + ty;
+    synchronized (memory) {
+      final BufferedImage cached = memory.get(name);
+      if (null != cached) {
+        return cached;
+      }
+    }
+    final File file = file(level, tx, ty).toFile();
+    if (!file.isFile()) {
+      return null;
+    }
+    final BufferedImage image;
+    try {
+      image = ImageIO.read(file);
+    } catch (final IOException e) {
+      return null; // Still being written.
+    }
+    if (null != image) {
+      synchronized (memory) {
+        memory.put(name, image);
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Build and store every tile not stored yet. The pyramid is built depth first, so only a few
+   * tiles per level are held at once, and the quarters below the top levels are built in
+   * parallel.
+   *
+   * @param source reads the frame.
+   * @param pool runs the quarters in parallel.
+   * @param listener told about each tile as it is stored, from any thread.
+   * @throws IOException if a tile can't be stored.
+   * @throws InterruptedException if interrupted while waiting for the quarters.
+   */
+  public void build(Source source, ExecutorService pool, TileListener listener)
+      throws IOException, InterruptedException {
+    if (complete()) {
+      Files.setLastModifiedTime(directory, FileTime.fromMillis(System.currentTimeMillis()));
+      return;
+    }
+    Files.createDirectories(directory);
+    // Build the subtrees at a level with up to 16 tiles in parallel, then combine them.
+    final int split = Math.max(0, levels - 3);
+    final ArrayList<Callable<BufferedImage>> tasks = new ArrayList<>();
+    final int across = tilesX(split);
+    final int down = tilesY(split);
+    for (int ty = 0; ty < down; ty++) {
+      for (int tx = 0; tx < across; tx++) {
+        final int x = tx;
+        final int y = ty;
+        tasks.add(() -> build(source, split, x, y, listener));
+      }
+    }
+    final BufferedImage[][] built = new BufferedImage[down][across];
+    final List<Future<BufferedImage>> results = pool.invokeAll(tasks);
+    try {
+      for (int i = 0; i < results.size(); i++) {
+        built[i / across][i % across] = results.get(i).get();
+      }
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    BufferedImage[][] below = built;
+    for (int level = split + 1; level < levels; level++) {
+      final BufferedImage[][] current = new BufferedImage[tilesY(level)][tilesX(level)];
+      for (int ty = 0; ty < current.length; ty++) {
+        for (int tx = 0; tx < current[ty].length; tx++) {
+          current[ty][tx] =
+              store(
+                  level,
+                  tx,
+                  ty,
+                  half(
+                      quarter(below, 2 * tx, 2 * ty),
+                      quarter(below, 2 * tx + 1, 2 * ty),
+                      quarter(below, 2 * tx, 2 * ty + 1),
+                      quarter(below, 2 * tx + 1, 2 * ty + 1)),
+                  listener);
+        }
+      }
+      below = current;
+    }
+    Files.createFile(directory.resolve(COMPLETE));
+  }
+
+  private static BufferedImage quarter(BufferedImage[][] tiles, int tx, int ty) {
+    return ty < tiles.length && tx < tiles[ty].length ? tiles[ty][tx] : null;
+  }
+
+  /** @return the tile, built from the source at level 0 and from the four below above it. */
+  private BufferedImage build(Source source, int level, int tx, int ty, TileListener listener)
+      throws IOException {
+    if (tx >= tilesX(level) || ty >= tilesY(level)) {
+      return null;
+    }
+    final BufferedImage existing = tile(level, tx, ty);
+    if (null != existing) {
+      return existing;
+    }
+    final BufferedImage image;
+    if (0 == level) {
+      final int x = tx * TILE;
+      final int y = ty * TILE;
+      image =
+          rgb(
+              source.read(
+                  new Rectangle(x, y, Math.min(TILE, width - x), Math.min(TILE, height - y))));
+    } else {
+      image =
+          half(
+              build(source, level - 1, 2 * tx, 2 * ty, listener),
+              build(source, level - 1, 2 * tx + 1, 2 * ty, listener),
+              build(source, level - 1, 2 * tx, 2 * ty + 1, listener),
+              build(source, level - 1, 2 * tx + 1, 2 * ty + 1, listener));
+    }
+    return store(level, tx, ty, image, listener);
+  }
+
+  private BufferedImage store(
+      int level, int tx, int ty, BufferedImage image, TileListener listener) throws IOException {
+    final Path file = file(level, tx, ty);
+    final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    if (!ImageIO.write(image, "jpg", temporary.toFile())) {
+      throw new IOException("No JPEG writer");
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    synchronized (memory) {
+      memory.put(level + "_" + tx + "_" + ty, image);
+    }
+    listener.tileBuilt(level, tx, ty);
+    return image;
+  }
+
+  /**
+   * Shrink four tiles into one by averaging 2 by 2 pixels.
+   *
+   * @param tl the top left tile, never null.
+   * @param tr the top right tile, null at the right edge.
+   * @param bl the bottom left tile, null at the bottom edge.
+   * @param br the bottom right tile.
+   * @return the tile of the level above.
+   */
+  static BufferedImage half(
+      BufferedImage tl, BufferedImage tr, BufferedImage bl, BufferedImage br) {
+    final int w = tl.getWidth() + (null == tr ? 0 : tr.getWidth());
+    final int h = tl.getHeight() + (null == bl ? 0 : bl.getHeight());
+    final int[] pixels = new int[w * h];
+    copy(tl, pixels, w, 0, 0);
+    copy(tr, pixels, w, tl.getWidth(), 0);
+    copy(bl, pixels, w, 0, tl.getHeight());
+    copy(br, pixels, w, tl.getWidth(), tl.getHeight());
+    final int hw = (w + 1) / 2;
+    final int hh = (h + 1) / 2;
+    final int[] halved = new int[hw * hh];
+    for (int y = 0; y < hh; y++) {
+      final int y0 = 2 * y;
+      final int y1 = Math.min(h - 1, y0 + 1);
+      for (int x = 0; x < hw; x++) {
+        final int x0 = 2 * x;
+        final int x1 = Math.min(w - 1, x0 + 1);
+        final int a = pixels[y0 * w + x0];
+        final int b = pixels[y0 * w + x1];
+        final int c = pixels[y1 * w + x0];
+        final int d = pixels[y1 * w + x1];
+        int rgb = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+          final int sum =
+              ((a >> shift) & 0xFF)
+                  + ((b >> shift) & 0xFF)
+                  + ((c >> shift) & 0xFF)
+                  + ((d >> shift) & 0xFF);
+          rgb |= ((sum + 2) >> 2) << shift;
+        }
+        halved[y * hw + x] = rgb;
+      }
+    }
+    final BufferedImage result = new BufferedImage(hw, hh, BufferedImage.TYPE_INT_RGB);
+    result.setRGB(0, 0, hw, hh, halved, 0, hw);
+    return result;
+  }
+
+  /** @return the image without an alpha channel, which JPEG files can't hold. */
+  private static BufferedImage rgb(BufferedImage image) {
+    if (BufferedImage.TYPE_INT_RGB == image.getType()) {
+      return image;
+    }
+    final BufferedImage converted =
+        new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = converted.createGraphics();
+    graphics.drawImage(image, 0, 0, null);
+    graphics.dispose();
+    return converted;
+  }
+
+  private static void copy(BufferedImage tile, int[] pixels, int stride, int x, int y) {
+    if (null != tile) {
+      tile.getRGB(0, 0, tile.getWidth(), tile.getHeight(), pixels, y * stride + x, stride);
+    }
+  }
+}
@@ -19,18 +19,34 @@ package org.allenai.allenmli.orca.helpers;
 import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvValidationException;
 import com.opencsv.exceptions.CsvException;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
 import org.scijava.log.Logger;
 import org.scijava.log.StderrLogService;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
@@ -38,6 +54,9 @@ import java.util.zip.ZipFile;
 public enum Utilities {
   ;
 
+  /** The files in the subdirectories searched by {@link #findImage(String, File...)}. */
+  private static final ConcurrentHashMap<File, FileTree> FILE_TREES = new ConcurrentHashMap<>();
+
   /**
    * Loads a CSV file into an ArrayList of Maps.
    *
@@ -51,9 +70,28 @@ public enum Utilities {
     final List<String[]> values;
     final ArrayList<HashMap<String, String>> result = new ArrayList<>();
 
-    try (final CSVReader csvReader = new CSVReader(new FileReader(targetFile))) {
-      headers = csvReader.readNext();
-      values = csvReader.readAll();
+    String[][] read;
+    try {
+      read =
+          readCSV(
+              targetFile,
+              StandardCharsets.UTF_8
+                  .newDecoder()
+                  .onMalformedInput(CodingErrorAction.REPORT)
+                  .onUnmappableCharacter(CodingErrorAction.REPORT));
+    } catch (final CharacterCodingException e) {
+      // Sheets saved before the writer switched to UTF-8 use the platform charset.
+      try {
+        read =
+            readCSV(
+                targetFile,
+                Charset.defaultCharset()
+                    .newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+      } catch (final IOException | CsvException retry) {
+        throw new CSVFileLoadException("Error while loading '" + targetFile + "'", retry);
+      }
     } catch (final IOException e) {
       throw new CSVFileLoadException("IO problem encountered loading '" + targetFile + "'", e);
     }
@@ -64,6 +102,14 @@ public enum Utilities {
       throw new CSVFileLoadException("Error while loading '" + targetFile + "'", e);
     }
 
+    headers = read[0];
+    values = Arrays.asList(read).subList(1, read.length);
+    if (null == headers) {
+      return result;
+    }
+    if (0 < headers.length && headers[0].startsWith("\uFEFF")) {
+      headers[0] = headers[0].substring(1);
+    }
     final int n_cols = headers.length;
     for (final String[] nextLine : values) {
       final HashMap<String, String> record = new HashMap<>();
@@ -75,6 +121,31 @@ public enum Utilities {
     return result;
   }
 
+  /**
+   * Read every line of a CSV file.
+   *
+   * @param targetFile The full path to the file.
+   * @param decoder The decoder for the file's charset.
+   * @return The header line followed by the remaining lines.
+   */
+  private static String[][] readCSV(String targetFile, CharsetDecoder decoder)
+      throws IOException, CsvException {
+    try (final CSVReader csvReader =
+        new CSVReader(
+            new BufferedReader(
+                new InputStreamReader(Files.newInputStream(Paths.get(targetFile)), decoder),
+                1 << 16))) {
+      final String[] headers = csvReader.readNext();
+      final List<String[]> lines = csvReader.readAll();
+      final String[][] result = new String[lines.size() + 1][];
+      result[0] = headers;
+      for (int i = 0; i < lines.size(); i++) {
+        result[i + 1] = lines.get(i);
+      }
+      return result;
+    }
+  }
+
   /**
    * Returns whether the given {@link File} object represents a Zip archive.
    *
@@ -112,4 +183,90 @@ public enum Utilities {
       logger.info("Access link at " + uri);
     }
   }
+
+  /**
+   * Bring an image to the front, opening it if it isn't already open.
+   *
+   * @param filename the image name, as stored in the <code>Filename</code> column.
+   * @param directories directories to look for the image in, null entries are skipped.
+   * @return true if the image is now showing, false if it couldn't be found or opened.
+   */
+  public static boolean openImage(String filename, File... directories) {
+    final ImagePlus open = WindowManager.getImage(filename);
+    if (null != open) {
+      if (null == open.getWindow()) {
+        open.show();
+      } else {
+        open.getWindow().toFront();
+      }
+      return true;
+    }
+    final File file = findImage(filename, directories);
+    if (null != file) {
+      final ImagePlus image = IJ.openImage(file.getPath());
+      if (null != image) {
+        image.show();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Locate the file of an image, in one of the directories or else in their subdirectories.
+   *
+   * @param filename the image name, as stored in the <code>Filename</code> column.
+   * @param directories directories to look for the image in, null entries are skipped.
+   * @return the first file found, null if there is none.
+   */
+  public static File findImage(String filename, File... directories) {
+    for (final File directory : directories) {
+      if (null == directory) {
+        continue;
+      }
+      final File candidate = new File(directory, filename);
+      if (candidate.isFile()) {
+        return candidate;
+      }
+    }
+    // Imported images are named without the subdirectory they are in.
+    for (final File directory : directories) {
+      if (null == directory || !directory.isDirectory()) {
+        continue;
+      }
+      FileTree tree = FILE_TREES.get(directory);
+      File found = null == tree ? null : tree.files.get(filename);
+      if ((null == found || !found.isFile())
+          && (null == tree || FileTree.REINDEX_MS < System.currentTimeMillis() - tree.built)) {
+        tree = new FileTree(directory.toPath());
+        FILE_TREES.put(directory, tree);
+        found = tree.files.get(filename);
+      }
+      if (null != found && found.isFile()) {
+        return found;
+      }
+    }
+    return null;
+  }
+
+  /** The files of a directory tree by name, the first by path when several share a name. */
+  private static final class FileTree {
+    /** Shortest time before a tree is walked again to find a missing file. */
+    static final long REINDEX_MS = 5000;
+    /** Deepest subdirectory walked. */
+    static final int MAX_DEPTH = 4;
+
+    final HashMap<String, File> files = new HashMap<>();
+    final long built = System.currentTimeMillis();
+
+    FileTree(Path root) {
+      try (final Stream<Path> walk = Files.walk(root, MAX_DEPTH)) {
+        walk.filter(Files::isRegularFile)
+            .sorted()
+            .forEach(file -> files.putIfAbsent(file.getFileName().toString(), file.toFile()));
+      } catch (final IOException | UncheckedIOException e) {
+        new StderrLogService().warn(String.format("Couldn't search %s: %s", root, e));
+      }
+    }
+  }
 }
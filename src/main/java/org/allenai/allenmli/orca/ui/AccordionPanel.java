@@ -24,10 +24,13 @@ import javax.swing.JPanel;
 import java.awt.BorderLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.util.function.Supplier;
 
 public class AccordionPanel extends JPanel {
   private JPanel content_panel;
   private JCheckBox controlButton;
+  /** Builds the content panel the first time the panel is opened, null once built. */
+  private Supplier<? extends JPanel> content_supplier;
 
   /**
    * Creates a new <code>AccordionPanel</code>
@@ -63,12 +66,15 @@ public class AccordionPanel extends JPanel {
     gbc.weighty = 1;
     gbc.fill = GridBagConstraints.BOTH;
     this.content_panel = new JPanel();
-    this.content_panel.setVisible(true);
+    this.content_panel.setVisible(initial_state);
     this.add(this.content_panel, gbc);
 
     // Register event handler for button
     controlButton.addActionListener(
         e -> {
+          if (controlButton.isSelected()) {
+            build_deferred_content();
+          }
           content_panel.setVisible(controlButton.isSelected());
           content_panel.invalidate();
         });
@@ -98,6 +104,32 @@ public class AccordionPanel extends JPanel {
     this.remove(this.content_panel);
     this.content_panel = content_panel;
     this.add(this.content_panel, gbc);
+    this.content_panel.setVisible(controlButton.isSelected());
     this.revalidate();
   }
+
+  /**
+   * Replaces the current content panel with one that is built on demand.
+   *
+   * <p>If the panel is open <code>supplier</code> is invoked immediately, otherwise construction
+   * is deferred until the panel is first opened. This keeps collapsed panels from slowing down the
+   * construction of the enclosing window.
+   *
+   * @param supplier - Builds the replacement JPanel instance.
+   */
+  public void setContent_supplier(Supplier<? extends JPanel> supplier) {
+    content_supplier = supplier;
+    if (controlButton.isSelected()) {
+      build_deferred_content();
+    }
+  }
+
+  /** Builds the content panel if construction was deferred via setContent_supplier. */
+  private void build_deferred_content() {
+    if (null != content_supplier) {
+      final Supplier<? extends JPanel> supplier = content_supplier;
+      content_supplier = null;
+      setContent_panel(supplier.get());
+    }
+  }
 }
@@ -23,6 +23,7 @@ import org.allenai.allenmli.orca.event.ActiveImageListener;
 import org.allenai.allenmli.orca.helpers.ConfigurationFileLoadException;
 import org.allenai.allenmli.orca.helpers.DataFileLoadException;
 import org.allenai.allenmli.orca.helpers.LastActiveImage;
+import org.allenai.allenmli.orca.helpers.PhaseTimer;
 import ij.Executer;
 import org.scijava.Context;
 import org.scijava.log.Logger;
@@ -52,41 +53,62 @@ public class ControlWindow extends JFrame implements ActiveImageListener, TableM
   private final JPanel input = null;
   private final JPanel length_measurements = null;
   private final JPanel body_profiles = null;
+  private final Logger logger = new StderrLogService();
+  /** Traces startup until the measurement manager has been constructed. */
+  private PhaseTimer startup;
   private JFrame application_frame;
   private DataStore ds;
   private CueManager cueManager;
   private MetadataControl metadataControl;
   private InputControls inputControls;
   private String active_image;
+  private MeasurementManager measurementManager;
 
   public ControlWindow(Context ctx) {
-    final Logger logger = new StderrLogService();
     ctx.inject(this);
+    startup = new PhaseTimer(logger, "AMPT startup");
     try {
       ds = DataStore.createDataStore();
     } catch (final ConfigurationFileLoadException | DataFileLoadException e) {
       logger.error(e);
     }
+    startup.mark("data store");
     try {
       cueManager = new CueManager(ds);
     } catch (final ConfigurationFileLoadException e) {
       logger.error(e);
     }
+    startup.mark("cue manager");
 
     SwingUtilities.invokeLater(this::build_ui);
     ds.addTableModelListener(this);
+  }
+
+  /**
+   * Construct the measurement manager.
+   *
+   * <p>This is queued on the EDT once the window is visible. Since the data store can only be
+   * modified through the UI, any user action is queued behind this and will see derived
+   * measurements updated.
+   */
+  private void build_measurement_manager() {
     try {
-      final MeasurementManager measurementManager = new MeasurementManager(ds);
+      measurementManager = new MeasurementManager(ds);
     } catch (final ConfigurationFileLoadException e) {
       logger.error(e);
     }
+    startup.mark("measurement manager");
+    startup.finish();
+    startup = null;
   }
 
   /** Layout the user interface */
   private void build_ui() {
     final LastActiveImage lastActiveImage = LastActiveImage.getInstance();
     metadataControl = new MetadataControl(ds, cueManager);
-    inputControls = new InputControls(ds, cueManager);
+    startup.mark("metadata controls");
+    inputControls = new InputControls(ds, cueManager, () -> measurementManager);
+    startup.mark("input controls");
     final GridBagConstraints c = new GridBagConstraints();
     final Insets insets = new Insets(0, 10, 0, 10); // Add left and right spacing around containers.
     final JPanel toplevel = new JPanel();
@@ -118,9 +140,10 @@ public class ControlWindow extends JFrame implements ActiveImageListener, TableM
     gbc.fill = GridBagConstraints.BOTH;
     gbc.insets = insets;
     toplevel.add(build_accordion(), gbc);
+    startup.mark("accordion");
 
     // Data Controls
-    final DataControls csv_controls = new DataControls(ds);
+    final DataControls csv_controls = new DataControls(ds, () -> measurementManager);
     gbc = new GridBagConstraints();
     gbc.gridx = 0;
     gbc.gridy = 2;
@@ -138,6 +161,8 @@ public class ControlWindow extends JFrame implements ActiveImageListener, TableM
     application_frame.add(toplevel);
     application_frame.pack();
     application_frame.setVisible(true);
+    startup.mark("window shown");
+    SwingUtilities.invokeLater(this::build_measurement_manager);
 
     active_image = lastActiveImage.getMostRecentImageName();
     lastActiveImage.addActiveImageListener(this);
@@ -222,10 +247,12 @@ public class ControlWindow extends JFrame implements ActiveImageListener, TableM
     gbc.gridx = 0;
     gbc.gridy = 2;
     final AccordionPanel measurements = new AccordionPanel("Length Measurements", true);
-    final JPanel lengthMeasurements =
-        new LengthDisplay(
-            ds, s -> s.measurement_type.contains("length") && !s.name.contains("%"), cueManager);
-    measurements.setContent_panel(lengthMeasurements);
+    measurements.setContent_supplier(
+        () ->
+            new LengthDisplay(
+                ds,
+                s -> s.measurement_type.contains("length") && !s.name.contains("%"),
+                cueManager));
     frame.add(measurements, gbc);
 
     gbc = new GridBagConstraints();
@@ -235,11 +262,14 @@ public class ControlWindow extends JFrame implements ActiveImageListener, TableM
     gbc.weighty = 0;
     gbc.gridx = 0;
     gbc.gridy = 3;
-    final AccordionPanel bodyProfiles = new AccordionPanel("Body Profiles", true);
-    final JPanel profileMeasurements =
-        new LengthDisplay(
-            ds, s -> s.measurement_type.contains("length") && s.name.contains("%"), cueManager);
-    bodyProfiles.setContent_panel(profileMeasurements);
+    // Body profiles start collapsed, the table isn't built until the panel is first opened.
+    final AccordionPanel bodyProfiles = new AccordionPanel("Body Profiles", false);
+    bodyProfiles.setContent_supplier(
+        () ->
+            new LengthDisplay(
+                ds,
+                s -> s.measurement_type.contains("length") && s.name.contains("%"),
+                cueManager));
     frame.add(bodyProfiles, gbc);
 
     gbc = new GridBagConstraints();
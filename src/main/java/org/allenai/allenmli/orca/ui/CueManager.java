@@ -29,6 +29,8 @@ import ij.gui.Line;
 import ij.gui.Overlay;
 import ij.gui.PointRoi;
 import ij.gui.Roi;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
 
 import javax.swing.JToggleButton;
 import java.util.ArrayList;
@@ -38,22 +40,28 @@ import java.util.HashSet;
 public class CueManager {
   public final JToggleButton.ToggleButtonModel cueToggle;
   public final JToggleButton.ToggleButtonModel overlayToggle;
+  /** Snapping of point and line selections, shared by the input panels. */
+  public final EdgeSnapping snapping;
   private final DataStore dataStore;
   private final LastActiveImage lastActiveImage;
+  private final Logger logger = new StderrLogService();
   private final HashMap<String, ArrayList<String>> cue_lookup;
-  private final ReferenceCalculator referenceCalculator;
   private final HashSet<String> conditionLines = new HashSet<>();
+  /** Built on first use by getReferenceCalculator, as cues are not needed at startup. */
+  private ReferenceCalculator referenceCalculator;
   /** The measurement cue selected for rendering */
   private String activeCue;
+  /** Told after each redraw, for views that show the same cues. */
+  private final ArrayList<Runnable> drawListeners = new ArrayList<>();
 
   public CueManager(DataStore dataStore) throws ConfigurationFileLoadException {
     this.dataStore = dataStore;
-    referenceCalculator = new ReferenceCalculator(dataStore);
     lastActiveImage = LastActiveImage.getInstance();
     cue_lookup = new HashMap<>();
 
     cueToggle = new JToggleButton.ToggleButtonModel();
     overlayToggle = new JToggleButton.ToggleButtonModel();
+    snapping = new EdgeSnapping();
 
     load_configuration();
 
@@ -95,6 +103,22 @@ public class CueManager {
     }
   }
 
+  /**
+   * Get the calculator used for rendering cues, constructing it on first use.
+   *
+   * @return the reference calculator or null if it couldn't be constructed.
+   */
+  private ReferenceCalculator getReferenceCalculator() {
+    if (null == referenceCalculator) {
+      try {
+        referenceCalculator = new ReferenceCalculator(dataStore);
+      } catch (final ConfigurationFileLoadException e) {
+        logger.error(e);
+      }
+    }
+    return referenceCalculator;
+  }
+
   /**
    * Returns the cue that cue manager will draw.
    *
@@ -125,6 +149,11 @@ public class CueManager {
     }
   }
 
+  /** @param listener run on the event dispatch thread after each redraw. */
+  public void addDrawListener(Runnable listener) {
+    drawListeners.add(listener);
+  }
+
   /** Update the cue/condition line overaly. */
   public void draw() {
     if (lastActiveImage.no_images()) {
@@ -140,6 +169,51 @@ public class CueManager {
     } else {
       img.setOverlay(null);
     }
+    drawListeners.forEach(Runnable::run);
+  }
+
+  /**
+   * Compute the markers of each cue associated with the active cue.
+   *
+   * @param image_name the image the markers are computed for.
+   * @return the markers of each cue in configuration order, empty if there are none.
+   */
+  public ArrayList<HashMap<String, Point[]>> getGuidelines(String image_name) {
+    final ArrayList<HashMap<String, Point[]>> guidelines = new ArrayList<>();
+    final ReferenceCalculator referenceCalculator = getReferenceCalculator();
+    if (!cue_lookup.containsKey(activeCue) || null == referenceCalculator) {
+      return guidelines;
+    }
+    for (final String cue : cue_lookup.get(activeCue)) {
+      guidelines.add(
+          (HashMap<String, Point[]>) referenceCalculator.do_measurement(cue, image_name));
+    }
+    return guidelines;
+  }
+
+  /**
+   * Compute the markers that {@link #draw()} shows: the cues when cues are on, otherwise the
+   * condition lines when overlays are on.
+   *
+   * @param image_name the image the markers are computed for.
+   * @return groups of markers keyed by label, empty if nothing is shown.
+   */
+  public ArrayList<HashMap<String, Point[]>> getMarkers(String image_name) {
+    if (cueToggle.isSelected()) {
+      return getGuidelines(image_name);
+    }
+    final ArrayList<HashMap<String, Point[]>> markers = new ArrayList<>();
+    if (overlayToggle.isSelected()) {
+      final HashMap<String, Point[]> lines = new HashMap<>();
+      for (final String conditionLine : conditionLines) {
+        final Point[] endpoints = dataStore.getEndpoints(image_name, conditionLine);
+        if (null != endpoints) {
+          lines.put(conditionLine, endpoints);
+        }
+      }
+      markers.add(lines);
+    }
+    return markers;
   }
 
   /**
@@ -148,16 +222,14 @@ public class CueManager {
    * @param image_name The image being drawn on.
    */
   private Overlay draw_cue(String image_name) {
-    if (!cue_lookup.containsKey(activeCue)) {
+    if (!cue_lookup.containsKey(activeCue) || null == getReferenceCalculator()) {
       return null;
     }
     final Overlay overlay = new Overlay();
     overlay.drawNames(true);
     overlay.drawLabels(true);
     overlay.setLabelFontSize(16, "");
-    for (final String cue : cue_lookup.get(activeCue)) {
-      final HashMap<String, Point[]> guideline;
-      guideline = (HashMap<String, Point[]>) referenceCalculator.do_measurement(cue, image_name);
+    for (final HashMap<String, Point[]> guideline : getGuidelines(image_name)) {
       for (String label : guideline.keySet()) {
         final Point[] endpoints = guideline.get(label);
         if ("axis".equals(label)) {
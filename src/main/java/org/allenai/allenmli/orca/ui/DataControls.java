@@ -16,20 +16,35 @@
 
 package org.allenai.allenmli.orca.ui;
 
+import org.allenai.allenmli.orca.calculator.MeasurementManager;
 import org.allenai.allenmli.orca.helpers.DataFileLoadException;
 import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.DirectoryWatcher;
+import ij.IJ;
 import ij.gui.MessageDialog;
 import ij.gui.YesNoCancelDialog;
+import ij.io.DirectoryChooser;
 import ij.io.OpenDialog;
 import ij.io.SaveDialog;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * The <code>DataControls</code> class wraps the parts of the UI responsible for accessing the CSV
@@ -40,22 +55,34 @@ public class DataControls extends JPanel {
   final int VIEW = 1;
   final int SAVE = 2;
   final int EXPORT = 3;
+  final int IMPORT = 4;
   private final DataStore ds;
-  JButton[] controls = {null, null, null, null};
+  private final Logger logger = new StderrLogService();
+  /** Supplies the measurement manager to the CSV viewer. */
+  private final Supplier<MeasurementManager> measurementManager;
+  JButton[] controls = {null, null, null, null, null};
+  /** Adds rows for images as they arrive in a directory. */
+  private final JCheckBox watchToggle = new JCheckBox("Watch for new images");
+  /** The running watcher, null when no directory is watched. */
+  private DirectoryWatcher watcher;
+  /** The CSV viewer, built the first time it is requested. */
   MeasurementTable measurement_table;
   /**
    * Creates a new <code>DataControls</code>.
    *
    * @param ds the <code>DataStore</code> that will be used for calculations.
+   * @param measurementManager supplies the measurement manager, or null before it has been built.
    */
-  public DataControls(DataStore ds) {
+  public DataControls(DataStore ds, Supplier<MeasurementManager> measurementManager) {
     this.ds = ds;
+    this.measurementManager = measurementManager;
     build_ui();
-    measurement_table = new MeasurementTable(this.ds);
     provision_load_button();
     provision_view_button();
     provision_save_button();
     provision_export_button();
+    provision_import_button();
+    provision_watch_toggle();
   }
 
   private void build_ui() {
@@ -95,6 +122,20 @@ public class DataControls extends JPanel {
     gbc.gridy = 0;
     gbc.fill = GridBagConstraints.HORIZONTAL;
     this.add(controls[EXPORT], gbc);
+    controls[IMPORT] = new JButton();
+    controls[IMPORT].setText("Import Images");
+    controls[IMPORT].setToolTipText("Add a row for each JPEG image in a directory and below");
+    gbc = new GridBagConstraints();
+    gbc.gridx = 8;
+    gbc.gridy = 0;
+    gbc.fill = GridBagConstraints.HORIZONTAL;
+    this.add(controls[IMPORT], gbc);
+    watchToggle.setToolTipText("Add a row for each JPEG image copied into a directory and below");
+    gbc = new GridBagConstraints();
+    gbc.gridx = 8;
+    gbc.gridy = 1;
+    gbc.fill = GridBagConstraints.HORIZONTAL;
+    this.add(watchToggle, gbc);
     final JPanel spacer1 = new JPanel();
     gbc = new GridBagConstraints();
     gbc.gridx = 1;
@@ -113,6 +154,12 @@ public class DataControls extends JPanel {
     gbc.gridy = 0;
     gbc.fill = GridBagConstraints.HORIZONTAL;
     this.add(spacer3, gbc);
+    final JPanel spacer4 = new JPanel();
+    gbc = new GridBagConstraints();
+    gbc.gridx = 7;
+    gbc.gridy = 0;
+    gbc.fill = GridBagConstraints.HORIZONTAL;
+    this.add(spacer4, gbc);
   }
 
   private void provision_load_button() {
@@ -127,6 +174,7 @@ public class DataControls extends JPanel {
           String load_directory = load_dialog.getDirectory();
           String load_filename = load_dialog.getFileName();
           if (null != load_directory && null != load_filename) {
+            stopWatching();
             try {
               ds.loadData(new File(load_directory, load_filename));
             } catch (DataFileLoadException f) {
@@ -138,10 +186,90 @@ public class DataControls extends JPanel {
         });
   }
 
+  private void provision_import_button() {
+    controls[IMPORT].addActionListener(
+        e -> {
+          final String directory = new DirectoryChooser("Import images from").getDirectory();
+          if (null == directory) {
+            return;
+          }
+          controls[IMPORT].setEnabled(false);
+          new ImageImport(ds, Paths.get(directory), () -> controls[IMPORT].setEnabled(true))
+              .execute();
+        });
+  }
+
+  private void provision_watch_toggle() {
+    watchToggle.addActionListener(
+        e -> {
+          if (!watchToggle.isSelected()) {
+            stopWatching();
+            return;
+          }
+          final String directory = new DirectoryChooser("Watch for images in").getDirectory();
+          if (null == directory) {
+            watchToggle.setSelected(false);
+            return;
+          }
+          final Path root = Paths.get(directory);
+          watcher =
+              new DirectoryWatcher(
+                  root,
+                  new ArrayList<>(ds.descriptors.keySet()),
+                  DirectoryWatcher.DEFAULT_SETTLE_MS,
+                  rows -> SwingUtilities.invokeLater(() -> appendArrivals(root, rows)));
+          try {
+            watcher.start();
+            OpenDialog.setDefaultDirectory(directory);
+            IJ.showStatus(String.format("Watching %s for new images", root));
+          } catch (IOException f) {
+            watcher = null;
+            watchToggle.setSelected(false);
+            MessageDialog errDialog = new MessageDialog(null, "Error Watching", f.getMessage());
+            errDialog.escapePressed();
+          }
+        });
+  }
+
+  /** Append the rows of images that arrived in a watched directory, on the EDT. */
+  private void appendArrivals(Path root, List<HashMap<String, Object>> rows) {
+    if (null == watcher || !root.equals(watcher.getRoot())) {
+      return; // Arrived after watching stopped.
+    }
+    final HashSet<String> names = new HashSet<>();
+    int collisions = 0;
+    for (final HashMap<String, Object> row : rows) {
+      final String name = (String) row.get("Filename");
+      if (ds.has_row(name) || !names.add(name)) {
+        logger.warn(
+            String.format("Skipped %s from %s, its name is already in the sheet", name, root));
+        collisions++;
+      }
+    }
+    final int added = ds.append_rows(rows);
+    if (0 < collisions) {
+      IJ.showStatus(
+          String.format(
+              "%d new images from %s, %d skipped as their names are already in the sheet",
+              added, root, collisions));
+    } else if (0 < added) {
+      IJ.showStatus(String.format("%d new images from %s", added, root));
+    }
+  }
+
+  /** Stop watching for new images. */
+  private void stopWatching() {
+    if (null != watcher) {
+      watcher.stop();
+      watcher = null;
+    }
+    watchToggle.setSelected(false);
+  }
+
   private void provision_view_button() {
     controls[VIEW].addActionListener(
         e -> {
-          JFrame frame = measurement_table.getFrame();
+          JFrame frame = getMeasurementTable().getFrame();
           if (!frame.isVisible()) {
             frame.setVisible(true);
           } else {
@@ -153,6 +281,18 @@ public class DataControls extends JPanel {
         });
   }
 
+  /**
+   * Get the CSV viewer, constructing it on first use.
+   *
+   * @return the <code>MeasurementTable</code> for ds.
+   */
+  private MeasurementTable getMeasurementTable() {
+    if (null == measurement_table) {
+      measurement_table = new MeasurementTable(ds, measurementManager);
+    }
+    return measurement_table;
+  }
+
   private void provision_save_button() {
     controls[SAVE].addActionListener(e -> saveWithDiscardOption(true, false));
   }
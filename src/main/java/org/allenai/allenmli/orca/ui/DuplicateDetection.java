@@ -0,0 +1,201 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.ui;
+
+import org.allenai.allenmli.orca.calculator.DuplicateGroups;
+import org.allenai.allenmli.orca.calculator.FrameQuality;
+import org.allenai.allenmli.orca.calculator.PerceptualHash;
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.helpers.HashCache;
+import org.allenai.allenmli.orca.helpers.PhaseTimer;
+import org.allenai.allenmli.orca.helpers.Utilities;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.process.ImageProcessor;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Finds near-duplicate frames, such as those of a burst, so each is only measured once.
+ *
+ * <p>Every frame is given a {@link PerceptualHash}, computed in parallel on a small pool as each
+ * worker holds a decoded frame, or taken from the {@link HashCache} when the file hasn't changed.
+ * The frames are grouped with {@link DuplicateGroups}, keeping the frame with the best {@link
+ * FrameQuality} of each group. Every other frame of the group has the kept frame saved in the
+ * {@value #DUPLICATE_COLUMN} column, which is cleared for frames that are no longer duplicates.
+ */
+public class DuplicateDetection extends SwingWorker<Map<String, String>, Void> {
+  /** Column holding the frame kept in place of a duplicate. */
+  public static final String DUPLICATE_COLUMN = "DUPLICATE_OF";
+  /** Most frames decoded at once. */
+  private static final int MAX_THREADS = 4;
+
+  private final DataStore dataStore;
+  private final List<String> frames;
+  private final File[] directories;
+  private final HashCache cache;
+  private final int max_distance;
+  private final Consumer<String> status;
+  private final Logger logger = new StderrLogService();
+  /** Frame quality keyed by frame, snapshot on the event dispatch thread. */
+  private final HashMap<String, Double> quality = new HashMap<>();
+  /** Frames that were hashed, set by the background thread. */
+  private List<String> hashed = new ArrayList<>();
+
+  /**
+   * Snapshot the frame quality; must be constructed on the event dispatch thread.
+   *
+   * @param dataStore the data store the groups are saved to.
+   * @param frames the frames to compare.
+   * @param directories directories to look for the images in, null entries are skipped.
+   * @param cache cache of the hashes of image files.
+   * @param max_distance the most bits two hashes may differ by for the frames to be duplicates.
+   * @param status receives a summary when the groups have been saved.
+   */
+  public DuplicateDetection(
+      DataStore dataStore,
+      List<String> frames,
+      File[] directories,
+      HashCache cache,
+      int max_distance,
+      Consumer<String> status) {
+    this.dataStore = dataStore;
+    this.frames = frames;
+    this.directories = directories;
+    this.cache = cache;
+    this.max_distance = max_distance;
+    this.status = status;
+    if (dataStore.descriptors.containsKey(FrameQuality.QUALITY_COLUMN)) {
+      for (final String frame : frames) {
+        quality.put(
+            frame, dataStore.get_value(frame, FrameQuality.QUALITY_COLUMN, Double.class, 0.0));
+      }
+    }
+  }
+
+  /** @return the hash of a frame, null if it can't be found. */
+  private Long hash(String frame) {
+    final File file = Utilities.findImage(frame, directories);
+    if (null != file) {
+      final Long cached = cache.get(file);
+      if (null != cached) {
+        return cached;
+      }
+    }
+    ImagePlus image = WindowManager.getImage(frame);
+    if (null == image && null != file) {
+      image = IJ.openImage(file.getPath());
+    }
+    if (null == image) {
+      return null;
+    }
+    final ImageProcessor ip = image.getProcessor();
+    final long hash = PerceptualHash.hash(ip::getPixelValue, ip.getWidth(), ip.getHeight());
+    if (null != file) {
+      cache.put(file, hash);
+    }
+    return hash;
+  }
+
+  @Override
+  protected Map<String, String> doInBackground()
+      throws InterruptedException, ExecutionException {
+    final PhaseTimer timer = new PhaseTimer(logger, "Duplicate detection");
+    final AtomicInteger done = new AtomicInteger();
+    final ArrayList<Callable<Long>> tasks = new ArrayList<>();
+    for (final String frame : frames) {
+      tasks.add(
+          () -> {
+            final Long hash = hash(frame);
+            if (null == hash) {
+              logger.warn(String.format("Couldn't find %s to compare", frame));
+            }
+            setProgress(100 * done.incrementAndGet() / frames.size());
+            return hash;
+          });
+    }
+    final HashMap<String, Long> hashes = new HashMap<>();
+    final int threads =
+        Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<Long>> results = pool.invokeAll(tasks);
+      for (int i = 0; i < frames.size(); i++) {
+        final Long hash = results.get(i).get();
+        if (null != hash) {
+          hashes.put(frames.get(i), hash);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    timer.mark("hashing");
+    try {
+      cache.save();
+    } catch (final IOException e) {
+      logger.warn(String.format("Couldn't save the hash cache: %s", e.getMessage()));
+    }
+    hashed = new ArrayList<>(hashes.keySet());
+    final Map<String, String> kept =
+        DuplicateGroups.group(
+            hashes,
+            max_distance,
+            Comparator.<String>comparingDouble(frame -> -quality.getOrDefault(frame, 0.0))
+                .thenComparing(Comparator.naturalOrder()));
+    timer.finish();
+    return kept;
+  }
+
+  /** Save the frame kept in place of each duplicate, clearing frames that aren't duplicates. */
+  @Override
+  protected void done() {
+    final Map<String, String> kept;
+    try {
+      kept = get();
+    } catch (final InterruptedException | ExecutionException e) {
+      logger.error(e);
+      status.accept("Duplicate detection failed");
+      return;
+    }
+    if (dataStore.descriptors.containsKey(DUPLICATE_COLUMN)) {
+      for (final String frame : hashed) {
+        dataStore.insert_value(frame, DUPLICATE_COLUMN, kept.get(frame));
+      }
+    }
+    status.accept(
+        String.format(
+            "%d duplicates of %d frames",
+            kept.size(), (int) kept.values().stream().distinct().count()));
+  }
+}
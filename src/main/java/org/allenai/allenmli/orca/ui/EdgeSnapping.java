@@ -0,0 +1,149 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.ui;
+
+import org.allenai.allenmli.orca.calculator.EdgeSnapper;
+import org.allenai.allenmli.orca.data.Point;
+import org.allenai.allenmli.orca.event.ActiveImageChangeEvent;
+import org.allenai.allenmli.orca.event.ActiveImageListener;
+import org.allenai.allenmli.orca.helpers.LastActiveImage;
+import ij.ImagePlus;
+import ij.gui.ImageCanvas;
+import ij.gui.Line;
+import ij.gui.PointRoi;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.JToggleButton;
+import javax.swing.SpinnerNumberModel;
+import java.awt.FlowLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+
+/**
+ * Snaps point and line selections to the strongest edge nearby when the mouse is released.
+ *
+ * <p>Listens to the canvas of the active image. The selection is replaced once ImageJ has finished
+ * handling the release, so the input panels see the snapped position through their ROI listeners.
+ */
+public class EdgeSnapping extends MouseAdapter implements ActiveImageListener {
+  /** Default search radius in pixels. */
+  public static final int DEFAULT_RADIUS = 5;
+
+  public final JToggleButton.ToggleButtonModel snapToggle;
+  public final SpinnerNumberModel radius;
+  private final LastActiveImage lastActiveImage;
+  private ImagePlus image;
+  private ImageCanvas canvas;
+  /** Built on first use for the active image, as snapping is off by default. */
+  private EdgeSnapper snapper;
+
+  public EdgeSnapping() {
+    snapToggle = new JToggleButton.ToggleButtonModel();
+    radius = new SpinnerNumberModel(DEFAULT_RADIUS, 1, 50, 1);
+    lastActiveImage = LastActiveImage.getInstance();
+    lastActiveImage.addActiveImageListener(this);
+    attach(lastActiveImage.getMostRecentImageWindow());
+  }
+
+  /**
+   * Build the controls for snapping, shared by the input panels.
+   *
+   * @param controls the components of the panel that need an open image, extended with the new
+   *     controls.
+   * @return a panel holding the snap toggle and the radius.
+   */
+  public JPanel buildControls(List<JComponent> controls) {
+    final JPanel panel = new JPanel(new FlowLayout(FlowLayout.CENTER, 4, 0));
+    final JCheckBox enable = new JCheckBox();
+    enable.setModel(snapToggle);
+    enable.setText("Snap to edges within");
+    enable.setToolTipText("Move points and line ends to the strongest edge nearby on release");
+    final JSpinner spinner = new JSpinner(radius);
+    controls.add(enable);
+    controls.add(spinner);
+    panel.add(enable);
+    panel.add(spinner);
+    panel.add(new JLabel("px"));
+    return panel;
+  }
+
+  /**
+   * Follow the active image.
+   *
+   * @param evt the ActiveImageChangeEvent
+   */
+  @Override
+  public void activeImageChanged(ActiveImageChangeEvent evt) {
+    attach(lastActiveImage.getMostRecentImageWindow());
+  }
+
+  private void attach(ImagePlus img) {
+    if (null != canvas) {
+      canvas.removeMouseListener(this);
+    }
+    image = img;
+    canvas = null == img ? null : img.getCanvas();
+    snapper = null;
+    if (null != canvas) {
+      canvas.addMouseListener(this);
+    }
+  }
+
+  /**
+   * Snap the selection of the active image.
+   *
+   * @param e the release event.
+   */
+  @Override
+  public void mouseReleased(MouseEvent e) {
+    if (!snapToggle.isSelected() || null == image) {
+      return;
+    }
+    final Roi roi = image.getRoi();
+    final int r = radius.getNumber().intValue();
+    if (roi instanceof PointRoi) {
+      final Rectangle2D.Double bounds = roi.getFloatBounds();
+      final Point snapped = getSnapper().snap(bounds.x, bounds.y, r);
+      if (snapped.x != bounds.x || snapped.y != bounds.y) {
+        image.setRoi(new PointRoi(snapped.x, snapped.y));
+      }
+    } else if (roi instanceof Line && Roi.LINE == roi.getType()) {
+      final Line line = (Line) roi;
+      final Point start = getSnapper().snap(line.x1d, line.y1d, r);
+      final Point end = getSnapper().snap(line.x2d, line.y2d, r);
+      if (start.x != line.x1d || start.y != line.y1d || end.x != line.x2d || end.y != line.y2d) {
+        image.setRoi(new Line(start.x, start.y, end.x, end.y));
+      }
+    }
+  }
+
+  private EdgeSnapper getSnapper() {
+    if (null == snapper) {
+      final ImageProcessor ip = image.getProcessor();
+      snapper = new EdgeSnapper(ip::getPixelValue, ip.getWidth(), ip.getHeight());
+    }
+    return snapper;
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.ui;
+
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.ReviewIndex;
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+import org.allenai.allenmli.orca.helpers.ThumbnailCache;
+import org.allenai.allenmli.orca.helpers.Utilities;
+
+import javax.swing.AbstractListModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListCellRenderer;
+import javax.swing.ListSelectionModel;
+import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Strip of thumbnails of the frames of the sheet, in the order and with the filter of the table,
+ * each with a badge counting its reviewed measurements.
+ *
+ * <p>Thumbnails are only made for the frames scrolled into view, on a small pool, and kept in a
+ * {@link ThumbnailCache} in the configuration directory so a sheet is only read once. Selecting a
+ * thumbnail selects its row in the table and the other way round; double clicking a thumbnail
+ * opens the frame.
+ */
+public class Filmstrip extends JPanel {
+  /** Name of the thumbnail cache in the configuration directory. */
+  private static final String CACHE_FILE = "thumbnails.bin";
+  /** Most frames decoded at once. */
+  private static final int MAX_THREADS = 4;
+  /** Thumbnails held in memory. */
+  private static final int MEMORY_THUMBNAILS = 400;
+  private static final int CELL_WIDTH = ThumbnailCache.SIZE + 12;
+  private static final int CELL_HEIGHT = ThumbnailCache.SIZE + 28;
+  private static final Color REVIEWED = new Color(40, 150, 60);
+  private static final Color UNREVIEWED = new Color(230, 140, 20);
+  private static final Color MISSING = Color.GRAY;
+  private static final Color SELECTED = new Color(60, 120, 220);
+  /** Stands in for the thumbnail of a frame that can't be found or read. */
+  private static final BufferedImage UNAVAILABLE =
+      new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+  private final DataStore dataStore;
+  private final JTable table;
+  private final Supplier<File[]> directories;
+  private final StripModel model = new StripModel();
+  private final JList<Integer> list = new JList<>(model);
+  private final ExecutorService pool =
+      Executors.newFixedThreadPool(
+          Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors())),
+          runnable -> {
+            final Thread thread = new Thread(runnable, "AMPT thumbnails");
+            thread.setDaemon(true);
+            return thread;
+          });
+  /** Thumbnails keyed by filename, least recently shown first. Only used on the EDT. */
+  private final LinkedHashMap<String, BufferedImage> thumbnails =
+      new LinkedHashMap<String, BufferedImage>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+          return size() > MEMORY_THUMBNAILS;
+        }
+      };
+  /** Frames whose thumbnail is being made. Only used on the EDT. */
+  private final HashSet<String> pending = new HashSet<>();
+  /** View rows of the first and last visible thumbnails, read by the pool. */
+  private volatile int firstVisible = 0;
+  private volatile int lastVisible = -1;
+  private ThumbnailCache cache;
+  /** True while copying the selection, so the two selections don't echo each other. */
+  private boolean syncing = false;
+
+  /**
+   * @param dataStore the data store shown in the table.
+   * @param table the table of the sheet, whose rows the strip follows.
+   * @param directories supplies the directories to look for the images in.
+   * @param open opens the frame of the selected row.
+   */
+  public Filmstrip(
+      DataStore dataStore, JTable table, Supplier<File[]> directories, Runnable open) {
+    super(new BorderLayout());
+    this.dataStore = dataStore;
+    this.table = table;
+    this.directories = directories;
+    list.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+    list.setVisibleRowCount(1);
+    // Fixed sizes keep the list from rendering every cell to measure it.
+    list.setFixedCellWidth(CELL_WIDTH);
+    list.setFixedCellHeight(CELL_HEIGHT);
+    list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    list.setCellRenderer(new Cell());
+    final JScrollPane scrollPane =
+        new JScrollPane(
+            list,
+            ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER,
+            ScrollPaneConstants.HORIZONTAL_SCROLLBAR_ALWAYS);
+    scrollPane.getHorizontalScrollBar().setUnitIncrement(CELL_WIDTH / 2);
+    scrollPane.getViewport().addChangeListener(e -> updateVisible());
+    add(scrollPane, BorderLayout.CENTER);
+
+    table.getRowSorter().addRowSorterListener(e -> model.refresh());
+    // Values changing don't move rows but may change a badge.
+    table.getModel().addTableModelListener(e -> list.repaint());
+    table
+        .getSelectionModel()
+        .addListSelectionListener(
+            e -> {
+              if (syncing || e.getValueIsAdjusting()) {
+                return;
+              }
+              syncing = true;
+              final int selected = table.getSelectedRow();
+              if (-1 == selected) {
+                list.clearSelection();
+              } else {
+                list.setSelectedIndex(selected);
+                list.ensureIndexIsVisible(selected);
+              }
+              syncing = false;
+            });
+    list.addListSelectionListener(
+        e -> {
+          final int selected = list.getSelectedIndex();
+          if (syncing || e.getValueIsAdjusting() || -1 == selected) {
+            return;
+          }
+          syncing = true;
+          table.setRowSelectionInterval(selected, selected);
+          table.scrollRectToVisible(table.getCellRect(selected, 0, true));
+          syncing = false;
+        });
+    list.addMouseListener(
+        new MouseAdapter() {
+          @Override
+          public void mouseClicked(MouseEvent e) {
+            if (2 == e.getClickCount() && -1 != list.locationToIndex(e.getPoint())) {
+              open.run();
+            }
+          }
+        });
+    model.refresh();
+  }
+
+  private void updateVisible() {
+    firstVisible = list.getFirstVisibleIndex();
+    lastVisible = list.getLastVisibleIndex();
+  }
+
+  /** @return the thumbnail of a frame, null after starting to make it if it isn't ready. */
+  private BufferedImage thumbnail(String filename, int view) {
+    final BufferedImage thumbnail = thumbnails.get(filename);
+    if (null != thumbnail || !pending.add(filename)) {
+      return thumbnail;
+    }
+    final File[] searched = directories.get();
+    pool.execute(
+        () -> {
+          BufferedImage made = null;
+          // Skip frames scrolled out of view before their turn came.
+          final int page = Math.max(1, lastVisible - firstVisible + 1);
+          final boolean wanted = view >= firstVisible - page && view <= lastVisible + page;
+          if (wanted) {
+            final File file = Utilities.findImage(filename, searched);
+            made = null == file ? null : cache().load(file);
+            if (null == made) {
+              made = UNAVAILABLE;
+            }
+          }
+          final BufferedImage result = made;
+          SwingUtilities.invokeLater(
+              () -> {
+                pending.remove(filename);
+                if (null != result) {
+                  thumbnails.put(filename, result);
+                  list.repaint();
+                }
+              });
+        });
+    return null;
+  }
+
+  /** @return the thumbnail cache, opened when first needed. */
+  private synchronized ThumbnailCache cache() {
+    if (null == cache) {
+      cache = new ThumbnailCache(ConfigurationLoader.getAbsoluteConfigurationPath(CACHE_FILE));
+    }
+    return cache;
+  }
+
+  /** The view rows of the table. */
+  private class StripModel extends AbstractListModel<Integer> {
+    private int size = 0;
+
+    @Override
+    public int getSize() {
+      return size;
+    }
+
+    @Override
+    public Integer getElementAt(int index) {
+      return index;
+    }
+
+    /** Follow the rows shown in the table after it was sorted, filtered or changed. */
+    void refresh() {
+      final int previous = size;
+      size = table.getRowCount();
+      if (size < previous) {
+        fireIntervalRemoved(this, size, previous - 1);
+      } else if (size > previous) {
+        fireIntervalAdded(this, previous, size - 1);
+      }
+      if (size > 0) {
+        fireContentsChanged(this, 0, size - 1);
+      }
+      SwingUtilities.invokeLater(Filmstrip.this::updateVisible);
+    }
+  }
+
+  /** Draws a thumbnail with the frame name and the review badge. */
+  private class Cell extends JComponent implements ListCellRenderer<Integer> {
+    private String filename;
+    private BufferedImage image;
+    private boolean selected;
+    private int reviewed;
+    private int unreviewed;
+    private int missing;
+
+    @Override
+    public Component getListCellRendererComponent(
+        JList<? extends Integer> list,
+        Integer view,
+        int index,
+        boolean isSelected,
+        boolean cellHasFocus) {
+      final int row = table.convertRowIndexToModel(view);
+      filename = dataStore.getRowName(row);
+      image = thumbnail(filename, view);
+      selected = isSelected;
+      reviewed = dataStore.review_count(row, ReviewIndex.Status.REVIEWED);
+      unreviewed = dataStore.review_count(row, ReviewIndex.Status.UNREVIEWED);
+      missing = dataStore.review_count(row, ReviewIndex.Status.MISSING);
+      setToolTipText(
+          String.format(
+              "%s: %d reviewed, %d unreviewed, %d missing",
+              filename, reviewed, unreviewed, missing));
+      return this;
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+      final Graphics2D g = (Graphics2D) graphics;
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      final int size = ThumbnailCache.SIZE;
+      final int left = (getWidth() - size) / 2;
+      final int top = 4;
+      if (selected) {
+        g.setColor(SELECTED);
+        g.fillRect(0, 0, getWidth(), getHeight());
+      }
+      if (null == image || UNAVAILABLE == image) {
+        g.setColor(Color.LIGHT_GRAY);
+        g.fillRect(left, top, size, size);
+        if (UNAVAILABLE == image) {
+          g.setColor(Color.DARK_GRAY);
+          g.drawString("Not found", left + 8, top + size / 2);
+        }
+      } else {
+        g.drawImage(
+            image,
+            left + (size - image.getWidth()) / 2,
+            top + (size - image.getHeight()) / 2,
+            null);
+      }
+      final FontMetrics metrics = g.getFontMetrics();
+      g.setColor(selected ? Color.WHITE : getForeground());
+      String label = filename;
+      while (label.length() > 1 && metrics.stringWidth(label) > getWidth() - 4) {
+        label = label.substring(1); // Keep the end, where frame numbers are.
+      }
+      g.drawString(label, (getWidth() - metrics.stringWidth(label)) / 2, top + size + 16);
+
+      final int total = reviewed + unreviewed + missing;
+      if (0 == total) {
+        return;
+      }
+      final String badge = reviewed + "/" + total;
+      final int width = metrics.stringWidth(badge) + 8;
+      final int height = metrics.getHeight();
+      final int x = left + size - width - 2;
+      final int y = top + 2;
+      g.setColor(reviewed == total ? REVIEWED : 0 < unreviewed ? UNREVIEWED : MISSING);
+      g.fillRoundRect(x, y, width, height, height, height);
+      g.setColor(Color.WHITE);
+      g.drawString(badge, x + 4, y + metrics.getAscent());
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.ui;
+
+import org.allenai.allenmli.orca.calculator.FrameQuality;
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.helpers.PhaseTimer;
+import org.allenai.allenmli.orca.helpers.Utilities;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.process.ImageProcessor;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Scores the quality of every frame in the sheet with {@link FrameQuality}.
+ *
+ * <p>Frames are loaded and scored in parallel on a small pool, as each worker holds a decoded
+ * frame. The scores are saved to the quality columns that the CSV columns configuration defines;
+ * scores without a column are dropped.
+ */
+public class FrameScoring extends SwingWorker<Map<String, FrameQuality>, Void> {
+  /** Most frames decoded at once. */
+  private static final int MAX_THREADS = 4;
+
+  private final DataStore dataStore;
+  private final List<String> frames;
+  private final File[] directories;
+  private final Consumer<String> status;
+  private final Logger logger = new StderrLogService();
+
+  /**
+   * @param dataStore the data store the scores are saved to.
+   * @param frames the frames to score.
+   * @param directories directories to look for the images in, null entries are skipped.
+   * @param status receives a summary when the scores have been saved.
+   */
+  public FrameScoring(
+      DataStore dataStore, List<String> frames, File[] directories, Consumer<String> status) {
+    this.dataStore = dataStore;
+    this.frames = frames;
+    this.directories = directories;
+    this.status = status;
+  }
+
+  /** @return the image, from its window if it is open, null if it can't be found. */
+  private ImagePlus load(String filename) {
+    final ImagePlus image = WindowManager.getImage(filename);
+    if (null != image) {
+      return image;
+    }
+    final File file = Utilities.findImage(filename, directories);
+    return null == file ? null : IJ.openImage(file.getPath());
+  }
+
+  @Override
+  protected Map<String, FrameQuality> doInBackground()
+      throws InterruptedException, ExecutionException {
+    final PhaseTimer timer = new PhaseTimer(logger, "Frame scoring");
+    final AtomicInteger done = new AtomicInteger();
+    final ArrayList<Callable<FrameQuality>> tasks = new ArrayList<>();
+    for (final String frame : frames) {
+      tasks.add(
+          () -> {
+            FrameQuality score = null;
+            final ImagePlus image = load(frame);
+            if (null == image) {
+              logger.warn(String.format("Couldn't find %s to score", frame));
+            } else {
+              final ImageProcessor ip = image.getProcessor();
+              final double white = 16 == image.getBitDepth() ? 65535 : 255;
+              score = FrameQuality.score(ip::getPixelValue, ip.getWidth(), ip.getHeight(), white);
+            }
+            setProgress(100 * done.incrementAndGet() / frames.size());
+            return score;
+          });
+    }
+    final HashMap<String, FrameQuality> scores = new HashMap<>();
+    final int threads =
+        Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<FrameQuality>> results = pool.invokeAll(tasks);
+      for (int i = 0; i < frames.size(); i++) {
+        final FrameQuality score = results.get(i).get();
+        if (null != score) {
+          scores.put(frames.get(i), score);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    timer.finish();
+    return scores;
+  }
+
+  /** Save the scores to the columns that exist. */
+  @Override
+  protected void done() {
+    final Map<String, FrameQuality> scores;
+    try {
+      scores = get();
+    } catch (final InterruptedException | ExecutionException e) {
+      logger.error(e);
+      status.accept("Scoring failed");
+      return;
+    }
+    for (final Map.Entry<String, FrameQuality> frame : scores.entrySet()) {
+      final FrameQuality score = frame.getValue();
+      save(frame.getKey(), FrameQuality.QUALITY_COLUMN, score.quality);
+      save(frame.getKey(), FrameQuality.SHARPNESS_COLUMN, score.sharpness);
+      save(frame.getKey(), FrameQuality.EXPOSURE_COLUMN, score.exposure);
+      save(frame.getKey(), FrameQuality.SUBJECT_COLUMN, score.subject);
+    }
+    status.accept(String.format("%d of %d frames scored", scores.size(), frames.size()));
+  }
+
+  private void save(String frame, String column, double score) {
+    if (dataStore.descriptors.containsKey(column)) {
+      dataStore.insert_value(frame, column, Math.round(score * 10) / 10.0);
+    }
+  }
+}
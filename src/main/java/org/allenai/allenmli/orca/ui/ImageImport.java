@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.ui;
+
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.ImageIngest;
+import org.allenai.allenmli.orca.helpers.PhaseTimer;
+import ij.IJ;
+import ij.io.OpenDialog;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Adds a row for every JPEG image in a directory tree that isn't in the sheet yet, filled from the
+ * image's metadata by {@link ImageIngest}.
+ *
+ * <p>The tree is scanned and the headers are read in the background, then the rows are appended
+ * to the sheet in a single batch. Progress and the outcome are shown in the ImageJ status bar.
+ * Rows are named after the bare file name, so when images in different subdirectories share a
+ * name only the first is imported and the others are listed in a warning.
+ */
+public class ImageImport extends SwingWorker<List<HashMap<String, Object>>, Void> {
+  /** Most skipped images listed in the warning. */
+  private static final int MAX_LISTED = 10;
+
+  private final DataStore dataStore;
+  private final Path root;
+  private final Runnable finished;
+  private final Logger logger = new StderrLogService();
+  /** Rows already in the sheet, snapshot on the event dispatch thread. */
+  private final HashSet<String> existing;
+  private final ArrayList<String> columns;
+  /** Images skipped because an image in another subdirectory has the same name. */
+  private final ArrayList<Path> collisions = new ArrayList<>();
+
+  /**
+   * Snapshot the sheet; must be constructed on the event dispatch thread.
+   *
+   * @param dataStore the data store the rows are added to.
+   * @param root the directory tree to import.
+   * @param finished run on the event dispatch thread once the rows have been added.
+   */
+  public ImageImport(DataStore dataStore, Path root, Runnable finished) {
+    this.dataStore = dataStore;
+    this.root = root;
+    this.finished = finished;
+    existing = new HashSet<>(Arrays.asList(dataStore.current_files()));
+    columns = new ArrayList<>(dataStore.descriptors.keySet());
+  }
+
+  @Override
+  protected List<HashMap<String, Object>> doInBackground()
+      throws IOException, InterruptedException {
+    final PhaseTimer timer = new PhaseTimer(logger, "Image import");
+    IJ.showStatus(String.format("Scanning %s", root));
+    final ArrayList<Path> files = new ArrayList<>();
+    for (final Path file : ImageIngest.find_images(root)) {
+      if (!existing.contains(ImageIngest.row_name(file))) {
+        files.add(file);
+      }
+    }
+    collisions.addAll(ImageIngest.remove_collisions(files, new HashSet<>(existing)));
+    timer.mark("scan");
+    IJ.showStatus(String.format("Reading the metadata of %d images", files.size()));
+    final List<HashMap<String, Object>> rows =
+        ImageIngest.read_rows(files, columns, done -> IJ.showProgress(done, files.size()));
+    timer.mark("metadata");
+    timer.finish();
+    return rows;
+  }
+
+  /** Append the rows to the sheet. */
+  @Override
+  protected void done() {
+    final List<HashMap<String, Object>> rows;
+    try {
+      rows = get();
+    } catch (final InterruptedException | ExecutionException e) {
+      logger.error(e);
+      IJ.showStatus("Image import failed");
+      finished.run();
+      return;
+    }
+    final int added = dataStore.append_rows(rows);
+    // Let the images be found before the sheet is saved next to them.
+    OpenDialog.setDefaultDirectory(root.toString());
+    IJ.showStatus(String.format("Imported %d images from %s", added, root));
+    if (!collisions.isEmpty()) {
+      final StringBuilder message =
+          new StringBuilder(
+              String.format(
+                  "%d images were not imported because another image in %s has the same name:",
+                  collisions.size(), root));
+      for (int i = 0; i < collisions.size(); i++) {
+        logger.warn(
+            String.format("Skipped %s, another image has the same name", collisions.get(i)));
+        if (i < MAX_LISTED) {
+          message.append("\n").append(root.relativize(collisions.get(i)));
+        }
+      }
+      if (MAX_LISTED < collisions.size()) {
+        message.append(String.format("\nand %d more", collisions.size() - MAX_LISTED));
+      }
+      JOptionPane.showMessageDialog(
+          null, message.toString(), "Duplicate Image Names", JOptionPane.WARNING_MESSAGE);
+    }
+    finished.run();
+  }
+}
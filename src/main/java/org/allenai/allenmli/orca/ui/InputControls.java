@@ -16,6 +16,7 @@
 
 package org.allenai.allenmli.orca.ui;
 
+import org.allenai.allenmli.orca.calculator.MeasurementManager;
 import org.allenai.allenmli.orca.data.DataStore;
 import org.allenai.allenmli.orca.event.ActiveImageChangeEvent;
 import org.allenai.allenmli.orca.event.ActiveImageListener;
@@ -23,11 +24,13 @@ import org.allenai.allenmli.orca.helpers.LastActiveImage;
 import ij.IJ;
 import ij.ImagePlus;
 
+import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 import java.awt.BorderLayout;
 import java.util.ArrayList;
+import java.util.function.Supplier;
 
 public class InputControls implements ActiveImageListener {
   DataStore dataStore;
@@ -35,10 +38,16 @@ public class InputControls implements ActiveImageListener {
   String activeImage;
   JPanel inputPanel;
   ArrayList<JComponent> controls;
+  PyramidViewer navigator;
+  Supplier<MeasurementManager> measurementManager;
 
-  public InputControls(DataStore dataStore, CueManager cueManager) {
+  public InputControls(
+      DataStore dataStore,
+      CueManager cueManager,
+      Supplier<MeasurementManager> measurementManager) {
     this.dataStore = dataStore;
     this.cueManager = cueManager;
+    this.measurementManager = measurementManager;
 
     buildUI();
     wireUI();
@@ -58,7 +67,18 @@ public class InputControls implements ActiveImageListener {
 
     tabbedPane.addTab("Comments", new CommentInputPanel(dataStore, cueManager));
     tabbedPane.addTab("Reference Points", new PointInputPanel(dataStore, cueManager));
-    tabbedPane.addTab("Lengths", new LengthInputPanel(dataStore, cueManager));
+    tabbedPane.addTab("Lengths", new LengthInputPanel(dataStore, cueManager, measurementManager));
+
+    JButton navigatorButton = new JButton("Navigator");
+    navigatorButton.setToolTipText("Zoom and pan around large frames");
+    navigatorButton.addActionListener(
+        e -> {
+          if (null == navigator) {
+            navigator = new PyramidViewer(cueManager);
+          }
+          navigator.showWindow();
+        });
+    inputPanel.add(navigatorButton, BorderLayout.SOUTH);
 
     tabbedPane.addChangeListener(
         e -> {
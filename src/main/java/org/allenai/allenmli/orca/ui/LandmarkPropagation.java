@@ -0,0 +1,206 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.ui;
+
+import org.allenai.allenmli.orca.calculator.LandmarkTracker;
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.Point;
+import org.allenai.allenmli.orca.helpers.Utilities;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.process.ImageProcessor;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Proposes the landmarks saved for one frame in the frames that follow it.
+ *
+ * <p>Each saved landmark is cut from the source frame as a template and followed through the
+ * target frames in order with a {@link LandmarkTracker.Track}, so each frame is searched around
+ * the location found in the one before it. Target frames are decoded ahead on a small pool, as
+ * each decoded frame is held in memory until it is matched. The proposals are saved as
+ * unreviewed, and landmarks that have been accepted in a target frame are left untouched.
+ */
+public class LandmarkPropagation extends SwingWorker<Map<String, Map<String, Point>>, Void> {
+  /** Most frames decoded at once. */
+  private static final int MAX_THREADS = 4;
+
+  private final DataStore dataStore;
+  private final String source;
+  private final List<String> targets;
+  private final File[] directories;
+  private final Consumer<String> status;
+  private final Logger logger = new StderrLogService();
+  /** Saved landmarks of the source frame, keyed by landmark name. */
+  private final HashMap<String, Point> landmarks = new HashMap<>();
+
+  /**
+   * Snapshot the source landmarks; must be constructed on the event dispatch thread.
+   *
+   * @param dataStore the data store holding the landmarks.
+   * @param source the frame the landmarks are taken from.
+   * @param targets the frames the landmarks are proposed for.
+   * @param directories directories to look for the images in, null entries are skipped.
+   * @param status receives a summary when the proposals have been saved.
+   */
+  public LandmarkPropagation(
+      DataStore dataStore,
+      String source,
+      List<String> targets,
+      File[] directories,
+      Consumer<String> status) {
+    this.dataStore = dataStore;
+    this.source = source;
+    this.targets = targets;
+    this.directories = directories;
+    this.status = status;
+    for (final String landmark : landmarks(dataStore)) {
+      final Point point = dataStore.get_point(source, landmark);
+      if (null != point) {
+        landmarks.put(landmark, point);
+      }
+    }
+  }
+
+  /**
+   * @param dataStore the data store.
+   * @return the names of the landmarks that are placed by hand.
+   */
+  static List<String> landmarks(DataStore dataStore) {
+    final ArrayList<String> result = new ArrayList<>();
+    dataStore.descriptors.values().stream()
+        .filter(s -> "point".equals(s.measurement_type) && s.name.endsWith("_x"))
+        .forEach(s -> result.add(s.name.substring(0, s.name.length() - 2)));
+    return result;
+  }
+
+  /** @return the number of landmarks saved for the source frame. */
+  public int landmarkCount() {
+    return landmarks.size();
+  }
+
+  /**
+   * @return the processor of an image, from its window if it is open, null if it can't be found.
+   */
+  private ImageProcessor load(String filename) {
+    ImagePlus image = WindowManager.getImage(filename);
+    if (null == image) {
+      final File file = Utilities.findImage(filename, directories);
+      image = null == file ? null : IJ.openImage(file.getPath());
+    }
+    return null == image ? null : image.getProcessor();
+  }
+
+  @Override
+  protected Map<String, Map<String, Point>> doInBackground()
+      throws InterruptedException, ExecutionException {
+    final HashMap<String, Map<String, Point>> proposals = new HashMap<>();
+    final ImageProcessor source_ip = load(source);
+    if (null == source_ip || landmarks.isEmpty()) {
+      return proposals;
+    }
+    final LandmarkTracker tracker = new LandmarkTracker();
+    final HashMap<String, LandmarkTracker.Template> templates = new HashMap<>();
+    for (final Map.Entry<String, Point> landmark : landmarks.entrySet()) {
+      final LandmarkTracker.Template template =
+          tracker.template(
+              source_ip::getPixelValue,
+              source_ip.getWidth(),
+              source_ip.getHeight(),
+              landmark.getValue());
+      if (null != template) {
+        templates.put(landmark.getKey(), template);
+      }
+    }
+
+    final HashMap<String, LandmarkTracker.Track> tracks = new HashMap<>();
+    templates.forEach((name, template) -> tracks.put(name, tracker.track(template)));
+
+    final int threads =
+        Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      final ArrayDeque<Future<ImageProcessor>> loading = new ArrayDeque<>();
+      int next = 0;
+      for (int i = 0; i < targets.size(); i++) {
+        while (next < targets.size() && loading.size() < threads) {
+          final String target = targets.get(next++);
+          loading.add(pool.submit(() -> load(target)));
+        }
+        final String target = targets.get(i);
+        final ImageProcessor ip = loading.remove().get();
+        final HashMap<String, Point> found = new HashMap<>();
+        if (null == ip) {
+          logger.warn(String.format("Couldn't find %s to propagate landmarks", target));
+        } else {
+          for (final Map.Entry<String, LandmarkTracker.Track> track : tracks.entrySet()) {
+            final LandmarkTracker.Match match =
+                track.getValue().next(ip::getPixelValue, ip.getWidth(), ip.getHeight());
+            if (null != match) {
+              found.put(track.getKey(), match.location);
+            }
+          }
+        }
+        proposals.put(target, found);
+        setProgress(100 * (i + 1) / targets.size());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return proposals;
+  }
+
+  /** Save the proposals, skipping accepted landmarks. */
+  @Override
+  protected void done() {
+    final Map<String, Map<String, Point>> proposals;
+    try {
+      proposals = get();
+    } catch (final InterruptedException | ExecutionException e) {
+      logger.error(e);
+      status.accept("Propagation failed");
+      return;
+    }
+    int saved = 0;
+    for (final Map.Entry<String, Map<String, Point>> frame : proposals.entrySet()) {
+      for (final Map.Entry<String, Point> landmark : frame.getValue().entrySet()) {
+        final String reviewColumn = String.format("%s_reviewed", landmark.getKey());
+        if (dataStore.get_value(frame.getKey(), reviewColumn, Boolean.class, false)) {
+          continue;
+        }
+        dataStore.set_point(frame.getKey(), landmark.getKey(), landmark.getValue());
+        dataStore.insert_value(frame.getKey(), reviewColumn, false);
+        saved++;
+      }
+    }
+    status.accept(String.format("%d points proposed", saved));
+  }
+}
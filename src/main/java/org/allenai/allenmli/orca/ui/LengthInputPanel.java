@@ -16,12 +16,19 @@
 
 package org.allenai.allenmli.orca.ui;
 
+import org.allenai.allenmli.orca.calculator.MeasurementManager;
+import org.allenai.allenmli.orca.calculator.WidthExtractor;
+import org.allenai.allenmli.orca.data.ColumnDescriptor;
 import org.allenai.allenmli.orca.data.DataStore;
 import org.allenai.allenmli.orca.data.Point;
+import org.allenai.allenmli.orca.helpers.PhaseTimer;
 import ij.ImagePlus;
 import ij.gui.Line;
 import ij.gui.Roi;
 import ij.gui.RoiListener;
+import ij.process.ImageProcessor;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -30,13 +37,20 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /** Input panel that is used for managing length measurements. */
@@ -52,6 +66,11 @@ public class LengthInputPanel extends InputPanel implements ItemListener, RoiLis
   private JButton revertButton;
   private JButton clearButton;
   private JButton approveButton;
+  private JButton autoButton;
+
+  private final Logger logger = new StderrLogService();
+  /** Supplies the measurement manager, null before it has been built. */
+  private final Supplier<MeasurementManager> measurementManager;
 
   // State Elements
   private Point[] currentLine;
@@ -65,9 +84,15 @@ public class LengthInputPanel extends InputPanel implements ItemListener, RoiLis
    *
    * @param dataStore the DataStore that is used to hold the measurement data.
    * @param cueManager the CueManager that used to render measurement cues.
+   * @param measurementManager supplies the measurement manager, which corrects saved lengths for
+   *     lens distortion.
    */
-  public LengthInputPanel(DataStore dataStore, CueManager cueManager) {
+  public LengthInputPanel(
+      DataStore dataStore,
+      CueManager cueManager,
+      Supplier<MeasurementManager> measurementManager) {
     super(dataStore, cueManager);
+    this.measurementManager = measurementManager;
     Line.addRoiListener(this);
     reload_fields();
   }
@@ -217,6 +242,22 @@ public class LengthInputPanel extends InputPanel implements ItemListener, RoiLis
     gbc.fill = GridBagConstraints.HORIZONTAL;
     add(statusField, gbc);
 
+    autoButton = new JButton();
+    autoButton.setText("Auto");
+    autoButton.setToolTipText("Propose every unaccepted width along the cue from the image");
+    controls.add(autoButton);
+    gbc = new GridBagConstraints();
+    gbc.gridx = 6;
+    gbc.gridy = 5;
+    gbc.fill = GridBagConstraints.HORIZONTAL;
+    add(autoButton, gbc);
+
+    gbc = new GridBagConstraints();
+    gbc.gridx = 1;
+    gbc.gridy = 6;
+    gbc.gridwidth = 8;
+    add(cueManager.snapping.buildControls(controls), gbc);
+
     // Spacers
     gbc = new GridBagConstraints();
     gbc.gridx = 1;
@@ -263,6 +304,7 @@ public class LengthInputPanel extends InputPanel implements ItemListener, RoiLis
     revertButton.addActionListener(this::revert);
     clearButton.addActionListener(this::clear);
     approveButton.addActionListener(this::approve);
+    autoButton.addActionListener(this::autoMeasure);
     measurementSelector.addItemListener(this);
     enableOverlays.addActionListener(e -> updateInterface());
   }
@@ -295,7 +337,10 @@ public class LengthInputPanel extends InputPanel implements ItemListener, RoiLis
     dataStore.insert_value(
         lastActiveImage.getMostRecentImageName(),
         (String) measurementSelector.getSelectedItem(),
-        currentMagnitude);
+        correctedLength(
+            lastActiveImage.getMostRecentImageName(),
+            (String) measurementSelector.getSelectedItem(),
+            currentMagnitude));
     dataStore.insert_value(lastActiveImage.getMostRecentImageName(), reviewColumn, false);
 
     // This may be unneeded, but it serves as a sanity check.
@@ -311,6 +356,23 @@ public class LengthInputPanel extends InputPanel implements ItemListener, RoiLis
     updateInterface();
   }
 
+  /**
+   * Measure a length from the endpoints just saved, the same way a reload of the sheet does.
+   *
+   * @param image_name the image.
+   * @param column the length column.
+   * @param uncorrected the length measured on the image, used when there is no correction.
+   * @return the length to save.
+   */
+  private Double correctedLength(String image_name, String column, Double uncorrected) {
+    final MeasurementManager manager = measurementManager.get();
+    if (null == manager || null == uncorrected) {
+      return uncorrected;
+    }
+    final Double corrected = manager.endpointLength(image_name, column);
+    return null == corrected ? uncorrected : corrected;
+  }
+
   /**
    * Revert the current length.
    *
@@ -347,6 +409,86 @@ public class LengthInputPanel extends InputPanel implements ItemListener, RoiLis
     updateInterface();
   }
 
+  /**
+   * Propose the widths along the markers of the active cue from the image.
+   *
+   * <p>Only length measurements that haven't been accepted are proposed. The edges are found off
+   * the event dispatch thread and the proposals are saved as unreviewed.
+   *
+   * @param e the event the triggers the auto action
+   */
+  private void autoMeasure(ActionEvent e) {
+    final ImagePlus img = lastActiveImage.getMostRecentImageWindow();
+    if (null == img) {
+      return;
+    }
+    final String image_name = lastActiveImage.getMostRecentImageName();
+    final ArrayList<HashMap<String, Point[]>> guidelines = cueManager.getGuidelines(image_name);
+    final HashSet<String> wanted = new HashSet<>();
+    for (final HashMap<String, Point[]> guideline : guidelines) {
+      for (final String label : guideline.keySet()) {
+        final ColumnDescriptor descriptor = dataStore.descriptors.get(label);
+        if (null != descriptor
+            && "length".equals(descriptor.measurement_type)
+            && !dataStore.get_value(
+                image_name, String.format("%s_reviewed", label), Boolean.class, false)) {
+          wanted.add(label);
+        }
+      }
+    }
+    if (wanted.isEmpty()) {
+      return;
+    }
+
+    final ImageProcessor ip = img.getProcessor();
+    final int width = ip.getWidth();
+    final int height = ip.getHeight();
+    autoButton.setEnabled(false);
+    new SwingWorker<HashMap<String, Point[]>, Void>() {
+      @Override
+      protected HashMap<String, Point[]> doInBackground() {
+        final PhaseTimer timer = new PhaseTimer(logger, "Width extraction");
+        final WidthExtractor extractor = new WidthExtractor();
+        final HashMap<String, Point[]> widths = new HashMap<>();
+        for (final HashMap<String, Point[]> guideline : guidelines) {
+          extractor
+              .extract(ip::getPixelValue, width, height, guideline, wanted::contains)
+              .forEach(widths::putIfAbsent);
+        }
+        timer.finish();
+        return widths;
+      }
+
+      @Override
+      protected void done() {
+        autoButton.setEnabled(true);
+        final HashMap<String, Point[]> widths;
+        try {
+          widths = get();
+        } catch (final InterruptedException | ExecutionException ex) {
+          logger.error(ex);
+          return;
+        }
+        for (final Map.Entry<String, Point[]> width : widths.entrySet()) {
+          final Point[] endpoints = width.getValue();
+          dataStore.set_endpoints(image_name, width.getKey(), endpoints[0], endpoints[1]);
+          dataStore.insert_value(
+              image_name,
+              width.getKey(),
+              correctedLength(
+                  image_name,
+                  width.getKey(),
+                  Math.hypot(endpoints[1].x - endpoints[0].x, endpoints[1].y - endpoints[0].y)));
+          dataStore.insert_value(image_name, String.format("%s_reviewed", width.getKey()), false);
+        }
+        logger.info(
+            String.format(
+                "Proposed %d of %d widths for %s", widths.size(), wanted.size(), image_name));
+        reload_fields();
+      }
+    }.execute();
+  }
+
   /** Rerender the values in the UI. */
   @Override
   public void updateInterface() {
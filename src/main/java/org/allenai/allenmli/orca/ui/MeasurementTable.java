@@ -16,38 +16,477 @@
 
 package org.allenai.allenmli.orca.ui;
 
+import org.allenai.allenmli.orca.calculator.DuplicateGroups;
+import org.allenai.allenmli.orca.calculator.FrameQuality;
+import org.allenai.allenmli.orca.calculator.MeasurementManager;
+import org.allenai.allenmli.orca.calculator.UncertaintyConfig;
+import org.allenai.allenmli.orca.calculator.UncertaintyEngine;
 import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.IndexedRowSorter;
+import org.allenai.allenmli.orca.data.NumericColumn;
+import org.allenai.allenmli.orca.data.ReviewIndex;
+import org.allenai.allenmli.orca.data.SheetViewModel;
+import org.allenai.allenmli.orca.helpers.ConfigurationFileLoadException;
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+import org.allenai.allenmli.orca.helpers.HashCache;
+import org.allenai.allenmli.orca.helpers.Utilities;
+import ij.gui.MessageDialog;
+import ij.io.OpenDialog;
 
+import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
 import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.JToolBar;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
+import javax.swing.UIManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.FontMetrics;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.WindowAdapter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 public class MeasurementTable extends WindowAdapter implements TableModelListener {
+  /** Background of cells flagged as outliers by the data store. */
+  private static final Color OUTLIER_BACKGROUND = new Color(255, 200, 160);
+  /** Background of the filter field when it can't be parsed. */
+  private static final Color ERROR_BACKGROUND = new Color(255, 210, 210);
+  /** Rows sampled to estimate the column widths. */
+  private static final int WIDTH_SAMPLE_ROWS = 200;
+  /** Space between the cell text and the column edges. */
+  private static final int COLUMN_PADDING = 12;
+  private static final int MAX_COLUMN_WIDTH = 300;
+  /** Most search results considered when stepping through matches. */
+  private static final int FIND_LIMIT = 100;
+  private static final String FILTER_HELP =
+      "Clauses separated by ';', e.g. WhaleID=J16; GIRTH= (empty means missing). "
+          + "Operators: = != < <= > >= ~ (contains)";
+  /** Name of the perceptual hash cache in the configuration directory. */
+  private static final String HASH_CACHE_FILE = "perceptual_hashes.tsv";
+
   final private DataStore dataStore;
+  /** Supplies the measurement manager, null until it has been built. */
+  private final Supplier<MeasurementManager> measurementManager;
   private JFrame frame;
+  private SheetViewModel viewModel;
+  private JTable table;
+  private IndexedRowSorter sorter;
+  private JTextField filterField;
+  private JTextField findField;
+  private JLabel findStatus;
+  private JLabel reviewStatus;
+  private JButton estimateButton;
+  private JLabel estimateStatus;
+  private JButton propagateButton;
+  private final SpinnerNumberModel propagateFrames = new SpinnerNumberModel(5, 1, 100, 1);
+  private JLabel propagateStatus;
+  private JButton scoreButton;
+  private JLabel scoreStatus;
+  private JButton duplicatesButton;
+  private final SpinnerNumberModel duplicateDistance =
+      new SpinnerNumberModel(DuplicateGroups.DEFAULT_DISTANCE, 0, 32, 1);
+  private JLabel duplicatesStatus;
+  /** Perceptual hashes of the image files, loaded when first needed. */
+  private HashCache hashCache;
 
-  public MeasurementTable(DataStore dataStore) {
+  /**
+   * @param dataStore the data store to display.
+   * @param measurementManager supplies the measurement manager, whose plan is used to estimate
+   *     confidence intervals.
+   */
+  public MeasurementTable(DataStore dataStore, Supplier<MeasurementManager> measurementManager) {
     this.dataStore = dataStore;
+    this.measurementManager = measurementManager;
     build_ui();
-    this.dataStore.addTableModelListener(this);
+    updateTitle();
+    updateReviewStatus();
+    viewModel.addTableModelListener(this);
   }
 
   private void build_ui() {
-    JTable table = new JTable(dataStore);
+    viewModel = new SheetViewModel(dataStore);
+    table = new JTable(viewModel);
+    sorter = new IndexedRowSorter(viewModel);
+    table.setRowSorter(sorter);
     table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
     table.setShowGrid(true);
     table.setGridColor(Color.BLACK);
-    table.doLayout();
+    final CachedCellRenderer renderer = new CachedCellRenderer();
+    for (final Class<?> type :
+        new Class<?>[] {Object.class, String.class, Number.class, Double.class, Integer.class}) {
+      table.setDefaultRenderer(type, renderer);
+    }
+    sizeColumns();
     JScrollPane scrollPane = new JScrollPane(table);
+    scrollPane.getViewport().addChangeListener(e -> updateViewport());
+    JButton nextUnreviewed = new JButton("Next Unreviewed");
+    nextUnreviewed.addActionListener(e -> selectNextUnreviewed());
+    reviewStatus = new JLabel();
+    JPanel reviewPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    reviewPanel.add(nextUnreviewed);
+    reviewPanel.add(reviewStatus);
+    filterField = new JTextField(30);
+    filterField.setToolTipText(FILTER_HELP);
+    filterField.addActionListener(e -> applyFilter());
+    reviewPanel.add(new JLabel("Filter:"));
+    reviewPanel.add(filterField);
+    findField = new JTextField(20);
+    findField.setToolTipText("Find by filename, WhaleID or comment; Enter opens the image");
+    findField
+        .getDocument()
+        .addDocumentListener(
+            new DocumentListener() {
+              @Override
+              public void insertUpdate(DocumentEvent e) {
+                findNext(false);
+              }
+
+              @Override
+              public void removeUpdate(DocumentEvent e) {
+                findNext(false);
+              }
+
+              @Override
+              public void changedUpdate(DocumentEvent e) {
+                findNext(false);
+              }
+            });
+    findField.addActionListener(e -> openSelectedImage());
+    JButton findNextButton = new JButton("Next");
+    findNextButton.addActionListener(e -> findNext(true));
+    JButton openImage = new JButton("Open Image");
+    openImage.addActionListener(e -> openSelectedImage());
+    findStatus = new JLabel();
+    reviewPanel.add(new JLabel("Find:"));
+    reviewPanel.add(findField);
+    reviewPanel.add(findNextButton);
+    reviewPanel.add(findStatus);
+    reviewPanel.add(openImage);
+    estimateButton = new JButton("Estimate CIs");
+    estimateButton.setToolTipText("Estimate confidence intervals from UncertaintyConf.json");
+    estimateButton.addActionListener(e -> estimateIntervals());
+    estimateStatus = new JLabel();
+    // Batch actions get their own row so the sheet window doesn't have to fit them all.
+    JToolBar batchActions = new JToolBar();
+    batchActions.setFloatable(false);
+    batchActions.add(estimateButton);
+    batchActions.add(estimateStatus);
+    batchActions.addSeparator();
+    propagateButton = new JButton("Propagate Points");
+    propagateButton.setToolTipText(
+        "Propose the landmarks of the selected row for the rows that follow it");
+    propagateButton.addActionListener(e -> propagateLandmarks());
+    propagateStatus = new JLabel();
+    batchActions.add(propagateButton);
+    batchActions.add(new JSpinner(propagateFrames));
+    batchActions.add(new JLabel(" frames "));
+    batchActions.add(propagateStatus);
+    batchActions.addSeparator();
+    scoreButton = new JButton("Score Frames");
+    scoreButton.setToolTipText("Score the quality of every frame and sort the best to the top");
+    scoreButton.addActionListener(e -> scoreFrames());
+    scoreStatus = new JLabel();
+    batchActions.add(scoreButton);
+    batchActions.add(scoreStatus);
+    batchActions.addSeparator();
+    duplicatesButton = new JButton("Find Duplicates");
+    duplicatesButton.setToolTipText(
+        String.format(
+            "Mark near-duplicate frames in %s; filter on %s= to hide them",
+            DuplicateDetection.DUPLICATE_COLUMN, DuplicateDetection.DUPLICATE_COLUMN));
+    duplicatesButton.addActionListener(e -> findDuplicates());
+    duplicatesStatus = new JLabel();
+    batchActions.add(duplicatesButton);
+    batchActions.add(new JSpinner(duplicateDistance));
+    batchActions.add(new JLabel(" bits "));
+    batchActions.add(duplicatesStatus);
+    JPanel controls = new JPanel(new BorderLayout());
+    controls.add(reviewPanel, BorderLayout.NORTH);
+    controls.add(batchActions, BorderLayout.SOUTH);
     frame = new JFrame(dataStore.getCsvFileName());
-    frame.add(scrollPane);
+    frame.add(controls, BorderLayout.NORTH);
+    frame.add(scrollPane, BorderLayout.CENTER);
+    frame.add(
+        new Filmstrip(dataStore, table, this::imageDirectories, this::openSelectedImage),
+        BorderLayout.SOUTH);
     frame.pack();
   }
 
+  /**
+   * Size the columns to fit their header and the values of a sample of rows, so the widths don't
+   * depend on scanning the whole sheet.
+   */
+  private void sizeColumns() {
+    final FontMetrics cellMetrics = table.getFontMetrics(table.getFont());
+    final FontMetrics headerMetrics =
+        table.getTableHeader().getFontMetrics(table.getTableHeader().getFont());
+    final int[] sample = viewModel.sample_rows(WIDTH_SAMPLE_ROWS);
+    for (int column = 0; column < table.getColumnCount(); column++) {
+      final int modelColumn = table.convertColumnIndexToModel(column);
+      int width = headerMetrics.stringWidth(viewModel.getColumnName(modelColumn));
+      for (final int row : sample) {
+        width = Math.max(width, cellMetrics.stringWidth(viewModel.formatted(row, modelColumn)));
+      }
+      table
+          .getColumnModel()
+          .getColumn(column)
+          .setPreferredWidth(Math.min(MAX_COLUMN_WIDTH, width + COLUMN_PADDING));
+    }
+  }
+
+  /** Cache the text of the visible rows and a page either side of them. */
+  private void updateViewport() {
+    final Rectangle visible = table.getVisibleRect();
+    int first = table.rowAtPoint(visible.getLocation());
+    if (-1 == first) {
+      viewModel.set_viewport(new int[0]);
+      return;
+    }
+    int last = table.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+    if (-1 == last) {
+      last = table.getRowCount() - 1;
+    }
+    final int page = last - first + 1;
+    first = Math.max(0, first - page);
+    last = Math.min(table.getRowCount() - 1, last + page);
+    final int[] rows = new int[last - first + 1];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = table.convertRowIndexToModel(first + i);
+    }
+    viewModel.set_viewport(rows);
+  }
+
+  /** Apply the expression in the filter field, marking the field if it can't be parsed. */
+  private void applyFilter() {
+    try {
+      sorter.set_filters(filterField.getText());
+      filterField.setBackground(UIManager.getColor("TextField.background"));
+      filterField.setToolTipText(FILTER_HELP);
+    } catch (final IllegalArgumentException e) {
+      filterField.setBackground(ERROR_BACKGROUND);
+      filterField.setToolTipText(e.getMessage());
+    }
+  }
+
+  /**
+   * Select a row matching the find field.
+   *
+   * @param next true to move past the selected row, false to restart from the first match.
+   */
+  private void findNext(boolean next) {
+    final String query = findField.getText().trim();
+    if (query.isEmpty()) {
+      findStatus.setText("");
+      return;
+    }
+    final List<String> matches = dataStore.search(query, FIND_LIMIT);
+    int start = 0;
+    final int selected = table.getSelectedRow();
+    if (next && -1 != selected) {
+      start = matches.indexOf(dataStore.getRowName(table.convertRowIndexToModel(selected))) + 1;
+    }
+    for (int i = 0; i < matches.size(); i++) {
+      final String match = matches.get((start + i) % matches.size());
+      final int view = table.convertRowIndexToView(dataStore.find_row(match));
+      if (-1 != view) { // Skip rows hidden by the filter.
+        selectRow(view);
+        break;
+      }
+    }
+    findStatus.setText(
+        FIND_LIMIT == matches.size()
+            ? String.format("%d+ matches", FIND_LIMIT)
+            : String.format("%d matches", matches.size()));
+  }
+
+  /** Open the image of the selected row, or bring it to the front if it is already open. */
+  private void openSelectedImage() {
+    final int selected = table.getSelectedRow();
+    if (-1 == selected) {
+      return;
+    }
+    final String filename = dataStore.getRowName(table.convertRowIndexToModel(selected));
+    if (!Utilities.openImage(filename, imageDirectories())) {
+      MessageDialog errDialog =
+          new MessageDialog(
+              frame,
+              "Image Not Found",
+              String.format(
+                  "Couldn't find %s next to the CSV file or in the last directory used.",
+                  filename));
+      errDialog.escapePressed();
+    }
+  }
+
+  /** @return the directories images are looked for in: next to the CSV file, then the last used. */
+  private File[] imageDirectories() {
+    final File csv = dataStore.getCsvFile();
+    final String lastDirectory = OpenDialog.getDefaultDirectory();
+    return new File[] {
+      null == csv ? null : csv.getAbsoluteFile().getParentFile(),
+      null == lastDirectory ? null : new File(lastDirectory)
+    };
+  }
+
+  /** Propose the landmarks of the selected row for the rows shown after it. */
+  private void propagateLandmarks() {
+    final int selected = table.getSelectedRow();
+    if (-1 == selected) {
+      propagateStatus.setText("Select a row");
+      return;
+    }
+    final String source = dataStore.getRowName(table.convertRowIndexToModel(selected));
+    final ArrayList<String> targets = new ArrayList<>();
+    final int frames = propagateFrames.getNumber().intValue();
+    for (int view = selected + 1; view < table.getRowCount() && targets.size() < frames; view++) {
+      targets.add(dataStore.getRowName(table.convertRowIndexToModel(view)));
+    }
+    final LandmarkPropagation propagation =
+        new LandmarkPropagation(
+            dataStore,
+            source,
+            targets,
+            imageDirectories(),
+            text -> {
+              propagateButton.setEnabled(true);
+              propagateStatus.setText(text);
+            });
+    if (targets.isEmpty() || 0 == propagation.landmarkCount()) {
+      propagateStatus.setText("Nothing to propagate");
+      return;
+    }
+    propagateButton.setEnabled(false);
+    propagation.addPropertyChangeListener(
+        e -> {
+          if ("progress".equals(e.getPropertyName())) {
+            propagateStatus.setText(String.format("Matching %d%%", (Integer) e.getNewValue()));
+          }
+        });
+    propagation.execute();
+  }
+
+  /** Score every frame in the sheet, then sort the sheet by quality. */
+  private void scoreFrames() {
+    if (!dataStore.descriptors.containsKey(FrameQuality.QUALITY_COLUMN)) {
+      scoreStatus.setText(String.format("No %s column", FrameQuality.QUALITY_COLUMN));
+      return;
+    }
+    final List<String> frames = Arrays.asList(dataStore.current_files());
+    if (frames.isEmpty()) {
+      scoreStatus.setText("Nothing to score");
+      return;
+    }
+    final FrameScoring scoring =
+        new FrameScoring(
+            dataStore,
+            frames,
+            imageDirectories(),
+            text -> {
+              scoreButton.setEnabled(true);
+              scoreStatus.setText(text);
+              sortByQuality();
+            });
+    scoreButton.setEnabled(false);
+    scoring.addPropertyChangeListener(
+        e -> {
+          if ("progress".equals(e.getPropertyName())) {
+            scoreStatus.setText(String.format("Scoring %d%%", (Integer) e.getNewValue()));
+          }
+        });
+    scoring.execute();
+  }
+
+  /** Mark the near-duplicate frames of the sheet. */
+  private void findDuplicates() {
+    if (!dataStore.descriptors.containsKey(DuplicateDetection.DUPLICATE_COLUMN)) {
+      duplicatesStatus.setText(String.format("No %s column", DuplicateDetection.DUPLICATE_COLUMN));
+      return;
+    }
+    final List<String> frames = Arrays.asList(dataStore.current_files());
+    if (frames.isEmpty()) {
+      duplicatesStatus.setText("Nothing to compare");
+      return;
+    }
+    if (null == hashCache) {
+      hashCache =
+          new HashCache(ConfigurationLoader.getAbsoluteConfigurationPath(HASH_CACHE_FILE));
+    }
+    final DuplicateDetection detection =
+        new DuplicateDetection(
+            dataStore,
+            frames,
+            imageDirectories(),
+            hashCache,
+            duplicateDistance.getNumber().intValue(),
+            text -> {
+              duplicatesButton.setEnabled(true);
+              duplicatesStatus.setText(text);
+            });
+    duplicatesButton.setEnabled(false);
+    detection.addPropertyChangeListener(
+        e -> {
+          if ("progress".equals(e.getPropertyName())) {
+            duplicatesStatus.setText(String.format("Hashing %d%%", (Integer) e.getNewValue()));
+          }
+        });
+    detection.execute();
+  }
+
+  /** Sort the sheet with the best frames first. */
+  private void sortByQuality() {
+    final int column = viewModel.findColumn(FrameQuality.QUALITY_COLUMN);
+    if (-1 != column) {
+      sorter.setSortKeys(
+          Collections.singletonList(new RowSorter.SortKey(column, SortOrder.DESCENDING)));
+    }
+  }
+
+  /**
+   * Select and scroll to the next row shown after the selection with an unreviewed measurement,
+   * so the review follows the sort order of the sheet.
+   */
+  private void selectNextUnreviewed() {
+    final int rows = table.getRowCount();
+    final int selected = table.getSelectedRow();
+    for (int i = 1; i <= rows; i++) {
+      final int view = (selected + i) % rows;
+      if (dataStore.get_review_index().is_unreviewed(table.convertRowIndexToModel(view))) {
+        selectRow(view);
+        return;
+      }
+    }
+  }
+
+  /** @param view the view index of the row to select and scroll to. */
+  private void selectRow(int view) {
+    table.setRowSelectionInterval(view, view);
+    table.scrollRectToVisible(table.getCellRect(view, 0, true));
+  }
+
   final public JFrame getFrame() {
     return frame;
   }
@@ -60,6 +499,110 @@ public class MeasurementTable extends WindowAdapter implements TableModelListene
    */
   @Override
   public void tableChanged(TableModelEvent e) {
+    updateTitle();
+    updateReviewStatus();
+    if (Integer.MAX_VALUE == e.getLastRow()) {
+      sizeColumns(); // The sheet was reloaded.
+    }
+    // A changed value moves the column statistics, so other visible cells may change flag.
+    table.repaint();
+  }
+
+  /**
+   * Renders the cached cell text of the view model, right aligning numbers and highlighting the
+   * values the data store flags as outliers.
+   */
+  private class CachedCellRenderer extends DefaultTableCellRenderer {
+    @Override
+    public Component getTableCellRendererComponent(
+        JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+      final int modelRow = table.convertRowIndexToModel(row);
+      final int modelColumn = table.convertColumnIndexToModel(column);
+      final boolean outlier = dataStore.is_outlier(modelRow, modelColumn);
+      // null restores the table background for cells that are no longer outliers.
+      setBackground(outlier ? OUTLIER_BACKGROUND : null);
+      super.getTableCellRendererComponent(
+          table, viewModel.formatted(modelRow, modelColumn), isSelected, hasFocus, row, column);
+      setHorizontalAlignment(
+          value instanceof Number ? SwingConstants.RIGHT : SwingConstants.LEADING);
+      String tip = null;
+      if (outlier) {
+        final String filename = dataStore.getRowName(modelRow);
+        final String name = dataStore.getColumnName(modelColumn);
+        tip =
+            String.format(
+                "z = %.2f, %s z = %.2f",
+                dataStore.z_score(filename, name),
+                dataStore.OUTLIER_GROUP_COLUMN,
+                dataStore.group_z_score(filename, name));
+      }
+      setToolTipText(tip);
+      return this;
+    }
+  }
+
+  /**
+   * Estimate the confidence intervals of the derived measurements in the background and store them
+   * in the interval columns.
+   */
+  private void estimateIntervals() {
+    final MeasurementManager manager = measurementManager.get();
+    if (null == manager) {
+      new MessageDialog(frame, "Confidence Intervals", "The measurements aren't loaded yet.");
+      return;
+    }
+    final UncertaintyEngine engine;
+    try {
+      engine =
+          new UncertaintyEngine(
+              manager.getPlan(),
+              UncertaintyConfig.load(),
+              manager.getLensCorrection().cameras(dataStore));
+    } catch (final ConfigurationFileLoadException e) {
+      new MessageDialog(frame, "Confidence Intervals", e.getMessage());
+      return;
+    }
+    final Map<String, NumericColumn> inputs = engine.snapshot(dataStore);
+    final int nRows = dataStore.getRowCount();
+    estimateButton.setEnabled(false);
+    final SwingWorker<UncertaintyEngine.Result, Void> worker =
+        new SwingWorker<UncertaintyEngine.Result, Void>() {
+          @Override
+          protected UncertaintyEngine.Result doInBackground() {
+            return engine.run(inputs, nRows, fraction -> setProgress((int) (100 * fraction)));
+          }
+
+          @Override
+          protected void done() {
+            estimateButton.setEnabled(true);
+            try {
+              final List<String> stored = get().store(dataStore);
+              estimateStatus.setText(String.format("%d interval columns", stored.size()));
+            } catch (final InterruptedException | ExecutionException | IllegalArgumentException e) {
+              estimateStatus.setText("");
+              new MessageDialog(frame, "Confidence Intervals", String.valueOf(e.getMessage()));
+            }
+          }
+        };
+    worker.addPropertyChangeListener(
+        e -> {
+          if ("progress".equals(e.getPropertyName())) {
+            estimateStatus.setText(String.format("Estimating %d%%", (Integer) e.getNewValue()));
+          }
+        });
+    worker.execute();
+  }
+
+  /** Show the number of measurements still needing attention. */
+  private void updateReviewStatus() {
+    final ReviewIndex reviews = dataStore.get_review_index();
+    reviewStatus.setText(
+        String.format(
+            "%d unreviewed, %d missing", reviews.unreviewed_count(), reviews.missing_count()));
+  }
+
+  /** Set the frame title from the csv file name and the dirty state of the data store. */
+  private void updateTitle() {
     if (dataStore.dirty()) {
       frame.setTitle(String.format("%s - Unsaved Changes", dataStore.getCsvFileName()));
     } else {
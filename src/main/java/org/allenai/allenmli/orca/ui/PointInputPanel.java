@@ -249,6 +249,12 @@ public class PointInputPanel extends InputPanel implements RoiListener, ItemList
     gbc.gridwidth = 10;
     this.add(enableOverlays, gbc);
 
+    gbc = new GridBagConstraints();
+    gbc.gridx = 1;
+    gbc.gridy = 7;
+    gbc.gridwidth = 10;
+    this.add(cueManager.snapping.buildControls(controls), gbc);
+
     // Spacers
     final JPanel spacer1 = new JPanel();
     gbc = new GridBagConstraints();
@@ -0,0 +1,387 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.ui;
+
+import org.allenai.allenmli.orca.data.Point;
+import org.allenai.allenmli.orca.event.ActiveImageChangeEvent;
+import org.allenai.allenmli.orca.event.ActiveImageListener;
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+import org.allenai.allenmli.orca.helpers.LastActiveImage;
+import org.allenai.allenmli.orca.helpers.TilePyramid;
+import ij.ImagePlus;
+import ij.gui.ImageCanvas;
+import ij.io.FileInfo;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Navigator window that shows the active frame from a {@link TilePyramid}, so zooming and panning
+ * around very large frames only draws the few tiles in view at the matching resolution.
+ *
+ * <p>The pyramid of a frame is built in the background when the frame becomes active and stored in
+ * the <code>tiles</code> directory of the configuration, keyed by the content of the image file,
+ * so each frame is only tiled once. The markers {@link CueManager} draws on the frame are drawn
+ * on top. Scroll to zoom, drag to pan and double click to center the ImageJ view of the frame on
+ * a point; the outline shows the part of the frame in the ImageJ view.
+ */
+public class PyramidViewer extends JComponent implements ActiveImageListener {
+  /** Directory of the tile cache in the configuration directory. */
+  private static final String CACHE_DIRECTORY = "tiles";
+  /** Frames whose tiles are kept on disk. */
+  private static final int CACHED_FRAMES = 50;
+  /** Most tiles built at once. */
+  private static final int MAX_THREADS = 4;
+  private static final double MAX_SCALE = 8;
+
+  private final CueManager cueManager;
+  private final LastActiveImage lastActiveImage;
+  private final Logger logger = new StderrLogService();
+  /** Builds the tiles. */
+  private final ExecutorService pool =
+      Executors.newFixedThreadPool(
+          Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors())),
+          PyramidViewer::daemon);
+  /** Hashes the frame and drives the build, one frame at a time. */
+  private final ExecutorService builder = Executors.newSingleThreadExecutor(PyramidViewer::daemon);
+  private final JFrame frame;
+  private ImagePlus image;
+  private String imageName;
+  private volatile TilePyramid pyramid;
+  private Future<?> building;
+  /** Screen pixels per frame pixel, 0 to fit the frame on the next paint. */
+  private double scale = 0;
+  /** Frame coordinates of the top left corner of the view. */
+  private double originX;
+  private double originY;
+  private java.awt.Point dragStart;
+
+  /** @param cueManager supplies the markers drawn on the frame. */
+  public PyramidViewer(CueManager cueManager) {
+    this.cueManager = cueManager;
+    lastActiveImage = LastActiveImage.getInstance();
+    setPreferredSize(new Dimension(640, 480));
+    final MouseAdapter mouse =
+        new MouseAdapter() {
+          @Override
+          public void mousePressed(MouseEvent e) {
+            dragStart = e.getPoint();
+          }
+
+          @Override
+          public void mouseDragged(MouseEvent e) {
+            if (null != dragStart && 0 != scale) {
+              originX -= (e.getX() - dragStart.x) / scale;
+              originY -= (e.getY() - dragStart.y) / scale;
+              dragStart = e.getPoint();
+              repaint();
+            }
+          }
+
+          @Override
+          public void mouseWheelMoved(MouseWheelEvent e) {
+            zoom(e.getX(), e.getY(), Math.pow(1.25, -e.getPreciseWheelRotation()));
+          }
+
+          @Override
+          public void mouseClicked(MouseEvent e) {
+            if (2 == e.getClickCount()) {
+              centerImageJ(originX + e.getX() / scale, originY + e.getY() / scale);
+            }
+          }
+        };
+    addMouseListener(mouse);
+    addMouseMotionListener(mouse);
+    addMouseWheelListener(mouse);
+    frame = new JFrame("AMPT Navigator");
+    frame.add(this);
+    frame.pack();
+    lastActiveImage.addActiveImageListener(this);
+    cueManager.addDrawListener(this::repaint);
+    attach(lastActiveImage.getMostRecentImageWindow());
+  }
+
+  private static Thread daemon(Runnable runnable) {
+    final Thread thread = new Thread(runnable, "AMPT tile builder");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /** Show the navigator window. */
+  public void showWindow() {
+    frame.setVisible(true);
+    frame.toFront();
+  }
+
+  /**
+   * Follow the active image.
+   *
+   * @param evt the ActiveImageChangeEvent
+   */
+  @Override
+  public void activeImageChanged(ActiveImageChangeEvent evt) {
+    attach(lastActiveImage.getMostRecentImageWindow());
+  }
+
+  private void attach(ImagePlus img) {
+    if (img == image) {
+      return;
+    }
+    if (null != building) {
+      building.cancel(true);
+      building = null;
+    }
+    image = img;
+    imageName = null == img ? null : img.getTitle();
+    pyramid = null;
+    scale = 0;
+    repaint();
+    final FileInfo info = null == img ? null : img.getOriginalFileInfo();
+    if (null == info || null == info.fileName) {
+      return;
+    }
+    final File file = new File(null == info.directory ? "" : info.directory, info.fileName);
+    final ImageProcessor ip = img.getProcessor();
+    final int width = img.getWidth();
+    final int height = img.getHeight();
+    building = builder.submit(() -> build(file.toPath(), ip, width, height));
+  }
+
+  /** Build the pyramid of a frame, on the builder thread. */
+  private void build(Path file, ImageProcessor ip, int width, int height) {
+    try {
+      final Path root = ConfigurationLoader.getAbsoluteConfigurationPath(CACHE_DIRECTORY);
+      final TilePyramid tiles =
+          new TilePyramid(
+              root.resolve(TilePyramid.key(file)),
+              width,
+              height,
+              TilePyramid.DEFAULT_MEMORY_TILES);
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      SwingUtilities.invokeLater(
+          () -> {
+            if (ip == (null == image ? null : image.getProcessor())) {
+              pyramid = tiles;
+              repaint();
+            }
+          });
+      tiles.build(region -> read(ip, region), pool, (level, tx, ty) -> repaint());
+      TilePyramid.prune(root, CACHED_FRAMES);
+    } catch (final InterruptedException e) {
+      // Another frame became active.
+    } catch (final IOException | RuntimeException e) {
+      logger.warn(String.format("Couldn't tile %s: %s", file, e));
+    }
+  }
+
+  /**
+   * Copies the pixels straight out of the processor instead of cropping it, so the ROI of the
+   * processor ImageJ is drawing and editing on the event dispatch thread is never touched.
+   *
+   * @return a region of the frame as displayed by ImageJ.
+   */
+  private static BufferedImage read(ImageProcessor ip, Rectangle region) {
+    final int width = ip.getWidth();
+    final Rectangle bounds = region.intersection(new Rectangle(width, ip.getHeight()));
+    final ImageProcessor crop = ip.createProcessor(bounds.width, bounds.height);
+    final Object source = ip.getPixels();
+    final Object target = crop.getPixels();
+    for (int y = 0; y < bounds.height; y++) {
+      System.arraycopy(
+          source, (bounds.y + y) * width + bounds.x, target, y * bounds.width, bounds.width);
+    }
+    if (crop instanceof ColorProcessor || crop instanceof ByteProcessor) {
+      return crop.getBufferedImage();
+    }
+    crop.setMinAndMax(ip.getMin(), ip.getMax());
+    return crop.convertToByteProcessor(true).getBufferedImage();
+  }
+
+  private void zoom(int x, int y, double factor) {
+    if (0 == scale) {
+      return;
+    }
+    final double fx = originX + x / scale;
+    final double fy = originY + y / scale;
+    scale = Math.min(MAX_SCALE, Math.max(fitScale() / 4, scale * factor));
+    originX = fx - x / scale;
+    originY = fy - y / scale;
+    repaint();
+  }
+
+  private double fitScale() {
+    final TilePyramid tiles = pyramid;
+    if (null == tiles || 0 == getWidth() || 0 == getHeight()) {
+      return 1;
+    }
+    return Math.min((double) getWidth() / tiles.width(0), (double) getHeight() / tiles.height(0));
+  }
+
+  /** Center the ImageJ view of the frame on a point, keeping its magnification. */
+  private void centerImageJ(double x, double y) {
+    final ImageCanvas canvas = null == image ? null : image.getCanvas();
+    if (null == canvas) {
+      return;
+    }
+    final Rectangle view = canvas.getSrcRect();
+    view.x = (int) Math.max(0, Math.min(image.getWidth() - view.width, x - view.width / 2.0));
+    view.y = (int) Math.max(0, Math.min(image.getHeight() - view.height, y - view.height / 2.0));
+    canvas.setSourceRect(view);
+    canvas.repaint();
+    repaint();
+  }
+
+  @Override
+  protected void paintComponent(Graphics graphics) {
+    final Graphics2D g = (Graphics2D) graphics;
+    g.setColor(Color.DARK_GRAY);
+    g.fillRect(0, 0, getWidth(), getHeight());
+    final TilePyramid tiles = pyramid;
+    if (null == tiles) {
+      g.setColor(Color.LIGHT_GRAY);
+      g.drawString(null == image ? "No open image" : "Preparing tiles", 10, 20);
+      return;
+    }
+    if (0 == scale) {
+      scale = fitScale();
+      originX = (tiles.width(0) - getWidth() / scale) / 2;
+      originY = (tiles.height(0) - getHeight() / scale) / 2;
+    }
+    g.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    final int level =
+        Math.max(0, Math.min(tiles.levels() - 1, (int) Math.floor(-Math.log(scale) / Math.log(2))));
+    final int span = TilePyramid.TILE << level;
+    final int x0 = Math.max(0, (int) Math.floor(originX / span));
+    final int y0 = Math.max(0, (int) Math.floor(originY / span));
+    final int x1 = Math.min(tiles.tilesX(level) - 1, (int) ((originX + getWidth() / scale) / span));
+    final int y1 =
+        Math.min(tiles.tilesY(level) - 1, (int) ((originY + getHeight() / scale) / span));
+    for (int ty = y0; ty <= y1; ty++) {
+      for (int tx = x0; tx <= x1; tx++) {
+        drawTile(g, tiles, level, tx, ty);
+      }
+    }
+    drawMarkers(g);
+    final ImageCanvas canvas = null == image ? null : image.getCanvas();
+    final Rectangle view = null == canvas ? null : canvas.getSrcRect();
+    if (null != view) {
+      g.setColor(Color.YELLOW);
+      g.drawRect(
+          screenX(view.x),
+          screenY(view.y),
+          (int) (view.width * scale),
+          (int) (view.height * scale));
+    }
+  }
+
+  /** Draw a tile, or the matching part of a coarser tile while it is being built. */
+  private void drawTile(Graphics2D g, TilePyramid tiles, int level, int tx, int ty) {
+    for (int l = level; l < tiles.levels(); l++) {
+      final int shift = l - level;
+      final BufferedImage tile = tiles.tile(l, tx >> shift, ty >> shift);
+      if (null == tile) {
+        continue;
+      }
+      // Part of the coarser tile covering the tile, in the coarser tile's pixels.
+      final int size = TilePyramid.TILE >> shift;
+      final int sx = (tx - ((tx >> shift) << shift)) * size;
+      final int sy = (ty - ((ty >> shift) << shift)) * size;
+      final int sw = Math.min(size, tile.getWidth() - sx);
+      final int sh = Math.min(size, tile.getHeight() - sy);
+      if (sw <= 0 || sh <= 0) {
+        return;
+      }
+      final double fx = (double) tx * (TilePyramid.TILE << level);
+      final double fy = (double) ty * (TilePyramid.TILE << level);
+      g.drawImage(
+          tile,
+          screenX(fx),
+          screenY(fy),
+          screenX(fx + (double) (sw << l)),
+          screenY(fy + (double) (sh << l)),
+          sx,
+          sy,
+          sx + sw,
+          sy + sh,
+          null);
+      return;
+    }
+  }
+
+  private void drawMarkers(Graphics2D g) {
+    if (null == imageName) {
+      return;
+    }
+    g.setStroke(new BasicStroke(1.5f));
+    g.setColor(Color.CYAN);
+    for (final HashMap<String, Point[]> markers : cueManager.getMarkers(imageName)) {
+      for (final Map.Entry<String, Point[]> marker : markers.entrySet()) {
+        final Point[] points = marker.getValue();
+        if (null == points || 0 == points.length) {
+          continue;
+        }
+        final int x = screenX(points[0].x);
+        final int y = screenY(points[0].y);
+        if (1 == points.length) {
+          g.drawLine(x - 4, y, x + 4, y);
+          g.drawLine(x, y - 4, x, y + 4);
+        } else {
+          g.drawLine(x, y, screenX(points[1].x), screenY(points[1].y));
+        }
+        if (!"axis".equals(marker.getKey())) {
+          g.drawString(marker.getKey(), x + 5, y - 5);
+        }
+      }
+    }
+  }
+
+  private int screenX(double x) {
+    return (int) Math.round((x - originX) * scale);
+  }
+
+  private int screenY(double y) {
+    return (int) Math.round((y - originY) * scale);
+  }
+}
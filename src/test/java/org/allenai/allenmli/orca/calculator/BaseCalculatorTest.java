@@ -102,31 +102,157 @@ public class BaseCalculatorTest extends TestCase {
     }
   }
 
+  /** Unknown functions are reported when the configuration is loaded. */
   public void test_bad_function() {
-    BaseCalculator mm = null;
     try {
-      mm = new BaseCalculatorTestingAdapter(ds);
-    } catch (FileNotFoundException | ConfigurationFileLoadException e) {
+      new BadFunctionTestingAdapter(ds);
+      TestCase.fail();
+    } catch (FileNotFoundException e) {
       TestCase.fail(e.getMessage());
+    } catch (ConfigurationFileLoadException e) {
+      TestCase.assertTrue(e.getMessage().contains("BAD_FUNC"));
     }
-    ds.insert_value("foo", "SNDF_x_start", 0.);
+  }
+
+  /** Parameter count mismatches are reported when the configuration is loaded. */
+  public void test_bad_arity() {
     try {
-      mm.do_measurement("BAD_FUNC", "foo");
+      new BadArityTestingAdapter(ds);
       TestCase.fail();
-    } catch (IllegalArgumentException e) {
-      TestCase.assertTrue(e.getMessage().contains("BAD_FUNC"));
+    } catch (FileNotFoundException e) {
+      TestCase.fail(e.getMessage());
+    } catch (ConfigurationFileLoadException e) {
+      TestCase.assertTrue(e.getMessage().contains("SNDF"));
+      TestCase.assertTrue(e.getMessage().contains("expects 4"));
     }
   }
 
+  /** Formula variables that aren't numeric columns are reported on load. */
+  public void test_bad_formula_variable() {
+    try {
+      new BadFormulaTestingAdapter(ds);
+      TestCase.fail();
+    } catch (FileNotFoundException e) {
+      TestCase.fail(e.getMessage());
+    } catch (ConfigurationFileLoadException e) {
+      TestCase.assertTrue(e.getMessage().contains("'LENGHT'"));
+      TestCase.assertTrue(e.getMessage().contains("'WhaleID'"));
+    }
+  }
+
+  /** A formula writing a column that doesn't hold doubles is reported on load. */
+  public void test_bad_formula_target() {
+    try {
+      new BadFormulaTargetTestingAdapter(ds);
+      TestCase.fail();
+    } catch (FileNotFoundException e) {
+      TestCase.fail(e.getMessage());
+    } catch (ConfigurationFileLoadException e) {
+      TestCase.assertTrue(e.getMessage().contains("'WhaleID' is set by a formula"));
+      TestCase.assertFalse(e.getMessage().contains("'GIRTH'"));
+    }
+  }
+
+  /** The function table is built once per calculator class. */
+  public void test_shared_registry() {
+    try {
+      BaseCalculator first = new BaseCalculatorTestingAdapter(ds);
+      BaseCalculator second = new BaseCalculatorTestingAdapter(ds);
+      TestCase.assertSame(first.measurement_funcs, second.measurement_funcs);
+      TestCase.assertTrue(first.measurement_funcs.containsKey("length"));
+    } catch (FileNotFoundException | ConfigurationFileLoadException e) {
+      TestCase.fail(e.getMessage());
+    }
+  }
+
+  /** Formula measurements are compiled on load and evaluated like any other measurement. */
+  public void test_formula_measurement() {
+    BaseCalculator calculator = null;
+    try {
+      calculator = new FormulaTestingAdapter(ds);
+    } catch (FileNotFoundException | ConfigurationFileLoadException e) {
+      TestCase.fail(e.getMessage());
+    }
+    TestCase.assertEquals("[OFFSET]", calculator.possible_measurements.get("GIRTH").toString());
+    ds.insert_value("foo", "GIRTH", 50.);
+    ds.insert_value("foo", "LENGTH", 200.);
+    ds.insert_value("foo", "REF BOTTOM", 1.);
+    TestCase.assertEquals(25., calculator.do_measurement("OFFSET", "foo"));
+    ds.insert_value("foo", "OFFSET", 25.);
+    TestCase.assertEquals(6., calculator.do_measurement("FW", "foo"));
+    ds.insert_value("foo", "LENGTH", null);
+    TestCase.assertNull(calculator.do_measurement("OFFSET", "foo"));
+  }
+
   private static class BaseCalculatorTestingAdapter extends BaseCalculator {
 
     public BaseCalculatorTestingAdapter(DataStore ds) throws FileNotFoundException, ConfigurationFileLoadException {
       super(ds);
     }
 
+    @Override
+    protected String getConfigurationFile() {
+      return "MeasurementConf.json";
+    }
+  }
+
+  private static class BadFunctionTestingAdapter extends BaseCalculator {
+
+    public BadFunctionTestingAdapter(DataStore ds) throws FileNotFoundException, ConfigurationFileLoadException {
+      super(ds);
+    }
+
     @Override
     protected String getConfigurationFile() {
       return "BadMeasurementConf.json";
     }
   }
+
+  private static class BadArityTestingAdapter extends BaseCalculator {
+
+    public BadArityTestingAdapter(DataStore ds) throws FileNotFoundException, ConfigurationFileLoadException {
+      super(ds);
+    }
+
+    @Override
+    protected String getConfigurationFile() {
+      return "BadArityMeasurementConf.json";
+    }
+  }
+
+  private static class BadFormulaTestingAdapter extends BaseCalculator {
+
+    public BadFormulaTestingAdapter(DataStore ds) throws FileNotFoundException, ConfigurationFileLoadException {
+      super(ds);
+    }
+
+    @Override
+    protected String getConfigurationFile() {
+      return "BadFormulaMeasurementConf.json";
+    }
+  }
+
+  private static class BadFormulaTargetTestingAdapter extends BaseCalculator {
+
+    public BadFormulaTargetTestingAdapter(DataStore ds) throws FileNotFoundException, ConfigurationFileLoadException {
+      super(ds);
+    }
+
+    @Override
+    protected String getConfigurationFile() {
+      return "BadFormulaTargetMeasurementConf.json";
+    }
+  }
+
+  private static class FormulaTestingAdapter extends BaseCalculator {
+
+    public FormulaTestingAdapter(DataStore ds) throws FileNotFoundException, ConfigurationFileLoadException {
+      super(ds);
+    }
+
+    @Override
+    protected String getConfigurationFile() {
+      return "FormulaMeasurementConf.json";
+    }
+  }
 }
@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.NumericColumn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-row measurement path with the column-wise functions.
+ *
+ * <p>Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.allenai.allenmli.orca.calculator.ColumnFunctionsBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnFunctionsBenchmark {
+  @Param({"1000", "20000"})
+  public int rows;
+
+  private Double[][] boxed;
+  private NumericColumn[] columns;
+  private MethodHandle length_handle;
+  private MethodHandle parametric_point_handle;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(28);
+    boxed = new Double[4][rows];
+    columns = new NumericColumn[4];
+    for (int c = 0; c < 4; c++) {
+      columns[c] = new NumericColumn(rows);
+      for (int i = 0; i < rows; i++) {
+        // Roughly one row in twenty is missing a value, as in a partially measured sheet.
+        boxed[c][i] = random.nextInt(20) == 0 ? null : random.nextDouble() * 4000;
+        columns[c].set(i, boxed[c][i]);
+      }
+    }
+    final FunctionRegistry registry = FunctionRegistry.forClass(MeasurementManager.class);
+    length_handle = registry.get("length");
+    parametric_point_handle = registry.get("parametric_point");
+  }
+
+  /** The path taken by <code>do_measurement</code>, one handle invocation per row. */
+  @Benchmark
+  public Object[] lengthPerRow() throws Throwable {
+    final Object[] result = new Object[rows];
+    for (int i = 0; i < rows; i++) {
+      result[i] =
+          length_handle.invokeWithArguments(boxed[0][i], boxed[1][i], boxed[2][i], boxed[3][i]);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public NumericColumn lengthColumn() {
+    return ColumnFunctions.length(columns[0], columns[1], columns[2], columns[3]);
+  }
+
+  @Benchmark
+  public Object[] parametricPointPerRow() throws Throwable {
+    final Object[] result = new Object[rows];
+    for (int i = 0; i < rows; i++) {
+      result[i] = parametric_point_handle.invokeWithArguments(boxed[0][i], boxed[1][i], 0.75);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public NumericColumn parametricPointColumn() {
+    return ColumnFunctions.parametric_point(
+        columns[0], columns[1], NumericColumn.constant(rows, 0.75));
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    final Options options =
+        new OptionsBuilder().include(ColumnFunctionsBenchmark.class.getSimpleName()).build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import junit.framework.TestCase;
+import org.allenai.allenmli.orca.data.NumericColumn;
+
+import java.util.Random;
+
+public class ColumnFunctionsTest extends TestCase {
+  private static final int ROWS = 500;
+  private final Random random = new Random(28);
+
+  /**
+   * Build a column of random values with roughly one row in ten missing.
+   *
+   * @return the column.
+   */
+  private NumericColumn random_column() {
+    final NumericColumn column = new NumericColumn(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      column.set(i, random.nextInt(10) == 0 ? null : random.nextDouble() * 1000 - 500);
+    }
+    return column;
+  }
+
+  public void test_length_matches_per_row() {
+    final NumericColumn xs = random_column();
+    final NumericColumn ys = random_column();
+    final NumericColumn xe = random_column();
+    final NumericColumn ye = random_column();
+    final NumericColumn result = ColumnFunctions.length(xs, ys, xe, ye);
+    for (int i = 0; i < ROWS; i++) {
+      TestCase.assertEquals(
+          BaseCalculator.length(xs.get(i), ys.get(i), xe.get(i), ye.get(i)), result.get(i));
+    }
+  }
+
+  public void test_ratio_matches_per_row() {
+    final NumericColumn antecedent = random_column();
+    final NumericColumn consequent = random_column();
+    consequent.set(0, 0.0);
+    final NumericColumn result = ColumnFunctions.ratio(antecedent, consequent);
+    for (int i = 0; i < ROWS; i++) {
+      TestCase.assertEquals(
+          BaseCalculator.ratio(antecedent.get(i), consequent.get(i)), result.get(i));
+    }
+  }
+
+  public void test_parametric_point_matches_per_row() {
+    final NumericColumn start = random_column();
+    final NumericColumn end = random_column();
+    final NumericColumn distance = NumericColumn.constant(ROWS, 0.75);
+    final NumericColumn result = ColumnFunctions.parametric_point(start, end, distance);
+    for (int i = 0; i < ROWS; i++) {
+      TestCase.assertEquals(
+          BaseCalculator.parametric_point(start.get(i), end.get(i), 0.75), result.get(i));
+    }
+  }
+
+  public void test_registry_column_functions() {
+    final FunctionRegistry registry = FunctionRegistry.forClass(MeasurementManager.class);
+    final NumericColumn source = random_column();
+    TestCase.assertSame(source, registry.getColumnFunction("copy").apply(source));
+    TestCase.assertNotNull(registry.getColumnFunction("length"));
+    TestCase.assertNull(registry.getColumnFunction("and"));
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.Point;
+import junit.framework.TestCase;
+
+public class EdgeSnapperTest extends TestCase {
+  private static final int WIDTH = 200;
+  private static final int HEIGHT = 150;
+
+  /** A bright square whose left and top edges lie between pixels 99/100 and 59/60. */
+  private static double square(int x, int y) {
+    return x >= 100 && y >= 60 ? 200 : 20;
+  }
+
+  public void test_snaps_to_edge() {
+    final EdgeSnapper snapper = new EdgeSnapper(EdgeSnapperTest::square, WIDTH, HEIGHT);
+    final Point snapped = snapper.snap(96.2, 100, 5);
+    TestCase.assertEquals(99.5, snapped.x, 1e-9);
+    TestCase.assertEquals(100, snapped.y, 1e-9);
+    final Point above = snapper.snap(130, 62.7, 5);
+    TestCase.assertEquals(130, above.x, 1e-9);
+    TestCase.assertEquals(59.5, above.y, 1e-9);
+  }
+
+  /** Points without an edge in reach, or outside the frame, stay put. */
+  public void test_no_edge() {
+    final EdgeSnapper snapper = new EdgeSnapper(EdgeSnapperTest::square, WIDTH, HEIGHT);
+    final Point flat = snapper.snap(30.4, 20.6, 5);
+    TestCase.assertEquals(30.4, flat.x);
+    TestCase.assertEquals(20.6, flat.y);
+    final Point outside = snapper.snap(-3, 20, 5);
+    TestCase.assertEquals(-3.0, outside.x);
+  }
+
+  /** Tiles computed separately agree with each other across their borders. */
+  public void test_tile_borders() {
+    final EdgeSnapper snapper = new EdgeSnapper((x, y) -> x * x + 3 * y, WIDTH, HEIGHT);
+    final int t = EdgeSnapper.TILE;
+    for (int y = 1; y < HEIGHT - 1; y += 7) {
+      for (int x = t - 2; x <= t + 1; x++) {
+        // Sobel weights sum to 4 and span two pixels.
+        final double gx = 4 * ((x + 1) * (x + 1) - (x - 1) * (x - 1));
+        final double gy = 4 * 6;
+        TestCase.assertEquals(Math.hypot(gx, gy), snapper.magnitude(x, y), 1e-3 * gx);
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import junit.framework.TestCase;
+import org.allenai.allenmli.orca.data.NumericColumn;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class FormulaTest extends TestCase {
+
+  public void test_precedence() {
+    TestCase.assertEquals(7., Formula.parse("1 + 2 * 3").evaluate(new double[0]));
+    TestCase.assertEquals(9., Formula.parse("(1 + 2) * 3").evaluate(new double[0]));
+    TestCase.assertEquals(-8., Formula.parse("-2 ^ 3").evaluate(new double[0]));
+    TestCase.assertEquals(2.5, Formula.parse("10 / 2 / 2").evaluate(new double[0]));
+    TestCase.assertEquals(
+        1.5e3, Formula.parse("max(abs(-1.5e3), sqrt(4))").evaluate(new double[0]));
+  }
+
+  public void test_variables() {
+    final Formula formula = Formula.parse("(GIRTH / LENGTH) * 100 + [REF BOTTOM] - GIRTH");
+    TestCase.assertEquals("[GIRTH, LENGTH, REF BOTTOM]", Arrays.toString(formula.variables()));
+    TestCase.assertEquals(26., formula.evaluate(50., 200., 51.));
+    TestCase.assertNull(formula.evaluate(50., null, 51.));
+  }
+
+  public void test_invalid_formulas() {
+    final String[] sources = {
+      "GIRTH +", "(GIRTH", "[GIRTH", "foo(GIRTH)", "min(1)", "2 $ 3",
+      "trapezoid(1, a)", "simpson(1, a, b)", "simpson(1, a, b, c, d)"
+    };
+    for (final String source : sources) {
+      try {
+        Formula.parse(source);
+        TestCase.fail(source);
+      } catch (IllegalArgumentException e) {
+        TestCase.assertTrue(e.getMessage().contains(source));
+      }
+    }
+  }
+
+  public void test_columns_match_rows() {
+    final Formula formula = Formula.parse("sqrt(a * a + b * b) / (c - 1)");
+    final Random random = new Random(29);
+    final int rows = 200;
+    final NumericColumn[] columns = new NumericColumn[3];
+    for (int c = 0; c < columns.length; c++) {
+      columns[c] = new NumericColumn(rows);
+      for (int i = 0; i < rows; i++) {
+        columns[c].set(i, random.nextInt(10) == 0 ? null : random.nextDouble() * 10);
+      }
+    }
+    final NumericColumn result = formula.evaluateColumns(columns);
+    for (int i = 0; i < rows; i++) {
+      TestCase.assertEquals(
+          formula.evaluate(columns[0].get(i), columns[1].get(i), columns[2].get(i)), result.get(i));
+    }
+  }
+
+  /** Both rules integrate x^2 over [0, 2]; Simpson's rule is exact for it. */
+  public void test_integration() {
+    final Formula trapezoid = Formula.parse("trapezoid(h, 0, a, b, c, [d])");
+    final Formula simpson = Formula.parse("simpson(h, 0, a, b, c, [d])");
+    TestCase.assertEquals("[h, a, b, c, d]", Arrays.toString(simpson.variables()));
+    TestCase.assertEquals(2.75, trapezoid.evaluate(0.5, 0.25, 1.0, 2.25, 4.0), 1e-12);
+    TestCase.assertEquals(8.0 / 3.0, simpson.evaluate(0.5, 0.25, 1.0, 2.25, 4.0), 1e-12);
+    TestCase.assertNull(simpson.evaluate(0.5, 0.25, null, 2.25, 4.0));
+
+    final NumericColumn[] columns = new NumericColumn[5];
+    final Random random = new Random(31);
+    final int rows = 100;
+    for (int c = 0; c < columns.length; c++) {
+      columns[c] = new NumericColumn(rows);
+      for (int i = 0; i < rows; i++) {
+        columns[c].set(i, random.nextInt(10) == 0 ? null : random.nextDouble() * 10);
+      }
+    }
+    final NumericColumn result = simpson.evaluateColumns(columns);
+    for (int i = 0; i < rows; i++) {
+      final Double expected =
+          simpson.evaluate(
+              columns[0].get(i),
+              columns[1].get(i),
+              columns[2].get(i),
+              columns[3].get(i),
+              columns[4].get(i));
+      if (null == expected) {
+        TestCase.assertNull(result.get(i));
+      } else {
+        TestCase.assertEquals(expected, result.get(i), 1e-9);
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class FrameQualityTest extends TestCase {
+  private static final int WIDTH = 1024;
+  private static final int HEIGHT = 768;
+
+  /**
+   * Render a dark elliptical animal on textured water.
+   *
+   * @param cx the x coordinate of the center of the animal.
+   * @param blur the width of the soft edge of the animal and of the water texture, in pixels.
+   * @param gain scales the intensities, values above 1 saturate the water.
+   */
+  private static double[] render(double cx, double blur, double gain) {
+    final double[] pixels = new double[WIDTH * HEIGHT];
+    final Random random = new Random(5);
+    final double[] texture = new double[WIDTH * HEIGHT];
+    for (int i = 0; i < texture.length; i++) {
+      texture[i] = random.nextGaussian();
+    }
+    final int radius = (int) Math.ceil(blur);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        // Box blur of the texture along x stands in for defocus.
+        double ripple = 0;
+        for (int k = -radius; k <= radius; k++) {
+          ripple += texture[y * WIDTH + Math.min(WIDTH - 1, Math.max(0, x + k))];
+        }
+        ripple /= 2 * radius + 1;
+        final double u = (x - cx) / 250;
+        final double v = (y - HEIGHT / 2.0) / 70;
+        final double d = (Math.sqrt(u * u + v * v) - 1) * 70;
+        final double body = 1 / (1 + Math.exp(d / blur));
+        final double value = gain * (150 + 4 * ripple - 110 * body);
+        pixels[y * WIDTH + x] = Math.min(255, Math.max(0, value));
+      }
+    }
+    return pixels;
+  }
+
+  private static FrameQuality score(double[] pixels) {
+    return FrameQuality.score((x, y) -> pixels[y * WIDTH + x], WIDTH, HEIGHT, 255);
+  }
+
+  public void test_sharp_frame_in_view() {
+    final FrameQuality sharp = score(render(WIDTH / 2.0, 1, 1));
+    TestCase.assertEquals(100, sharp.subject, 1e-9);
+    TestCase.assertTrue(sharp.exposure > 95);
+    TestCase.assertTrue(sharp.sharpness > 25);
+    TestCase.assertEquals(sharp.sharpness * sharp.exposure * sharp.subject / 1e4, sharp.quality);
+
+    final FrameQuality blurred = score(render(WIDTH / 2.0, 4, 1));
+    TestCase.assertTrue(blurred.sharpness < sharp.sharpness / 2);
+    TestCase.assertTrue(blurred.quality < sharp.quality);
+  }
+
+  public void test_subject_cut_off() {
+    final FrameQuality inside = score(render(WIDTH / 2.0, 1, 1));
+    final FrameQuality edge = score(render(60, 1, 1));
+    TestCase.assertTrue(edge.subject < 80);
+    TestCase.assertTrue(edge.quality < inside.quality);
+    final double[] empty = new double[WIDTH * HEIGHT];
+    java.util.Arrays.fill(empty, 120);
+    TestCase.assertEquals(0.0, score(empty).subject);
+  }
+
+  public void test_overexposed() {
+    final FrameQuality over = score(render(WIDTH / 2.0, 1, 1.8));
+    TestCase.assertTrue(over.exposure < 50);
+  }
+}
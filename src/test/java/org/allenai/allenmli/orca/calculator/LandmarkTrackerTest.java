@@ -0,0 +1,121 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.Point;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class LandmarkTrackerTest extends TestCase {
+  private static final int WIDTH = 400;
+  private static final int HEIGHT = 300;
+
+  /** A smooth, textured scene that can be sampled at any offset. */
+  private static double scene(double x, double y) {
+    return 100
+        + 40 * Math.sin(x / 7.0) * Math.cos(y / 11.0)
+        + 25 * Math.sin((x + 2 * y) / 5.0)
+        + 60 * Math.exp(-((x - 210) * (x - 210) + (y - 140) * (y - 140)) / 300.0);
+  }
+
+  public void test_fft_round_trip() {
+    final Fft fft = new Fft(16);
+    final Random random = new Random(3);
+    final double[] re = new double[16 * 16];
+    final double[] im = new double[16 * 16];
+    for (int i = 0; i < re.length; i++) {
+      re[i] = random.nextGaussian();
+    }
+    final double[] original = re.clone();
+    fft.transform2d(re, im, false);
+    // The zero frequency term is the sum of the input.
+    double sum = 0;
+    for (final double value : original) {
+      sum += value;
+    }
+    TestCase.assertEquals(sum, re[0], 1e-9);
+    fft.transform2d(re, im, true);
+    for (int i = 0; i < re.length; i++) {
+      TestCase.assertEquals(original[i], re[i], 1e-9);
+      TestCase.assertEquals(0, im[i], 1e-9);
+    }
+  }
+
+  /** A landmark is found in a shifted, brighter, lower contrast copy of the frame. */
+  public void test_tracks_shift() {
+    final LandmarkTracker tracker = new LandmarkTracker();
+    final Point landmark = new Point(205.3, 133.8);
+    final LandmarkTracker.Template template =
+        tracker.template((x, y) -> scene(x, y), WIDTH, HEIGHT, landmark);
+    TestCase.assertNotNull(template);
+    for (final double[] shift : new double[][] {{0, 0}, {9, -14}, {-23.5, 6.25}, {40, 31}}) {
+      final LandmarkTracker.Match match =
+          tracker.match(
+              template,
+              (x, y) -> 30 + 0.8 * scene(x - shift[0], y - shift[1]),
+              WIDTH,
+              HEIGHT);
+      TestCase.assertNotNull(match);
+      TestCase.assertTrue(match.score > 0.95);
+      TestCase.assertEquals(landmark.x + shift[0], match.location.x, 0.3);
+      TestCase.assertEquals(landmark.y + shift[1], match.location.y, 0.3);
+    }
+  }
+
+  /** A track follows a steady drift well beyond the reach of a single search window. */
+  public void test_track_follows_drift() {
+    final LandmarkTracker tracker = new LandmarkTracker();
+    final Point landmark = new Point(205.3, 133.8);
+    final LandmarkTracker.Template template =
+        tracker.template((x, y) -> scene(x, y), WIDTH, HEIGHT, landmark);
+    TestCase.assertNotNull(template);
+    final LandmarkTracker.Track track = tracker.track(template);
+    final int frames = 15;
+    for (int i = 1; i <= frames; i++) {
+      final double dx = 6.0 * i;
+      final double dy = 3.0 * i;
+      final LandmarkTracker.Match match =
+          track.next((x, y) -> scene(x - dx, y - dy), WIDTH, HEIGHT);
+      TestCase.assertNotNull(match);
+      TestCase.assertEquals(landmark.x + dx, match.location.x, 0.3);
+      TestCase.assertEquals(landmark.y + dy, match.location.y, 0.3);
+    }
+    TestCase.assertTrue(6.0 * frames > tracker.reach());
+    // Searching the last frame around the source location can't find it.
+    final LandmarkTracker.Match direct =
+        tracker.match(
+            template, (x, y) -> scene(x - 6.0 * frames, y - 3.0 * frames), WIDTH, HEIGHT);
+    TestCase.assertTrue(
+        null == direct || Math.abs(direct.location.x - (landmark.x + 6.0 * frames)) > 1);
+  }
+
+  /** Unrelated frames and flat or clipped templates don't produce matches. */
+  public void test_rejects() {
+    final LandmarkTracker tracker = new LandmarkTracker();
+    TestCase.assertNull(tracker.template((x, y) -> 50, WIDTH, HEIGHT, new Point(100, 100)));
+    TestCase.assertNull(tracker.template((x, y) -> scene(x, y), WIDTH, HEIGHT, new Point(3, 100)));
+    final LandmarkTracker.Template template =
+        tracker.template((x, y) -> scene(x, y), WIDTH, HEIGHT, new Point(200, 150));
+    final Random random = new Random(11);
+    final double[] noise = new double[WIDTH * HEIGHT];
+    for (int i = 0; i < noise.length; i++) {
+      noise[i] = random.nextGaussian();
+    }
+    TestCase.assertNull(tracker.match(template, (x, y) -> noise[y * WIDTH + x], WIDTH, HEIGHT));
+  }
+}
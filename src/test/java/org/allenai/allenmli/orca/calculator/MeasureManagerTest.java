@@ -27,6 +27,8 @@ import junit.framework.TestCase;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 @SuppressWarnings("UnusedAssignment")
 public class MeasureManagerTest extends TestCase {
@@ -97,6 +99,150 @@ public class MeasureManagerTest extends TestCase {
     TestCase.assertNull(ds.get_value("foo","SNDF"));
   }
 
-}
+  /** Loading a file recomputes the derived measurements of every row column-wise. */
+  public void test_bulk_update_on_load() throws Exception {
+    final int nRows = 50;
+    for (int i = 0; i < nRows; i++) {
+      ds.set_point("img" + i, "SN", new Point(i, 0));
+      ds.set_point("img" + i, "DF", new Point(0, i % 7 == 0 ? 0 : 2 * i));
+    }
+    ds.insert_value("img1", "DF_y", null);
+    final File saved = File.createTempFile("bulk", ".csv");
+    saved.deleteOnExit();
+    ds.save_as_csv(saved);
 
+    final DataStore loaded = DataStore.createDataStore();
+    new MeasurementManager(loaded);
+    loaded.loadData(saved);
+    TestCase.assertFalse(loaded.dirty());
+    for (int i = 0; i < nRows; i++) {
+      final Point sn = loaded.get_point("img" + i, "SN");
+      final Point df = loaded.get_point("img" + i, "DF");
+      final Object expected =
+          null == df ? null : BaseCalculator.length(sn.getX(), sn.getY(), df.getX(), df.getY());
+      TestCase.assertEquals(expected, loaded.get_value("img" + i, "SNDF"));
+    }
+    TestCase.assertNull(loaded.get_value("img1", "SNDF"));
+  }
 
+  /** Appending a batch of rows measures only those rows and leaves the sheet dirty. */
+  public void test_append_rows_keeps_sheet_dirty() throws Exception {
+    new MeasurementManager(ds);
+    ds.set_point("existing", "SN", new Point(0, 3));
+    ds.set_point("existing", "DF", new Point(4, 0));
+    ds.setDirty(false);
+
+    final ArrayList<HashMap<String, Object>> rows = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      final HashMap<String, Object> row = new HashMap<>();
+      row.put("Filename", "imported" + i);
+      row.put("SN_x", 0.);
+      row.put("SN_y", 0.);
+      row.put("DF_x", 6. * i);
+      row.put("DF_y", 8. * i);
+      rows.add(row);
+    }
+    TestCase.assertEquals(3, ds.append_rows(rows));
+    TestCase.assertTrue(ds.dirty());
+    for (int i = 0; i < 3; i++) {
+      TestCase.assertEquals(10. * i, ds.get_value("imported" + i, "SNDF"));
+    }
+    TestCase.assertEquals(5., ds.get_value("existing", "SNDF"));
+  }
+
+  /** Undistorting inverts the Brown-Conrady model across the frame. */
+  public void test_lens_round_trip() throws Exception {
+    final LensCorrection.Calibration camera = LensCorrection.load().get("DJI", "FC6310");
+    TestCase.assertNotNull(camera);
+    TestCase.assertNull(LensCorrection.load().get("DJI", "Unknown"));
+    final double[] x = {0, 500, 1000, 250, 930};
+    final double[] y = {0, 400, 800, 700, 20};
+    final double[] x_distorted = x.clone();
+    final double[] y_distorted = y.clone();
+    for (int i = 0; i < x.length; i++) {
+      camera.distort(x_distorted, y_distorted, i);
+      camera.undistort(x_distorted, y_distorted, i);
+      TestCase.assertEquals(x[i], x_distorted[i], 1e-6);
+      TestCase.assertEquals(y[i], y_distorted[i], 1e-6);
+    }
+    // The principal point doesn't move.
+    TestCase.assertEquals(500.0, x_distorted[1], 1e-12);
+  }
+
+  /** Lengths of rows taken with a calibrated camera are measured between corrected endpoints. */
+  public void test_lens_corrected_lengths() throws Exception {
+    final MeasurementManager manager = new MeasurementManager(ds);
+    final LensCorrection.Calibration camera = manager.getLensCorrection().get("DJI", "FC6310");
+    for (int i = 0; i < 20; i++) {
+      if (i % 2 == 0) {
+        ds.insert_value("img" + i, "CameraMake", "DJI");
+        ds.insert_value("img" + i, "CameraModel", "FC6310");
+      }
+      ds.set_point("img" + i, "SN", new Point(20 * i, 30));
+      ds.set_point("img" + i, "DF", new Point(900, 40 * i));
+    }
+    for (int i = 0; i < 20; i++) {
+      TestCase.assertEquals(
+          expected_length(i % 2 == 0 ? camera : null, 20 * i, 30, 900, 40 * i),
+          (Double) ds.get_value("img" + i, "SNDF"),
+          1e-9);
+    }
+    final double corrected = expected_length(camera, 360, 30, 900, 720);
+    TestCase.assertTrue(Math.abs(corrected - expected_length(null, 360, 30, 900, 720)) > 1.0);
+
+    // The bulk path agrees with the row by row path.
+    final File saved = File.createTempFile("lens", ".csv");
+    saved.deleteOnExit();
+    ds.save_as_csv(saved);
+    final DataStore loaded = DataStore.createDataStore();
+    new MeasurementManager(loaded);
+    loaded.loadData(saved);
+    for (int i = 0; i < 20; i++) {
+      TestCase.assertEquals(
+          (Double) ds.get_value("img" + i, "SNDF"),
+          (Double) loaded.get_value("img" + i, "SNDF"),
+          1e-9);
+    }
+
+    // Changing the camera recomputes the lengths.
+    ds.insert_value("img1", "CameraMake", "DJI");
+    ds.insert_value("img1", "CameraModel", "FC6310");
+    TestCase.assertEquals(
+        expected_length(camera, 20, 30, 900, 40), (Double) ds.get_value("img1", "SNDF"), 1e-9);
+  }
+
+  /** Lengths saved from the image are corrected the same way as when the sheet is reloaded. */
+  public void test_lens_corrected_interactive_length() throws Exception {
+    final MeasurementManager manager = new MeasurementManager(ds);
+    final LensCorrection.Calibration camera = manager.getLensCorrection().get("DJI", "FC6310");
+    // Padded values as written by some cameras still find the calibration.
+    TestCase.assertSame(camera, manager.getLensCorrection().get(" DJI ", "FC6310\t"));
+    ds.insert_value("img", "CameraMake", "DJI ");
+    ds.insert_value("img", "CameraModel", " FC6310");
+    ds.set_endpoints("img", "GIRTH", new Point(100, 80), new Point(900, 700));
+    final Double saved = manager.endpointLength("img", "GIRTH");
+    TestCase.assertEquals(expected_length(camera, 100, 80, 900, 700), saved, 1e-9);
+    TestCase.assertNull(manager.endpointLength("img", "SNDF"));
+    TestCase.assertNull(manager.endpointLength("other", "GIRTH"));
+    ds.insert_value("img", "GIRTH", saved);
+
+    final File file = File.createTempFile("lens", ".csv");
+    file.deleteOnExit();
+    ds.save_as_csv(file);
+    final DataStore loaded = DataStore.createDataStore();
+    new MeasurementManager(loaded);
+    loaded.loadData(file);
+    TestCase.assertEquals(saved, (Double) loaded.get_value("img", "GIRTH"), 1e-9);
+  }
+
+  private static double expected_length(
+      LensCorrection.Calibration camera, double xs, double ys, double xe, double ye) {
+    final double[] x = {xs, xe};
+    final double[] y = {ys, ye};
+    if (null != camera) {
+      camera.undistort(x, y, 0);
+      camera.undistort(x, y, 1);
+    }
+    return BaseCalculator.length(x[0], y[0], x[1], y[1]);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import junit.framework.TestCase;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PerceptualHashTest extends TestCase {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  /**
+   * Render a dark elliptical animal on brighter water.
+   *
+   * @param cx the x coordinate of the center of the animal.
+   * @param angle the heading of the animal in radians.
+   * @param brightness added to every pixel.
+   */
+  private static long hash(double cx, double angle, double brightness) {
+    final double cos = Math.cos(angle);
+    final double sin = Math.sin(angle);
+    return PerceptualHash.hash(
+        (x, y) -> {
+          final double dx = x - cx;
+          final double dy = y - HEIGHT / 2.0;
+          final double u = (dx * cos + dy * sin) / 200;
+          final double v = (dy * cos - dx * sin) / 50;
+          final double water = 120 + 30.0 * y / HEIGHT;
+          return brightness + (u * u + v * v < 1 ? 40 : water);
+        },
+        WIDTH,
+        HEIGHT);
+  }
+
+  public void test_near_duplicates_are_close() {
+    final long frame = hash(320, 0.3, 0);
+    final long burst = hash(322, 0.31, 10);
+    TestCase.assertTrue(PerceptualHash.distance(frame, burst) <= DuplicateGroups.DEFAULT_DISTANCE);
+  }
+
+  public void test_different_frames_are_far() {
+    final long frame = hash(320, 0.3, 0);
+    final long other = hash(200, 1.6, 0);
+    TestCase.assertTrue(
+        PerceptualHash.distance(frame, other) > 2 * DuplicateGroups.DEFAULT_DISTANCE);
+  }
+
+  public void test_groups_keep_preferred_frame() {
+    final Map<String, Long> hashes = new HashMap<>();
+    hashes.put("a.jpg", 0b0000L);
+    hashes.put("b.jpg", 0b0011L);
+    hashes.put("c.jpg", 0b0111L);
+    hashes.put("d.jpg", 0xFFFF0000L);
+    final Map<String, String> kept =
+        DuplicateGroups.group(hashes, 3, Comparator.<String>reverseOrder());
+    TestCase.assertEquals(2, kept.size());
+    TestCase.assertEquals("c.jpg", kept.get("a.jpg"));
+    TestCase.assertEquals("c.jpg", kept.get("b.jpg"));
+    TestCase.assertNull(kept.get("c.jpg"));
+    TestCase.assertNull(kept.get("d.jpg"));
+  }
+
+  /** A slow pass where each frame is near the next isn't merged into one group. */
+  public void test_chains_are_not_merged() {
+    final Map<String, Long> hashes = new HashMap<>();
+    hashes.put("a.jpg", 0b000000L);
+    hashes.put("b.jpg", 0b000111L);
+    hashes.put("c.jpg", 0b111111L); // Near b.jpg, far from a.jpg.
+    final Map<String, String> kept =
+        DuplicateGroups.group(hashes, 3, Comparator.<String>naturalOrder());
+    TestCase.assertEquals(1, kept.size());
+    TestCase.assertEquals("a.jpg", kept.get("b.jpg"));
+    TestCase.assertNull(kept.get("c.jpg"));
+
+    // Longer chains are cut into groups around the preferred frames.
+    for (int i = 0; i < 20; i++) {
+      hashes.put(String.format("f%02d.jpg", i), (1L << i) - 1);
+    }
+    hashes.remove("a.jpg");
+    hashes.remove("b.jpg");
+    hashes.remove("c.jpg");
+    final Map<String, String> chain =
+        DuplicateGroups.group(hashes, 2, Comparator.<String>naturalOrder());
+    for (final Map.Entry<String, String> duplicate : chain.entrySet()) {
+      TestCase.assertTrue(
+          PerceptualHash.distance(hashes.get(duplicate.getKey()), hashes.get(duplicate.getValue()))
+              <= 2);
+    }
+    TestCase.assertEquals("f00.jpg", chain.get("f02.jpg"));
+    TestCase.assertEquals("f03.jpg", chain.get("f05.jpg"));
+    TestCase.assertNull(chain.get("f03.jpg"));
+  }
+}
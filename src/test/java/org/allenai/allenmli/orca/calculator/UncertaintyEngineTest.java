@@ -0,0 +1,132 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.DataStore;
+import org.allenai.allenmli.orca.data.DataStoreTest;
+import org.allenai.allenmli.orca.data.NumericColumn;
+import org.allenai.allenmli.orca.data.Point;
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+import junit.framework.TestCase;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class UncertaintyEngineTest extends TestCase {
+  private static final int N_ROWS = 40;
+
+  DataStore ds = null;
+  MeasurementManager manager = null;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    String testingConfigPath =
+        Paths.get(DataStoreTest.class.getResource("/measurement-tool-config/").toURI()).toString();
+    ConfigurationLoader.setConfigDirectory(testingConfigPath);
+    this.ds = DataStore.createDataStore();
+    this.manager = new MeasurementManager(ds);
+    for (int i = 0; i < N_ROWS; i++) {
+      ds.set_point("img" + i, "SN", new Point(10 * i, 5));
+      if (i % 10 != 3) {
+        ds.set_point("img" + i, "DF", new Point(10 * i + 100 + i, 5));
+      }
+    }
+  }
+
+  public void test_error_model_patterns() {
+    final ErrorModel points = new ErrorModel("*_x", ErrorModel.Kind.NORMAL, 1.0);
+    TestCase.assertTrue(points.matches("SN_x"));
+    TestCase.assertTrue(points.matches("REFLINE TOP_x"));
+    TestCase.assertFalse(points.matches("SNDF_x_start"));
+    TestCase.assertFalse(points.matches("SN_y"));
+    final ErrorModel exact = new ErrorModel("Alt", ErrorModel.Kind.RELATIVE, 0.1);
+    TestCase.assertTrue(exact.matches("Alt"));
+    TestCase.assertFalse(exact.matches("Altitude"));
+    TestCase.assertEquals(ErrorModel.Kind.UNIFORM, ErrorModel.kindOf("uniform"));
+    try {
+      new ErrorModel("*", ErrorModel.Kind.NORMAL, -1.0);
+      TestCase.fail("Accepted a negative error");
+    } catch (final IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  /** The interval brackets the measured value and its width follows from the error models. */
+  public void test_interval_brackets_measurement() throws Exception {
+    final UncertaintyConfig config = UncertaintyConfig.load();
+    TestCase.assertEquals(2000, config.samples);
+    final UncertaintyEngine engine = new UncertaintyEngine(manager.getPlan(), config);
+    TestCase.assertTrue(engine.targets().contains("SNDF"));
+    TestCase.assertTrue(engine.inputs().containsAll(Arrays.asList("SN_x", "DF_y")));
+    TestCase.assertFalse(engine.inputs().contains("SNDF_x_start"));
+
+    final UncertaintyEngine.Result result = estimate(engine);
+    final NumericColumn measured = ds.get_numeric_column("SNDF");
+    final NumericColumn lower = result.lower("SNDF");
+    final NumericColumn upper = result.upper("SNDF");
+    final NumericColumn deviation = result.standard_deviation("SNDF");
+    for (int row = 0; row < N_ROWS; row++) {
+      TestCase.assertEquals(measured.present[row], lower.present[row]);
+      if (!measured.present[row]) {
+        continue;
+      }
+      TestCase.assertTrue(lower.values[row] < measured.values[row]);
+      TestCase.assertTrue(upper.values[row] > measured.values[row]);
+      // A horizontal length only sees the x errors of its two ends, sd 1 px each.
+      TestCase.assertEquals(Math.sqrt(2), deviation.values[row], 0.15);
+      // 90% normal interval: +/- 1.645 sd.
+      TestCase.assertEquals(
+          2 * 1.645 * Math.sqrt(2), upper.values[row] - lower.values[row], 0.5);
+    }
+  }
+
+  /** A fixed seed gives the same intervals however the blocks are scheduled. */
+  public void test_repeatable() throws Exception {
+    final UncertaintyEngine engine =
+        new UncertaintyEngine(manager.getPlan(), UncertaintyConfig.load());
+    final UncertaintyEngine.Result first = estimate(engine);
+    final UncertaintyEngine.Result second = estimate(engine);
+    for (final String target : first.targets()) {
+      TestCase.assertTrue(Arrays.equals(first.lower(target).values, second.lower(target).values));
+      TestCase.assertTrue(Arrays.equals(first.upper(target).values, second.upper(target).values));
+    }
+    final UncertaintyConfig reseeded =
+        new UncertaintyConfig(2000, 0.9, 7, UncertaintyConfig.load().errors());
+    final UncertaintyEngine.Result third =
+        estimate(new UncertaintyEngine(manager.getPlan(), reseeded));
+    TestCase.assertFalse(Arrays.equals(first.lower("SNDF").values, third.lower("SNDF").values));
+  }
+
+  public void test_store() throws Exception {
+    final UncertaintyEngine engine =
+        new UncertaintyEngine(
+            manager.getPlan(), new UncertaintyConfig(100, 0.95, 1, Collections.emptyList()));
+    final List<String> stored = estimate(engine).store(ds);
+    TestCase.assertEquals(Arrays.asList("SNDF_ci_low", "SNDF_ci_high"), stored);
+    // Without any error the interval collapses onto the measurement.
+    TestCase.assertEquals(ds.get_value("img0", "SNDF"), ds.get_value("img0", "SNDF_ci_low"));
+    TestCase.assertEquals(ds.get_value("img0", "SNDF"), ds.get_value("img0", "SNDF_ci_high"));
+    TestCase.assertNull(ds.get_value("img3", "SNDF_ci_low"));
+  }
+
+  private UncertaintyEngine.Result estimate(UncertaintyEngine engine) {
+    return engine.run(engine.snapshot(ds), ds.getRowCount(), null);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.calculator;
+
+import org.allenai.allenmli.orca.data.Point;
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Random;
+
+public class WidthExtractorTest extends TestCase {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final double CX = 320;
+  private static final double CY = 240;
+  private static final double SEMI_MAJOR = 250;
+  private static final double SEMI_MINOR = 60;
+  /** Rotation of the synthetic body, so sampling isn't aligned with the pixel grid. */
+  private static final double ANGLE = Math.toRadians(20);
+
+  /**
+   * Render an elliptical body with a soft edge and some noise.
+   *
+   * @param body the intensity of the body.
+   * @param water the intensity of the background.
+   */
+  private static float[] render(double body, double water) {
+    final float[] pixels = new float[WIDTH * HEIGHT];
+    final Random random = new Random(7);
+    final double cos = Math.cos(ANGLE);
+    final double sin = Math.sin(ANGLE);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        final double u = ((x - CX) * cos + (y - CY) * sin) / SEMI_MAJOR;
+        final double v = (-(x - CX) * sin + (y - CY) * cos) / SEMI_MINOR;
+        // Signed distance to the edge in pixels, approximately.
+        final double d = (Math.sqrt(u * u + v * v) - 1) * SEMI_MINOR;
+        final double weight = 1 / (1 + Math.exp(d / 1.5));
+        pixels[y * WIDTH + x] =
+            (float) (water + (body - water) * weight + 4 * random.nextGaussian());
+      }
+    }
+    return pixels;
+  }
+
+  /** Markers along the major axis of the synthetic body. */
+  private static HashMap<String, Point[]> markers() {
+    final double dx = SEMI_MAJOR * Math.cos(ANGLE);
+    final double dy = SEMI_MAJOR * Math.sin(ANGLE);
+    return ReferenceCalculator.interval_reference_markers(
+        CX - dx, CY - dy, CX + dx, CY + dy, 10L, 190L, 20L);
+  }
+
+  /** Width of the ellipse at a fraction of its major axis measured from one end. */
+  private static double expected(double fraction) {
+    final double u = 2 * fraction - 1;
+    return 2 * SEMI_MINOR * Math.sqrt(1 - u * u);
+  }
+
+  private static void check(float[] pixels) {
+    final HashMap<String, Point[]> markers = markers();
+    final HashMap<String, Point[]> widths =
+        new WidthExtractor()
+            .extract(
+                (x, y) -> pixels[y * WIDTH + x], WIDTH, HEIGHT, markers, label -> true);
+    TestCase.assertFalse(widths.containsKey("axis"));
+    for (int percentage = 10; percentage <= 190; percentage += 20) {
+      final String label = String.format("%d%%", percentage);
+      // Markers are only placed along the length of the axis.
+      if (percentage > 100) {
+        TestCase.assertFalse(widths.containsKey(label));
+        continue;
+      }
+      final Point[] found = widths.get(label);
+      TestCase.assertNotNull(label, found);
+      final double length = Math.hypot(found[1].x - found[0].x, found[1].y - found[0].y);
+      TestCase.assertEquals(label, expected(percentage / 100.0), length, 1.5);
+      // The first endpoint lies on the side of the first point of the marker.
+      final Point[] marker = markers.get(label);
+      final double side =
+          (found[0].x - found[1].x) * (marker[0].x - marker[1].x)
+              + (found[0].y - found[1].y) * (marker[0].y - marker[1].y);
+      TestCase.assertTrue(label, side > 0);
+    }
+  }
+
+  public void test_bright_body() {
+    check(render(200, 40));
+  }
+
+  public void test_dark_body() {
+    check(render(30, 180));
+  }
+
+  /** A featureless frame yields no proposals, and unwanted markers are skipped. */
+  public void test_no_edges() {
+    final HashMap<String, Point[]> widths =
+        new WidthExtractor().extract((x, y) -> 100, WIDTH, HEIGHT, markers(), label -> true);
+    TestCase.assertTrue(widths.isEmpty());
+    final float[] pixels = render(200, 40);
+    final HashMap<String, Point[]> some =
+        new WidthExtractor()
+            .extract(
+                (x, y) -> pixels[y * WIDTH + x],
+                WIDTH,
+                HEIGHT,
+                markers(),
+                "50%"::equals);
+    TestCase.assertEquals(1, some.size());
+    TestCase.assertTrue(some.containsKey("50%"));
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the previous conversion of numeric cells, trimming and boxing through <code>new Double
+ * </code> and <code>Double.toString</code>, with {@link CellCodec}.
+ *
+ * <p>Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.allenai.allenmli.orca.data.CellCodecBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellCodecBenchmark {
+  @Param({"20000"})
+  public int cells;
+
+  private String[] text;
+  private double[] values;
+  private final StringBuilder buffer = new StringBuilder(32);
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(49);
+    text = new String[cells];
+    values = new double[cells];
+    for (int i = 0; i < cells; i++) {
+      // A mix like the columns of a sheet: missing values, pixels, meters and coordinates.
+      switch (random.nextInt(4)) {
+        case 0:
+          text[i] = "NA";
+          break;
+        case 1:
+          text[i] = String.format(Locale.ROOT, "%.2f", random.nextDouble() * 4000);
+          break;
+        case 2:
+          text[i] = Double.toString(random.nextDouble() * 20);
+          break;
+        default:
+          text[i] = String.format(Locale.ROOT, "%.7f", 48 + random.nextDouble());
+      }
+      values[i] = "NA".equals(text[i]) ? random.nextDouble() * 4000 : Double.parseDouble(text[i]);
+    }
+  }
+
+  /** The path taken by <code>loadingMapper</code> before {@link CellCodec}. */
+  @Benchmark
+  @SuppressWarnings("deprecation")
+  public double parseBoxed() {
+    double sum = 0;
+    for (final String cell : text) {
+      final String val = cell.trim();
+      if ("NA".equals(val) || "".equals(val)) {
+        continue;
+      }
+      sum += new Double(val);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double parseCodec() {
+    double sum = 0;
+    for (final String cell : text) {
+      if (!CellCodec.is_missing(cell, 0, cell.length())) {
+        sum += CellCodec.parse_double(cell, 0, cell.length());
+      }
+    }
+    return sum;
+  }
+
+  /** The path taken by <code>savingMapper</code> before {@link CellCodec}. */
+  @Benchmark
+  public int formatToString() {
+    int length = 0;
+    for (final double value : values) {
+      length += Double.toString(value).length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  public int formatCodec() {
+    int length = 0;
+    for (final double value : values) {
+      buffer.setLength(0);
+      CellCodec.format_double(value, buffer);
+      length += buffer.length();
+    }
+    return length;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    final Options options =
+        new OptionsBuilder().include(CellCodecBenchmark.class.getSimpleName()).build();
+    new Runner(options).run();
+  }
+}
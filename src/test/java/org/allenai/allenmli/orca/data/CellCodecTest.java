@@ -0,0 +1,196 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+public class CellCodecTest extends TestCase {
+  private static double parse(String text) {
+    return CellCodec.parse_double(text, 0, text.length());
+  }
+
+  /** Compares bits, so -0.0 differs from 0.0 and every NaN is the same. */
+  private static void assertSameDouble(String text, double expected, double actual) {
+    TestCase.assertEquals(text, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+  }
+
+  public void testParseMatchesParseDouble() {
+    final String[] cells = {
+      "0", "-0.0", "+1", "34.1", " 0.025 ", "48.6192868", "-123.2230967", ".5", "5.", "1e5",
+      "1.5E-3", "2.5e+10", "0.000000000000000000000000123", "123456789012345", "1234567890123456",
+      "9007199254740993", "1.7976931348623157E308", "4.9E-324", "1e-400", "1e400", "NaN",
+      "-Infinity", "0x1p3", "1.0d", "00012.50", "3.14159265358979323846", "1e22", "1e23"
+    };
+    for (final String cell : cells) {
+      assertSameDouble(cell, Double.parseDouble(cell), parse(cell));
+    }
+    final Random random = new Random(49);
+    for (int i = 0; i < 100000; i++) {
+      final String cell;
+      switch (i % 4) {
+        case 0:
+          cell = Double.toString(Double.longBitsToDouble(random.nextLong()));
+          break;
+        case 1:
+          cell = String.format("%.7f", (random.nextDouble() - 0.5) * 400);
+          break;
+        case 2:
+          // Up to 19 digits with any exponent, beyond the powers of ten that are exact.
+          cell = (1 + (random.nextLong() >>> 2)) + "e" + (random.nextInt(700) - 360);
+          break;
+        default:
+          cell = random.nextInt(100000) + "." + random.nextInt(1000) + "e-" + (i % 30);
+      }
+      assertSameDouble(cell, Double.parseDouble(cell), parse(cell));
+    }
+  }
+
+  public void testParseRange() {
+    final String row = "a,12.75,NA, ,true";
+    TestCase.assertEquals(12.75, CellCodec.parse_double(row, 2, 7));
+    TestCase.assertTrue(CellCodec.is_missing(row, 8, 10));
+    TestCase.assertTrue(CellCodec.is_missing(row, 11, 12));
+    TestCase.assertFalse(CellCodec.is_missing(row, 2, 7));
+    TestCase.assertTrue(CellCodec.parse_boolean(row, 13, 17));
+    TestCase.assertFalse(CellCodec.parse_boolean(row, 0, 1));
+  }
+
+  public void testParseRejects() {
+    for (final String cell : new String[] {"", "-", ".", "1e", "1.2.3", "12a", "N A", "--1"}) {
+      try {
+        parse(cell);
+        fail("Expected a NumberFormatException for '" + cell + "'");
+      } catch (final NumberFormatException e) {
+        // Expected.
+      }
+    }
+  }
+
+  public void testParseInt() {
+    TestCase.assertEquals(42, CellCodec.parse_int(" 42 ", 0, 4));
+    TestCase.assertEquals(-7, CellCodec.parse_int("-7.9", 0, 4));
+    TestCase.assertEquals(Integer.MIN_VALUE, CellCodec.parse_int("-2147483648", 0, 11));
+    for (final String cell : new String[] {"2147483648", "", "1a", ".5"}) {
+      try {
+        CellCodec.parse_int(cell, 0, cell.length());
+        fail("Expected a NumberFormatException for '" + cell + "'");
+      } catch (final NumberFormatException e) {
+        // Expected.
+      }
+    }
+  }
+
+  public void testFormatRoundTrips() {
+    final Random random = new Random(50);
+    final StringBuilder buffer = new StringBuilder();
+    for (int i = 0; i < 200000; i++) {
+      final double value;
+      switch (i % 3) {
+        case 0:
+          value = Double.longBitsToDouble(random.nextLong());
+          break;
+        case 1:
+          value = (random.nextDouble() - 0.5) * 8000;
+          break;
+        default:
+          value = Math.round(random.nextDouble() * 1e7) / 1e4;
+      }
+      buffer.setLength(0);
+      CellCodec.format_double(value, buffer);
+      final String text = buffer.toString();
+      assertSameDouble(text, value, Double.parseDouble(text));
+      assertSameDouble(text, value, parse(text));
+      TestCase.assertTrue(text, text.length() <= Double.toString(value).length());
+    }
+  }
+
+  public void testFormatIsShortest() {
+    final String[] cells = {
+      "34.1", "0.025", "48.6192868", "-123.2230967", "1.0", "-2.5", "0.001", "9999999.999",
+      "0.1", "0.30000000000000004", "1234.5678"
+    };
+    for (final String cell : cells) {
+      TestCase.assertEquals(cell, CellCodec.format_double(Double.parseDouble(cell)));
+    }
+    TestCase.assertEquals(Double.toString(1e-4), CellCodec.format_double(1e-4));
+    TestCase.assertEquals(Double.toString(1.5e7), CellCodec.format_double(1.5e7));
+    TestCase.assertEquals("-0.0", CellCodec.format_double(-0.0));
+    TestCase.assertEquals("NaN", CellCodec.format_double(Double.NaN));
+    // Double.toString writes 5.6843418860808015E-14 before Java 19.
+    TestCase.assertEquals("5.684341886080802E-14", CellCodec.format_double(Math.pow(2, -44)));
+    TestCase.assertEquals("4.9E-324", CellCodec.format_double(Double.MIN_VALUE));
+    TestCase.assertEquals("1.7976931348623157E308", CellCodec.format_double(Double.MAX_VALUE));
+    TestCase.assertEquals("1.0E7", CellCodec.format_double(1e7));
+    TestCase.assertEquals("9999999.0", CellCodec.format_double(9999999));
+  }
+
+  /**
+   * @return the shortest decimal that reads back as the magnitude of <code>value</code>, the
+   *     nearest one when there are several, found by rounding the exact value. As at least two
+   *     digits are written, a nearer two digit decimal is preferred to a one digit one.
+   */
+  private static BigDecimal shortest(double value) {
+    final BigDecimal exact = new BigDecimal(Math.abs(value));
+    final BigDecimal two = exact.round(new MathContext(2, RoundingMode.HALF_EVEN));
+    for (int digits = 1; digits <= 17; digits++) {
+      BigDecimal found = null;
+      for (final RoundingMode mode :
+          new RoundingMode[] {RoundingMode.HALF_EVEN, RoundingMode.FLOOR, RoundingMode.CEILING}) {
+        final BigDecimal candidate = exact.round(new MathContext(digits, mode));
+        if (null == found && candidate.doubleValue() == Math.abs(value)) {
+          found = candidate;
+        }
+      }
+      if (null != found) {
+        return 1 == digits && two.doubleValue() == Math.abs(value) ? two : found;
+      }
+    }
+    throw new AssertionError(value);
+  }
+
+  public void testFormatMatchesExactShortest() {
+    final Random random = new Random(49);
+    for (int i = 0; i < 100000; i++) {
+      final double value;
+      switch (i % 4) {
+        case 0:
+          value = Double.longBitsToDouble(random.nextLong());
+          break;
+        case 1:
+          value = Double.longBitsToDouble(random.nextLong() >>> 12); // Subnormal.
+          break;
+        case 2:
+          value = Math.scalb(1.0, random.nextInt(2098) - 1074); // Power of two.
+          break;
+        default:
+          value = random.nextDouble() * 1000 * Math.sqrt(2);
+      }
+      if (Double.isNaN(value) || Double.isInfinite(value) || 0 == value) {
+        continue;
+      }
+      final String text = CellCodec.format_double(value);
+      final BigDecimal written = new BigDecimal(text);
+      TestCase.assertEquals(text, value, written.doubleValue());
+      TestCase.assertEquals(text, 0, shortest(value).compareTo(written.abs()));
+    }
+  }
+}
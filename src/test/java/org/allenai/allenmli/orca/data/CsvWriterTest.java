@@ -0,0 +1,111 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import junit.framework.TestCase;
+import org.allenai.allenmli.orca.helpers.Utilities;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class CsvWriterTest extends TestCase {
+  private Path scratch_file;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    scratch_file = Files.createTempFile("test_writer", ".csv");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Files.deleteIfExists(scratch_file);
+    super.tearDown();
+  }
+
+  private String write(String[]... rows) throws IOException {
+    try (CsvWriter writer = new CsvWriter(scratch_file)) {
+      for (final String[] row : rows) {
+        writer.write_row(row);
+      }
+    }
+    return new String(Files.readAllBytes(scratch_file), StandardCharsets.UTF_8);
+  }
+
+  public void testQuotesOnlyWhenNeeded() throws IOException {
+    assertEquals(
+        "a,12.5,NA,,\"b,c\",\"say \"\"hi\"\"\",\"two\nlines\",\" padded \"\n",
+        write(
+            new String[] {
+              "a", "12.5", "NA", null, "b,c", "say \"hi\"", "two\nlines", " padded "
+            }));
+    assertFalse(CsvWriter.needs_quotes("IMG_0001.JPG"));
+    assertTrue(CsvWriter.needs_quotes("\tx"));
+    assertTrue(CsvWriter.needs_quotes("x\r"));
+  }
+
+  public void testColumnSubset() throws IOException {
+    try (CsvWriter writer = new CsvWriter(scratch_file)) {
+      writer.write_row(new String[] {"a", "b", "c"}, new int[] {2, 0});
+    }
+    assertEquals("c,a\n", new String(Files.readAllBytes(scratch_file), StandardCharsets.UTF_8));
+  }
+
+  public void testWritesUtf8() throws IOException {
+    write(new String[] {"Ålesund", "🐋"});
+    assertTrue(
+        Arrays.equals(
+            "Ålesund,🐋\n".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(scratch_file)));
+  }
+
+  public void testLongRows() throws IOException {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      builder.append(i % 2 == 0 ? 'x' : 'é');
+    }
+    final String field = builder.toString();
+    final String written = write(new String[] {field, "y"}, new String[] {"z", field});
+    assertEquals(field + ",y\nz," + field + "\n", written);
+  }
+
+  public void testRoundTrip() throws Exception {
+    final String[] header = {"\uFEFFImage", "Note", "Length"};
+    final String[] row = {"C:\\images\\Ålesund.jpg", "flukes, \"left\"\nside", " 12.5"};
+    write(header, row);
+    final ArrayList<HashMap<String, String>> loaded =
+        Utilities.loadCSVAsMap(scratch_file.toString());
+    assertEquals(1, loaded.size());
+    assertEquals(row[0], loaded.get(0).get("Image"));
+    assertEquals(row[1], loaded.get(0).get("Note"));
+    assertEquals(row[2], loaded.get(0).get("Length"));
+  }
+
+  public void testLoadsPlatformCharset() throws Exception {
+    final String sheet = "Image,Note\na.jpg,caf\u00e9\n";
+    Files.write(scratch_file, sheet.getBytes(StandardCharsets.ISO_8859_1));
+    final ArrayList<HashMap<String, String>> loaded =
+        Utilities.loadCSVAsMap(scratch_file.toString());
+    assertEquals(1, loaded.size());
+    assertEquals("a.jpg", loaded.get(0).get("Image"));
+    assertNotNull(loaded.get(0).get("Note"));
+  }
+}
@@ -22,8 +22,14 @@ import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.stream.IntStream;
 
 public class DataStoreTest extends TestCase {
   final String[] SAMPLE_SHORT_FILES = {
@@ -65,7 +71,7 @@ public class DataStoreTest extends TestCase {
 
   public void testFLOAT_UNITS() {
     TestCase.assertEquals(
-        "Failure - set cardinality for FLOAT_UNITS incorrect", 5, ds.FLOAT_UNITS.size());
+        "Failure - set cardinality for FLOAT_UNITS incorrect", 7, ds.FLOAT_UNITS.size());
   }
 
   public void testEDITABLE() {
@@ -322,6 +328,263 @@ public class DataStoreTest extends TestCase {
     scratch_file.deleteOnExit();
   }
 
+  public void testSave_as_csv_after_change() throws Exception {
+    File scratch_file = File.createTempFile("test_dump", "csv");
+    scratch_file.deleteOnExit();
+    this.load_test_data("/data/sample_full.csv");
+    final String changed = this.ds.getRowName(3);
+    TestCase.assertFalse(this.ds.row_dirty(changed));
+    this.ds.save_as_csv(scratch_file, true);
+
+    this.ds.insert_value(changed, "SNDF", 12.5);
+    TestCase.assertTrue(this.ds.row_dirty(changed));
+    TestCase.assertFalse(this.ds.row_dirty(this.ds.getRowName(4)));
+    this.ds.save_as_csv(scratch_file);
+    TestCase.assertFalse(this.ds.row_dirty(changed));
+
+    // A store that never saved before must write exactly the same file.
+    File expected_file = File.createTempFile("test_dump", "csv");
+    expected_file.deleteOnExit();
+    DataStore fresh =
+        DataStore.createDataStore(
+            new File(DataStoreTest.class.getResource("/data/sample_full.csv").getPath()));
+    fresh.insert_value(changed, "SNDF", 12.5);
+    fresh.save_as_csv(expected_file);
+    TestCase.assertEquals(
+        new String(Files.readAllBytes(expected_file.toPath()), StandardCharsets.UTF_8),
+        new String(Files.readAllBytes(scratch_file.toPath()), StandardCharsets.UTF_8));
+    TestCase.assertEquals(12.5, DataStore.createDataStore(scratch_file).get_value(changed, "SNDF"));
+  }
+
+  public void testGroup_index() {
+    this.load_test_data("/data/sample_full.csv");
+    TestCase.assertEquals(80, this.ds.group_rows("WhaleID", "J49").size());
+    TestCase.assertTrue(this.ds.get_index("TimePhoto").keys().contains("9/3/2018"));
+    int expected = 0;
+    for (final String row : this.ds.group_rows("WhaleID", "J49")) {
+      expected += null == this.ds.get_value(row, "FW") ? 0 : 1;
+    }
+    TestCase.assertEquals(expected, this.ds.summarize("WhaleID", "J49", "FW").count);
+
+    final String first = this.ds.getRowName(0);
+    final String second = this.ds.getRowName(1);
+    this.ds.insert_value(first, "WhaleID", "J16");
+    this.ds.insert_value(second, "WhaleID", "J16");
+    this.ds.insert_value(first, "FW", 10.);
+    this.ds.insert_value(second, "FW", 30.);
+    this.ds.insert_value(first, "SNDF", 2.);
+    TestCase.assertEquals(78, this.ds.group_rows("WhaleID", "J49").size());
+    ColumnSummary summary = this.ds.summarize("WhaleID", "J16", "FW");
+    TestCase.assertEquals(2, summary.count);
+    TestCase.assertEquals(20., summary.mean);
+    TestCase.assertEquals(20., summary.median);
+    TestCase.assertEquals(
+        Arrays.asList(first, second), this.ds.best_rows("WhaleID", "J16", "FW", "SNDF", 5));
+
+    this.ds.insert_value(second, "FW", null);
+    summary = this.ds.summarize("WhaleID", "J16", "FW");
+    TestCase.assertEquals(1, summary.count);
+    TestCase.assertEquals(10., summary.median);
+    this.ds.remove_row(first);
+    TestCase.assertEquals(Arrays.asList(second), this.ds.group_rows("WhaleID", "J16"));
+    TestCase.assertEquals(0, this.ds.summarize("WhaleID", "J16", "FW").count);
+  }
+
+  private static double[] column_values(NumericColumn column) {
+    return IntStream.range(0, column.size())
+        .filter(row -> column.present[row])
+        .mapToDouble(row -> column.values[row])
+        .filter(Double::isFinite)
+        .sorted()
+        .toArray();
+  }
+
+  private void assertMomentsMatch(String column) {
+    final double[] values = column_values(this.ds.get_numeric_column(column));
+    final RunningStatistics moments = this.ds.get_statistics().moments(column);
+    final double mean = Arrays.stream(values).average().orElse(Double.NaN);
+    final double variance =
+        Arrays.stream(values).map(v -> (v - mean) * (v - mean)).sum() / (values.length - 1);
+    TestCase.assertEquals(values.length, moments.count());
+    TestCase.assertEquals(mean, moments.mean(), 1e-9);
+    TestCase.assertEquals(variance, moments.variance(), 1e-9 * variance);
+    TestCase.assertEquals(values[0], this.ds.get_statistics().min(column));
+    TestCase.assertEquals(values[values.length - 1], this.ds.get_statistics().max(column));
+  }
+
+  public void testColumn_statistics() {
+    this.load_test_data("/data/sample_full.csv");
+    assertMomentsMatch("FW");
+    final double[] values = column_values(this.ds.get_numeric_column("FW"));
+    final double median = values[values.length / 2];
+    final double spread = values[values.length - 1] - values[0];
+    TestCase.assertEquals(median, this.ds.get_statistics().quantile("FW", 0.5), 0.02 * spread);
+
+    final String first = this.ds.getRowName(0);
+    final String second = this.ds.getRowName(1);
+    this.ds.insert_value(first, "FW", 1.);
+    this.ds.insert_value(second, "FW", null);
+    assertMomentsMatch("FW");
+
+    this.ds.insert_value(first, "FW", 1000.);
+    TestCase.assertTrue(this.ds.z_score(first, "FW") > this.ds.OUTLIER_Z_SCORE);
+    TestCase.assertTrue(this.ds.is_outlier(first, "FW"));
+    TestCase.assertTrue(this.ds.is_outlier(this.ds.find_row(first), this.ds.findColumn("FW")));
+    TestCase.assertEquals(1000., this.ds.get_statistics().max("FW"));
+    TestCase.assertFalse(this.ds.is_outlier(first, "WhaleID"));
+
+    // Per group: a value typical overall can still stand out within its whale.
+    this.ds.remove_row(first);
+    assertMomentsMatch("FW");
+    final String[] rows = {this.ds.getRowName(0), this.ds.getRowName(1), this.ds.getRowName(2),
+        this.ds.getRowName(3), this.ds.getRowName(4)};
+    for (int i = 0; i < rows.length; i++) {
+      this.ds.insert_value(rows[i], "WhaleID", "J99");
+      this.ds.insert_value(rows[i], "FW", median + 0.001 * i);
+    }
+    TestCase.assertEquals(5, this.ds.get_statistics().group_moments("J99", "FW").count());
+    TestCase.assertFalse(this.ds.is_outlier(rows[4], "FW"));
+    this.ds.insert_value(rows[4], "FW", median + 0.02 * spread);
+    TestCase.assertTrue(Math.abs(this.ds.z_score(rows[4], "FW")) < this.ds.OUTLIER_Z_SCORE);
+    TestCase.assertTrue(this.ds.group_z_score(rows[4], "FW") > 1.5);
+    for (int i = 5; i < 30; i++) {
+      this.ds.insert_value(this.ds.getRowName(i), "WhaleID", "J99");
+      this.ds.insert_value(this.ds.getRowName(i), "FW", median + 0.0001 * i);
+    }
+    TestCase.assertTrue(this.ds.is_outlier(rows[4], "FW"));
+    this.ds.insert_value(rows[4], "WhaleID", "J16");
+    TestCase.assertEquals(29, this.ds.get_statistics().group_moments("J99", "FW").count());
+    assertMomentsMatch("FW");
+  }
+
+  /** Infinities and NaN, as produced by a division by zero in a formula, aren't counted. */
+  public void testColumn_statistics_non_finite() {
+    this.load_test_data("/data/sample_full.csv");
+    final String first = this.ds.getRowName(0);
+    final String second = this.ds.getRowName(1);
+    this.ds.insert_value(first, "WhaleID", "J99");
+    this.ds.insert_value(second, "WhaleID", "J99");
+    this.ds.insert_value(first, "FW", Double.POSITIVE_INFINITY);
+    this.ds.insert_value(second, "FW", Double.NaN);
+    TestCase.assertEquals(0, this.ds.get_statistics().group_moments("J99", "FW").count());
+    assertMomentsMatch("FW");
+    TestCase.assertTrue(Double.isFinite(this.ds.get_statistics().quantile("FW", 0.5)));
+
+    this.ds.insert_value(first, "FW", 2.5);
+    this.ds.insert_value(second, "FW", Double.NEGATIVE_INFINITY);
+    TestCase.assertEquals(1, this.ds.get_statistics().group_moments("J99", "FW").count());
+    assertMomentsMatch("FW");
+    this.ds.remove_row(second);
+    assertMomentsMatch("FW");
+    this.ds.insert_value(second, "FW", Double.NaN);
+    this.ds.get_statistics().rebuild();
+    assertMomentsMatch("FW");
+  }
+
+  public void testSearch() {
+    this.load_test_data("/data/sample_full.csv");
+    final String first = this.ds.getRowName(0);
+    TestCase.assertEquals(Arrays.asList(first), this.ds.search("21-40-22", 10));
+    TestCase.assertEquals(Arrays.asList(first), this.ds.search("21-40-22.JPG", 10));
+    TestCase.assertEquals(10, this.ds.search("j4", 10).size());
+    TestCase.assertEquals(80, this.ds.search("J49", 1000).size());
+    TestCase.assertTrue(this.ds.search("no such image", 10).isEmpty());
+    final int angled = this.ds.search("angled down", 100).size();
+    TestCase.assertTrue(0 < angled);
+
+    // Prefix matches come first, then table order.
+    final String last = this.ds.getRowName(this.ds.getRowCount() - 1);
+    this.ds.insert_value(last, "MEAS COMMENTS", "21-40-22 is sharper");
+    this.ds.insert_value(first, "MEAS COMMENTS", "angled down");
+    TestCase.assertEquals(Arrays.asList(last, first), this.ds.search("21-40-22", 10));
+    TestCase.assertEquals(angled + 1, this.ds.search("angled down", 100).size());
+    TestCase.assertEquals(first, this.ds.search("angled down", 100).get(0));
+    this.ds.insert_value(first, "MEAS COMMENTS", null);
+    TestCase.assertEquals(angled, this.ds.search("angled down", 100).size());
+
+    this.ds.insert_value("new image.jpg", "WhaleID", "K21");
+    TestCase.assertEquals(Arrays.asList("new image.jpg"), this.ds.search("k21", 10));
+    this.ds.remove_row("new image.jpg");
+    TestCase.assertTrue(this.ds.search("k21", 10).isEmpty());
+    this.ds.remove_row(last);
+    TestCase.assertEquals(Arrays.asList(first), this.ds.search("21-40-22", 10));
+  }
+
+  public void testReview_index() {
+    this.load_test_data("/data/sample_full.csv");
+    final ReviewIndex reviews = this.ds.get_review_index();
+    int unreviewed = 0;
+    int missing = 0;
+    String first_unreviewed = null;
+    for (int row = 0; row < this.ds.getRowCount(); row++) {
+      final String name = this.ds.getRowName(row);
+      for (final String measurement : reviews.measurements()) {
+        if (null == this.ds.get_value(name, measurement)) {
+          missing++;
+        } else if (!Boolean.TRUE.equals(this.ds.get_value(name, measurement + "_reviewed"))) {
+          unreviewed++;
+          first_unreviewed = null == first_unreviewed ? name : first_unreviewed;
+        }
+      }
+    }
+    TestCase.assertTrue(0 < reviews.measurements().length);
+    TestCase.assertEquals(unreviewed, reviews.unreviewed_count());
+    TestCase.assertEquals(missing, reviews.missing_count());
+    TestCase.assertEquals(first_unreviewed, this.ds.next_unreviewed(null));
+
+    final String name = this.ds.getRowName(0);
+    final String measurement = reviews.measurements()[0];
+    final int before = reviews.unreviewed_count(measurement);
+    this.ds.insert_value(name, measurement, 3.);
+    this.ds.insert_value(name, measurement + "_reviewed", false);
+    TestCase.assertTrue(this.ds.unreviewed_measurements(name).contains(measurement));
+    final String last = this.ds.getRowName(this.ds.getRowCount() - 1);
+    TestCase.assertEquals(name, this.ds.next_unreviewed(last));
+    this.ds.insert_value(name, measurement + "_reviewed", true);
+    TestCase.assertFalse(this.ds.unreviewed_measurements(name).contains(measurement));
+    TestCase.assertTrue(before >= reviews.unreviewed_count(measurement));
+    final int reviewed = this.ds.review_count(0, ReviewIndex.Status.REVIEWED);
+    TestCase.assertTrue(reviewed >= 1);
+    TestCase.assertEquals(
+        reviews.measurements().length,
+        reviewed
+            + this.ds.review_count(0, ReviewIndex.Status.UNREVIEWED)
+            + this.ds.review_count(0, ReviewIndex.Status.MISSING));
+    this.ds.insert_value(name, measurement, null);
+    TestCase.assertEquals(reviewed - 1, this.ds.review_count(0, ReviewIndex.Status.REVIEWED));
+    TestCase.assertEquals(0, this.ds.get_review_index().missing_count("NOT A COLUMN"));
+    this.ds.remove_row(name);
+    TestCase.assertFalse(name.equals(this.ds.next_unreviewed(null)));
+  }
+
+  public void testAppend_rows() {
+    this.load_test_data("/data/sample_short.csv");
+    final int before = this.ds.getRowCount();
+    final HashMap<String, Object> existing = new HashMap<>();
+    existing.put("Filename", SAMPLE_SHORT_FILES[0]);
+    existing.put("Alt", 1.0);
+    final HashMap<String, Object> added = new HashMap<>();
+    added.put("Filename", "flight2/new.jpg");
+    added.put("Alt", 12.5);
+    added.put("CameraMake", "DJI");
+    TestCase.assertEquals(1, this.ds.append_rows(Arrays.asList(existing, added, added)));
+    TestCase.assertEquals(before + 1, this.ds.getRowCount());
+    TestCase.assertEquals(before, this.ds.find_row("flight2/new.jpg"));
+    TestCase.assertEquals(12.5, this.ds.get_value("flight2/new.jpg", "Alt"));
+    TestCase.assertEquals(34.1, this.ds.get_value(SAMPLE_SHORT_FILES[0], "Alt"));
+    TestCase.assertEquals(
+        Collections.singletonList("flight2/new.jpg"), this.ds.search("new.jpg", 10));
+
+    added.put("Filename", "bad.jpg");
+    added.put("Alt", "high");
+    try {
+      this.ds.append_rows(Collections.singletonList(added));
+      TestCase.fail();
+    } catch (ClassCastException e) {
+      TestCase.assertEquals(-1, this.ds.find_row("bad.jpg"));
+    }
+  }
+
 //  public void testLoadDataMalformed() {
 //    File test_file = new File(DataStoreTest.class.getResource("/data/not_a_csv.txt").getPath());
 //    try {
@@ -0,0 +1,141 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import junit.framework.TestCase;
+import org.allenai.allenmli.orca.calculator.MeasurementManager;
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DirectoryWatcherTest extends TestCase {
+  /** A JPEG stream without metadata. */
+  private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9};
+
+  public void test_new_images_are_reported_once_settled() throws Exception {
+    final Path root = Files.createTempDirectory("watched");
+    Files.write(root.resolve("before.jpg"), JPEG);
+    final LinkedBlockingQueue<List<HashMap<String, Object>>> batches =
+        new LinkedBlockingQueue<>();
+    final DirectoryWatcher watcher =
+        new DirectoryWatcher(root, Collections.singletonList("Filename"), 300, batches::add);
+    watcher.start();
+    try {
+      Files.write(root.resolve("notes.txt"), JPEG);
+      Files.write(root.resolve("first.jpg"), JPEG);
+      final Path flight = Files.createDirectory(root.resolve("flight2"));
+      Files.write(flight.resolve("second.JPG"), JPEG);
+
+      final ArrayList<String> names = new ArrayList<>();
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (names.size() < 2 && System.currentTimeMillis() < deadline) {
+        final List<HashMap<String, Object>> batch = batches.poll(100, TimeUnit.MILLISECONDS);
+        if (null != batch) {
+          batch.forEach(row -> names.add((String) row.get("Filename")));
+        }
+      }
+      Collections.sort(names);
+      TestCase.assertEquals(2, names.size());
+      TestCase.assertEquals("first.jpg", names.get(0));
+      TestCase.assertEquals("second.JPG", names.get(1));
+    } finally {
+      watcher.stop();
+    }
+    TestCase.assertFalse(watcher.running());
+  }
+
+  /** A batch the sink fails on doesn't stop the watcher. */
+  public void test_keeps_watching_after_a_failed_batch() throws Exception {
+    final Path root = Files.createTempDirectory("watched");
+    final LinkedBlockingQueue<List<HashMap<String, Object>>> batches =
+        new LinkedBlockingQueue<>();
+    final AtomicBoolean failed = new AtomicBoolean();
+    final DirectoryWatcher watcher =
+        new DirectoryWatcher(
+            root,
+            Collections.singletonList("Filename"),
+            300,
+            batch -> {
+              if (failed.compareAndSet(false, true)) {
+                throw new IllegalStateException("sink failed");
+              }
+              batches.add(batch);
+            });
+    watcher.start();
+    try {
+      Files.write(root.resolve("first.jpg"), JPEG);
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (!failed.get() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      TestCase.assertTrue(failed.get());
+      Files.write(root.resolve("second.jpg"), JPEG);
+      final List<HashMap<String, Object>> batch = batches.poll(10, TimeUnit.SECONDS);
+      TestCase.assertNotNull(batch);
+      TestCase.assertEquals("second.jpg", batch.get(0).get("Filename"));
+      TestCase.assertTrue(watcher.running());
+    } finally {
+      watcher.stop();
+    }
+  }
+
+  /** A batch of several arrivals is appended to a measured sheet, which stays dirty. */
+  public void test_batch_of_arrivals_leaves_sheet_dirty() throws Exception {
+    final Path original_config = ConfigurationLoader.getConfigDirectory();
+    ConfigurationLoader.setConfigDirectory(
+        Paths.get(DataStoreTest.class.getResource("/measurement-tool-config/").toURI())
+            .toString());
+    try {
+      final DataStore ds = DataStore.createDataStore();
+      new MeasurementManager(ds);
+      ds.insert_value("existing.jpg", "SN_x", 1.0);
+      ds.setDirty(false);
+
+      final Path root = Files.createTempDirectory("watched");
+      final LinkedBlockingQueue<List<HashMap<String, Object>>> batches =
+          new LinkedBlockingQueue<>();
+      final DirectoryWatcher watcher =
+          new DirectoryWatcher(root, new ArrayList<>(ds.descriptors.keySet()), 300, batches::add);
+      watcher.start();
+      final List<HashMap<String, Object>> batch;
+      try {
+        for (int i = 0; i < 3; i++) {
+          Files.write(root.resolve("arrival" + i + ".jpg"), JPEG);
+        }
+        batch = batches.poll(10, TimeUnit.SECONDS);
+      } finally {
+        watcher.stop();
+      }
+      TestCase.assertNotNull(batch);
+      TestCase.assertEquals(3, batch.size());
+      TestCase.assertEquals(3, ds.append_rows(batch));
+      TestCase.assertEquals(4, ds.getRowCount());
+      TestCase.assertTrue(ds.dirty());
+    } finally {
+      ConfigurationLoader.setConfigDirectory(original_config);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import junit.framework.TestCase;
+import org.allenai.allenmli.orca.helpers.Utilities;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class ImageIngestTest extends TestCase {
+  /** A JPEG stream without metadata. */
+  private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9};
+
+  /** Rows are named like the ImageJ title of the image, and names used twice are left out. */
+  public void test_rows_are_named_after_the_bare_file_name() throws Exception {
+    final Path root = Files.createTempDirectory("flights");
+    final Path first = Files.createDirectory(root.resolve("flight1"));
+    final Path second = Files.createDirectory(root.resolve("flight2"));
+    Files.write(first.resolve("DJI_0001.JPG"), JPEG);
+    Files.write(first.resolve("DJI_0002.JPG"), JPEG);
+    Files.write(second.resolve("DJI_0001.JPG"), JPEG);
+    Files.write(second.resolve("DJI_0003.JPG"), JPEG);
+
+    final List<Path> files = ImageIngest.find_images(root);
+    final HashSet<String> taken = new HashSet<>(Collections.singleton("DJI_0003.JPG"));
+    final List<Path> collisions = ImageIngest.remove_collisions(files, taken);
+    TestCase.assertEquals(2, collisions.size());
+    TestCase.assertEquals(second.resolve("DJI_0001.JPG"), collisions.get(0));
+    TestCase.assertEquals(second.resolve("DJI_0003.JPG"), collisions.get(1));
+    TestCase.assertEquals(2, files.size());
+
+    final List<HashMap<String, Object>> rows =
+        ImageIngest.read_rows(files, Collections.singletonList("Filename"), done -> {});
+    TestCase.assertEquals("DJI_0001.JPG", rows.get(0).get("Filename"));
+    TestCase.assertEquals("DJI_0002.JPG", rows.get(1).get("Filename"));
+
+    // The images are found again from the directory the sheet is saved in.
+    final File found = Utilities.findImage("DJI_0002.JPG", null, root.toFile());
+    TestCase.assertEquals(first.resolve("DJI_0002.JPG").toFile(), found);
+    TestCase.assertNull(Utilities.findImage("DJI_0009.JPG", root.toFile()));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+import junit.framework.TestCase;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class IndexedRowSorterTest extends TestCase {
+  DataStore ds = null;
+  Path originalConfigPath = null;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    this.originalConfigPath = ConfigurationLoader.getConfigDirectory();
+    String testingConfigPath =
+        Paths.get(DataStoreTest.class.getResource("/measurement-tool-config/").toURI()).toString();
+    ConfigurationLoader.setConfigDirectory(testingConfigPath);
+    this.ds = DataStore.createDataStore();
+    this.ds.loadData(
+        new File(DataStoreTest.class.getResource("/data/sample_full.csv").getPath()));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    super.tearDown();
+    ConfigurationLoader.setConfigDirectory(originalConfigPath);
+  }
+
+  private static void assertSorted(IndexedRowSorter sorter, SheetViewModel view, int column) {
+    Double previous = null;
+    boolean missing = false;
+    for (int i = 0; i < sorter.getViewRowCount(); i++) {
+      final Double value = (Double) view.getValueAt(sorter.convertRowIndexToModel(i), column);
+      if (null == value) {
+        missing = true;
+        continue;
+      }
+      TestCase.assertFalse("missing values sort last", missing);
+      TestCase.assertTrue(null == previous || previous <= value);
+      previous = value;
+    }
+  }
+
+  public void testSort_and_filter() {
+    final SheetViewModel view = new SheetViewModel(this.ds);
+    final IndexedRowSorter sorter = new IndexedRowSorter(view);
+    final int fw = this.ds.findColumn("FW");
+    sorter.toggleSortOrder(fw);
+    assertSorted(sorter, view, fw);
+
+    // A single update moves the row without a full sort.
+    final String first = this.ds.getRowName(0);
+    this.ds.insert_value(first, "FW", -1.);
+    sorter.rowsUpdated(0, 0, fw);
+    TestCase.assertEquals(0, sorter.convertRowIndexToView(0));
+    this.ds.insert_value(first, "FW", 1.0e6);
+    sorter.rowsUpdated(0, 0, fw);
+    assertSorted(sorter, view, fw);
+    final IndexedRowSorter fresh = new IndexedRowSorter(view);
+    fresh.setSortKeys(sorter.getSortKeys());
+    for (int i = 0; i < view.getRowCount(); i++) {
+      TestCase.assertEquals(fresh.convertRowIndexToModel(i), sorter.convertRowIndexToModel(i));
+    }
+
+    // Text columns sort by rank.
+    final int whale = this.ds.findColumn("WhaleID");
+    sorter.setSortKeys(Arrays.asList(new RowSorter.SortKey(whale, SortOrder.DESCENDING)));
+    for (int i = 1; i < sorter.getViewRowCount(); i++) {
+      final Object a = view.getValueAt(sorter.convertRowIndexToModel(i - 1), whale);
+      final Object b = view.getValueAt(sorter.convertRowIndexToModel(i), whale);
+      TestCase.assertTrue(null == b || ((String) a).compareTo((String) b) >= 0);
+    }
+
+    int expected = 0;
+    for (int row = 0; row < this.ds.getRowCount(); row++) {
+      final String name = this.ds.getRowName(row);
+      if ("J49".equals(this.ds.get_value(name, "WhaleID"))
+          && null == this.ds.get_value(name, "GIRTH")) {
+        expected++;
+      }
+    }
+    sorter.set_filters("WhaleID=J49; GIRTH=");
+    TestCase.assertEquals(expected, sorter.getViewRowCount());
+    final String visible = this.ds.getRowName(sorter.convertRowIndexToModel(0));
+    this.ds.insert_value(visible, "GIRTH", 5.);
+    final int row = this.ds.find_row(visible);
+    sorter.rowsUpdated(row, row, this.ds.findColumn("GIRTH"));
+    TestCase.assertEquals(expected - 1, sorter.getViewRowCount());
+    TestCase.assertEquals(-1, sorter.convertRowIndexToView(row));
+    sorter.set_filters("GIRTH>=5; GIRTH<=5");
+    TestCase.assertEquals(1, sorter.getViewRowCount());
+    try {
+      sorter.set_filters("NOT A COLUMN=1");
+      TestCase.fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    sorter.set_filters("");
+    TestCase.assertEquals(this.ds.getRowCount(), sorter.getViewRowCount());
+  }
+}
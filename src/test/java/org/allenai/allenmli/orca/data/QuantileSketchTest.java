@@ -0,0 +1,40 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class QuantileSketchTest extends TestCase {
+  public void testQuantiles() {
+    final QuantileSketch sketch = new QuantileSketch();
+    final Random random = new Random(42);
+    final double[] values = new double[20000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextGaussian();
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+    for (final double q : new double[] {0.01, 0.1, 0.5, 0.9, 0.99}) {
+      TestCase.assertEquals(values[(int) (q * values.length)], sketch.quantile(q), 0.02);
+    }
+    TestCase.assertEquals(values[0], sketch.min());
+    TestCase.assertEquals(values[values.length - 1], sketch.max());
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.data;
+
+import org.allenai.allenmli.orca.helpers.ConfigurationLoader;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.NumberFormat;
+
+public class SheetViewModelTest extends TestCase {
+  DataStore ds = null;
+  Path originalConfigPath = null;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    this.originalConfigPath = ConfigurationLoader.getConfigDirectory();
+    String testingConfigPath =
+        Paths.get(DataStoreTest.class.getResource("/measurement-tool-config/").toURI()).toString();
+    ConfigurationLoader.setConfigDirectory(testingConfigPath);
+    this.ds = DataStore.createDataStore();
+    this.ds.loadData(
+        new File(DataStoreTest.class.getResource("/data/sample_full.csv").getPath()));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    super.tearDown();
+    ConfigurationLoader.setConfigDirectory(originalConfigPath);
+  }
+
+  public void testFormatted_cache() {
+    final SheetViewModel view = new SheetViewModel(this.ds);
+    final int fw = this.ds.findColumn("FW");
+    final int filename = this.ds.findColumn("Filename");
+    final String first = this.ds.getRowName(0);
+    TestCase.assertEquals(80, view.getRowCount());
+    TestCase.assertEquals(first, view.formatted(0, filename));
+    TestCase.assertEquals(10, view.sample_rows(10).length);
+    TestCase.assertEquals(80, view.sample_rows(200).length);
+
+    view.set_viewport(new int[] {0, 1, 2});
+    this.ds.insert_value(first, "FW", 1234.5);
+    TestCase.assertEquals(NumberFormat.getInstance().format(1234.5), view.formatted(0, fw));
+    this.ds.insert_value(first, "FW", 2.25);
+    TestCase.assertEquals(NumberFormat.getInstance().format(2.25), view.formatted(0, fw));
+    this.ds.insert_value(first, "FW", null);
+    TestCase.assertEquals("", view.formatted(0, fw));
+
+    // Removing a row shifts the cached rows.
+    final String second = this.ds.getRowName(1);
+    this.ds.remove_row(first);
+    TestCase.assertEquals(second, view.formatted(0, filename));
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.helpers;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class ExifReaderTest extends TestCase {
+  private static final int IFD0 = 8;
+  private static final int EXIF_IFD = 200;
+  private static final int GPS_IFD = 400;
+
+  /** Minimal big endian TIFF structure with three IFDs at fixed offsets. */
+  private static final class Tiff {
+    final ByteBuffer buffer = ByteBuffer.allocate(2048);
+    /** Where the next value that doesn't fit in its entry is written. */
+    int data = 1024;
+
+    Tiff(int ifd0_entries, int exif_entries, int gps_entries) {
+      buffer.put(0, (byte) 'M').put(1, (byte) 'M').putShort(2, (short) 42).putInt(4, IFD0);
+      buffer.putShort(IFD0, (short) ifd0_entries);
+      buffer.putShort(EXIF_IFD, (short) exif_entries);
+      buffer.putShort(GPS_IFD, (short) gps_entries);
+    }
+
+    void entry(int ifd, int index, int tag, int type, int count, byte[] value) {
+      final int entry = ifd + 2 + 12 * index;
+      buffer.putShort(entry, (short) tag).putShort(entry + 2, (short) type);
+      buffer.putInt(entry + 4, count);
+      int offset = entry + 8;
+      if (value.length > 4) {
+        buffer.putInt(entry + 8, data);
+        offset = data;
+        data += value.length;
+      }
+      for (int i = 0; i < value.length; i++) {
+        buffer.put(offset + i, value[i]);
+      }
+    }
+
+    void ascii(int ifd, int index, int tag, String text) {
+      final byte[] bytes = (text + "\0").getBytes(StandardCharsets.ISO_8859_1);
+      entry(ifd, index, tag, 2, bytes.length, bytes);
+    }
+
+    void rationals(int ifd, int index, int tag, long... terms) {
+      final ByteBuffer value = ByteBuffer.allocate(4 * terms.length);
+      for (final long term : terms) {
+        value.putInt((int) term);
+      }
+      entry(ifd, index, tag, 5, terms.length / 2, value.array());
+    }
+
+    void pointer(int index, int tag, int ifd) {
+      entry(IFD0, index, tag, 4, 1, ByteBuffer.allocate(4).putInt(ifd).array());
+    }
+  }
+
+  private static void segment(ByteArrayOutputStream jpeg, int marker, byte[] header, byte[] body) {
+    final int length = 2 + header.length + body.length;
+    jpeg.write(0xFF);
+    jpeg.write(marker);
+    jpeg.write(length >> 8);
+    jpeg.write(length & 0xFF);
+    jpeg.write(header, 0, header.length);
+    jpeg.write(body, 0, body.length);
+  }
+
+  private static byte[] jpeg(Tiff tiff, String xmp) {
+    final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    jpeg.write(0xFF);
+    jpeg.write(0xD8);
+    segment(jpeg, 0xE0, "JFIF\0".getBytes(StandardCharsets.ISO_8859_1), new byte[9]);
+    if (null != tiff) {
+      segment(
+          jpeg, 0xE1, "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1), tiff.buffer.array());
+    }
+    if (null != xmp) {
+      segment(
+          jpeg,
+          0xE1,
+          "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.ISO_8859_1),
+          xmp.getBytes(StandardCharsets.UTF_8));
+    }
+    segment(jpeg, 0xDA, new byte[10], new byte[0]);
+    // Image data the reader must not need.
+    for (int i = 0; i < 1000; i++) {
+      jpeg.write(0xFF);
+    }
+    return jpeg.toByteArray();
+  }
+
+  private static Tiff drone_tiff() {
+    final Tiff tiff = new Tiff(4, 2, 5);
+    tiff.ascii(IFD0, 0, 0x010F, "DJI");
+    tiff.ascii(IFD0, 1, 0x0110, "FC6310");
+    tiff.pointer(2, 0x8769, EXIF_IFD);
+    tiff.pointer(3, 0x8825, GPS_IFD);
+    tiff.ascii(EXIF_IFD, 0, 0x9003, "2018:09:03 21:40:22");
+    tiff.rationals(EXIF_IFD, 1, 0x920A, 88, 10);
+    tiff.ascii(GPS_IFD, 0, 1, "N");
+    tiff.rationals(GPS_IFD, 1, 2, 48, 1, 37, 1, 930, 100);
+    tiff.ascii(GPS_IFD, 2, 3, "W");
+    tiff.rationals(GPS_IFD, 3, 4, 123, 1, 13, 1, 2312, 100);
+    tiff.rationals(GPS_IFD, 4, 6, 1205, 10);
+    return tiff;
+  }
+
+  public void test_exif() throws IOException {
+    final HashMap<String, Object> values =
+        ExifReader.read(new ByteArrayInputStream(jpeg(drone_tiff(), null)));
+    TestCase.assertEquals("2018-09-03 21:40:22", values.get("TimePhoto"));
+    TestCase.assertEquals("DJI", values.get("CameraMake"));
+    TestCase.assertEquals("FC6310", values.get("CameraModel"));
+    TestCase.assertEquals(0.0088, (Double) values.get("FocalLength"), 1e-9);
+    TestCase.assertEquals("48.6192500", values.get("Lat"));
+    TestCase.assertEquals("-123.2230889", values.get("Lon"));
+    TestCase.assertEquals(120.5, (Double) values.get("Alt"), 1e-9);
+  }
+
+  public void test_xmp_relative_altitude() throws IOException {
+    final String xmp =
+        "<x:xmpmeta><rdf:Description drone-dji:RelativeAltitude=\"+34.10\"/></x:xmpmeta>";
+    final HashMap<String, Object> values =
+        ExifReader.read(new ByteArrayInputStream(jpeg(drone_tiff(), xmp)));
+    TestCase.assertEquals(34.1, (Double) values.get("Alt"), 1e-9);
+    TestCase.assertEquals("DJI", values.get("CameraMake"));
+  }
+
+  private static Object comment(byte[] user_comment, String description) throws IOException {
+    final Tiff tiff = new Tiff(2, 1, 0);
+    tiff.ascii(IFD0, 0, 0x010E, description);
+    tiff.pointer(1, 0x8769, EXIF_IFD);
+    tiff.entry(EXIF_IFD, 0, 0x9286, 7, user_comment.length, user_comment);
+    return ExifReader.read(new ByteArrayInputStream(jpeg(tiff, null))).get("Comment");
+  }
+
+  public void test_user_comment() throws IOException {
+    TestCase.assertEquals(
+        "left flank visible",
+        comment("ASCII\0\0\0left flank visible\0".getBytes(StandardCharsets.ISO_8859_1), "x"));
+    final ByteArrayOutputStream unicode = new ByteArrayOutputStream();
+    unicode.write("UNICODE\0".getBytes(StandardCharsets.ISO_8859_1));
+    unicode.write("calf \u00e9".getBytes(StandardCharsets.UTF_16BE));
+    TestCase.assertEquals("calf \u00e9", comment(unicode.toByteArray(), "x"));
+    // An empty comment falls back to the image description.
+    TestCase.assertEquals(
+        "DCIM", comment("ASCII\0\0\0        ".getBytes(StandardCharsets.ISO_8859_1), "DCIM"));
+    TestCase.assertEquals("DCIM", comment(new byte[16], "DCIM"));
+    // A character code cut short is ignored rather than read past.
+    TestCase.assertEquals(
+        "DCIM", comment("ASCII\0".getBytes(StandardCharsets.ISO_8859_1), "DCIM"));
+    TestCase.assertEquals(
+        "DCIM", comment("JIS\0\0\0\0\0\u001b$B".getBytes(StandardCharsets.ISO_8859_1), "DCIM"));
+  }
+
+  public void test_thumbnail() throws IOException {
+    final int ifd1 = 600;
+    final int preview = 1500;
+    final byte[] bytes = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+    final Tiff tiff = new Tiff(1, 0, 0);
+    tiff.ascii(IFD0, 0, 0x010F, "DJI");
+    tiff.buffer.putInt(IFD0 + 2 + 12, ifd1).putShort(ifd1, (short) 2);
+    tiff.entry(ifd1, 0, 0x0201, 4, 1, ByteBuffer.allocate(4).putInt(preview).array());
+    tiff.entry(ifd1, 1, 0x0202, 4, 1, ByteBuffer.allocate(4).putInt(bytes.length).array());
+    for (int i = 0; i < bytes.length; i++) {
+      tiff.buffer.put(preview + i, bytes[i]);
+    }
+    TestCase.assertTrue(
+        Arrays.equals(bytes, ExifReader.thumbnail(new ByteArrayInputStream(jpeg(tiff, null)))));
+    TestCase.assertNull(ExifReader.thumbnail(new ByteArrayInputStream(jpeg(drone_tiff(), null))));
+  }
+
+  /** Malformed previews are ignored rather than read past the segment. */
+  public void test_thumbnail_malformed() throws IOException {
+    final int ifd1 = 600;
+    final Tiff corrupt = new Tiff(1, 0, 0);
+    corrupt.ascii(IFD0, 0, 0x010F, "DJI");
+    corrupt.buffer.putInt(IFD0 + 2 + 12, ifd1).putShort(ifd1, (short) 2);
+    corrupt.entry(ifd1, 0, 0x0201, 4, 1, ByteBuffer.allocate(4).putInt(1500).array());
+    corrupt.entry(
+        ifd1, 1, 0x0202, 4, 1, ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array());
+    TestCase.assertNull(ExifReader.thumbnail(new ByteArrayInputStream(jpeg(corrupt, null))));
+
+    // No IFD1, with preview tags where an IFD at offset 0 would have them.
+    final int ifd0 = 100;
+    final Tiff last = new Tiff(0, 0, 0);
+    last.buffer.putInt(4, ifd0).putShort(ifd0, (short) 1);
+    last.ascii(ifd0, 0, 0x010F, "DJI");
+    last.entry(0, 2, 0x0201, 4, 1, ByteBuffer.allocate(4).putInt(1500).array());
+    last.entry(0, 3, 0x0202, 4, 1, ByteBuffer.allocate(4).putInt(4).array());
+    TestCase.assertNull(ExifReader.thumbnail(new ByteArrayInputStream(jpeg(last, null))));
+  }
+
+  public void test_no_metadata() throws IOException {
+    TestCase.assertTrue(ExifReader.read(new ByteArrayInputStream(jpeg(null, null))).isEmpty());
+    try {
+      ExifReader.read(new ByteArrayInputStream("not a jpeg".getBytes(StandardCharsets.UTF_8)));
+      fail("Expected an IOException");
+    } catch (final IOException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.helpers;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class ThumbnailCacheTest extends TestCase {
+  private Path directory;
+  private Path pack;
+
+  @Override
+  protected void setUp() throws Exception {
+    directory = Files.createTempDirectory("thumbnails");
+    pack = directory.resolve("thumbnails.bin");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try (final Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  private File frame(String name, int width, int height, Color color) throws IOException {
+    final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = image.createGraphics();
+    graphics.setColor(color);
+    graphics.fillRect(0, 0, width, height);
+    graphics.dispose();
+    final File file = directory.resolve(name).toFile();
+    ImageIO.write(image, "jpg", file);
+    return file;
+  }
+
+  public void testCreate() throws IOException {
+    final BufferedImage thumbnail =
+        ThumbnailCache.create(frame("wide.jpg", 1000, 500, Color.BLUE));
+    TestCase.assertEquals(ThumbnailCache.SIZE, thumbnail.getWidth());
+    TestCase.assertEquals(ThumbnailCache.SIZE / 2, thumbnail.getHeight());
+    TestCase.assertTrue((thumbnail.getRGB(10, 10) & 0xFF) > 200);
+  }
+
+  public void testPersistsAndInvalidates() throws IOException {
+    final File first = frame("first.jpg", 300, 200, Color.RED);
+    final File second = frame("second.jpg", 200, 300, Color.GREEN);
+    try (final ThumbnailCache cache = new ThumbnailCache(pack)) {
+      TestCase.assertNull(cache.get(first));
+      TestCase.assertNotNull(cache.load(first));
+      TestCase.assertNotNull(cache.load(second));
+      TestCase.assertEquals(2, cache.size());
+    }
+    try (final ThumbnailCache cache = new ThumbnailCache(pack)) {
+      TestCase.assertEquals(2, cache.size());
+      final BufferedImage red = cache.get(first);
+      TestCase.assertEquals(ThumbnailCache.SIZE * 2 / 3, red.getHeight(), 1);
+      TestCase.assertTrue(((red.getRGB(5, 5) >> 16) & 0xFF) > 200);
+      TestCase.assertTrue(second.setLastModified(second.lastModified() - 10000));
+      TestCase.assertNull(cache.get(second));
+    }
+  }
+
+  public void testDropsPartialRecord() throws IOException {
+    final File first = frame("first.jpg", 300, 200, Color.RED);
+    final File second = frame("second.jpg", 300, 200, Color.GREEN);
+    try (final ThumbnailCache cache = new ThumbnailCache(pack)) {
+      cache.load(first);
+    }
+    final long complete = Files.size(pack);
+    try (final ThumbnailCache cache = new ThumbnailCache(pack)) {
+      cache.load(second);
+    }
+    try (final FileChannel channel = FileChannel.open(pack, StandardOpenOption.WRITE)) {
+      channel.truncate(complete + 20); // As if interrupted while writing the second thumbnail.
+    }
+    try (final ThumbnailCache cache = new ThumbnailCache(pack)) {
+      TestCase.assertEquals(1, cache.size());
+      TestCase.assertNotNull(cache.get(first));
+      TestCase.assertNull(cache.get(second));
+    }
+    TestCase.assertEquals(complete, Files.size(pack));
+  }
+
+  public void testCompactsReplacedEntries() throws IOException {
+    final File frame = frame("frame.jpg", 300, 200, Color.RED);
+    final BufferedImage thumbnail = ThumbnailCache.create(frame);
+    try (final ThumbnailCache cache = new ThumbnailCache(pack)) {
+      for (int i = 0; i < 10; i++) {
+        cache.put(frame, thumbnail);
+      }
+    }
+    final long replaced = Files.size(pack);
+    try (final ThumbnailCache cache = new ThumbnailCache(pack)) {
+      TestCase.assertNotNull(cache.get(frame));
+    }
+    TestCase.assertTrue(Files.size(pack) < replaced / 5);
+  }
+
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    final File first = frame("first.jpg", 300, 200, Color.RED);
+    final File second = frame("second.jpg", 300, 200, Color.GREEN);
+    final File third = frame("third.jpg", 300, 200, Color.BLUE);
+    try (final ThumbnailCache cache = new ThumbnailCache(pack, 2)) {
+      cache.load(first);
+      cache.load(second);
+      cache.load(third);
+      TestCase.assertNotNull(cache.get(first));
+      TestCase.assertEquals(3, cache.size());
+    }
+    try (final ThumbnailCache cache = new ThumbnailCache(pack, 2)) {
+      TestCase.assertEquals(2, cache.size());
+      TestCase.assertNull(cache.get(second));
+      TestCase.assertNotNull(cache.get(third));
+      TestCase.assertNotNull(cache.get(first));
+    }
+    // The order of use survives the rewrite.
+    try (final ThumbnailCache cache = new ThumbnailCache(pack, 1)) {
+      TestCase.assertEquals(1, cache.size());
+      TestCase.assertNotNull(cache.get(first));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ *  Copyright (c) 2021 The Allen Institute for Artificial Intelligence.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.allenai.allenmli.orca.helpers;
+
+import junit.framework.TestCase;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class TilePyramidTest extends TestCase {
+  private static final int WIDTH = 1000;
+  private static final int HEIGHT = 700;
+
+  private Path directory;
+  private ExecutorService pool;
+  private final AtomicInteger reads = new AtomicInteger();
+
+  @Override
+  protected void setUp() throws Exception {
+    directory = Files.createTempDirectory("tiles");
+    pool = Executors.newFixedThreadPool(2);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    pool.shutdownNow();
+    try (final Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /** Reads a frame filled with a horizontal gradient. */
+  private BufferedImage read(Rectangle region) {
+    reads.incrementAndGet();
+    final BufferedImage image =
+        new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < region.width; x++) {
+      final int v = (region.x + x) * 255 / WIDTH;
+      for (int y = 0; y < region.height; y++) {
+        image.setRGB(x, y, (v << 16) | (v << 8) | v);
+      }
+    }
+    return image;
+  }
+
+  private TilePyramid build() throws IOException, InterruptedException {
+    final TilePyramid pyramid =
+        new TilePyramid(
+            directory.resolve("frame"), WIDTH, HEIGHT, TilePyramid.DEFAULT_MEMORY_TILES);
+    pyramid.build(this::read, pool, (level, tx, ty) -> {});
+    return pyramid;
+  }
+
+  public void testBuild() throws IOException, InterruptedException {
+    final TilePyramid pyramid = build();
+    TestCase.assertEquals(3, pyramid.levels());
+    TestCase.assertTrue(pyramid.complete());
+    TestCase.assertEquals(12, reads.get());
+    TestCase.assertEquals(4, pyramid.tilesX(0));
+    TestCase.assertEquals(3, pyramid.tilesY(0));
+    final BufferedImage corner = pyramid.tile(0, 3, 2);
+    TestCase.assertEquals(WIDTH - 3 * TilePyramid.TILE, corner.getWidth());
+    TestCase.assertEquals(HEIGHT - 2 * TilePyramid.TILE, corner.getHeight());
+    final BufferedImage top = pyramid.tile(2, 0, 0);
+    TestCase.assertEquals(250, top.getWidth());
+    TestCase.assertEquals(175, top.getHeight());
+    TestCase.assertNull(pyramid.tile(2, 1, 0));
+    // The gradient survives shrinking and JPEG compression.
+    final int left = top.getRGB(5, 80) & 0xFF;
+    final int right = top.getRGB(245, 80) & 0xFF;
+    TestCase.assertTrue(left < 15);
+    TestCase.assertTrue(right > 240);
+  }
+
+  public void testRebuildReusesStoredTiles() throws IOException, InterruptedException {
+    build();
+    reads.set(0);
+    TestCase.assertTrue(build().complete());
+    TestCase.assertEquals(0, reads.get());
+
+    // An interrupted build only reads the tiles that are missing.
+    Files.delete(directory.resolve("frame").resolve("complete"));
+    Files.delete(directory.resolve("frame").resolve("0_1_1.jpg"));
+    TestCase.assertTrue(build().complete());
+    TestCase.assertEquals(1, reads.get());
+  }
+
+  public void testHalf() {
+    final BufferedImage tl = solid(4, 4, 0x000000);
+    final BufferedImage tr = solid(3, 4, 0xFFFFFF);
+    final BufferedImage bl = solid(4, 2, 0x0000FF);
+    final BufferedImage br = solid(3, 2, 0x808080);
+    final BufferedImage half = TilePyramid.half(tl, tr, bl, br);
+    TestCase.assertEquals(4, half.getWidth());
+    TestCase.assertEquals(3, half.getHeight());
+    TestCase.assertEquals(0x000000, half.getRGB(0, 0) & 0xFFFFFF);
+    TestCase.assertEquals(0xFFFFFF, half.getRGB(2, 0) & 0xFFFFFF);
+    // The odd column at the right edge is averaged with itself.
+    TestCase.assertEquals(0xFFFFFF, half.getRGB(3, 0) & 0xFFFFFF);
+    TestCase.assertEquals(0x0000FF, half.getRGB(0, 2) & 0xFFFFFF);
+    TestCase.assertEquals(0x808080, half.getRGB(3, 2) & 0xFFFFFF);
+    TestCase.assertEquals(2, TilePyramid.half(tl, null, null, null).getWidth());
+  }
+
+  private static BufferedImage solid(int width, int height, int rgb) {
+    final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = image.createGraphics();
+    graphics.setColor(new Color(rgb));
+    graphics.fillRect(0, 0, width, height);
+    graphics.dispose();
+    return image;
+  }
+}